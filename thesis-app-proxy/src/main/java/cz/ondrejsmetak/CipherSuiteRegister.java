@@ -4,7 +4,10 @@ import cz.ondrejsmetak.entity.CipherSuite;
 import cz.ondrejsmetak.entity.Hex;
 import cz.ondrejsmetak.entity.Mode;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Holds all cipher suites used in application
@@ -21,7 +24,36 @@ public class CipherSuiteRegister {
 	/**
 	 * Register of all cipher suites
 	 */
-	private final HashMap<Hex, CipherSuite> register = new HashMap<>();
+	private final Map<Hex, CipherSuite> register = new ConcurrentHashMap<>();
+
+	/**
+	 * Cipher suites of register indexed by their code, so cipher suites parsed
+	 * from Client Hello are found without any allocation
+	 */
+	private final AtomicReferenceArray<CipherSuite> registerByCode = new AtomicReferenceArray<>(MAX_CODE + 1);
+
+	/**
+	 * Cipher kinds of SSLv2 compatible Client Hello, that have no code of
+	 * cipher suite, indexed by their code. There are only a few of them.
+	 */
+	private final Map<Integer, CipherSuite> registerByKind = new ConcurrentHashMap<>();
+
+	/**
+	 * Maximal code of cipher suite, codes have two bytes
+	 */
+	private static final int MAX_CODE = 0xFFFF;
+
+	/**
+	 * Maximal code of cipher kind of SSLv2 compatible Client Hello, codes
+	 * have three bytes
+	 */
+	private static final int MAX_KIND = 0xFFFFFF;
+
+	/**
+	 * Version of policy, changed whenever cipher suite is configured, so
+	 * results of analysis cached with older policy are not used
+	 */
+	private final AtomicLong policyVersion = new AtomicLong(0);
 
 	/**
 	 * Hexadecimal value of cipher suite TLS_FALLBACK_SCSV
@@ -56,6 +88,22 @@ public class CipherSuiteRegister {
 	 */
 	public void addCipherSuite(CipherSuite cipherSuite) {
 		register.put(cipherSuite.getHex(), cipherSuite);
+		if (cipherSuite.getCode() != CipherSuite.NO_CODE && cipherSuite.getCode() <= MAX_CODE) {
+			registerByCode.set(cipherSuite.getCode(), cipherSuite);
+		} else if (cipherSuite.getCode() > MAX_CODE) {
+			registerByKind.put(cipherSuite.getCode(), cipherSuite);
+		}
+		policyVersion.incrementAndGet();
+	}
+
+	/**
+	 * Returns version of policy, that changes with every configured cipher
+	 * suite
+	 *
+	 * @return version of policy
+	 */
+	public long getPolicyVersion() {
+		return policyVersion.get();
 	}
 
 	/**
@@ -80,7 +128,7 @@ public class CipherSuiteRegister {
 
 		//update cipher suite
 		cipherSuite.setMode(mode);
-		register.put(cipherSuite.getHex(), cipherSuite);
+		addCipherSuite(cipherSuite);
 	}
 
 	/**
@@ -110,8 +158,8 @@ public class CipherSuiteRegister {
 	 * @return found cipher suite or a newly created cipher suite
 	 */
 	public CipherSuite getByHexOrCreateDefault(Hex hex) {
-		if (hex.getDigits() != 4) {
-			throw new IllegalArgumentException("Hexadecimal key must have exactly 4 digits!");
+		if (hex.getDigits() != 4 && hex.getDigits() != 6) {
+			throw new IllegalArgumentException("Hexadecimal key must have exactly 4 digits, or 6 digits for SSLv2 cipher kind!");
 		}
 
 		CipherSuite found = register.get(hex);
@@ -122,10 +170,33 @@ public class CipherSuiteRegister {
 
 		//no such cipher suite found, so create it
 		CipherSuite unknown = new CipherSuite(hex, "Unknown", new Mode(Mode.Type.MUST_NOT_BE));
-		addCipherSuite(unknown);
+		addCipherSuite(unknown); //unknown cipher suite is reported as well, so policy changes
 		return unknown;
 	}
 
+	/**
+	 * Returns cipher suite with the given code contained in this register. If
+	 * such cipher suite is not found, that cipher suite is created (with
+	 * default "unknown" name).
+	 *
+	 * @param code code of the target cipher suite, as sent in Client Hello, or
+	 * code of cipher kind, as sent in SSLv2 compatible Client Hello
+	 * @return found cipher suite or a newly created cipher suite
+	 */
+	public CipherSuite getByCodeOrCreateDefault(int code) {
+		if (code < 0 || code > MAX_KIND) {
+			throw new IllegalArgumentException("Code of cipher suite must have 2 bytes, or 3 bytes for SSLv2 cipher kind!");
+		}
+
+		CipherSuite found = code <= MAX_CODE ? registerByCode.get(code) : registerByKind.get(code);
+
+		if (found instanceof CipherSuite) {
+			return found; //cipher suite found
+		}
+
+		return getByHexOrCreateDefault(new Hex(String.format(code <= MAX_CODE ? "%04X" : "%06X", code)));
+	}
+
 	public CipherSuite getByName(String cipherSuiteName) {
 		for (CipherSuite cipherSuite : getCipherSuites()) {
 			if (cipherSuite.getName().equals(cipherSuiteName)) {
@@ -1,7 +1,9 @@
 package cz.ondrejsmetak;
 
+import cz.ondrejsmetak.entity.CannedResponse;
 import cz.ondrejsmetak.entity.Mode;
 import cz.ondrejsmetak.entity.Protocol;
+import cz.ondrejsmetak.entity.Upstream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -30,6 +32,80 @@ public class ConfigurationRegister {
 	public static final String LOCAL_PORT = "localPort";
 	public static final String REMOTE_HOST = "remoteHost";
 	public static final String REMOTE_PORT = "remotePort";
+	public static final String ENGINE = "engine";
+	public static final String EVENT_LOOPS = "eventLoops";
+	public static final String ACCEPTORS = "acceptors";
+	public static final String LISTEN_BACKLOG = "listenBacklog";
+	public static final String TCP_NO_DELAY = "tcpNoDelay";
+	public static final String HANDLER_THREADS = "handlerThreads";
+	public static final String HANDLER_QUEUE_SIZE = "handlerQueueSize";
+	public static final String HANDSHAKE_THREADS = "handshakeThreads";
+	public static final String MAX_HANDSHAKES_PER_SOURCE = "maxHandshakesPerSource";
+	public static final String SCAN_CACHE_SIZE = "scanCacheSize";
+	public static final String THREAD_MODE = "threadMode";
+	public static final String BUFFER_POOL_MEGABYTES = "bufferPoolMegabytes";
+	public static final String UPSTREAM_POOL_SIZE = "upstreamPoolSize";
+	public static final String UPSTREAM_POOL_IDLE_SECONDS = "upstreamPoolIdleSeconds";
+	public static final String UPSTREAM_SESSION_CACHE_SIZE = "upstreamSessionCacheSize";
+	public static final String UPSTREAM_SESSION_TIMEOUT_SECONDS = "upstreamSessionTimeoutSeconds";
+	public static final String BALANCING = "balancing";
+	public static final String UPSTREAM_MODE = "upstreamMode";
+	public static final String RESPONDER_DIRECTORY = "responderDirectory";
+	public static final String RESPONDER_KEYSTORE = "responderKeystore";
+	public static final String RESPONDER_PASSWORD = "responderPassword";
+	public static final String UPSTREAM_CONNECT_TIMEOUT_MILLIS = "upstreamConnectTimeoutMillis";
+	public static final String UPSTREAM_HANDSHAKE_TIMEOUT_MILLIS = "upstreamHandshakeTimeoutMillis";
+	public static final String UPSTREAM_RACE_DELAY_MILLIS = "upstreamRaceDelayMillis";
+	public static final String TEST_MODE = "testMode";
+	public static final String TEST_PORT_FROM = "testPortFrom";
+	public static final String TEST_PORT_TO = "testPortTo";
+	public static final String CERTIFICATE_SCHEDULE = "certificateSchedule";
+	public static final String CLIENT_HANDSHAKE_TIMEOUT_MILLIS = "clientHandshakeTimeoutMillis";
+	public static final String FORWARD_BUFFER_BYTES = "forwardBufferBytes";
+	public static final String WRITE_COALESCE_BYTES = "writeCoalesceBytes";
+	public static final String WRITE_COALESCE_MILLIS = "writeCoalesceMillis";
+	public static final String IDLE_TIMEOUT_SECONDS = "idleTimeoutSeconds";
+	public static final String CONNECTION_LIFETIME_SECONDS = "connectionLifetimeSeconds";
+
+	/**
+	 * Supported values of directive "engine"
+	 */
+	public static final String ENGINE_BLOCKING = "blocking";
+	public static final String ENGINE_NIO = "nio";
+	public static final String ENGINE_MEMORY = "memory";
+
+	/**
+	 * Supported values of directive "threadMode"
+	 */
+	public static final String THREAD_MODE_PLATFORM = "platform";
+	public static final String THREAD_MODE_VIRTUAL = "virtual";
+
+	/**
+	 * Supported values of directive "balancing"
+	 */
+	public static final String BALANCING_ROUND_ROBIN = "roundRobin";
+	public static final String BALANCING_LEAST_CONNECTIONS = "leastConnections";
+	public static final String BALANCING_LATENCY = "latency";
+
+	/**
+	 * Supported values of directive "upstreamMode"
+	 */
+	public static final String UPSTREAM_MODE_REMOTE = "remote";
+	public static final String UPSTREAM_MODE_LOCAL = "local";
+
+	/**
+	 * Supported values of directive "testMode"
+	 */
+	public static final String TEST_MODE_SEQUENTIAL = "sequential";
+	public static final String TEST_MODE_CONCURRENT = "concurrent";
+
+	/**
+	 * Supported values of directive "certificateSchedule"
+	 */
+	public static final String CERTIFICATE_SCHEDULE_RELOAD = "reload";
+	public static final String CERTIFICATE_SCHEDULE_SEQUENCE = "sequence";
+	public static final String CERTIFICATE_SCHEDULE_SOURCE = "source";
+	public static final String CERTIFICATE_SCHEDULE_SNI = "sni";
 
 	/**
 	 * Other values
@@ -44,6 +120,17 @@ public class ConfigurationRegister {
 
 	private Mode tlsFallbackScsv = null;
 
+	/**
+	 * Remote servers given by tag "upstreams". If empty, directives
+	 * "remoteHost" and "remotePort" are used.
+	 */
+	private final List<Upstream> upstreams = new ArrayList<>();
+
+	/**
+	 * Responses served by local responder, given by tag "responses"
+	 */
+	private final List<CannedResponse> responses = new ArrayList<>();
+
 	protected ConfigurationRegister() {
 		//no direct instantiation
 	}
@@ -57,6 +144,40 @@ public class ConfigurationRegister {
 		if (instance == null) {
 			instance = new ConfigurationRegister();
 			instance.setDirective(DEBUG, true); //by default, debug is enabled
+			instance.setDirective(ENGINE, ENGINE_BLOCKING); //by default, thread per connection is used
+			instance.setDirective(EVENT_LOOPS, Runtime.getRuntime().availableProcessors());
+			instance.setDirective(ACCEPTORS, 1); //by default, single listening socket is used
+			instance.setDirective(LISTEN_BACKLOG, 0); //by default, backlog is limited by system only
+			instance.setDirective(TCP_NO_DELAY, true);
+			instance.setDirective(HANDLER_THREADS, 64);
+			instance.setDirective(HANDLER_QUEUE_SIZE, 256);
+			instance.setDirective(HANDSHAKE_THREADS, 16);
+			instance.setDirective(MAX_HANDSHAKES_PER_SOURCE, 64);
+			instance.setDirective(SCAN_CACHE_SIZE, 1024);
+			instance.setDirective(THREAD_MODE, THREAD_MODE_PLATFORM);
+			instance.setDirective(BUFFER_POOL_MEGABYTES, 256);
+			instance.setDirective(UPSTREAM_POOL_SIZE, 4);
+			instance.setDirective(UPSTREAM_POOL_IDLE_SECONDS, 30);
+			instance.setDirective(UPSTREAM_SESSION_CACHE_SIZE, 1024);
+			instance.setDirective(UPSTREAM_SESSION_TIMEOUT_SECONDS, 3600);
+			instance.setDirective(BALANCING, BALANCING_ROUND_ROBIN);
+			instance.setDirective(UPSTREAM_MODE, UPSTREAM_MODE_REMOTE);
+			instance.setDirective(RESPONDER_DIRECTORY, ""); //empty means canned responses only
+			instance.setDirective(RESPONDER_KEYSTORE, ""); //empty means the first configured certificate
+			instance.setDirective(RESPONDER_PASSWORD, "");
+			instance.setDirective(UPSTREAM_CONNECT_TIMEOUT_MILLIS, 3000);
+			instance.setDirective(UPSTREAM_HANDSHAKE_TIMEOUT_MILLIS, 5000);
+			instance.setDirective(UPSTREAM_RACE_DELAY_MILLIS, 250);
+			instance.setDirective(TEST_MODE, TEST_MODE_SEQUENTIAL);
+			instance.setDirective(TEST_PORT_FROM, 0); //zero means the port following local port
+			instance.setDirective(TEST_PORT_TO, 0); //zero means as many ports as there are tests
+			instance.setDirective(CERTIFICATE_SCHEDULE, CERTIFICATE_SCHEDULE_RELOAD); //by default, each certificate has its own test window
+			instance.setDirective(CLIENT_HANDSHAKE_TIMEOUT_MILLIS, 10000);
+			instance.setDirective(FORWARD_BUFFER_BYTES, 16 * 1024);
+			instance.setDirective(WRITE_COALESCE_BYTES, 4 * 1024);
+			instance.setDirective(WRITE_COALESCE_MILLIS, 0); //zero means only bytes already received are coalesced
+			instance.setDirective(IDLE_TIMEOUT_SECONDS, 300);
+			instance.setDirective(CONNECTION_LIFETIME_SECONDS, 0); //zero means unlimited lifetime
 		}
 		return instance;
 	}
@@ -138,7 +259,12 @@ public class ConfigurationRegister {
 	 * @return collection with the names of all the supported directives
 	 */
 	private List<String> getDirectives() {
-		String[] directives = {DEBUG, LOCAL_PORT, REMOTE_HOST, REMOTE_PORT};
+		String[] directives = {DEBUG, LOCAL_PORT, REMOTE_HOST, REMOTE_PORT, ENGINE, EVENT_LOOPS, ACCEPTORS, LISTEN_BACKLOG, TCP_NO_DELAY, HANDLER_THREADS, HANDLER_QUEUE_SIZE, HANDSHAKE_THREADS, MAX_HANDSHAKES_PER_SOURCE, SCAN_CACHE_SIZE, THREAD_MODE, BUFFER_POOL_MEGABYTES, UPSTREAM_POOL_SIZE, UPSTREAM_POOL_IDLE_SECONDS,
+			UPSTREAM_SESSION_CACHE_SIZE, UPSTREAM_SESSION_TIMEOUT_SECONDS, BALANCING,
+			UPSTREAM_MODE, RESPONDER_DIRECTORY, RESPONDER_KEYSTORE, RESPONDER_PASSWORD,
+			UPSTREAM_CONNECT_TIMEOUT_MILLIS, UPSTREAM_HANDSHAKE_TIMEOUT_MILLIS, UPSTREAM_RACE_DELAY_MILLIS,
+			TEST_MODE, TEST_PORT_FROM, TEST_PORT_TO, CERTIFICATE_SCHEDULE, CLIENT_HANDSHAKE_TIMEOUT_MILLIS,
+			FORWARD_BUFFER_BYTES, WRITE_COALESCE_BYTES, WRITE_COALESCE_MILLIS, IDLE_TIMEOUT_SECONDS, CONNECTION_LIFETIME_SECONDS};
 		return new ArrayList<>(Arrays.asList(directives));
 	}
 
@@ -184,6 +310,349 @@ public class ConfigurationRegister {
 		return (Boolean) getDirective(DEBUG);
 	}
 
+	public void setEngine(String value) {
+		setDirective(ENGINE, value);
+	}
+
+	public String getEngine() {
+		return (String) getDirective(ENGINE);
+	}
+
+	public boolean isEngineNio() {
+		return ENGINE_NIO.equals(getEngine());
+	}
+
+	public boolean isEngineMemory() {
+		return ENGINE_MEMORY.equals(getEngine());
+	}
+
+	public void setEventLoops(Integer value) {
+		setDirective(EVENT_LOOPS, value);
+	}
+
+	public Integer getEventLoops() {
+		return (Integer) getDirective(EVENT_LOOPS);
+	}
+
+	public void setAcceptors(Integer value) {
+		setDirective(ACCEPTORS, value);
+	}
+
+	public Integer getAcceptors() {
+		return (Integer) getDirective(ACCEPTORS);
+	}
+
+	public void setListenBacklog(Integer value) {
+		setDirective(LISTEN_BACKLOG, value);
+	}
+
+	public Integer getListenBacklog() {
+		return (Integer) getDirective(LISTEN_BACKLOG);
+	}
+
+	public void setTcpNoDelay(Boolean value) {
+		setDirective(TCP_NO_DELAY, value);
+	}
+
+	public boolean isTcpNoDelay() {
+		return (Boolean) getDirective(TCP_NO_DELAY);
+	}
+
+	public void setHandlerThreads(Integer value) {
+		setDirective(HANDLER_THREADS, value);
+	}
+
+	public Integer getHandlerThreads() {
+		return (Integer) getDirective(HANDLER_THREADS);
+	}
+
+	public void setHandlerQueueSize(Integer value) {
+		setDirective(HANDLER_QUEUE_SIZE, value);
+	}
+
+	public Integer getHandlerQueueSize() {
+		return (Integer) getDirective(HANDLER_QUEUE_SIZE);
+	}
+
+	public void setHandshakeThreads(Integer value) {
+		setDirective(HANDSHAKE_THREADS, value);
+	}
+
+	public Integer getHandshakeThreads() {
+		return (Integer) getDirective(HANDSHAKE_THREADS);
+	}
+
+	public void setMaxHandshakesPerSource(Integer value) {
+		setDirective(MAX_HANDSHAKES_PER_SOURCE, value);
+	}
+
+	public Integer getMaxHandshakesPerSource() {
+		return (Integer) getDirective(MAX_HANDSHAKES_PER_SOURCE);
+	}
+
+	public void setScanCacheSize(Integer value) {
+		setDirective(SCAN_CACHE_SIZE, value);
+	}
+
+	public Integer getScanCacheSize() {
+		return (Integer) getDirective(SCAN_CACHE_SIZE);
+	}
+
+	public void setThreadMode(String value) {
+		setDirective(THREAD_MODE, value);
+	}
+
+	public String getThreadMode() {
+		return (String) getDirective(THREAD_MODE);
+	}
+
+	public boolean isThreadModeVirtual() {
+		return THREAD_MODE_VIRTUAL.equals(getThreadMode());
+	}
+
+	public void setBufferPoolMegabytes(Integer value) {
+		setDirective(BUFFER_POOL_MEGABYTES, value);
+	}
+
+	public Integer getBufferPoolMegabytes() {
+		return (Integer) getDirective(BUFFER_POOL_MEGABYTES);
+	}
+
+	public void setUpstreamPoolSize(Integer value) {
+		setDirective(UPSTREAM_POOL_SIZE, value);
+	}
+
+	public Integer getUpstreamPoolSize() {
+		return (Integer) getDirective(UPSTREAM_POOL_SIZE);
+	}
+
+	public void setUpstreamPoolIdleSeconds(Integer value) {
+		setDirective(UPSTREAM_POOL_IDLE_SECONDS, value);
+	}
+
+	public Integer getUpstreamPoolIdleSeconds() {
+		return (Integer) getDirective(UPSTREAM_POOL_IDLE_SECONDS);
+	}
+
+	public void setUpstreamSessionCacheSize(Integer value) {
+		setDirective(UPSTREAM_SESSION_CACHE_SIZE, value);
+	}
+
+	public Integer getUpstreamSessionCacheSize() {
+		return (Integer) getDirective(UPSTREAM_SESSION_CACHE_SIZE);
+	}
+
+	public void setUpstreamSessionTimeoutSeconds(Integer value) {
+		setDirective(UPSTREAM_SESSION_TIMEOUT_SECONDS, value);
+	}
+
+	public Integer getUpstreamSessionTimeoutSeconds() {
+		return (Integer) getDirective(UPSTREAM_SESSION_TIMEOUT_SECONDS);
+	}
+
+	public void setBalancing(String value) {
+		setDirective(BALANCING, value);
+	}
+
+	public String getBalancing() {
+		return (String) getDirective(BALANCING);
+	}
+
+	public void setUpstreamMode(String value) {
+		setDirective(UPSTREAM_MODE, value);
+	}
+
+	public String getUpstreamMode() {
+		return (String) getDirective(UPSTREAM_MODE);
+	}
+
+	public boolean isUpstreamModeLocal() {
+		return UPSTREAM_MODE_LOCAL.equals(getUpstreamMode());
+	}
+
+	public void setResponderDirectory(String value) {
+		setDirective(RESPONDER_DIRECTORY, value);
+	}
+
+	public String getResponderDirectory() {
+		return (String) getDirective(RESPONDER_DIRECTORY);
+	}
+
+	public void setResponderKeystore(String value) {
+		setDirective(RESPONDER_KEYSTORE, value);
+	}
+
+	public String getResponderKeystore() {
+		return (String) getDirective(RESPONDER_KEYSTORE);
+	}
+
+	public void setResponderPassword(String value) {
+		setDirective(RESPONDER_PASSWORD, value);
+	}
+
+	public String getResponderPassword() {
+		return (String) getDirective(RESPONDER_PASSWORD);
+	}
+
+	public void setUpstreamConnectTimeoutMillis(Integer value) {
+		setDirective(UPSTREAM_CONNECT_TIMEOUT_MILLIS, value);
+	}
+
+	public Integer getUpstreamConnectTimeoutMillis() {
+		return (Integer) getDirective(UPSTREAM_CONNECT_TIMEOUT_MILLIS);
+	}
+
+	public void setUpstreamHandshakeTimeoutMillis(Integer value) {
+		setDirective(UPSTREAM_HANDSHAKE_TIMEOUT_MILLIS, value);
+	}
+
+	public Integer getUpstreamHandshakeTimeoutMillis() {
+		return (Integer) getDirective(UPSTREAM_HANDSHAKE_TIMEOUT_MILLIS);
+	}
+
+	public void setClientHandshakeTimeoutMillis(Integer value) {
+		setDirective(CLIENT_HANDSHAKE_TIMEOUT_MILLIS, value);
+	}
+
+	public Integer getClientHandshakeTimeoutMillis() {
+		return (Integer) getDirective(CLIENT_HANDSHAKE_TIMEOUT_MILLIS);
+	}
+
+	public void setForwardBufferBytes(Integer value) {
+		setDirective(FORWARD_BUFFER_BYTES, value);
+	}
+
+	public Integer getForwardBufferBytes() {
+		return (Integer) getDirective(FORWARD_BUFFER_BYTES);
+	}
+
+	public void setWriteCoalesceBytes(Integer value) {
+		setDirective(WRITE_COALESCE_BYTES, value);
+	}
+
+	public Integer getWriteCoalesceBytes() {
+		return (Integer) getDirective(WRITE_COALESCE_BYTES);
+	}
+
+	public void setWriteCoalesceMillis(Integer value) {
+		setDirective(WRITE_COALESCE_MILLIS, value);
+	}
+
+	public Integer getWriteCoalesceMillis() {
+		return (Integer) getDirective(WRITE_COALESCE_MILLIS);
+	}
+
+	public void setIdleTimeoutSeconds(Integer value) {
+		setDirective(IDLE_TIMEOUT_SECONDS, value);
+	}
+
+	public Integer getIdleTimeoutSeconds() {
+		return (Integer) getDirective(IDLE_TIMEOUT_SECONDS);
+	}
+
+	public void setConnectionLifetimeSeconds(Integer value) {
+		setDirective(CONNECTION_LIFETIME_SECONDS, value);
+	}
+
+	public Integer getConnectionLifetimeSeconds() {
+		return (Integer) getDirective(CONNECTION_LIFETIME_SECONDS);
+	}
+
+	public void setUpstreamRaceDelayMillis(Integer value) {
+		setDirective(UPSTREAM_RACE_DELAY_MILLIS, value);
+	}
+
+	public Integer getUpstreamRaceDelayMillis() {
+		return (Integer) getDirective(UPSTREAM_RACE_DELAY_MILLIS);
+	}
+
+	public void setTestMode(String value) {
+		setDirective(TEST_MODE, value);
+	}
+
+	public String getTestMode() {
+		return (String) getDirective(TEST_MODE);
+	}
+
+	public boolean isTestModeConcurrent() {
+		return TEST_MODE_CONCURRENT.equals(getTestMode());
+	}
+
+	public void setTestPortFrom(Integer value) {
+		setDirective(TEST_PORT_FROM, value);
+	}
+
+	public Integer getTestPortFrom() {
+		return (Integer) getDirective(TEST_PORT_FROM);
+	}
+
+	public void setTestPortTo(Integer value) {
+		setDirective(TEST_PORT_TO, value);
+	}
+
+	public Integer getTestPortTo() {
+		return (Integer) getDirective(TEST_PORT_TO);
+	}
+
+	public void setCertificateSchedule(String value) {
+		setDirective(CERTIFICATE_SCHEDULE, value);
+	}
+
+	public String getCertificateSchedule() {
+		return (String) getDirective(CERTIFICATE_SCHEDULE);
+	}
+
+	/**
+	 * Do all the certificates share one test window
+	 *
+	 * @return true, if certificate is chosen per connection, false if each
+	 * certificate has its own test window
+	 */
+	public boolean isCertificateScheduleShared() {
+		return !CERTIFICATE_SCHEDULE_RELOAD.equals(getCertificateSchedule());
+	}
+
+	/**
+	 * Adds response served by local responder
+	 *
+	 * @param response canned response
+	 */
+	public void addResponse(CannedResponse response) {
+		responses.add(response);
+	}
+
+	public List<CannedResponse> getResponses() {
+		return new ArrayList<>(responses);
+	}
+
+	/**
+	 * Adds remote server, to which connections are forwarded
+	 *
+	 * @param upstream remote server
+	 */
+	public void addUpstream(Upstream upstream) {
+		upstreams.add(upstream);
+	}
+
+	public boolean containsUpstream(Upstream upstream) {
+		return upstreams.contains(upstream);
+	}
+
+	/**
+	 * Returns remote servers, to which connections are forwarded. If none
+	 * were given, remote server of directives "remoteHost" and "remotePort"
+	 * is returned.
+	 *
+	 * @return collection of remote servers, never empty
+	 */
+	public List<Upstream> getUpstreams() {
+		if (upstreams.isEmpty()) {
+			return new ArrayList<>(Arrays.asList(new Upstream(getRemoteHost(), getRemotePort())));
+		}
+
+		return new ArrayList<>(upstreams);
+	}
+
 	public Mode getTlsFallbackScsv() {
 		return tlsFallbackScsv;
 	}
@@ -9,6 +9,9 @@ import cz.ondrejsmetak.export.HtmlExport;
 import cz.ondrejsmetak.other.XmlParserException;
 import cz.ondrejsmetak.parser.CipherParser;
 import cz.ondrejsmetak.parser.ConfigurationParser;
+import cz.ondrejsmetak.proxy.RemoteConnector;
+import cz.ondrejsmetak.scanner.ScanCache;
+import cz.ondrejsmetak.tool.BufferPool;
 import cz.ondrejsmetak.tool.Helper;
 import cz.ondrejsmetak.tool.Log;
 import cz.ondrejsmetak.tool.Pair;
@@ -16,7 +19,9 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Observable;
 import java.util.Observer;
 import java.util.concurrent.TimeUnit;
@@ -41,6 +46,12 @@ public class Controller {
 	 */
 	private final ProxyServer proxy = new ProxyServer();
 
+	/**
+	 * Ports of proxy servers used by concurrent tests, null in sequential
+	 * mode
+	 */
+	private List<Integer> testPorts = null;
+
 	/**
 	 * Timestamp of moment, when proxy server started
 	 */
@@ -82,6 +93,11 @@ public class Controller {
 	 * Schedules all future tests
 	 */
 	private void scheduleTests() {
+		if (ConfigurationRegister.getInstance().isTestModeConcurrent()) {
+			scheduleTestsConcurrently();
+			return;
+		}
+
 		try {
 			Thread t;
 
@@ -92,22 +108,122 @@ public class Controller {
 
 			//SSL/TLS protocols
 			for (Protocol protocol : ConfigurationRegister.getInstance().getProtocols()) {
-				t = new Thread(new TestProtocol(protocol));
+				t = new Thread(new TestProtocol(proxy, protocol));
 				t.start();
 				t.join();
 			}
 
 			//SSL/TLS certificates
+			if (ConfigurationRegister.getInstance().isCertificateScheduleShared()) {
+				t = new Thread(new TestCertificates(proxy, ConfigurationCertificateRegister.getInstance().getConfigurationCertificatesIndexable()));
+				t.start();
+				t.join();
+				return;
+			}
+
+			for (ClientCertificate certificate : ConfigurationCertificateRegister.getInstance().getConfigurationCertificatesIndexable()) {
+				t = new Thread(new TestCertificate(proxy, certificate));
+				t.start();
+				t.join();
+			}
+		} catch (InterruptedException ex) {
+			Logger.getLogger(Controller.class.getName()).log(Level.SEVERE, null, ex);
+		}
+	}
+
+	/**
+	 * Runs all the tests at once. Handshake is tested on the local port, each
+	 * protocol and certificate gets its own proxy server listening on the next
+	 * port of the test port range. Certificates tested together share one
+	 * proxy server.
+	 */
+	private void scheduleTestsConcurrently() {
+		List<ProxyServer> variants = new ArrayList<>();
+		List<Thread> threads = new ArrayList<>();
+		Iterator<Integer> ports = testPorts.iterator();
+
+		threads.add(new Thread(new TestHandshake()));
+
+		for (Protocol protocol : ConfigurationRegister.getInstance().getProtocols()) {
+			ProxyServer variant = createVariant(ports.next());
+			variants.add(variant);
+			threads.add(new Thread(new TestProtocol(variant, protocol)));
+		}
+
+		if (ConfigurationRegister.getInstance().isCertificateScheduleShared()) {
+			ProxyServer variant = createVariant(ports.next());
+			variants.add(variant);
+			threads.add(new Thread(new TestCertificates(variant, ConfigurationCertificateRegister.getInstance().getConfigurationCertificatesIndexable())));
+		} else {
 			for (ClientCertificate certificate : ConfigurationCertificateRegister.getInstance().getConfigurationCertificatesIndexable()) {
-				t = new Thread(new TestCertificate(certificate));
+				ProxyServer variant = createVariant(ports.next());
+				variants.add(variant);
+				threads.add(new Thread(new TestCertificate(variant, certificate)));
+			}
+		}
+
+		try {
+			for (Thread t : threads) {
 				t.start();
+			}
+			for (Thread t : threads) {
 				t.join();
 			}
 		} catch (InterruptedException ex) {
 			Logger.getLogger(Controller.class.getName()).log(Level.SEVERE, null, ex);
+		} finally {
+			for (ProxyServer variant : variants) {
+				variant.stop();
+			}
 		}
 	}
 
+	/**
+	 * Creates proxy server for one concurrent test
+	 *
+	 * @param port port, on which proxy server will listen
+	 * @return a newly created proxy server, not started yet
+	 */
+	private ProxyServer createVariant(int port) {
+		ProxyServer variant = new ProxyServer();
+		variant.setLocalPort(port);
+		return variant;
+	}
+
+	/**
+	 * Returns ports used by concurrent tests, one for each protocol and
+	 * certificate, or one for all the certificates tested together
+	 *
+	 * @return collection of ports or null, if configured range is too small
+	 */
+	private List<Integer> getTestPorts() {
+		ConfigurationRegister register = ConfigurationRegister.getInstance();
+		int certificates = ConfigurationCertificateRegister.getInstance().getConfigurationCertificatesIndexable().size();
+		int count = register.getProtocols().size() + (register.isCertificateScheduleShared() ? 1 : certificates);
+		int from = register.getTestPortFrom() != 0 ? register.getTestPortFrom() : register.getLocalPort() + 1;
+		int to = register.getTestPortTo() != 0 ? register.getTestPortTo() : Math.min(65535, from + count - 1);
+
+		if (to - from + 1 < count) {
+			Log.errorln("Concurrent testing requires %s port(s), but range [%s - %s] is smaller. Please adjust directives [%s] and [%s].",
+					count, from, to, ConfigurationRegister.TEST_PORT_FROM, ConfigurationRegister.TEST_PORT_TO);
+			return null;
+		}
+
+		List<Integer> ports = new ArrayList<>();
+		for (int port = from; ports.size() < count; port++) {
+			if (port == register.getLocalPort()) {
+				continue;
+			}
+			if (port > to) {
+				Log.errorln("Range of test ports [%s - %s] can't contain local port and all the tests.", from, to);
+				return null;
+			}
+			ports.add(port);
+		}
+
+		return ports;
+	}
+
 	/**
 	 * Runs actions required to transition to listening of SSL/TLS communication
 	 *
@@ -152,10 +268,26 @@ public class Controller {
 			return false;
 		}
 
+		if (ConfigurationRegister.getInstance().isTestModeConcurrent()) {
+			testPorts = getTestPorts();
+			if (testPorts == null) {
+				return false;
+			}
+
+			for (int port : testPorts) {
+				if (!ProxyServer.checkPort(port)) {
+					return false;
+				}
+			}
+		}
+
 		proxy.setConfigurationCertificate(ConfigurationCertificateRegister.getInstance().getFirstMustBe());
 		proxy.run();
 		timestampOfStart = new Date();
 		Log.infoln("MiTM proxy is up and running on the port " + ConfigurationRegister.getInstance().getLocalPort() + ".");
+		if (testPorts != null) {
+			Log.infoln("Protocol and certificate tests listen on the ports " + testPorts + ", all tests run at once.");
+		}
 		Log.infoln("Starting automated testing. Each test takes " + TEST_DELAY_SECONDS + " seconds at maximum.");
 		return true;
 	}
@@ -172,6 +304,14 @@ public class Controller {
 		proxy.stop();
 		Log.infoln("Proxy server closed.");
 
+		if (ConfigurationRegister.getInstance().isDebug()) {
+			Log.infoln(BufferPool.getDirect());
+			Log.infoln(BufferPool.getHeap());
+			Log.infoln("Upstream handshakes: %s, resumed: %s (hit rate %.2f)", RemoteConnector.getHandshakeCount(),
+					RemoteConnector.getResumedCount(), RemoteConnector.getResumptionHitRate());
+			Log.infoln("Analysed Client Hello: %s (cache hit rate %.2f)", ScanCache.getInstance().getLookupCount(), ScanCache.getInstance().getHitRate());
+		}
+
 		doHtmlExport();
 
 		return !ReportRegister.getInstance().hasAtLeastOneVulnerableMessage();
@@ -206,7 +346,7 @@ public class Controller {
 				done.add(report);
 			} else {
 				ReportMessage safeMessage = new ReportMessage("All tests performed with the given configuration passed successfully.", ReportMessage.Category.OTHER, null, ReportMessage.Type.SUCCESS);
-				ReportClientHello safeReport = new ReportClientHello(report.getClientHelloId(), new ArrayList<>(Arrays.asList(new ReportMessage[]{safeMessage})));
+				ReportClientHello safeReport = new ReportClientHello(report.getClientHelloId(), report.getJa3Hash(), report.getJa4(), new ArrayList<>(Arrays.asList(new ReportMessage[]{safeMessage})));
 				done.add(safeReport);
 			}
 		}
@@ -263,8 +403,8 @@ public class Controller {
 		@Override
 		public void run() {
 			Log.infoln("Starting SSL/TLS Handshake test");
-			proxy.addSingleSubscriber(this);
 			myThread = Thread.currentThread();
+			proxy.addSingleSubscriber(this);
 
 			try {
 				Thread.sleep(TimeUnit.SECONDS.toMillis(TEST_DELAY_SECONDS));
@@ -296,26 +436,25 @@ public class Controller {
 	private class TestProtocol implements Runnable, Observer {
 
 		private volatile boolean communicationOccured = false;
+		private final ProxyServer proxy;
 		private final Protocol protocol;
 		private volatile Thread myThread;
 
-		public TestProtocol(Protocol protocol) {
+		public TestProtocol(ProxyServer proxy, Protocol protocol) {
+			this.proxy = proxy;
 			this.protocol = protocol;
 		}
 
 		@Override
 		public void run() {
-			Log.infoln("Starting protocol test for [%s].", protocol);
+			Log.infoln("Starting protocol test for [%s] on port [%s].", protocol, proxy.getLocalPort());
+			myThread = Thread.currentThread(); //subscriber may be notified as soon as it's added
 			proxy.addSingleSubscriber(this);
 			proxy.setSecureSocket(true);
 			proxy.setConfigurationCertificate(ConfigurationCertificateRegister.getInstance().getFirstMustBe());
 			proxy.setClientProtocol(protocol);
 			proxy.startProtocolTest();
 			proxy.reload();
-			myThread = Thread.currentThread();
-
-			while (proxy.isReloading()) {
-			}
 
 			try {
 				Thread.sleep(TimeUnit.SECONDS.toMillis(TEST_DELAY_SECONDS));
@@ -325,11 +464,11 @@ public class Controller {
 
 			if (communicationOccured) {
 				Pair<Boolean, Boolean> result = proxy.stopProtocolTest();
-				Log.infoln("Stopped protocol test for [%s]. Some communication occured, handshake occured: [%s], communication after handshake occured: [%s]",
-						protocol, result.getLeft(), result.getRight());
+				Log.infoln("Stopped protocol test for [%s] on port [%s]. Some communication occured, handshake occured: [%s], communication after handshake occured: [%s]",
+						protocol, proxy.getLocalPort(), result.getLeft(), result.getRight());
 			} else {
 				proxy.stopProtocolTest();
-				Log.infoln("Stopped protocol test for [%s]. No communication occured.", protocol);
+				Log.infoln("Stopped protocol test for [%s] on port [%s]. No communication occured.", protocol, proxy.getLocalPort());
 			}
 		}
 
@@ -350,25 +489,24 @@ public class Controller {
 	private class TestCertificate implements Runnable, Observer {
 
 		private volatile boolean communicationOccured = false;
+		private final ProxyServer proxy;
 		private final ClientCertificate certificate;
 		private volatile Thread myThread;
 
-		public TestCertificate(ClientCertificate protocol) {
+		public TestCertificate(ProxyServer proxy, ClientCertificate protocol) {
+			this.proxy = proxy;
 			this.certificate = protocol;
 		}
 
 		@Override
 		public void run() {
-			Log.infoln("Starting certificate test for [%s].", certificate.getName());
+			Log.infoln("Starting certificate test for [%s] on port [%s].", certificate.getName(), proxy.getLocalPort());
+			myThread = Thread.currentThread(); //subscriber may be notified as soon as it's added
 			proxy.addSingleSubscriber(this);
 			proxy.setSecureSocket(true);
 			proxy.setConfigurationCertificate(certificate);
 			proxy.startCertificateTest();
 			proxy.reload();
-			myThread = Thread.currentThread();
-
-			while (proxy.isReloading()) {
-			}
 
 			try {
 				Thread.sleep(TimeUnit.SECONDS.toMillis(TEST_DELAY_SECONDS));
@@ -378,11 +516,11 @@ public class Controller {
 
 			if (communicationOccured) {
 				Pair<Boolean, Boolean> result = proxy.stopCertificateTest();
-				Log.infoln("Stopped certificate test for [%s]. Some communication occured, handshake occured: [%s], communication after handshake occured: [%s]",
-						certificate.getName(), result.getLeft(), result.getRight());
+				Log.infoln("Stopped certificate test for [%s] on port [%s]. Some communication occured, handshake occured: [%s], communication after handshake occured: [%s]",
+						certificate.getName(), proxy.getLocalPort(), result.getLeft(), result.getRight());
 			} else {
 				proxy.stopCertificateTest();
-				Log.infoln("Stopped protocol test for [%s]. No communication occured.", certificate.getName());
+				Log.infoln("Stopped protocol test for [%s] on port [%s]. No communication occured.", certificate.getName(), proxy.getLocalPort());
 			}
 		}
 
@@ -396,4 +534,52 @@ public class Controller {
 			communicationOccured = true;
 		}
 	}
+
+	/**
+	 * Runnable responsible for testing all the certificates in one test
+	 * window, certificate is chosen for each connection
+	 */
+	private class TestCertificates implements Runnable, Observer {
+
+		private volatile boolean everyCertificateUsed = false;
+		private final ProxyServer proxy;
+		private final List<ClientCertificate> certificates;
+		private volatile Thread myThread;
+
+		public TestCertificates(ProxyServer proxy, List<ClientCertificate> certificates) {
+			this.proxy = proxy;
+			this.certificates = certificates;
+		}
+
+		@Override
+		public void run() {
+			String schedule = ConfigurationRegister.getInstance().getCertificateSchedule();
+			Log.infoln("Starting certificate test for %s certificate(s) on port [%s], chosen by [%s].", certificates.size(), proxy.getLocalPort(), schedule);
+			myThread = Thread.currentThread(); //subscriber may be notified as soon as it's added
+			proxy.addSingleSubscriber(this);
+			proxy.startCertificatesTest(certificates, schedule);
+			proxy.reload();
+
+			try {
+				Thread.sleep(TimeUnit.SECONDS.toMillis(TEST_DELAY_SECONDS));
+			} catch (InterruptedException ex) {
+				//intentionally interruped
+			}
+
+			for (Map.Entry<ClientCertificate, Pair<Boolean, Boolean>> result : proxy.stopCertificatesTest().entrySet()) {
+				Log.infoln("Stopped certificate test for [%s] on port [%s]. Handshake occured: [%s], communication after handshake occured: [%s]",
+						result.getKey().getName(), proxy.getLocalPort(), result.getValue().getLeft(), result.getValue().getRight());
+			}
+		}
+
+		@Override
+		public void update(Observable o, Object arg) {
+			if (!everyCertificateUsed && proxy.isEveryCertificateUsed()) {
+				everyCertificateUsed = true;
+				Helper.waitAndCall(TEST_DELAY_AFTER_UPDATE, () -> {
+					myThread.interrupt();
+				});
+			}
+		}
+	}
 }
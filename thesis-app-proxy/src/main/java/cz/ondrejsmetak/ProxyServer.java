@@ -5,26 +5,36 @@ import cz.ondrejsmetak.entity.ClientCertificate;
 import cz.ondrejsmetak.entity.Protocol;
 import cz.ondrejsmetak.entity.ReportClientHello;
 import cz.ondrejsmetak.entity.ReportMessage;
-import cz.ondrejsmetak.scanner.ClientHelloScanner;
+import cz.ondrejsmetak.proxy.BlockingEngine;
+import cz.ondrejsmetak.proxy.CertificateKeyManager;
+import cz.ondrejsmetak.proxy.ClientContext;
+import cz.ondrejsmetak.proxy.ClientHelloAssembler;
+import cz.ondrejsmetak.proxy.MemoryEngine;
+import cz.ondrejsmetak.proxy.NioEngine;
+import cz.ondrejsmetak.proxy.ProxyEngine;
+import cz.ondrejsmetak.scanner.ScanCache;
 import cz.ondrejsmetak.tool.Helper;
 import cz.ondrejsmetak.tool.Log;
 import cz.ondrejsmetak.tool.Pair;
+import cz.ondrejsmetak.tool.ReusePort;
 import java.io.*;
 import java.net.*;
-import java.security.cert.CertificateEncodingException;
+import java.security.GeneralSecurityException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Observable;
 import java.util.Observer;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicInteger;
-import javax.net.ssl.HandshakeCompletedEvent;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.net.ssl.KeyManager;
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
-import javax.net.ssl.SSLServerSocket;
-import javax.net.ssl.SSLServerSocketFactory;
+import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLSession;
 import javax.net.ssl.SSLSocket;
-import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManagerFactory;
 
 /**
@@ -34,34 +44,46 @@ import javax.net.ssl.TrustManagerFactory;
 public class ProxyServer {
 
 	/**
-	 * Connection on the local port
+	 * File with the maximal length of backlog on Linux
 	 */
-	private Socket client = null;
+	private static final String SOMAXCONN_PATH = "/proc/sys/net/core/somaxconn";
 
 	/**
-	 * Connection to the remote server on the given remote port
+	 * Length of backlog, if system maximum can't be read
 	 */
-	private SSLSocket server = null;
+	private static final int DEFAULT_BACKLOG = 128;
 
 	/**
-	 * ServerSocket that is listening for connections on local port
+	 * Engine, that is currently accepting and forwarding connections
 	 */
-	private static ServerSocket serverSocket;
+	private ProxyEngine engine = null;
 
 	/**
-	 * Main thread used to run this ProxyServer
+	 * Used to count captued Client Hello packets, shared by all the proxy
+	 * servers, so identifiers are unique
 	 */
-	private Thread mainThred;
+	private static final AtomicInteger clientHelloCounter = new AtomicInteger(0);
 
 	/**
-	 * Is this ProxyServer running
+	 * Port, on which this proxy server listens, null means configured local
+	 * port
 	 */
-	private static boolean running = true;
+	private Integer localPort = null;
 
 	/**
-	 * Used to count captued Client Hello packets
+	 * Port, on which the current engine listens
 	 */
-	private final AtomicInteger clientHelloCounter = new AtomicInteger(0);
+	private int enginePort = 0;
+
+	/**
+	 * Configured name of the current engine
+	 */
+	private String engineName = null;
+
+	/**
+	 * Context applied to newly accepted connections
+	 */
+	private final AtomicReference<ClientContext> clientContext = new AtomicReference<>(ClientContext.PLAIN);
 
 	/**
 	 * Certificate offered to the client to secure communication
@@ -76,17 +98,38 @@ public class ProxyServer {
 	/**
 	 * Was there succesfull SSL/TLS handshake during communication with client?
 	 */
-	private boolean succesfullHandshake = false;
+	private volatile boolean succesfullHandshake = false;
 
 	/**
 	 * Was there any SSL/TLS communication with client?
 	 */
-	private boolean succesfullCommunication = false;
+	private volatile boolean succesfullCommunication = false;
 
 	/**
 	 * Was there any SSL/TLS communication after succesfull handshake?
 	 */
-	private boolean succesfullCommunicationAfterHandshake = false;
+	private volatile boolean succesfullCommunicationAfterHandshake = false;
+
+	/**
+	 * Results of certificates tested together in one test window, null if
+	 * single certificate is tested
+	 */
+	private volatile Map<ClientCertificate, CertificateResult> sharedCertificates = null;
+
+	/**
+	 * Schedule, according to which certificates tested together are chosen
+	 */
+	private String certificateSchedule = null;
+
+	/**
+	 * What was captured for one of certificates tested together
+	 */
+	private static class CertificateResult {
+
+		private volatile boolean communication = false;
+		private volatile boolean handshake = false;
+		private volatile boolean communicationAfterHandshake = false;
+	}
 
 	/**
 	 * Use secure (SSL/TLS) socket for communication with client?
@@ -96,7 +139,7 @@ public class ProxyServer {
 	/**
 	 * Collection of subscribers, that are expecting our messages
 	 */
-	private final List<Observer> subscribers = new ArrayList<>();
+	private final List<Observer> subscribers = new CopyOnWriteArrayList<>();
 
 	/**
 	 * Is server currently reloading itself?
@@ -130,182 +173,337 @@ public class ProxyServer {
 		}
 	}
 
+	/**
+	 * Starts accepting connections on the local port
+	 */
 	public void run() {
+		try {
+			clientContext.set(createClientContext());
+			startEngine();
+		} catch (IOException ex) {
+			Log.debugException(ex);
+		}
+	}
 
-		Runnable r = () -> {
-			try {
-				running = true;
-				doRun();
-			} catch (IOException ex) {
-				Log.debugException(ex);
-			} catch (CertificateEncodingException ex) {
-				Log.debugException(ex);
-			}
-		};
-
-		mainThred = new Thread(r);
-		mainThred.start();
-	}
-
-	private synchronized void doRun() throws IOException, CertificateEncodingException {
-		String remoteHost = ConfigurationRegister.getInstance().getRemoteHost();
-
-		serverSocket = createServerSocket();
-
-		final byte[] request = new byte[1024];
-		byte[] reply = new byte[4096 * 3];
-
-		while (running) {
-			try {
-				try {
-					isReloading = false;
-					//Log.infoln("Now accepting [%s] communication.", clientProtocol);
-					client = serverSocket.accept();
-					succesfullCommunication = true;
-					addHandshakeCompletedListener(client);
-					notifySubscribers(MESSAGE_COMMUNICATION_OCCURED);
-				} catch (Exception e) {
-
-				}
-
-				if (client == null) {
-					continue;
-				}
-
-				if (client.isClosed()) {
-					continue;
-				}
-
-				final InputStream streamFromClient = client.getInputStream();
-				final OutputStream streamToClient = client.getOutputStream();
-
-				// Make a connection to the real server.
-				// If we cannot connect to the server, send an error to the
-				// client, disconnect, and continue waiting for connections.
-				try {
-					//server = new Socket(remoteHost, remotePort);
-
-					SSLSocketFactory factory = (SSLSocketFactory) SSLSocketFactory.getDefault();
-					server = (SSLSocket) factory.createSocket(remoteHost, 443);
-					String[] suites = server.getSupportedCipherSuites();
-					server.setEnabledCipherSuites(suites);
-					server.startHandshake();
-
-					SSLSession session = server.getSession();
-
-					//System.err.println("Vzdalene pripojeno k: " + server.getRemoteSocketAddress());
-					//System.err.println("Zvolena suie: " + session.getCipherSuite());
-				} catch (IOException ex) {
-					Log.debugException(ex);
-					client.close();
-					continue;
-				}
-
-				// Get server streams.
-				final InputStream streamFromServer = server.getInputStream();
-				final OutputStream streamToServer = server.getOutputStream();
-
-				// a thread to read the client's requests and pass them
-				// to the server. A separate thread for asynchronous.
-				Thread t = new Thread() {
-					public void run() {
-						int bytesRead;
-						try {
-							while ((bytesRead = streamFromClient.read(request)) != -1) {
-								hijackStreamFromClient(request, server.getLocalSocketAddress().toString().replaceAll("/", ""));
-								streamToServer.write(request, 0, bytesRead);
-								streamToServer.flush();
-
-								if (succesfullHandshake) {
-									succesfullCommunicationAfterHandshake = true;
-								}
-							}
-						} catch (IOException ex) {
-							/*suppress exceptions*/
-						}
-
-						// the client closed the connection to us, so close our
-						// connection to the server.
-						try {
-							streamToServer.close();
-						} catch (IOException ex) {
-							Log.debugException(ex);
-						}
-					}
-				};
-
-				// Start the client-to-server request thread running
-				t.start();
-
-				//http://www.geeksforgeeks.org/java-io-filterinputstream-class-in-java/
-				//http://stackoverflow.com/questions/7743534/filter-search-and-replace-array-of-bytes-in-an-inputstream
-				// Read the server's responses
-				// and pass them back to the client.
-				int bytesRead;
-				BufferedInputStream br = new BufferedInputStream(streamFromServer);
-
-				try {
-					while (!isReloading && (bytesRead = br.read(reply, 0, reply.length)) != -1) {
-						//send everything we have to the client
-						streamToClient.write(reply, 0, bytesRead);
-						streamToClient.flush();
-					}
-				} catch (IOException ex) {
-					/*suppress exceptions*/
-				}
-
-				// The server closed its connection to us, so we close our
-				// connection to our client.
-				streamToClient.close();
-			} catch (IOException ex) {
-				Log.debugException(ex);
-			} finally {
-				try {
-					if (server != null) {
-						server.close();
-					}
-					if (client != null) {
-						client.close();
-					}
-				} catch (IOException ex) {
-					Log.debugException(ex);
-				}
-			}
+	/**
+	 * Creates and starts engine according to configuration
+	 *
+	 * @throws IOException if local port can't be bound
+	 */
+	private void startEngine() throws IOException {
+		ConfigurationRegister configuration = ConfigurationRegister.getInstance();
+		if (configuration.isEngineMemory()) {
+			engine = new MemoryEngine(this);
+		} else if (configuration.isEngineNio()) {
+			engine = new NioEngine(this);
+		} else {
+			engine = new BlockingEngine(this);
+		}
+
+		engine.start();
+		enginePort = getLocalPort();
+		engineName = configuration.getEngine();
+	}
+
+	/**
+	 * Can the current engine serve connections with the current settings, so
+	 * only context of new connections has to be switched
+	 *
+	 * @return true, if the current engine can be kept, false otherwise
+	 */
+	private boolean isEngineReusable() {
+		return engine != null && enginePort == getLocalPort() && ConfigurationRegister.getInstance().getEngine().equals(engineName);
+	}
+
+	/**
+	 * Creates context for new connections from the currently selected protocol
+	 * and certificate, if required
+	 *
+	 * @return a newly created context
+	 */
+	private ClientContext createClientContext() {
+		if (!secureSocket) {
+			return ClientContext.PLAIN;
+		}
+
+		if (sharedCertificates != null) {
+			return createSharedClientContext(sharedCertificates);
+		}
+
+		SSLContext sslContext = createSSLContext(clientCertificate);
+		if (sslContext == null) {
+			throw new IllegalStateException("Can't continue with uninitialized SSLContext!");
+		}
+
+		return new ClientContext(sslContext, getTranslatedClientProtocol(), null);
+	}
+
+	/**
+	 * Creates context, that chooses one of certificates tested together for
+	 * each connection
+	 *
+	 * @param results results of certificates tested together
+	 * @return a newly created context
+	 */
+	private ClientContext createSharedClientContext(final Map<ClientCertificate, CertificateResult> results) {
+		try {
+			CertificateKeyManager keyManager = new CertificateKeyManager(new ArrayList<>(results.keySet()), certificateSchedule, (ClientCertificate certificate) -> {
+				onCertificateSelected(results, certificate);
+			});
+
+			SSLContext sslContext = SSLContext.getInstance("TLS");
+			sslContext.init(new KeyManager[]{keyManager}, null, new java.security.SecureRandom());
+
+			return new ClientContext(sslContext, getTranslatedClientProtocol(), keyManager);
+		} catch (GeneralSecurityException ex) {
+			Log.debugException(ex);
+			throw new IllegalStateException("Can't continue with uninitialized SSLContext!");
 		}
 	}
 
-	private void addHandshakeCompletedListener(Socket socket) {
-		if (!(socket instanceof SSLSocket)) {
+	/**
+	 * Called by key manager, when certificate was chosen for a new connection
+	 *
+	 * @param results results of certificates tested together, that key manager
+	 * belongs to
+	 * @param certificate chosen certificate
+	 */
+	private void onCertificateSelected(Map<ClientCertificate, CertificateResult> results, ClientCertificate certificate) {
+		if (results != sharedCertificates) {
+			return; //connection accepted during previous test
+		}
+
+		results.get(certificate).communication = true;
+		notifySubscribers(MESSAGE_COMMUNICATION_OCCURED);
+	}
+
+	/**
+	 * Returns result of certificate, that was chosen for the given connection.
+	 * Must be called after handshake finished.
+	 *
+	 * @param context context, with which connection was accepted
+	 * @param connection secure socket or engine, may be null
+	 * @param session session of connection, may be null
+	 * @return result or null, if certificates aren't tested together
+	 */
+	private CertificateResult getSharedResult(ClientContext context, Object connection, SSLSession session) {
+		Map<ClientCertificate, CertificateResult> results = sharedCertificates;
+		if (results == null || context.getKeyManager() == null || connection == null) {
+			return null;
+		}
+
+		ClientCertificate certificate = context.getKeyManager().getSelected(connection, session);
+		return certificate == null ? null : results.get(certificate);
+	}
+
+	/**
+	 * Returns session of the given connection
+	 *
+	 * @param socket connection, may be null
+	 * @return session or null, if connection isn't secure
+	 */
+	private static SSLSession getSession(Socket socket) {
+		return socket instanceof SSLSocket ? ((SSLSocket) socket).getSession() : null;
+	}
+
+	/**
+	 * Returns context, that is applied to newly accepted connections
+	 *
+	 * @return current context
+	 */
+	public ClientContext getClientContext() {
+		return clientContext.get();
+	}
+
+	/**
+	 * Called by engine, when a new client connected. Connections accepted with
+	 * previous context don't affect current test.
+	 *
+	 * @param context context, with which connection was accepted
+	 */
+	public void onClientConnected(ClientContext context) {
+		if (context != clientContext.get()) {
 			return;
 		}
 
-		((SSLSocket) socket).addHandshakeCompletedListener((HandshakeCompletedEvent hce) -> {
+		succesfullCommunication = true;
+		notifySubscribers(MESSAGE_COMMUNICATION_OCCURED);
+	}
+
+	/**
+	 * Called by engine, when SSL/TLS handshake with client completed.
+	 * Connections accepted with previous context don't affect current test.
+	 *
+	 * @param context context, with which connection was accepted
+	 * @param socket connection of client
+	 */
+	public void onClientHandshakeCompleted(ClientContext context, Socket socket) {
+		onClientHandshakeCompleted(context, socket, getSession(socket));
+	}
+
+	/**
+	 * Called by engine, when SSL/TLS handshake with client completed, as
+	 * method above
+	 *
+	 * @param context context, with which connection was accepted
+	 * @param engine engine of client connection
+	 */
+	public void onClientHandshakeCompleted(ClientContext context, SSLEngine engine) {
+		onClientHandshakeCompleted(context, engine, engine.getSession());
+	}
+
+	private void onClientHandshakeCompleted(ClientContext context, Object connection, SSLSession session) {
+		if (context != clientContext.get()) {
+			return;
+		}
+
+		CertificateResult result = getSharedResult(context, connection, session);
+		if (result != null) {
+			result.handshake = true;
+		} else {
 			succesfullHandshake = true;
-		});
+		}
 	}
 
-	private ServerSocket createServerSocket() throws IOException {
-		int localPort = ConfigurationRegister.getInstance().getLocalPort();
+	/**
+	 * Called by engine for chunks of bytes read from client, until this method
+	 * returns false. Client Hello may span several chunks, it's reassembled by
+	 * the given assembler, so chunks are inspected until it's complete. With
+	 * secure socket we also wait for the first chunk after handshake. Later
+	 * chunks are just passed through. Connections accepted with previous
+	 * context don't affect current test.
+	 *
+	 * @param request array of bytes read from client
+	 * @param length count of bytes read from client
+	 * @param source source of bytes
+	 * @param context context, with which connection was accepted
+	 * @param assembler assembler of Client Hello of the same connection
+	 * @return true, if next chunk of the same connection must be inspected too,
+	 * false otherwise
+	 */
+	public boolean onClientData(byte[] request, int length, String source, ClientContext context, ClientHelloAssembler assembler) {
+		return onClientData(request, length, source, context, assembler, null, null);
+	}
 
-		/**
-		 * Without SSL/TLS
-		 */
-		if (!secureSocket) {
-			return new ServerSocket(localPort);
+	/**
+	 * Called by engine for chunks of bytes read from client, as method above.
+	 * When certificates are tested together, bytes are counted for
+	 * certificate chosen for the given connection.
+	 *
+	 * @param request array of bytes read from client
+	 * @param length count of bytes read from client
+	 * @param source source of bytes
+	 * @param context context, with which connection was accepted
+	 * @param assembler assembler of Client Hello of the same connection
+	 * @param socket connection of client, may be null
+	 * @return true, if next chunk of the same connection must be inspected too,
+	 * false otherwise
+	 */
+	public boolean onClientData(byte[] request, int length, String source, ClientContext context, ClientHelloAssembler assembler, Socket socket) {
+		return onClientData(request, length, source, context, assembler, socket, getSession(socket));
+	}
+
+	/**
+	 * Called by engine for chunks of bytes unwrapped by engine of client
+	 * connection, as method above
+	 *
+	 * @param request array of bytes read from client
+	 * @param length count of bytes read from client
+	 * @param source source of bytes
+	 * @param context context, with which connection was accepted
+	 * @param assembler assembler of Client Hello of the same connection
+	 * @param engine engine of client connection
+	 * @return true, if next chunk of the same connection must be inspected too,
+	 * false otherwise
+	 */
+	public boolean onClientData(byte[] request, int length, String source, ClientContext context, ClientHelloAssembler assembler, SSLEngine engine) {
+		return onClientData(request, length, source, context, assembler, engine, engine.getSession());
+	}
+
+	private boolean onClientData(byte[] request, int length, String source, ClientContext context, ClientHelloAssembler assembler,
+			Object connection, SSLSession session) {
+		boolean assembling = hijackStreamFromClient(request, length, source, assembler);
+
+		//results are only ever set, so inspecting more chunks doesn't change them
+		return inspectClientData(context, connection, session) || assembling;
+	}
+
+	private boolean inspectClientData(ClientContext context, Object connection, SSLSession session) {
+		if (context != clientContext.get()) {
+			return false;
 		}
 
-		/**
-		 * With SSL/TLS
-		 */
-		SSLServerSocketFactory socketFactory = createSSLServerSocketFactory(clientCertificate);
-		if (socketFactory == null) {
-			throw new IllegalStateException("Can't continue with uninitialized ServerSocketFactory!");
+		CertificateResult result = getSharedResult(context, connection, session);
+		if (result != null) {
+			//bytes read from secure socket, so handshake is already finished
+			result.handshake = true;
+			result.communicationAfterHandshake = true;
+			return false;
 		}
 
-		ServerSocket socket = (SSLServerSocket) socketFactory.createServerSocket(localPort);
-		((SSLServerSocket) socket).setEnabledProtocols(getTranslatedClientProtocol());
+		if (succesfullHandshake) {
+			succesfullCommunicationAfterHandshake = true;
+			return false;
+		}
 
-		return (SSLServerSocket) socket;
+		return secureSocket;
+	}
+
+	/**
+	 * Returns count of sockets, that engine should open on the local port.
+	 * More than one is used only if SO_REUSEPORT is supported.
+	 *
+	 * @return count of listening sockets
+	 */
+	public int getAcceptors() {
+		int acceptors = ConfigurationRegister.getInstance().getAcceptors();
+		if (acceptors > 1 && !ReusePort.isSupported()) {
+			Log.warningln("Directive [%s] requires SO_REUSEPORT, that is not supported by this JVM or platform. Single listening socket will be used.",
+					ConfigurationRegister.ACCEPTORS);
+			return 1;
+		}
+		return acceptors;
+	}
+
+	/**
+	 * Returns length of queue of connections waiting for accept. If not
+	 * configured, the maximum allowed by system is used, as default of 50 is
+	 * easily overflown by burst of connections.
+	 *
+	 * @return length of backlog
+	 */
+	public int getListenBacklog() {
+		int backlog = ConfigurationRegister.getInstance().getListenBacklog();
+		if (backlog > 0) {
+			return backlog;
+		}
+
+		try (BufferedReader reader = new BufferedReader(new FileReader(SOMAXCONN_PATH))) {
+			String line = reader.readLine();
+			return line == null ? DEFAULT_BACKLOG : Integer.parseInt(line.trim());
+		} catch (IOException | NumberFormatException ex) {
+			return DEFAULT_BACKLOG; //not Linux
+		}
+	}
+
+	/**
+	 * Creates plain socket listening on the local port. Accepted connections
+	 * are secured by method <code>getClientContext</code>, so the socket
+	 * survives switching of protocol and certificate.
+	 *
+	 * @param reusePort should SO_REUSEPORT be enabled, so other sockets can
+	 * listen on the same port
+	 * @return a newly created socket
+	 * @throws IOException in case of any error
+	 */
+	public ServerSocket createServerSocket(boolean reusePort) throws IOException {
+		ServerSocket socket = new ServerSocket();
+		socket.setReuseAddress(true);
+		if (reusePort) {
+			ReusePort.enable(socket);
+		}
+		socket.bind(new InetSocketAddress(getLocalPort()), getListenBacklog());
+		return socket;
 	}
 
 	private String[] getTranslatedClientProtocol() {
@@ -341,47 +539,68 @@ public class ProxyServer {
 		return protocols.toArray(new String[protocols.size()]);
 	}
 
-	private void hijackStreamFromClient(byte[] request, String source) {
-		handleClientHello(request, source);
+	/**
+	 * Feeds bytes read from client to assembler, analyses Client Hello, once
+	 * it's complete
+	 *
+	 * @param request array of bytes read from client
+	 * @param length count of bytes read from client
+	 * @param source source of bytes
+	 * @param assembler assembler of Client Hello of the same connection
+	 * @return true, if Client Hello is still incomplete, false otherwise
+	 */
+	private boolean hijackStreamFromClient(byte[] request, int length, String source, ClientHelloAssembler assembler) {
+		byte[] clientHello = assembler.append(request, 0, length);
+		if (clientHello != null) {
+			handleClientHello(clientHello, source);
+		}
+		return assembler.isAssembling();
 	}
 
 	public boolean isReloading() {
 		return isReloading;
 	}
 
+	/**
+	 * Applies currently selected settings. If the current engine can serve
+	 * them, only context of new connections is switched, listening socket and
+	 * opened connections are kept. Otherwise engine is restarted.
+	 */
 	public void reload() {
 		try {
 			isReloading = true;
+			ClientContext context = createClientContext();
 
-			if (serverSocket != null) {
-				serverSocket.close();
+			if (isEngineReusable()) {
+				clientContext.set(context);
+				return;
 			}
 
-			serverSocket = createServerSocket();
+			if (engine != null) {
+				engine.stop();
+			}
+
+			clientContext.set(context);
+			startEngine();
 		} catch (IOException ex) {
-			//??
-			//Logger.getLogger(ProxyServer.class.getName()).log(Level.SEVERE, null, ex);
+			Log.debugException(ex);
+		} finally {
+			isReloading = false;
 		}
 	}
 
-	public void stop() {
-		try {
-			running = false;
-
-			if (serverSocket != null) {
-				serverSocket.close();
-			}
-
-			if (server != null) {
-				server.close();
-			}
-
-			if (client != null) {
-				client.close();
-			}
+	/**
+	 * Returns engine, that is currently accepting and forwarding connections
+	 *
+	 * @return current engine or null, if not running
+	 */
+	public ProxyEngine getEngine() {
+		return engine;
+	}
 
-		} catch (IOException ex) {
-			Log.debugException(ex);
+	public void stop() {
+		if (engine != null) {
+			engine.stop();
 		}
 	}
 
@@ -397,15 +616,23 @@ public class ProxyServer {
 			return; //nothing to do
 		}
 
-		if (ConfigurationRegister.getInstance().isDebug()) {
-			Log.infoln(String.format("Captured Client Hello from [%s], analysis started.", source));
+		ClientHello clientHello;
+		try {
+			clientHello = new ClientHello(bytes);
+		} catch (IllegalArgumentException ex) {
+			//malformed Client Hello is not analysed, but it's still forwarded
+			Log.debugException(ex);
+			return;
 		}
 
-		int clientHelloId = this.clientHelloCounter.incrementAndGet();
+		int clientHelloId = clientHelloCounter.incrementAndGet();
+
+		if (ConfigurationRegister.getInstance().isDebug()) {
+			Log.infoln(String.format("Captured Client Hello from [%s] for [%s] (JA4 [%s]), analysis started.", source, clientHello.getServerName(), clientHello.getJa4()));
+		}
 
-		ClientHello clientHello = new ClientHello(bytes);
-		ClientHelloScanner scanner = new ClientHelloScanner(clientHello);
-		ReportRegister.getInstance().addReportClientHello(new ReportClientHello(clientHelloId, scanner.getReportMessages()));
+		List<ReportMessage> messages = ScanCache.getInstance().getReportMessages(clientHello);
+		ReportRegister.getInstance().addReportClientHello(new ReportClientHello(clientHelloId, clientHello.getJa3Hash(), clientHello.getJa4(), messages));
 	}
 
 	/**
@@ -414,8 +641,16 @@ public class ProxyServer {
 	 * @return true if port is available, false otherwise
 	 */
 	public static boolean checkPort() {
-		int localPort = ConfigurationRegister.getInstance().getLocalPort();
+		return checkPort(ConfigurationRegister.getInstance().getLocalPort());
+	}
 
+	/**
+	 * Checks, if the given port is available for binding
+	 *
+	 * @param localPort port
+	 * @return true if port is available, false otherwise
+	 */
+	public static boolean checkPort(int localPort) {
 		if (!Helper.isLocalPortAvailable(localPort)) {
 			Log.errorln(String.format("Port [%s] is already being used. Please specify different port.", localPort));
 			return false;
@@ -424,6 +659,25 @@ public class ProxyServer {
 		return true;
 	}
 
+	/**
+	 * Sets port, on which this proxy server listens. Takes effect with the next
+	 * start or reload, reload then rebinds the engine.
+	 *
+	 * @param localPort port
+	 */
+	public void setLocalPort(int localPort) {
+		this.localPort = localPort;
+	}
+
+	/**
+	 * Returns port, on which this proxy server listens
+	 *
+	 * @return port
+	 */
+	public int getLocalPort() {
+		return localPort != null ? localPort : ConfigurationRegister.getInstance().getLocalPort();
+	}
+
 	public boolean isSecureSocket() {
 		return secureSocket;
 	}
@@ -454,6 +708,7 @@ public class ProxyServer {
 	 */
 	public void startCertificateTest() {
 		secureSocket = true;
+		sharedCertificates = null;
 		succesfullHandshake = false;
 		succesfullCommunication = false;
 		succesfullCommunicationAfterHandshake = false;
@@ -465,29 +720,107 @@ public class ProxyServer {
 	 * @return true, if handshake occured during testing, false otherwise
 	 */
 	public Pair<Boolean, Boolean> stopCertificateTest() {
+		return reportCertificate(clientCertificate, succesfullCommunication, succesfullHandshake, succesfullCommunicationAfterHandshake);
+	}
+
+	/**
+	 * Starts testing of the given certificates in one test window. Certificate
+	 * is chosen for each connection according to the given schedule.
+	 *
+	 * @param certificates tested certificates
+	 * @param schedule value of directive "certificateSchedule"
+	 */
+	public void startCertificatesTest(List<ClientCertificate> certificates, String schedule) {
+		Map<ClientCertificate, CertificateResult> results = new LinkedHashMap<>();
+		for (ClientCertificate certificate : certificates) {
+			results.put(certificate, new CertificateResult());
+		}
+
+		secureSocket = true;
+		certificateSchedule = schedule;
+		sharedCertificates = results;
+		succesfullHandshake = false;
+		succesfullCommunication = false;
+		succesfullCommunicationAfterHandshake = false;
+	}
+
+	/**
+	 * Was every certificate tested together already chosen for some
+	 * connection
+	 *
+	 * @return true, if every certificate was used, false otherwise
+	 */
+	public boolean isEveryCertificateUsed() {
+		Map<ClientCertificate, CertificateResult> results = sharedCertificates;
+		if (results == null) {
+			return false;
+		}
+
+		for (CertificateResult result : results.values()) {
+			if (!result.communication) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Stops testing of certificates tested together and saves their results
+	 *
+	 * @return pair of booleans indicating, if handshake and communication
+	 * after handshake occured, for each certificate
+	 */
+	public Map<ClientCertificate, Pair<Boolean, Boolean>> stopCertificatesTest() {
+		Map<ClientCertificate, CertificateResult> results = sharedCertificates;
+		sharedCertificates = null;
+
+		Map<ClientCertificate, Pair<Boolean, Boolean>> done = new LinkedHashMap<>();
+		if (results == null) {
+			return done;
+		}
+
+		for (Map.Entry<ClientCertificate, CertificateResult> entry : results.entrySet()) {
+			CertificateResult result = entry.getValue();
+			done.put(entry.getKey(), reportCertificate(entry.getKey(), result.communication, result.handshake, result.communicationAfterHandshake));
+		}
+		return done;
+	}
+
+	/**
+	 * Saves result of test of the given certificate
+	 *
+	 * @param certificate tested certificate
+	 * @param communication was there any communication
+	 * @param handshake was there succesfull handshake
+	 * @param communicationAfterHandshake was there communication after
+	 * handshake
+	 * @return pair of booleans indicating, if handshake and communication
+	 * after handshake occured
+	 */
+	private Pair<Boolean, Boolean> reportCertificate(ClientCertificate certificate, boolean communication, boolean handshake, boolean communicationAfterHandshake) {
 		//not even communication
-		if (!succesfullCommunication && clientCertificate.getMode().isMustBeOrMustNotBe()) {
-			String message = String.format("Certificate named [%s] %s supported, but there wasn't captured any communication to determine!", clientCertificate.getName(), clientCertificate.getMode());
-			ReportMessage rp = new ReportMessage(message, ReportMessage.Category.CERTIFICATE, clientCertificate.getMode(), ReportMessage.Type.ERROR);
+		if (!communication && certificate.getMode().isMustBeOrMustNotBe()) {
+			String message = String.format("Certificate named [%s] %s supported, but there wasn't captured any communication on port [%s] to determine!", certificate.getName(), certificate.getMode(), getLocalPort());
+			ReportMessage rp = new ReportMessage(message, ReportMessage.Category.CERTIFICATE, certificate.getMode(), ReportMessage.Type.ERROR);
 			ReportRegister.getInstance().addReportCertificate(rp);
 			return new Pair<>(false, false);
 		}
 
-		if (clientCertificate.getMode().isMustBe() && !succesfullHandshake) {
+		if (certificate.getMode().isMustBe() && !handshake) {
 			//add report
-			String message = String.format("Certificate named [%s] MUST BE supported, but there wasn't captured succesfull handshake!", clientCertificate.getName());
-			ReportMessage rp = new ReportMessage(message, ReportMessage.Category.CERTIFICATE, clientCertificate.getMode(), ReportMessage.Type.ERROR);
+			String message = String.format("Certificate named [%s] MUST BE supported, but there wasn't captured succesfull handshake on port [%s]!", certificate.getName(), getLocalPort());
+			ReportMessage rp = new ReportMessage(message, ReportMessage.Category.CERTIFICATE, certificate.getMode(), ReportMessage.Type.ERROR);
 			ReportRegister.getInstance().addReportCertificate(rp);
 		}
 
-		if (clientCertificate.getMode().isMustNotBe() && succesfullCommunicationAfterHandshake) {
+		if (certificate.getMode().isMustNotBe() && communicationAfterHandshake) {
 			//add report
-			String message = String.format("Certificate named [%s] MUST NOT BE supported, but there was captured significant communication after handshake!", clientCertificate.getName());
-			ReportMessage rp = new ReportMessage(message, ReportMessage.Category.CERTIFICATE, clientCertificate.getMode(), ReportMessage.Type.ERROR);
+			String message = String.format("Certificate named [%s] MUST NOT BE supported, but there was captured significant communication after handshake on port [%s]!", certificate.getName(), getLocalPort());
+			ReportMessage rp = new ReportMessage(message, ReportMessage.Category.CERTIFICATE, certificate.getMode(), ReportMessage.Type.ERROR);
 			ReportRegister.getInstance().addReportCertificate(rp);
 		}
 
-		return new Pair<>(succesfullHandshake, succesfullCommunicationAfterHandshake);
+		return new Pair<>(handshake, communicationAfterHandshake);
 	}
 
 	/**
@@ -496,6 +829,7 @@ public class ProxyServer {
 	 */
 	public void startProtocolTest() {
 		secureSocket = true;
+		sharedCertificates = null;
 		succesfullHandshake = false;
 		succesfullCommunication = false;
 		succesfullCommunicationAfterHandshake = false;
@@ -510,20 +844,20 @@ public class ProxyServer {
 	public Pair<Boolean, Boolean> stopProtocolTest() {
 		//not even communication
 		if (!succesfullCommunication && clientProtocol.getMode().isMustBeOrMustNotBe()) {
-			String message = String.format("Protocol [%s] %s supported, but there wasn't captured any communication to determine!", clientProtocol.getType(), clientProtocol.getMode());
+			String message = String.format("Protocol [%s] %s supported, but there wasn't captured any communication on port [%s] to determine!", clientProtocol.getType(), clientProtocol.getMode(), getLocalPort());
 			ReportMessage rp = new ReportMessage(message, ReportMessage.Category.PROTOCOL, clientProtocol.getMode(), ReportMessage.Type.ERROR);
 			ReportRegister.getInstance().addReportProtocol(rp);
 			return new Pair<>(false, false);
 		}
 
 		if (clientProtocol.getMode().isMustBe() && !succesfullHandshake) {
-			String message = String.format("Protocol [%s] MUST BE supported, but there wasn't captured significant communication!", clientProtocol.getType());
+			String message = String.format("Protocol [%s] MUST BE supported, but there wasn't captured significant communication on port [%s]!", clientProtocol.getType(), getLocalPort());
 			ReportMessage rp = new ReportMessage(message, ReportMessage.Category.PROTOCOL, clientProtocol.getMode(), ReportMessage.Type.ERROR);
 			ReportRegister.getInstance().addReportProtocol(rp);
 		}
 
 		if (clientProtocol.getMode().isMustNotBe() && succesfullCommunicationAfterHandshake) {
-			String message = String.format("Protocol [%s] MUST NOT BE supported, but there was captured significant communication after handshake!", clientProtocol.getType());
+			String message = String.format("Protocol [%s] MUST NOT BE supported, but there was captured significant communication after handshake on port [%s]!", clientProtocol.getType(), getLocalPort());
 			ReportMessage rp = new ReportMessage(message, ReportMessage.Category.PROTOCOL, clientProtocol.getMode(), ReportMessage.Type.ERROR);
 			ReportRegister.getInstance().addReportProtocol(rp);
 		}
@@ -532,12 +866,12 @@ public class ProxyServer {
 	}
 
 	/**
-	 * Creates SSLServerSocketFactory, that will be using custom certificate
+	 * Creates SSLContext, that will be using custom certificate
 	 *
 	 * @param certificate certificate used to secure communication
-	 * @return a newly created factory
+	 * @return a newly created context or null in case of any error
 	 */
-	public SSLServerSocketFactory createSSLServerSocketFactory(ClientCertificate certificate) {
+	public SSLContext createSSLContext(ClientCertificate certificate) {
 
 		try {
 			KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
@@ -550,7 +884,7 @@ public class ProxyServer {
 
 			sslContext.init(kmf.getKeyManagers(), tmf.getTrustManagers(), new java.security.SecureRandom());
 
-			return sslContext.getServerSocketFactory();
+			return sslContext;
 		} catch (Exception ex) {
 			Log.debugException(ex);
 			return null;
@@ -3,7 +3,7 @@ package cz.ondrejsmetak;
 import cz.ondrejsmetak.entity.ReportClientHello;
 import cz.ondrejsmetak.entity.ReportMessage;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -21,17 +21,17 @@ public class ReportRegister {
 	/**
 	 * Collection of reports (each report for single captured Client Hello)
 	 */
-	private final List<ReportClientHello> clientHelloRegister = new ArrayList<>();
+	private final List<ReportClientHello> clientHelloRegister = Collections.synchronizedList(new ArrayList<>());
 
 	/**
 	 * Collection of reports (each report for single certificate)
 	 */
-	private final List<ReportMessage> certificateRegister = new ArrayList<>();
+	private final List<ReportMessage> certificateRegister = Collections.synchronizedList(new ArrayList<>());
 
 	/**
 	 * Collection of reports (each report for single protocol)
 	 */
-	private final List<ReportMessage> protocolRegister = new ArrayList<>();
+	private final List<ReportMessage> protocolRegister = Collections.synchronizedList(new ArrayList<>());
 
 	/**
 	 * Returns a instance of this class
@@ -0,0 +1,74 @@
+package cz.ondrejsmetak.entity;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * HTTP response served by local responder for the given path
+ *
+ * @author Ondřej Směták <posta@ondrejsmetak.cz>
+ */
+public class CannedResponse extends BaseEntity {
+
+	/**
+	 * Path of request, that is answered by this response
+	 */
+	private final String path;
+
+	/**
+	 * HTTP status code
+	 */
+	private final int status;
+
+	/**
+	 * Value of header "Content-Type"
+	 */
+	private final String contentType;
+
+	/**
+	 * Body of response
+	 */
+	private final byte[] body;
+
+	/**
+	 * Creates a new response with the given parameters
+	 *
+	 * @param path path of request
+	 * @param status HTTP status code
+	 * @param contentType value of header "Content-Type"
+	 * @param body body of response
+	 */
+	public CannedResponse(String path, int status, String contentType, String body) {
+		this(path, status, contentType, body.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Creates a new response with the given parameters
+	 *
+	 * @param path path of request
+	 * @param status HTTP status code
+	 * @param contentType value of header "Content-Type"
+	 * @param body body of response
+	 */
+	public CannedResponse(String path, int status, String contentType, byte[] body) {
+		this.path = path;
+		this.status = status;
+		this.contentType = contentType;
+		this.body = body;
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	public int getStatus() {
+		return status;
+	}
+
+	public String getContentType() {
+		return contentType;
+	}
+
+	public byte[] getBody() {
+		return body;
+	}
+}
@@ -1,5 +1,6 @@
 package cz.ondrejsmetak.entity;
 
+import cz.ondrejsmetak.tool.Helper;
 import java.util.Objects;
 
 /**
@@ -9,11 +10,23 @@ import java.util.Objects;
  */
 public class CipherSuite {
 
+	/**
+	 * Code of cipher suite, whose hexadecimal code doesn't have four digits
+	 * (cipher suite) or six digits (cipher kind of SSLv2 compatible Client
+	 * Hello), so it can't be offered in Client Hello
+	 */
+	public static final int NO_CODE = -1;
+
 	/**
 	 * Hexadecimal code (by RFC standard)
 	 */
 	private Hex hexCode;
 
+	/**
+	 * Hexadecimal code as number
+	 */
+	private int code;
+
 	/**
 	 * Name defined by user. So name compliant with RFC standards is NOT
 	 * required
@@ -34,6 +47,7 @@ public class CipherSuite {
 	 */
 	public CipherSuite(Hex hexCode, String name, Mode mode) {
 		this.hexCode = hexCode;
+		this.code = toCode(hexCode);
 		this.name = name;
 		this.mode = mode;
 	}
@@ -47,14 +61,34 @@ public class CipherSuite {
 	 */
 	public CipherSuite(String hexCode, String name, Mode mode) {
 		this.hexCode = new Hex(hexCode);
+		this.code = toCode(this.hexCode);
 		this.name = name;
 		this.mode = mode;
 	}
 
+	/**
+	 * Converts hexadecimal code to number, as it's sent in Client Hello
+	 *
+	 * @param hexCode hexadecimal code
+	 * @return number, or NO_CODE, if code doesn't have four or six digits
+	 */
+	private static int toCode(Hex hexCode) {
+		return hexCode.getDigits() == 4 || hexCode.getDigits() == 6 ? Helper.hexToDec(hexCode) : NO_CODE;
+	}
+
 	public Hex getHex() {
 		return hexCode;
 	}
 
+	/**
+	 * Returns hexadecimal code as number
+	 *
+	 * @return number, or NO_CODE, if code doesn't have four or six digits
+	 */
+	public int getCode() {
+		return code;
+	}
+
 	public String getName() {
 		return name;
 	}
@@ -2,27 +2,149 @@ package cz.ondrejsmetak.entity;
 
 import cz.ondrejsmetak.CipherSuiteRegister;
 import cz.ondrejsmetak.tool.Helper;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
 /**
- * Client Hello. Message sent by client during SSL/TLS handshake
+ * Client Hello. Message sent by client during SSL/TLS handshake. Captured
+ * bytes are not copied, lengths and codes are read from them directly into
+ * primitive values, so this class is only a thin view over the given array.
+ * Extensions are only indexed during parsing, each of them is decoded on
+ * demand, once somebody asks for its value. Fingerprints JA3 and JA4 are
+ * computed on demand as well. SSLv2 compatible Client Hello, sent by some
+ * older clients, is supported too, it has no extensions.
  *
  * @author Ondřej Směták <posta@ondrejsmetak.cz>
  */
 public class ClientHello extends BasePayloadEntity {
-	
+
+	/**
+	 * Length of TLS record header
+	 */
+	private static final int RECORD_HEADER_LENGTH = 5;
+
+	/**
+	 * Length of handshake message header
+	 */
+	private static final int HANDSHAKE_HEADER_LENGTH = 4;
+
+	/**
+	 * Length of random value sent by client
+	 */
+	private static final int RANDOM_LENGTH = 32;
+
 	/**
-	 * Version in hexadecimal format used in handshake
+	 * Length of SSLv2 record header, type of message follows
 	 */
-	private Hex versionHandshake;
+	private static final int SSL_V2_HEADER_LENGTH = 2;
 
 	/**
-	 * Collection of cipher suites offered by client
+	 * Length of SSLv2 message header: type, version and three lengths
 	 */
-	private List<CipherSuite> cipherSuites;
+	private static final int SSL_V2_MESSAGE_HEADER_LENGTH = 9;
+
+	/**
+	 * Length of cipher spec in SSLv2 compatible Client Hello
+	 */
+	private static final int SSL_V2_CIPHER_SPEC_LENGTH = 3;
+
+	/**
+	 * Version of SSLv2 as sent in SSLv2 compatible Client Hello
+	 */
+	private static final int SSL_V2_VERSION = 0x0002;
+
+	private static final int CONTENT_TYPE_HANDSHAKE = 0x16;
+	private static final int HANDSHAKE_TYPE_CLIENT_HELLO_CODE = 0x01;
+
+	/**
+	 * Types of extensions, that can be decoded
+	 */
+	public static final int EXTENSION_SERVER_NAME = 0;
+	public static final int EXTENSION_SUPPORTED_GROUPS = 10;
+	public static final int EXTENSION_EC_POINT_FORMATS = 11;
+	public static final int EXTENSION_SIGNATURE_ALGORITHMS = 13;
+	public static final int EXTENSION_APPLICATION_LAYER_PROTOCOL_NEGOTIATION = 16;
+	public static final int EXTENSION_SUPPORTED_VERSIONS = 43;
+	public static final int EXTENSION_KEY_SHARE = 51;
+
+	/**
+	 * Type of host name in extension server_name
+	 */
+	private static final int SERVER_NAME_TYPE_HOST_NAME = 0;
+
+	/**
+	 * All possible versions used in Client Hello as numbers
+	 */
+	private static final int[] ALL_VERSIONS = toCodes(getAllVersions());
+
+	/**
+	 * Code of cipher suite TLS_FALLBACK_SCSV
+	 */
+	private static final int TLS_FALLBACK_SCSV_CODE = 0x5600;
+
+	/**
+	 * Digits of lower case hexadecimal form of fingerprints
+	 */
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	/**
+	 * Captured bytes, with bounds of Client Hello
+	 */
+	private final byte[] bytes;
+	private final int offset;
+	private final int end;
+
+	/**
+	 * Is this SSLv2 compatible Client Hello?
+	 */
+	private final boolean sslV2Compatible;
+
+	/**
+	 * Version used in handshake
+	 */
+	private int versionHandshake;
+
+	/**
+	 * Codes of cipher suites offered by client, in the offered order
+	 */
+	private int[] cipherSuiteCodes;
+
+	/**
+	 * Collection of cipher suites offered by client, created on demand
+	 */
+	private List<CipherSuite> cipherSuites = null;
+
+	/**
+	 * Index of extensions, their types and bounds of their data, in the sent
+	 * order
+	 */
+	private int extensionCount = 0;
+	private int[] extensionTypes = new int[0];
+	private int[] extensionOffsets = new int[0];
+	private int[] extensionLengths = new int[0];
+
+	/**
+	 * Decoded values of extensions, created on demand
+	 */
+	private String serverName = null;
+	private int[] supportedGroups = null;
+	private int[] ecPointFormats = null;
+	private int[] signatureAlgorithms = null;
+	private List<String> applicationProtocols = null;
+	private int[] supportedVersions = null;
+	private int[] keyShareGroups = null;
+
+	/**
+	 * Fingerprints, created on demand
+	 */
+	private String ja3 = null;
+	private String ja3Hash = null;
+	private String ja4 = null;
 
 	/**
 	 * Creates a new Client Hello from array of bytes
@@ -30,45 +152,579 @@ public class ClientHello extends BasePayloadEntity {
 	 * @param bytes array of bytes
 	 */
 	public ClientHello(byte[] bytes) {
-		parse(bytes);
+		this(bytes, 0, bytes.length);
 	}
 
 	/**
-	 * Parses array of bytes and fills attributes
+	 * Creates a new Client Hello from part of array of bytes. Array is not
+	 * copied, so it must not be changed afterwards.
 	 *
 	 * @param bytes array of bytes
+	 * @param offset offset of the first byte
+	 * @param length count of bytes
 	 */
-	private void parse(byte[] bytes) {
-		int i = 0;
+	public ClientHello(byte[] bytes, int offset, int length) {
+		this.bytes = bytes;
+		this.offset = offset;
+		this.end = offset + length;
+		this.sslV2Compatible = isSslV2ClientHello(bytes, offset, length);
+
+		if (sslV2Compatible) {
+			parseSslV2();
+		} else {
+			parse();
+		}
+	}
+
+	/**
+	 * Parses bytes of SSLv2 compatible Client Hello and fills attributes.
+	 * Cipher specs have three bytes, specs with the first byte zero are
+	 * cipher suites of SSLv3/TLS, the others are SSLv2 cipher kinds.
+	 */
+	private void parseSslV2() {
+		int i = offset + SSL_V2_HEADER_LENGTH + 1;
+		versionHandshake = readUnsigned(i, 2);
+		int cipherSpecsLength = readUnsigned(i + 2, 2);
+		i = offset + SSL_V2_HEADER_LENGTH + SSL_V2_MESSAGE_HEADER_LENGTH; //session id and challenge follow cipher specs
+
+		if (cipherSpecsLength % SSL_V2_CIPHER_SPEC_LENGTH != 0) {
+			throw new IllegalArgumentException("Byte array of cipher specs must have length divisible by 3!");
+		}
+		checkAvailable(i, cipherSpecsLength);
 
-		/*SSL/TLS layer*/
-		Hex contentType = new Hex(bytes[i++]);
-		Hex versionLayer = new Hex(bytes[i++], bytes[i++]);
-		Hex lengthLayer = new Hex(bytes[i++], bytes[i++]);
+		cipherSuiteCodes = new int[cipherSpecsLength / SSL_V2_CIPHER_SPEC_LENGTH];
+		for (int j = 0; j < cipherSuiteCodes.length; j++) {
+			cipherSuiteCodes[j] = readUnsigned(i + j * SSL_V2_CIPHER_SPEC_LENGTH, SSL_V2_CIPHER_SPEC_LENGTH);
+			if (!isGrease(cipherSuiteCodes[j])) {
+				CipherSuiteRegister.getInstance().getByCodeOrCreateDefault(cipherSuiteCodes[j]);
+			}
+		}
+	}
 
-		/*Handshake protocol*/
-		Hex handshakeType = new Hex(bytes[i++]);
-		Hex lengthHandshake = new Hex(bytes[i++], bytes[i++], bytes[i++]);
-		versionHandshake = new Hex(bytes[i++], bytes[i++]);
-		Hex random = new Hex(Arrays.copyOfRange(bytes, i, i + 32)); //32 bytes long
-		i += 32;
+	/**
+	 * Parses bytes and fills attributes
+	 */
+	private void parse() {
+		/*SSL/TLS layer and handshake protocol, only length and version of handshake are needed*/
+		int messageLength = readUnsigned(offset + RECORD_HEADER_LENGTH + 1, 3);
+		int messageEnd = Math.min(end, offset + RECORD_HEADER_LENGTH + HANDSHAKE_HEADER_LENGTH + messageLength);
+		int i = offset + RECORD_HEADER_LENGTH + HANDSHAKE_HEADER_LENGTH;
+		versionHandshake = readUnsigned(i, 2);
+		i += 2 + RANDOM_LENGTH;
 
 		/*sessionId*/
-		Hex sessionIdLength = new Hex(bytes[i++]);
-		int sessionIdLengthDec = Helper.hexToDec(sessionIdLength);
-		Hex sessionId = sessionIdLengthDec > 0 ? new Hex(Arrays.copyOfRange(bytes, i, i + sessionIdLengthDec)) : new Hex("00");
-		i += sessionIdLengthDec;
+		int sessionIdLength = readUnsigned(i, 1);
+		i += 1 + sessionIdLength;
 
 		/*cipherSuites*/
-		Hex cipherSuitesLength = new Hex(bytes[i++], bytes[i++]);
-		int cipherSuitesLengthDec = Helper.hexToDec(cipherSuitesLength);
-		cipherSuites = parseCipherSuites(Arrays.copyOfRange(bytes, i, i + cipherSuitesLengthDec));
-		i += cipherSuitesLengthDec;
+		int cipherSuitesLength = readUnsigned(i, 2);
+		i += 2;
+		if (cipherSuitesLength % 2 != 0) {
+			throw new IllegalArgumentException("Byte array of cipher suites must have even length!");
+		}
+		checkAvailable(i, cipherSuitesLength);
+
+		cipherSuiteCodes = new int[cipherSuitesLength / 2];
+		for (int j = 0; j < cipherSuiteCodes.length; j++) {
+			cipherSuiteCodes[j] = readUnsigned(i + j * 2, 2);
+			//unknown cipher suites are registered, so analysis can report them, GREASE values are not analysed
+			if (!isGrease(cipherSuiteCodes[j])) {
+				CipherSuiteRegister.getInstance().getByCodeOrCreateDefault(cipherSuiteCodes[j]);
+			}
+		}
+		i += cipherSuitesLength;
 
-		/*we could continue in parsing, that we dont't acutally care about following values*/
+		/*compression methods*/
+		if (i >= messageEnd) {
+			return; //very old clients don't send anything more
+		}
+		int compressionMethodsLength = readUnsigned(i, 1);
+		i += 1 + compressionMethodsLength;
+
+		/*extensions, only their index is built, values are decoded on demand*/
+		if (i + 2 > messageEnd) {
+			return;
+		}
+		int extensionsEnd = Math.min(messageEnd, i + 2 + readUnsigned(i, 2));
+		i += 2;
+		indexExtensions(i, extensionsEnd);
 	}
 
+	/**
+	 * Builds index of extensions in the given bounds. Malformed tail of
+	 * extensions is ignored, as the rest of Client Hello can still be analysed.
+	 *
+	 * @param start offset of the first extension
+	 * @param extensionsEnd offset of the first byte after extensions
+	 */
+	private void indexExtensions(int start, int extensionsEnd) {
+		int i = start;
+
+		while (i + 4 <= extensionsEnd) {
+			int type = readUnsigned(i, 2);
+			int length = readUnsigned(i + 2, 2);
+			if (i + 4 + length > extensionsEnd) {
+				break;
+			}
+
+			if (extensionCount == extensionTypes.length) {
+				int capacity = Math.max(16, extensionCount * 2);
+				extensionTypes = Arrays.copyOf(extensionTypes, capacity);
+				extensionOffsets = Arrays.copyOf(extensionOffsets, capacity);
+				extensionLengths = Arrays.copyOf(extensionLengths, capacity);
+			}
+			extensionTypes[extensionCount] = type;
+			extensionOffsets[extensionCount] = i + 4;
+			extensionLengths[extensionCount] = length;
+			extensionCount++;
 
+			i += 4 + length;
+		}
+	}
+
+	/**
+	 * Finds extension of the given type in index
+	 *
+	 * @param type type of extension
+	 * @return position in index, or -1, if client didn't send such extension
+	 */
+	private int findExtension(int type) {
+		for (int i = 0; i < extensionCount; i++) {
+			if (extensionTypes[i] == type) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Decodes extension, whose value is list of numbers with the given length
+	 * prefix. Malformed list is decoded only up to the first invalid item.
+	 *
+	 * @param type type of extension
+	 * @param prefixLength count of bytes with length of list
+	 * @param itemLength count of bytes of each number
+	 * @return numbers, empty, if client didn't send such extension
+	 */
+	private int[] decodeList(int type, int prefixLength, int itemLength) {
+		int index = findExtension(type);
+		if (index == -1 || extensionLengths[index] < prefixLength) {
+			return new int[0];
+		}
+
+		int start = extensionOffsets[index] + prefixLength;
+		int listEnd = Math.min(extensionOffsets[index] + extensionLengths[index], start + readUnsigned(extensionOffsets[index], prefixLength));
+
+		int[] done = new int[(listEnd - start) / itemLength];
+		for (int i = 0; i < done.length; i++) {
+			done[i] = readUnsigned(start + i * itemLength, itemLength);
+		}
+		return done;
+	}
+
+	/**
+	 * Reads unsigned number stored in big-endian order
+	 *
+	 * @param position offset of the first byte
+	 * @param count count of bytes
+	 * @return number
+	 */
+	private int readUnsigned(int position, int count) {
+		checkAvailable(position, count);
+
+		int value = 0;
+		for (int i = 0; i < count; i++) {
+			value = (value << 8) | (bytes[position + i] & 0xFF);
+		}
+		return value;
+	}
+
+	/**
+	 * Checks, if the given count of bytes is present in Client Hello
+	 *
+	 * @param position offset of the first byte
+	 * @param count count of bytes
+	 */
+	private void checkAvailable(int position, int count) {
+		if (position + count > end) {
+			throw new IllegalArgumentException("Client Hello is truncated!");
+		}
+	}
+
+	/**
+	 * Returns types of extensions sent by client, in the sent order
+	 *
+	 * @return types of extensions
+	 */
+	public int[] getExtensionTypes() {
+		return Arrays.copyOf(extensionTypes, extensionCount);
+	}
+
+	/**
+	 * Checks, if client sent extension of the given type
+	 *
+	 * @param type type of extension
+	 * @return true, if extension is present, false otherwise
+	 */
+	public boolean hasExtension(int type) {
+		return findExtension(type) != -1;
+	}
+
+	/**
+	 * Returns host name from extension server_name
+	 *
+	 * @return host name, or null, if client didn't send any
+	 */
+	public String getServerName() {
+		if (serverName == null) {
+			serverName = decodeServerName();
+		}
+		return serverName.isEmpty() ? null : serverName;
+	}
+
+	private String decodeServerName() {
+		int index = findExtension(EXTENSION_SERVER_NAME);
+		if (index == -1 || extensionLengths[index] < 2) {
+			return "";
+		}
+
+		int extensionEnd = extensionOffsets[index] + extensionLengths[index];
+		int i = extensionOffsets[index] + 2;
+		while (i + 3 <= extensionEnd) {
+			int nameType = readUnsigned(i, 1);
+			int nameLength = readUnsigned(i + 1, 2);
+			if (i + 3 + nameLength > extensionEnd) {
+				break;
+			}
+			if (nameType == SERVER_NAME_TYPE_HOST_NAME) {
+				return new String(bytes, i + 3, nameLength, StandardCharsets.US_ASCII);
+			}
+			i += 3 + nameLength;
+		}
+		return "";
+	}
+
+	/**
+	 * Returns groups from extension supported_groups (elliptic_curves)
+	 *
+	 * @return codes of groups, empty, if client didn't send any
+	 */
+	public int[] getSupportedGroups() {
+		if (supportedGroups == null) {
+			supportedGroups = decodeList(EXTENSION_SUPPORTED_GROUPS, 2, 2);
+		}
+		return supportedGroups.clone();
+	}
+
+	/**
+	 * Returns formats from extension ec_point_formats
+	 *
+	 * @return codes of formats, empty, if client didn't send any
+	 */
+	public int[] getEcPointFormats() {
+		if (ecPointFormats == null) {
+			ecPointFormats = decodeList(EXTENSION_EC_POINT_FORMATS, 1, 1);
+		}
+		return ecPointFormats.clone();
+	}
+
+	/**
+	 * Returns algorithms from extension signature_algorithms
+	 *
+	 * @return codes of algorithms, empty, if client didn't send any
+	 */
+	public int[] getSignatureAlgorithms() {
+		if (signatureAlgorithms == null) {
+			signatureAlgorithms = decodeList(EXTENSION_SIGNATURE_ALGORITHMS, 2, 2);
+		}
+		return signatureAlgorithms.clone();
+	}
+
+	/**
+	 * Returns versions from extension supported_versions
+	 *
+	 * @return codes of versions, empty, if client didn't send any
+	 */
+	public int[] getSupportedVersions() {
+		if (supportedVersions == null) {
+			supportedVersions = decodeList(EXTENSION_SUPPORTED_VERSIONS, 1, 2);
+		}
+		return supportedVersions.clone();
+	}
+
+	/**
+	 * Returns protocols from extension application_layer_protocol_negotiation
+	 *
+	 * @return names of protocols, empty, if client didn't send any
+	 */
+	public List<String> getApplicationProtocols() {
+		if (applicationProtocols == null) {
+			applicationProtocols = Collections.unmodifiableList(decodeApplicationProtocols());
+		}
+		return applicationProtocols;
+	}
+
+	private List<String> decodeApplicationProtocols() {
+		List<String> done = new ArrayList<>();
+		int index = findExtension(EXTENSION_APPLICATION_LAYER_PROTOCOL_NEGOTIATION);
+		if (index == -1 || extensionLengths[index] < 2) {
+			return done;
+		}
+
+		int listEnd = Math.min(extensionOffsets[index] + extensionLengths[index], extensionOffsets[index] + 2 + readUnsigned(extensionOffsets[index], 2));
+		int i = extensionOffsets[index] + 2;
+		while (i + 1 <= listEnd) {
+			int nameLength = readUnsigned(i, 1);
+			if (i + 1 + nameLength > listEnd) {
+				break;
+			}
+			done.add(new String(bytes, i + 1, nameLength, StandardCharsets.ISO_8859_1)); //one char per byte
+			i += 1 + nameLength;
+		}
+		return done;
+	}
+
+	/**
+	 * Returns groups of key shares from extension key_share
+	 *
+	 * @return codes of groups, empty, if client didn't send any
+	 */
+	public int[] getKeyShareGroups() {
+		if (keyShareGroups == null) {
+			keyShareGroups = decodeKeyShareGroups();
+		}
+		return keyShareGroups.clone();
+	}
+
+	private int[] decodeKeyShareGroups() {
+		int index = findExtension(EXTENSION_KEY_SHARE);
+		if (index == -1 || extensionLengths[index] < 2) {
+			return new int[0];
+		}
+
+		int listEnd = Math.min(extensionOffsets[index] + extensionLengths[index], extensionOffsets[index] + 2 + readUnsigned(extensionOffsets[index], 2));
+		int[] done = new int[0];
+		int i = extensionOffsets[index] + 2;
+		while (i + 4 <= listEnd) {
+			int keyLength = readUnsigned(i + 2, 2);
+			if (i + 4 + keyLength > listEnd) {
+				break;
+			}
+			done = Arrays.copyOf(done, done.length + 1);
+			done[done.length - 1] = readUnsigned(i, 2);
+			i += 4 + keyLength;
+		}
+		return done;
+	}
+
+	/**
+	 * Returns fingerprint JA3 in its full text form: version, cipher suites,
+	 * extensions, supported groups and EC point formats, without GREASE
+	 * values
+	 *
+	 * @return text of fingerprint JA3
+	 */
+	public String getJa3() {
+		if (ja3 == null) {
+			StringBuilder sb = new StringBuilder();
+			sb.append(versionHandshake).append(',');
+			appendDecimal(sb, cipherSuiteCodes, cipherSuiteCodes.length).append(',');
+			appendDecimal(sb, extensionTypes, extensionCount).append(',');
+			int[] groups = getSupportedGroups();
+			appendDecimal(sb, groups, groups.length).append(',');
+			int[] formats = getEcPointFormats();
+			appendDecimal(sb, formats, formats.length);
+			ja3 = sb.toString();
+		}
+		return ja3;
+	}
+
+	/**
+	 * Returns fingerprint JA3 as MD5 hash of its text form, as it's usually
+	 * published
+	 *
+	 * @return hash of fingerprint JA3
+	 */
+	public String getJa3Hash() {
+		if (ja3Hash == null) {
+			ja3Hash = digest("MD5", getJa3(), 32);
+		}
+		return ja3Hash;
+	}
+
+	/**
+	 * Returns fingerprint JA4 of client, that uses TCP: protocol, version,
+	 * presence of server name, counts of cipher suites and extensions and the
+	 * first protocol of ALPN, followed by truncated SHA-256 hashes of sorted
+	 * cipher suites and of sorted extensions with signature algorithms
+	 *
+	 * @return fingerprint JA4
+	 */
+	public String getJa4() {
+		if (ja4 == null) {
+			int[] ciphers = withoutGrease(cipherSuiteCodes, cipherSuiteCodes.length);
+			int[] extensions = withoutGrease(extensionTypes, extensionCount);
+
+			StringBuilder sb = new StringBuilder("t");
+			sb.append(getJa4Version());
+			sb.append(hasExtension(EXTENSION_SERVER_NAME) ? 'd' : 'i');
+			sb.append(String.format("%02d%02d", Math.min(ciphers.length, 99), Math.min(extensions.length, 99)));
+			sb.append(getJa4ApplicationProtocol());
+
+			Arrays.sort(ciphers);
+			sb.append('_').append(ciphers.length == 0 ? "000000000000" : digest("SHA-256", appendHex(new StringBuilder(), ciphers).toString(), 12));
+
+			int[] sortedExtensions = new int[extensions.length];
+			int count = 0;
+			for (int extension : extensions) {
+				if (extension != EXTENSION_SERVER_NAME && extension != EXTENSION_APPLICATION_LAYER_PROTOCOL_NEGOTIATION) {
+					sortedExtensions[count++] = extension;
+				}
+			}
+			sortedExtensions = Arrays.copyOf(sortedExtensions, count);
+			Arrays.sort(sortedExtensions);
+
+			StringBuilder extensionsText = appendHex(new StringBuilder(), sortedExtensions);
+			int[] algorithms = getSignatureAlgorithms();
+			if (algorithms.length > 0) {
+				appendHex(extensionsText.append('_'), algorithms);
+			}
+			sb.append('_').append(sortedExtensions.length == 0 ? "000000000000" : digest("SHA-256", extensionsText.toString(), 12));
+			ja4 = sb.toString();
+		}
+		return ja4;
+	}
+
+	/**
+	 * Returns version part of fingerprint JA4, the highest version from
+	 * extension supported_versions, or version of handshake
+	 *
+	 * @return two characters of version
+	 */
+	private String getJa4Version() {
+		int[] versions = getSupportedVersions();
+		versions = withoutGrease(versions, versions.length);
+
+		int version = versions.length == 0 ? versionHandshake : 0;
+		for (int candidate : versions) {
+			version = Math.max(version, candidate);
+		}
+
+		switch (version) {
+			case 0x0304:
+				return "13";
+			case 0x0303:
+				return "12";
+			case 0x0302:
+				return "11";
+			case 0x0301:
+				return "10";
+			case 0x0300:
+				return "s3";
+			case 0x0200:
+			case SSL_V2_VERSION:
+				return "s2";
+			default:
+				return "00";
+		}
+	}
+
+	/**
+	 * Returns ALPN part of fingerprint JA4, the first and the last character
+	 * of the first protocol, or of its hexadecimal form, if they aren't
+	 * alphanumeric
+	 *
+	 * @return two characters of ALPN
+	 */
+	private String getJa4ApplicationProtocol() {
+		List<String> protocols = getApplicationProtocols();
+		if (protocols.isEmpty() || protocols.get(0).isEmpty()) {
+			return "00";
+		}
+
+		String protocol = protocols.get(0);
+		char first = protocol.charAt(0);
+		char last = protocol.charAt(protocol.length() - 1);
+		if (isAlphanumeric(first) && isAlphanumeric(last)) {
+			return new String(new char[]{first, last});
+		}
+
+		String hex = String.format("%02x", (int) first) + String.format("%02x", (int) last);
+		return new String(new char[]{hex.charAt(0), hex.charAt(3)});
+	}
+
+	private static boolean isAlphanumeric(char c) {
+		return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+
+	/**
+	 * Checks, if the given code is GREASE value (RFC 8701), that client sends
+	 * only to keep servers tolerant to unknown values
+	 *
+	 * @param code code of cipher suite, extension, group or version
+	 * @return true, if code is GREASE value, false otherwise
+	 */
+	public static boolean isGrease(int code) {
+		return (code & 0x0F0F) == 0x0A0A && (code >>> 8) == (code & 0xFF);
+	}
+
+	private static int[] withoutGrease(int[] codes, int length) {
+		int[] done = new int[length];
+		int count = 0;
+		for (int i = 0; i < length; i++) {
+			if (!isGrease(codes[i])) {
+				done[count++] = codes[i];
+			}
+		}
+		return count == length ? done : Arrays.copyOf(done, count);
+	}
+
+	private static StringBuilder appendDecimal(StringBuilder sb, int[] codes, int length) {
+		boolean first = true;
+		for (int i = 0; i < length; i++) {
+			if (isGrease(codes[i])) {
+				continue;
+			}
+			if (!first) {
+				sb.append('-');
+			}
+			sb.append(codes[i]);
+			first = false;
+		}
+		return sb;
+	}
+
+	private static StringBuilder appendHex(StringBuilder sb, int[] codes) {
+		for (int i = 0; i < codes.length; i++) {
+			if (i > 0) {
+				sb.append(',');
+			}
+			sb.append(String.format("%04x", codes[i]));
+		}
+		return sb;
+	}
+
+	/**
+	 * Computes hash of the given text in lower case hexadecimal form
+	 *
+	 * @param algorithm name of digest algorithm
+	 * @param text text
+	 * @param digits count of hexadecimal digits, that are returned
+	 * @return hash, truncated to the given count of digits
+	 */
+	private static String digest(String algorithm, String text, int digits) {
+		try {
+			byte[] hash = MessageDigest.getInstance(algorithm).digest(text.getBytes(StandardCharsets.US_ASCII));
+			char[] done = new char[digits];
+			for (int i = 0; i < digits; i++) {
+				int value = hash[i / 2] & 0xFF;
+				done[i] = HEX_DIGITS[i % 2 == 0 ? value >>> 4 : value & 0x0F];
+			}
+			return new String(done);
+		} catch (NoSuchAlgorithmException ex) {
+			throw new IllegalStateException(ex); //every Java platform supports MD5 and SHA-256
+		}
+	}
 
 	/**
 	 * Determines, if array of bytes if Client Hello
@@ -77,54 +733,84 @@ public class ClientHello extends BasePayloadEntity {
 	 * @return true, if array of bytes represents Client Hello, false otherwise
 	 */
 	public static boolean isClientHello(byte[] bytes) {
+		return isClientHello(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Determines, if part of array of bytes if Client Hello
+	 *
+	 * @param bytes array of bytes
+	 * @param offset offset of the first byte
+	 * @param length count of bytes
+	 * @return true, if bytes represent Client Hello, false otherwise
+	 */
+	public static boolean isClientHello(byte[] bytes, int offset, int length) {
+		if (isSslV2ClientHello(bytes, offset, length)) {
+			return true;
+		}
+
 		//we need at least 6 bytes to determine
-		if (bytes.length < 6) {
+		if (length < 6) {
 			return false;
 		}
 
-		Hex contentType = new Hex(bytes[0]);
-		Hex versionLayer = new Hex(bytes[1], bytes[2]);
+		int contentType = bytes[offset] & 0xFF;
+		int versionLayer = ((bytes[offset + 1] & 0xFF) << 8) | (bytes[offset + 2] & 0xFF);
 		//skip two bytes with length
-		Hex handshakeType = new Hex(bytes[5]);
-
-		return contentType.equals(CONTENT_TYPE)
-				&& getAllVersions().contains(versionLayer)
-				&& handshakeType.equals(HANDSHAKE_TYPE_CLIENT_HELLO);
+		int handshakeType = bytes[offset + 5] & 0xFF;
 
+		return contentType == CONTENT_TYPE_HANDSHAKE
+				&& contains(ALL_VERSIONS, versionLayer)
+				&& handshakeType == HANDSHAKE_TYPE_CLIENT_HELLO_CODE;
 	}
 
 	/**
-	 * Parses part of Client Hello, that consists of offered cipher suites
+	 * Determines, if part of array of bytes is SSLv2 compatible Client Hello.
+	 * Its record header has two bytes of length with the highest bit set.
 	 *
 	 * @param bytes array of bytes
-	 * @return collection of offered cipher suites
+	 * @param offset offset of the first byte
+	 * @param length count of bytes
+	 * @return true, if bytes represent SSLv2 compatible Client Hello, false
+	 * otherwise
 	 */
-	private List<CipherSuite> parseCipherSuites(byte[] bytes) {
-		if (Helper.isEven(bytes.length)) {
-			throw new IllegalArgumentException("Byte array of cipher suites must have odd length!");
+	private static boolean isSslV2ClientHello(byte[] bytes, int offset, int length) {
+		if (length < SSL_V2_HEADER_LENGTH + SSL_V2_MESSAGE_HEADER_LENGTH || (bytes[offset] & 0x80) == 0) {
+			return false;
 		}
 
-		List<CipherSuite> done = new ArrayList<>();
+		int messageType = bytes[offset + 2] & 0xFF;
+		int version = ((bytes[offset + 3] & 0xFF) << 8) | (bytes[offset + 4] & 0xFF);
 
-		for (int i = 0; i < bytes.length; i += 2) {
-			Hex hex = new Hex(bytes[i], bytes[i + 1]);
-			done.add(CipherSuiteRegister.getInstance().getByHexOrCreateDefault(hex));
-		}
+		return messageType == HANDSHAKE_TYPE_CLIENT_HELLO_CODE
+				&& (version == SSL_V2_VERSION || contains(ALL_VERSIONS, version));
+	}
 
-		return done;
+	/**
+	 * Checks, if this is SSLv2 compatible Client Hello
+	 *
+	 * @return true, if Client Hello has format of SSLv2, false otherwise
+	 */
+	public boolean isSslV2Compatible() {
+		return sslV2Compatible;
 	}
 
 	/**
 	 * Returns collection of hexadecimal values, where each hexadecimal value
-	 * represents version (of protocol) supported by client.
+	 * represents version (of protocol) supported by client. Versions listed in
+	 * extension supported_versions take precedence over version of handshake,
+	 * which TLS 1.3 clients leave at TLS 1.2.
 	 *
 	 * @return collection of supported protocol versions
 	 */
 	private List<Hex> getSupportedProtocolsHexDuringHandshake() {
 		List<Hex> supported = new ArrayList<>();
+		int[] versions = hasExtension(EXTENSION_SUPPORTED_VERSIONS) ? getSupportedVersions() : null;
+		int highest = versionHandshake == SSL_V2_VERSION ? Helper.hexToDec(VERSION_SSL_V_2) : versionHandshake;
 
 		for (Hex version : getAllVersions()) {
-			if (Integer.parseInt(version.toString()) <= Integer.parseInt(versionHandshake.toString())) {
+			int code = Helper.hexToDec(version);
+			if (versions != null ? contains(versions, code) : code <= highest) {
 				supported.add(version);
 			}
 		}
@@ -147,12 +833,39 @@ public class ClientHello extends BasePayloadEntity {
 	}
 
 	/**
-	 * Returns collection of offered cipher suites
+	 * Returns collection of offered cipher suites, without GREASE values
 	 *
 	 * @return collection of offered cipher suites
 	 */
 	public List<CipherSuite> getCipherSuites() {
-		return Collections.unmodifiableList(cipherSuites);
+		if (cipherSuites == null) {
+			List<CipherSuite> done = new ArrayList<>(cipherSuiteCodes.length);
+			for (int code : withoutGrease(cipherSuiteCodes, cipherSuiteCodes.length)) {
+				done.add(CipherSuiteRegister.getInstance().getByCodeOrCreateDefault(code));
+			}
+			cipherSuites = Collections.unmodifiableList(done);
+		}
+		return cipherSuites;
+	}
+
+	/**
+	 * Returns codes of offered cipher suites, in the offered order
+	 *
+	 * @return codes of cipher suites
+	 */
+	public int[] getCipherSuiteCodes() {
+		return cipherSuiteCodes.clone();
+	}
+
+	/**
+	 * Checks, if client offered the given cipher suite. GREASE values are never
+	 * considered offered.
+	 *
+	 * @param cipherSuite cipher suite
+	 * @return true, if cipher suite is offered, false otherwise
+	 */
+	public boolean isCipherSuiteOffered(CipherSuite cipherSuite) {
+		return cipherSuite.getCode() != CipherSuite.NO_CODE && !isGrease(cipherSuite.getCode()) && contains(cipherSuiteCodes, cipherSuite.getCode());
 	}
 
 	/**
@@ -162,11 +875,23 @@ public class ClientHello extends BasePayloadEntity {
 	 * @return true, if TLS_FALLBACK_SCSV is supported, false otherwise
 	 */
 	public boolean isTlsFallbackScsv() {
-		for (CipherSuite cipherSuite : cipherSuites) {
-			if (cipherSuite.getHex().equals(CipherSuiteRegister.TLS_FALLBACK_SCSV_HEX)) {
+		return contains(cipherSuiteCodes, TLS_FALLBACK_SCSV_CODE);
+	}
+
+	private static boolean contains(int[] codes, int code) {
+		for (int candidate : codes) {
+			if (candidate == code) {
 				return true;
 			}
 		}
 		return false;
 	}
+
+	private static int[] toCodes(List<Hex> hexes) {
+		int[] codes = new int[hexes.size()];
+		for (int i = 0; i < codes.length; i++) {
+			codes[i] = Helper.hexToDec(hexes.get(i));
+		}
+		return codes;
+	}
 }
@@ -16,6 +16,12 @@ public class ReportClientHello {
 	 */
 	private int clientHelloId;
 
+	/**
+	 * Fingerprints of captured Client Hello, JA3 (hash) and JA4
+	 */
+	private String ja3Hash;
+	private String ja4;
+
 	/**
 	 * Collection of messages related to captured Client Hello
 	 */
@@ -25,10 +31,14 @@ public class ReportClientHello {
 	 * Creates a new report for Client Hello
 	 *
 	 * @param clientHelloId internal ID of client Hello
+	 * @param ja3Hash fingerprint JA3 (hash)
+	 * @param ja4 fingerprint JA4
 	 * @param messages collection of report messages
 	 */
-	public ReportClientHello(int clientHelloId, List<ReportMessage> messages) {
+	public ReportClientHello(int clientHelloId, String ja3Hash, String ja4, List<ReportMessage> messages) {
 		this.clientHelloId = clientHelloId;
+		this.ja3Hash = ja3Hash;
+		this.ja4 = ja4;
 		this.messages = messages;
 	}
 
@@ -36,6 +46,14 @@ public class ReportClientHello {
 		return clientHelloId;
 	}
 
+	public String getJa3Hash() {
+		return ja3Hash;
+	}
+
+	public String getJa4() {
+		return ja4;
+	}
+
 	public List<ReportMessage> getReportMessages() {
 		return messages;
 	}
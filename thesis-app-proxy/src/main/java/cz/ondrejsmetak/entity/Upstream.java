@@ -0,0 +1,65 @@
+package cz.ondrejsmetak.entity;
+
+import java.util.Objects;
+
+/**
+ * Remote server, to which intercepted connections are forwarded
+ *
+ * @author Ondřej Směták <posta@ondrejsmetak.cz>
+ */
+public class Upstream extends BaseEntity {
+
+	/**
+	 * Host of the remote server
+	 */
+	private final String host;
+
+	/**
+	 * Port of the remote server
+	 */
+	private final int port;
+
+	/**
+	 * Creates a new remote server with the given parameters
+	 *
+	 * @param host host name or IP address
+	 * @param port port
+	 */
+	public Upstream(String host, int port) {
+		this.host = host;
+		this.port = port;
+	}
+
+	public String getHost() {
+		return host;
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	@Override
+	public int hashCode() {
+		int hash = 7;
+		hash = 41 * hash + Objects.hashCode(this.host);
+		hash = 41 * hash + this.port;
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (obj == null || getClass() != obj.getClass()) {
+			return false;
+		}
+		final Upstream other = (Upstream) obj;
+		return this.port == other.port && Objects.equals(this.host, other.host);
+	}
+
+	@Override
+	public String toString() {
+		return host + ":" + port;
+	}
+}
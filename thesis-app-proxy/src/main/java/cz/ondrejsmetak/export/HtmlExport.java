@@ -12,8 +12,11 @@ import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Creates HTML file, that contains results of completed scans
@@ -56,9 +59,43 @@ public class HtmlExport extends BaseExport {
 		}
 
 		sb.append(doReport(message));
+		sb.append(doFingerprints(reportClientHello));
 
 	}
 
+	/**
+	 * Create HTML table of fingerprints of captured Client Hello(s), with count
+	 * of Client Hello(s) sent with each fingerprint
+	 *
+	 * @param reportClientHello collection of reports (each report for single
+	 * Client Hello)
+	 * @return HTML table
+	 */
+	private String doFingerprints(List<ReportClientHello> reportClientHello) {
+		Map<List<String>, Integer> counts = new LinkedHashMap<>();
+
+		for (ReportClientHello report : reportClientHello) {
+			List<String> fingerprints = Arrays.asList(report.getJa3Hash(), report.getJa4());
+			Integer count = counts.get(fingerprints);
+			counts.put(fingerprints, count == null ? 1 : count + 1);
+		}
+
+		if (counts.isEmpty()) {
+			return "";
+		}
+
+		StringBuilder sb = new StringBuilder();
+		sb.append("<table class=\"table table-striped table-hover\">");
+		sb.append("<thead><tr><th>JA3</th><th>JA4</th><th>Client Hello(s)</th></tr></thead>");
+		sb.append("<tbody>");
+		for (Map.Entry<List<String>, Integer> entry : counts.entrySet()) {
+			sb.append(String.format("<tr><td><code>%s</code></td><td><code>%s</code></td><td>%s</td></tr>", entry.getKey().get(0), entry.getKey().get(1), entry.getValue()));
+		}
+		sb.append("</tbody>");
+		sb.append("</table>");
+		return sb.toString();
+	}
+
 	/**
 	 * Creates content of HTML export. This content may contains multiple scan
 	 * reports
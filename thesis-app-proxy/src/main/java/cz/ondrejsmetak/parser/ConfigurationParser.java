@@ -4,10 +4,12 @@ import cz.ondrejsmetak.CipherSuiteRegister;
 import cz.ondrejsmetak.ConfigurationCertificateRegister;
 import cz.ondrejsmetak.ConfigurationRegister;
 import cz.ondrejsmetak.ResourceManager;
+import cz.ondrejsmetak.entity.CannedResponse;
 import cz.ondrejsmetak.entity.CipherSuite;
 import cz.ondrejsmetak.entity.ClientCertificate;
 import cz.ondrejsmetak.entity.Mode;
 import cz.ondrejsmetak.entity.Protocol;
+import cz.ondrejsmetak.entity.Upstream;
 import cz.ondrejsmetak.other.XmlParserException;
 import cz.ondrejsmetak.tool.Helper;
 import java.io.File;
@@ -17,6 +19,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
@@ -46,6 +49,10 @@ public class ConfigurationParser extends BaseParser {
 	private static final String TAG_CIPHER_SUITE = "cipherSuite";
 	private static final String TAG_CERTIFICATES = "certificates";
 	private static final String TAG_CERTIFICATE = "certificate";
+	private static final String TAG_UPSTREAMS = "upstreams";
+	private static final String TAG_UPSTREAM = "upstream";
+	private static final String TAG_RESPONSES = "responses";
+	private static final String TAG_RESPONSE = "response";
 	private static final String TAG_OTHER = "other";
 	private static final String TAG_TLS_FALLBACK_SCSV = "tlsFallbackScsv";
 	
@@ -54,6 +61,10 @@ public class ConfigurationParser extends BaseParser {
 	private static final String ATTRIBUTE_MODE = "mode";
 	private static final String ATTRIBUTE_PATH = "path";
 	private static final String ATTRIBUTE_PASSWORD = "password";
+	private static final String ATTRIBUTE_HOST = "host";
+	private static final String ATTRIBUTE_PORT = "port";
+	private static final String ATTRIBUTE_STATUS = "status";
+	private static final String ATTRIBUTE_CONTENT_TYPE = "contentType";
 
 	
 	
@@ -104,6 +115,10 @@ public class ConfigurationParser extends BaseParser {
 			TAG_CIPHER_SUITE,
 			TAG_CERTIFICATES,
 			TAG_CERTIFICATE,
+			TAG_UPSTREAMS,
+			TAG_UPSTREAM,
+			TAG_RESPONSES,
+			TAG_RESPONSE,
 			//currently disabled
 			//see 
 			/*TAG_OTHER,
@@ -201,6 +216,16 @@ public class ConfigurationParser extends BaseParser {
 					 */
 					parseProtocols((Element) node);
 
+					/**
+					 * Remote servers
+					 */
+					parseUpstreams((Element) node);
+
+					/**
+					 * Responses of local responder
+					 */
+					parseResponses((Element) node);
+
 				}
 			}
 
@@ -314,6 +339,88 @@ public class ConfigurationParser extends BaseParser {
 		ConfigurationCertificateRegister.getInstance().addConfigurationCertificate(certificate);
 	}
 
+	/**
+	 * Parse parent "upstreams" tag and all child "upstream" tags
+	 *
+	 * @param node tag representing "upstreams"
+	 * @throws XmlParserException in case of any error
+	 */
+	private void parseUpstreams(Element node) throws XmlParserException {
+		if (node.getTagName().equals(TAG_UPSTREAMS)) {
+			NodeList upstreams = node.getElementsByTagName(TAG_UPSTREAM);
+
+			for (int i = 0; i < upstreams.getLength(); i++) {
+				parseUpstream(upstreams.item(i));
+			}
+		}
+	}
+
+	/**
+	 * Parse "<upstream>" tag
+	 *
+	 * @param node tag
+	 * @throws XmlParserException in case of any error
+	 */
+	private void parseUpstream(Node node) throws XmlParserException {
+		if (!(node instanceof Element) || !((Element) node).getTagName().equals(TAG_UPSTREAM)) {
+			return;
+		}
+		checkAttributesOfNode(node, ATTRIBUTE_HOST, ATTRIBUTE_PORT);
+
+		Element element = (Element) node;
+		String host = element.getAttribute(ATTRIBUTE_HOST);
+		String port = element.getAttribute(ATTRIBUTE_PORT);
+		checkPort(port, TAG_UPSTREAM);
+
+		Upstream upstream = new Upstream(host, Integer.parseInt(port));
+
+		if (ConfigurationRegister.getInstance().containsUpstream(upstream)) {
+			throw new XmlParserException(String.format("Upstream [%s] already exists.", upstream));
+		}
+
+		ConfigurationRegister.getInstance().addUpstream(upstream);
+	}
+
+	/**
+	 * Parse parent "responses" tag and all child "response" tags
+	 *
+	 * @param node tag representing "responses"
+	 * @throws XmlParserException in case of any error
+	 */
+	private void parseResponses(Element node) throws XmlParserException {
+		if (node.getTagName().equals(TAG_RESPONSES)) {
+			NodeList responses = node.getElementsByTagName(TAG_RESPONSE);
+
+			for (int i = 0; i < responses.getLength(); i++) {
+				parseResponse(responses.item(i));
+			}
+		}
+	}
+
+	/**
+	 * Parse "<response>" tag, its text content is used as body
+	 *
+	 * @param node tag
+	 * @throws XmlParserException in case of any error
+	 */
+	private void parseResponse(Node node) throws XmlParserException {
+		if (!(node instanceof Element) || !((Element) node).getTagName().equals(TAG_RESPONSE)) {
+			return;
+		}
+		checkAttributesOfNode(node, ATTRIBUTE_PATH, ATTRIBUTE_STATUS, ATTRIBUTE_CONTENT_TYPE);
+
+		Element element = (Element) node;
+		String path = element.getAttribute(ATTRIBUTE_PATH);
+		String status = element.getAttribute(ATTRIBUTE_STATUS);
+		String contentType = element.getAttribute(ATTRIBUTE_CONTENT_TYPE);
+
+		if (!Helper.isInteger(status) || Integer.parseInt(status) < 100 || Integer.parseInt(status) > 599) {
+			throw new XmlParserException(String.format("Status of response [%s] must be in range [100 - 599]!", path));
+		}
+
+		ConfigurationRegister.getInstance().addResponse(new CannedResponse(path, Integer.parseInt(status), contentType, element.getTextContent().trim()));
+	}
+
 	/**
 	 * Parse "<tlsFallbackScsv>" tag
 	 *
@@ -376,6 +483,40 @@ public class ConfigurationParser extends BaseParser {
 		setLocalPort(name, value);
 		setRemotePort(name, value);
 		setRemoteHost(name, value);
+		setEngine(name, value);
+		setEventLoops(name, value);
+		setAcceptors(name, value);
+		setListenBacklog(name, value);
+		setTcpNoDelay(name, value);
+		setHandlerThreads(name, value);
+		setHandlerQueueSize(name, value);
+		setHandshakeThreads(name, value);
+		setMaxHandshakesPerSource(name, value);
+		setScanCacheSize(name, value);
+		setThreadMode(name, value);
+		setBufferPoolMegabytes(name, value);
+		setUpstreamPoolSize(name, value);
+		setUpstreamPoolIdleSeconds(name, value);
+		setUpstreamSessionCacheSize(name, value);
+		setUpstreamSessionTimeoutSeconds(name, value);
+		setBalancing(name, value);
+		setUpstreamMode(name, value);
+		setResponderDirectory(name, value);
+		setResponderKeystore(name, value);
+		setResponderPassword(name, value);
+		setUpstreamConnectTimeoutMillis(name, value);
+		setUpstreamHandshakeTimeoutMillis(name, value);
+		setUpstreamRaceDelayMillis(name, value);
+		setTestMode(name, value);
+		setTestPortFrom(name, value);
+		setTestPortTo(name, value);
+		setCertificateSchedule(name, value);
+		setClientHandshakeTimeoutMillis(name, value);
+		setForwardBufferBytes(name, value);
+		setWriteCoalesceBytes(name, value);
+		setWriteCoalesceMillis(name, value);
+		setIdleTimeoutSeconds(name, value);
+		setConnectionLifetimeSeconds(name, value);
 	}
 
 	/**
@@ -434,6 +575,576 @@ public class ConfigurationParser extends BaseParser {
 		}
 	}
 
+	/**
+	 * Sets engine, that is used for accepting and forwarding connections
+	 *
+	 * @param name name of directive
+	 * @param value value of directive
+	 * @throws XmlParserException if given value has unsupported format
+	 */
+	private void setEngine(String name, String value) throws XmlParserException {
+		if (name.equalsIgnoreCase(ConfigurationRegister.ENGINE)) {
+			if (!value.equals(ConfigurationRegister.ENGINE_BLOCKING) && !value.equals(ConfigurationRegister.ENGINE_NIO) && !value.equals(ConfigurationRegister.ENGINE_MEMORY)) {
+				throw new XmlParserException("Value for directive " + ConfigurationRegister.ENGINE + " must be [" + ConfigurationRegister.ENGINE_BLOCKING + "], ["
+						+ ConfigurationRegister.ENGINE_NIO + "] or [" + ConfigurationRegister.ENGINE_MEMORY + "]!");
+			}
+
+			ConfigurationRegister.getInstance().setEngine(value);
+		}
+	}
+
+	/**
+	 * Sets count of event loop threads used by NIO engine
+	 *
+	 * @param name name of directive
+	 * @param value value of directive
+	 * @throws XmlParserException if given value has unsupported format
+	 */
+	private void setEventLoops(String name, String value) throws XmlParserException {
+		if (name.equalsIgnoreCase(ConfigurationRegister.EVENT_LOOPS)) {
+			checkPositiveInteger(value, ConfigurationRegister.EVENT_LOOPS);
+
+			ConfigurationRegister.getInstance().setEventLoops(Integer.parseInt(value));
+		}
+	}
+
+	/**
+	 * Sets count of sockets listening on the local port. More than one
+	 * requires SO_REUSEPORT, kernel then spreads connections among them.
+	 *
+	 * @param name name of directive
+	 * @param value value of directive
+	 * @throws XmlParserException if given value has unsupported format
+	 */
+	private void setAcceptors(String name, String value) throws XmlParserException {
+		if (name.equalsIgnoreCase(ConfigurationRegister.ACCEPTORS)) {
+			checkPositiveInteger(value, ConfigurationRegister.ACCEPTORS);
+
+			ConfigurationRegister.getInstance().setAcceptors(Integer.parseInt(value));
+		}
+	}
+
+	/**
+	 * Sets length of queue of connections waiting for accept on the local
+	 * port. Zero means the maximum allowed by system.
+	 *
+	 * @param name name of directive
+	 * @param value value of directive
+	 * @throws XmlParserException if given value has unsupported format
+	 */
+	private void setListenBacklog(String name, String value) throws XmlParserException {
+		if (name.equalsIgnoreCase(ConfigurationRegister.LISTEN_BACKLOG)) {
+			if (!Helper.isInteger(value) || Integer.parseInt(value) < 0) {
+				throw new XmlParserException("Value for directive " + ConfigurationRegister.LISTEN_BACKLOG + " must be non-negative integer value!");
+			}
+
+			ConfigurationRegister.getInstance().setListenBacklog(Integer.parseInt(value));
+		}
+	}
+
+	/**
+	 * Sets, if Nagle's algorithm is disabled on connections to client and to
+	 * the remote server
+	 *
+	 * @param name name of directive
+	 * @param value value of directive
+	 * @throws XmlParserException if given value has unsupported format
+	 */
+	private void setTcpNoDelay(String name, String value) throws XmlParserException {
+		if (name.equalsIgnoreCase(ConfigurationRegister.TCP_NO_DELAY)) {
+			if (!Helper.isBooleanStr(value)) {
+				throw new XmlParserException("Value for directive " + ConfigurationRegister.TCP_NO_DELAY + " must be [true] or [false]!");
+			}
+
+			ConfigurationRegister.getInstance().setTcpNoDelay(Helper.parseBooleanStr(value));
+		}
+	}
+
+	/**
+	 * Sets count of threads serving connections in blocking engine
+	 *
+	 * @param name name of directive
+	 * @param value value of directive
+	 * @throws XmlParserException if given value has unsupported format
+	 */
+	private void setHandlerThreads(String name, String value) throws XmlParserException {
+		if (name.equalsIgnoreCase(ConfigurationRegister.HANDLER_THREADS)) {
+			checkPositiveInteger(value, ConfigurationRegister.HANDLER_THREADS);
+
+			ConfigurationRegister.getInstance().setHandlerThreads(Integer.parseInt(value));
+		}
+	}
+
+	/**
+	 * Sets count of accepted connections, that can wait for free thread in
+	 * blocking engine
+	 *
+	 * @param name name of directive
+	 * @param value value of directive
+	 * @throws XmlParserException if given value has unsupported format
+	 */
+	private void setHandlerQueueSize(String name, String value) throws XmlParserException {
+		if (name.equalsIgnoreCase(ConfigurationRegister.HANDLER_QUEUE_SIZE)) {
+			checkPositiveInteger(value, ConfigurationRegister.HANDLER_QUEUE_SIZE);
+
+			ConfigurationRegister.getInstance().setHandlerQueueSize(Integer.parseInt(value));
+		}
+	}
+
+	/**
+	 * Sets count of threads performing handshakes with clients in blocking
+	 * engine
+	 *
+	 * @param name name of directive
+	 * @param value value of directive
+	 * @throws XmlParserException if given value has unsupported format
+	 */
+	private void setHandshakeThreads(String name, String value) throws XmlParserException {
+		if (name.equalsIgnoreCase(ConfigurationRegister.HANDSHAKE_THREADS)) {
+			checkPositiveInteger(value, ConfigurationRegister.HANDSHAKE_THREADS);
+
+			ConfigurationRegister.getInstance().setHandshakeThreads(Integer.parseInt(value));
+		}
+	}
+
+	/**
+	 * Sets maximal count of unfinished handshakes per address of client. Zero
+	 * means no limit.
+	 *
+	 * @param name name of directive
+	 * @param value value of directive
+	 * @throws XmlParserException if given value has unsupported format
+	 */
+	private void setMaxHandshakesPerSource(String name, String value) throws XmlParserException {
+		if (name.equalsIgnoreCase(ConfigurationRegister.MAX_HANDSHAKES_PER_SOURCE)) {
+			if (!Helper.isInteger(value) || Integer.parseInt(value) < 0) {
+				throw new XmlParserException("Value for directive " + ConfigurationRegister.MAX_HANDSHAKES_PER_SOURCE + " must be non-negative integer value!");
+			}
+
+			ConfigurationRegister.getInstance().setMaxHandshakesPerSource(Integer.parseInt(value));
+		}
+	}
+
+	/**
+	 * Sets count of fingerprints, whose results of analysis are cached. Zero
+	 * disables cache.
+	 *
+	 * @param name name of directive
+	 * @param value value of directive
+	 * @throws XmlParserException if given value has unsupported format
+	 */
+	private void setScanCacheSize(String name, String value) throws XmlParserException {
+		if (name.equalsIgnoreCase(ConfigurationRegister.SCAN_CACHE_SIZE)) {
+			if (!Helper.isInteger(value) || Integer.parseInt(value) < 0) {
+				throw new XmlParserException("Value for directive " + ConfigurationRegister.SCAN_CACHE_SIZE + " must be non-negative integer value!");
+			}
+
+			ConfigurationRegister.getInstance().setScanCacheSize(Integer.parseInt(value));
+		}
+	}
+
+	/**
+	 * Sets kind of threads used by blocking engine
+	 *
+	 * @param name name of directive
+	 * @param value value of directive
+	 * @throws XmlParserException if given value has unsupported format
+	 */
+	private void setThreadMode(String name, String value) throws XmlParserException {
+		if (name.equalsIgnoreCase(ConfigurationRegister.THREAD_MODE)) {
+			if (!value.equals(ConfigurationRegister.THREAD_MODE_PLATFORM) && !value.equals(ConfigurationRegister.THREAD_MODE_VIRTUAL)) {
+				throw new XmlParserException("Value for directive " + ConfigurationRegister.THREAD_MODE + " must be [" + ConfigurationRegister.THREAD_MODE_PLATFORM + "] or [" + ConfigurationRegister.THREAD_MODE_VIRTUAL + "]!");
+			}
+
+			ConfigurationRegister.getInstance().setThreadMode(value);
+		}
+	}
+
+	/**
+	 * Sets limit of memory held by each buffer pool
+	 *
+	 * @param name name of directive
+	 * @param value value of directive
+	 * @throws XmlParserException if given value has unsupported format
+	 */
+	private void setBufferPoolMegabytes(String name, String value) throws XmlParserException {
+		if (name.equalsIgnoreCase(ConfigurationRegister.BUFFER_POOL_MEGABYTES)) {
+			checkPositiveInteger(value, ConfigurationRegister.BUFFER_POOL_MEGABYTES);
+
+			ConfigurationRegister.getInstance().setBufferPoolMegabytes(Integer.parseInt(value));
+		}
+	}
+
+	/**
+	 * Sets directive, that specifies count of connections to the remote
+	 * server kept ready. Zero disables the pool.
+	 *
+	 * @param name name of directive
+	 * @param value value of directive
+	 * @throws XmlParserException if given value has unsupported format
+	 */
+	private void setUpstreamPoolSize(String name, String value) throws XmlParserException {
+		if (name.equalsIgnoreCase(ConfigurationRegister.UPSTREAM_POOL_SIZE)) {
+			if (!Helper.isInteger(value) || Integer.parseInt(value) < 0) {
+				throw new XmlParserException("Value for directive " + ConfigurationRegister.UPSTREAM_POOL_SIZE + " must be non-negative integer value!");
+			}
+
+			ConfigurationRegister.getInstance().setUpstreamPoolSize(Integer.parseInt(value));
+		}
+	}
+
+	/**
+	 * Sets directive, that specifies time in seconds, after which unused
+	 * connection to the remote server is closed
+	 *
+	 * @param name name of directive
+	 * @param value value of directive
+	 * @throws XmlParserException if given value has unsupported format
+	 */
+	private void setUpstreamPoolIdleSeconds(String name, String value) throws XmlParserException {
+		if (name.equalsIgnoreCase(ConfigurationRegister.UPSTREAM_POOL_IDLE_SECONDS)) {
+			checkPositiveInteger(value, ConfigurationRegister.UPSTREAM_POOL_IDLE_SECONDS);
+
+			ConfigurationRegister.getInstance().setUpstreamPoolIdleSeconds(Integer.parseInt(value));
+		}
+	}
+
+	/**
+	 * Sets directive, that specifies count of sessions with the remote server
+	 * cached for resumption
+	 *
+	 * @param name name of directive
+	 * @param value value of directive
+	 * @throws XmlParserException if given value has unsupported format
+	 */
+	private void setUpstreamSessionCacheSize(String name, String value) throws XmlParserException {
+		if (name.equalsIgnoreCase(ConfigurationRegister.UPSTREAM_SESSION_CACHE_SIZE)) {
+			checkPositiveInteger(value, ConfigurationRegister.UPSTREAM_SESSION_CACHE_SIZE);
+
+			ConfigurationRegister.getInstance().setUpstreamSessionCacheSize(Integer.parseInt(value));
+		}
+	}
+
+	/**
+	 * Sets directive, that specifies time in seconds, after which cached
+	 * session with the remote server can't be resumed
+	 *
+	 * @param name name of directive
+	 * @param value value of directive
+	 * @throws XmlParserException if given value has unsupported format
+	 */
+	private void setUpstreamSessionTimeoutSeconds(String name, String value) throws XmlParserException {
+		if (name.equalsIgnoreCase(ConfigurationRegister.UPSTREAM_SESSION_TIMEOUT_SECONDS)) {
+			checkPositiveInteger(value, ConfigurationRegister.UPSTREAM_SESSION_TIMEOUT_SECONDS);
+
+			ConfigurationRegister.getInstance().setUpstreamSessionTimeoutSeconds(Integer.parseInt(value));
+		}
+	}
+
+	/**
+	 * Sets strategy choosing remote server for a new connection
+	 *
+	 * @param name name of directive
+	 * @param value value of directive
+	 * @throws XmlParserException if given value has unsupported format
+	 */
+	private void setBalancing(String name, String value) throws XmlParserException {
+		if (name.equalsIgnoreCase(ConfigurationRegister.BALANCING)) {
+			if (!value.equals(ConfigurationRegister.BALANCING_ROUND_ROBIN) && !value.equals(ConfigurationRegister.BALANCING_LEAST_CONNECTIONS)
+					&& !value.equals(ConfigurationRegister.BALANCING_LATENCY)) {
+				throw new XmlParserException("Value for directive " + ConfigurationRegister.BALANCING + " must be [" + ConfigurationRegister.BALANCING_ROUND_ROBIN
+						+ "], [" + ConfigurationRegister.BALANCING_LEAST_CONNECTIONS + "] or [" + ConfigurationRegister.BALANCING_LATENCY + "]!");
+			}
+
+			ConfigurationRegister.getInstance().setBalancing(value);
+		}
+	}
+
+	/**
+	 * Sets, whether connections are forwarded to the remote servers or
+	 * answered by local responder
+	 *
+	 * @param name name of directive
+	 * @param value value of directive
+	 * @throws XmlParserException if given value has unsupported format
+	 */
+	private void setUpstreamMode(String name, String value) throws XmlParserException {
+		if (name.equalsIgnoreCase(ConfigurationRegister.UPSTREAM_MODE)) {
+			if (!value.equals(ConfigurationRegister.UPSTREAM_MODE_REMOTE) && !value.equals(ConfigurationRegister.UPSTREAM_MODE_LOCAL)) {
+				throw new XmlParserException("Value for directive " + ConfigurationRegister.UPSTREAM_MODE + " must be [" + ConfigurationRegister.UPSTREAM_MODE_REMOTE + "] or [" + ConfigurationRegister.UPSTREAM_MODE_LOCAL + "]!");
+			}
+
+			ConfigurationRegister.getInstance().setUpstreamMode(value);
+		}
+	}
+
+	/**
+	 * Sets directory, from which local responder serves files
+	 *
+	 * @param name name of directive
+	 * @param value value of directive
+	 * @throws XmlParserException if given directory doesn't exist
+	 */
+	private void setResponderDirectory(String name, String value) throws XmlParserException {
+		if (name.equalsIgnoreCase(ConfigurationRegister.RESPONDER_DIRECTORY)) {
+			if (!value.isEmpty() && !new File(value).isDirectory()) {
+				throw new XmlParserException(String.format("Directory [%s] given by directive %s not found.", value, ConfigurationRegister.RESPONDER_DIRECTORY));
+			}
+
+			ConfigurationRegister.getInstance().setResponderDirectory(value);
+		}
+	}
+
+	/**
+	 * Sets keystore with certificate of local responder
+	 *
+	 * @param name name of directive
+	 * @param value value of directive
+	 * @throws XmlParserException if given keystore doesn't exist
+	 */
+	private void setResponderKeystore(String name, String value) throws XmlParserException {
+		if (name.equalsIgnoreCase(ConfigurationRegister.RESPONDER_KEYSTORE)) {
+			if (!value.isEmpty() && !Helper.isFile(value)) {
+				throw new XmlParserException(String.format("Keystore with filepath [%s] not found.", value));
+			}
+
+			ConfigurationRegister.getInstance().setResponderKeystore(value);
+		}
+	}
+
+	private void setResponderPassword(String name, String value) throws XmlParserException {
+		if (name.equalsIgnoreCase(ConfigurationRegister.RESPONDER_PASSWORD)) {
+			ConfigurationRegister.getInstance().setResponderPassword(value);
+		}
+	}
+
+	/**
+	 * Sets time in milliseconds, within which connection to the remote server
+	 * must be established, including resolving of its name
+	 *
+	 * @param name name of directive
+	 * @param value value of directive
+	 * @throws XmlParserException if given value has unsupported format
+	 */
+	private void setUpstreamConnectTimeoutMillis(String name, String value) throws XmlParserException {
+		if (name.equalsIgnoreCase(ConfigurationRegister.UPSTREAM_CONNECT_TIMEOUT_MILLIS)) {
+			checkPositiveInteger(value, ConfigurationRegister.UPSTREAM_CONNECT_TIMEOUT_MILLIS);
+
+			ConfigurationRegister.getInstance().setUpstreamConnectTimeoutMillis(Integer.parseInt(value));
+		}
+	}
+
+	/**
+	 * Sets time in milliseconds, within which handshake with the remote server
+	 * must be finished
+	 *
+	 * @param name name of directive
+	 * @param value value of directive
+	 * @throws XmlParserException if given value has unsupported format
+	 */
+	private void setUpstreamHandshakeTimeoutMillis(String name, String value) throws XmlParserException {
+		if (name.equalsIgnoreCase(ConfigurationRegister.UPSTREAM_HANDSHAKE_TIMEOUT_MILLIS)) {
+			checkPositiveInteger(value, ConfigurationRegister.UPSTREAM_HANDSHAKE_TIMEOUT_MILLIS);
+
+			ConfigurationRegister.getInstance().setUpstreamHandshakeTimeoutMillis(Integer.parseInt(value));
+		}
+	}
+
+	/**
+	 * Sets time in milliseconds, within which handshake with client must be
+	 * finished
+	 *
+	 * @param name name of directive
+	 * @param value value of directive
+	 * @throws XmlParserException if given value has unsupported format
+	 */
+	private void setClientHandshakeTimeoutMillis(String name, String value) throws XmlParserException {
+		if (name.equalsIgnoreCase(ConfigurationRegister.CLIENT_HANDSHAKE_TIMEOUT_MILLIS)) {
+			checkPositiveInteger(value, ConfigurationRegister.CLIENT_HANDSHAKE_TIMEOUT_MILLIS);
+
+			ConfigurationRegister.getInstance().setClientHandshakeTimeoutMillis(Integer.parseInt(value));
+		}
+	}
+
+	/**
+	 * Sets size of buffer holding bytes forwarded in one direction of
+	 * connection. Reading stops, while the buffer is full.
+	 *
+	 * @param name name of directive
+	 * @param value value of directive
+	 * @throws XmlParserException if given value has unsupported format
+	 */
+	private void setForwardBufferBytes(String name, String value) throws XmlParserException {
+		if (name.equalsIgnoreCase(ConfigurationRegister.FORWARD_BUFFER_BYTES)) {
+			if (!Helper.isInteger(value) || Integer.parseInt(value) < 1024 || Integer.parseInt(value) > 64 * 1024) {
+				throw new XmlParserException("Value for directive " + ConfigurationRegister.FORWARD_BUFFER_BYTES + " must be in range [1024 - 65536]!");
+			}
+
+			ConfigurationRegister.getInstance().setForwardBufferBytes(Integer.parseInt(value));
+		}
+	}
+
+	/**
+	 * Sets count of bytes, that is written at once. Smaller writes are delayed
+	 * by directive "writeCoalesceMillis". Zero disables coalescing.
+	 *
+	 * @param name name of directive
+	 * @param value value of directive
+	 * @throws XmlParserException if given value has unsupported format
+	 */
+	private void setWriteCoalesceBytes(String name, String value) throws XmlParserException {
+		if (name.equalsIgnoreCase(ConfigurationRegister.WRITE_COALESCE_BYTES)) {
+			if (!Helper.isInteger(value) || Integer.parseInt(value) < 0) {
+				throw new XmlParserException("Value for directive " + ConfigurationRegister.WRITE_COALESCE_BYTES + " must be non-negative integer value!");
+			}
+
+			ConfigurationRegister.getInstance().setWriteCoalesceBytes(Integer.parseInt(value));
+		}
+	}
+
+	/**
+	 * Sets time in milliseconds, for which smaller writes wait for more bytes.
+	 * Zero means, that only bytes already received are coalesced.
+	 *
+	 * @param name name of directive
+	 * @param value value of directive
+	 * @throws XmlParserException if given value has unsupported format
+	 */
+	private void setWriteCoalesceMillis(String name, String value) throws XmlParserException {
+		if (name.equalsIgnoreCase(ConfigurationRegister.WRITE_COALESCE_MILLIS)) {
+			if (!Helper.isInteger(value) || Integer.parseInt(value) < 0) {
+				throw new XmlParserException("Value for directive " + ConfigurationRegister.WRITE_COALESCE_MILLIS + " must be non-negative integer value!");
+			}
+
+			ConfigurationRegister.getInstance().setWriteCoalesceMillis(Integer.parseInt(value));
+		}
+	}
+
+	/**
+	 * Sets time in seconds, after which connection without any read from
+	 * either side is closed. Zero disables the timeout.
+	 *
+	 * @param name name of directive
+	 * @param value value of directive
+	 * @throws XmlParserException if given value has unsupported format
+	 */
+	private void setIdleTimeoutSeconds(String name, String value) throws XmlParserException {
+		if (name.equalsIgnoreCase(ConfigurationRegister.IDLE_TIMEOUT_SECONDS)) {
+			if (!Helper.isInteger(value) || Integer.parseInt(value) < 0) {
+				throw new XmlParserException("Value for directive " + ConfigurationRegister.IDLE_TIMEOUT_SECONDS + " must be non-negative integer value!");
+			}
+
+			ConfigurationRegister.getInstance().setIdleTimeoutSeconds(Integer.parseInt(value));
+		}
+	}
+
+	/**
+	 * Sets time in seconds, after which connection is closed regardless of
+	 * its activity. Zero means unlimited lifetime.
+	 *
+	 * @param name name of directive
+	 * @param value value of directive
+	 * @throws XmlParserException if given value has unsupported format
+	 */
+	private void setConnectionLifetimeSeconds(String name, String value) throws XmlParserException {
+		if (name.equalsIgnoreCase(ConfigurationRegister.CONNECTION_LIFETIME_SECONDS)) {
+			if (!Helper.isInteger(value) || Integer.parseInt(value) < 0) {
+				throw new XmlParserException("Value for directive " + ConfigurationRegister.CONNECTION_LIFETIME_SECONDS + " must be non-negative integer value!");
+			}
+
+			ConfigurationRegister.getInstance().setConnectionLifetimeSeconds(Integer.parseInt(value));
+		}
+	}
+
+	/**
+	 * Sets delay in milliseconds, after which next address of the remote
+	 * server is tried in parallel
+	 *
+	 * @param name name of directive
+	 * @param value value of directive
+	 * @throws XmlParserException if given value has unsupported format
+	 */
+	private void setUpstreamRaceDelayMillis(String name, String value) throws XmlParserException {
+		if (name.equalsIgnoreCase(ConfigurationRegister.UPSTREAM_RACE_DELAY_MILLIS)) {
+			checkPositiveInteger(value, ConfigurationRegister.UPSTREAM_RACE_DELAY_MILLIS);
+
+			ConfigurationRegister.getInstance().setUpstreamRaceDelayMillis(Integer.parseInt(value));
+		}
+	}
+
+	/**
+	 * Sets, whether tests of protocols and certificates run one after another
+	 * on local port, or all at once, each on its own port
+	 *
+	 * @param name name of directive
+	 * @param value value of directive
+	 * @throws XmlParserException if given value has unsupported format
+	 */
+	private void setTestMode(String name, String value) throws XmlParserException {
+		if (name.equalsIgnoreCase(ConfigurationRegister.TEST_MODE)) {
+			if (!value.equals(ConfigurationRegister.TEST_MODE_SEQUENTIAL) && !value.equals(ConfigurationRegister.TEST_MODE_CONCURRENT)) {
+				throw new XmlParserException("Value for directive " + ConfigurationRegister.TEST_MODE + " must be [" + ConfigurationRegister.TEST_MODE_SEQUENTIAL + "] or [" + ConfigurationRegister.TEST_MODE_CONCURRENT + "]!");
+			}
+
+			ConfigurationRegister.getInstance().setTestMode(value);
+		}
+	}
+
+	/**
+	 * Sets the first port of range used by concurrent tests
+	 *
+	 * @param name name of directive
+	 * @param value value of directive
+	 * @throws XmlParserException if given value has unsupported format
+	 */
+	private void setTestPortFrom(String name, String value) throws XmlParserException {
+		if (name.equalsIgnoreCase(ConfigurationRegister.TEST_PORT_FROM)) {
+			checkPort(value, ConfigurationRegister.TEST_PORT_FROM);
+
+			ConfigurationRegister.getInstance().setTestPortFrom(Integer.parseInt(value));
+		}
+	}
+
+	/**
+	 * Sets the last port of range used by concurrent tests
+	 *
+	 * @param name name of directive
+	 * @param value value of directive
+	 * @throws XmlParserException if given value has unsupported format
+	 */
+	private void setTestPortTo(String name, String value) throws XmlParserException {
+		if (name.equalsIgnoreCase(ConfigurationRegister.TEST_PORT_TO)) {
+			checkPort(value, ConfigurationRegister.TEST_PORT_TO);
+
+			ConfigurationRegister.getInstance().setTestPortTo(Integer.parseInt(value));
+		}
+	}
+
+	/**
+	 * Sets, how certificate is chosen for connection during certificate tests
+	 *
+	 * @param name name of directive
+	 * @param value value of directive
+	 * @throws XmlParserException if given value has unsupported format
+	 */
+	private void setCertificateSchedule(String name, String value) throws XmlParserException {
+		if (name.equalsIgnoreCase(ConfigurationRegister.CERTIFICATE_SCHEDULE)) {
+			List<String> supported = Arrays.asList(ConfigurationRegister.CERTIFICATE_SCHEDULE_RELOAD, ConfigurationRegister.CERTIFICATE_SCHEDULE_SEQUENCE,
+					ConfigurationRegister.CERTIFICATE_SCHEDULE_SOURCE, ConfigurationRegister.CERTIFICATE_SCHEDULE_SNI);
+			if (!supported.contains(value)) {
+				throw new XmlParserException("Value for directive " + ConfigurationRegister.CERTIFICATE_SCHEDULE + " must be one of " + supported + "!");
+			}
+
+			ConfigurationRegister.getInstance().setCertificateSchedule(value);
+		}
+	}
+
+	private void checkPositiveInteger(String value, String directiveName) throws XmlParserException {
+		if (!Helper.isInteger(value) || Integer.parseInt(value) < 1) {
+			throw new XmlParserException("Value for directive " + directiveName + " must be positive integer value!");
+		}
+	}
+
 	/**
 	 * Parse parent "cipherSuites" tag and all child "cipherSuite" tags
 	 *
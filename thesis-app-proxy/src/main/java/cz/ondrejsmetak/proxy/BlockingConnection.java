@@ -0,0 +1,318 @@
+package cz.ondrejsmetak.proxy;
+
+import cz.ondrejsmetak.ProxyServer;
+import cz.ondrejsmetak.tool.BufferPool;
+import cz.ondrejsmetak.tool.Log;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.net.ssl.SSLSocket;
+
+/**
+ * One client connection and its connection to the remote server, served by
+ * blocking streams. Each instance owns its connections and buffers. Connection to
+ * the remote server is opened only after handshake with client finished. Once
+ * there is nothing to analyse, both directions are forwarded by stream pumps.
+ *
+ * @author Ondřej Směták <posta@ondrejsmetak.cz>
+ */
+class BlockingConnection implements Runnable {
+
+	/**
+	 * Size of buffer used while bytes from client are inspected
+	 */
+	private static final int REQUEST_BUFFER_SIZE = 1024;
+
+	/**
+	 * Proxy server, that is notified about captured communication
+	 */
+	private final ProxyServer proxy;
+
+	/**
+	 * Engine, that accepted this connection
+	 */
+	private final BlockingEngine engine;
+
+	/**
+	 * Factory creating thread for client-to-server direction
+	 */
+	private final ThreadFactory threadFactory;
+
+	/**
+	 * Connection on the local port
+	 */
+	private final Connection client;
+
+	/**
+	 * Context, with which client connection was accepted
+	 */
+	private final ClientContext context;
+
+	/**
+	 * Address of client
+	 */
+	private final InetAddress clientAddress;
+
+	/**
+	 * Limiter, in which unfinished handshake of this connection is
+	 * registered, null if there is none
+	 */
+	private final HandshakeLimiter limiter;
+
+	/**
+	 * Is unfinished handshake still registered in limiter?
+	 */
+	private final AtomicBoolean handshakeRegistered = new AtomicBoolean(true);
+
+	/**
+	 * Did handshake with client finish? Always true for plain communication.
+	 */
+	private volatile boolean handshakeFinished;
+
+	/**
+	 * Connection to the remote server on the given remote port
+	 */
+	private volatile Connection server = null;
+
+	/**
+	 * Limits of both directions
+	 */
+	private final FlowControl flow;
+
+	/**
+	 * Idle, handshake and lifetime timeouts of this connection
+	 */
+	private final ConnectionTimeouts timeouts;
+
+	/**
+	 * Pumps of both directions, null until they start
+	 */
+	private volatile StreamPump requestPump = null;
+	private volatile StreamPump replyPump = null;
+
+	/**
+	 * Creates a new connection for the given accepted client
+	 *
+	 * @param proxy proxy server, that is notified about captured communication
+	 * @param engine engine, that accepted this connection
+	 * @param threadFactory factory creating thread for client-to-server
+	 * direction
+	 * @param client accepted connection of client
+	 * @param context context, with which client connection was accepted
+	 * @param limiter limiter, in which unfinished handshake of this connection
+	 * is already registered, null if there is none
+	 */
+	public BlockingConnection(ProxyServer proxy, BlockingEngine engine, ThreadFactory threadFactory, Connection client, ClientContext context, HandshakeLimiter limiter) {
+		this.proxy = proxy;
+		this.engine = engine;
+		this.threadFactory = threadFactory;
+		this.client = client;
+		this.context = context;
+		this.clientAddress = client.getAddress();
+		this.limiter = limiter;
+		this.handshakeFinished = !isSecure();
+		this.flow = FlowControl.fromConfiguration();
+		this.timeouts = new ConnectionTimeouts(Runnable::run, (String message) -> {
+			//closing connections unblocks both directions
+			Log.debugException(new SocketTimeoutException(message));
+			close();
+		});
+	}
+
+	/**
+	 * Starts timeouts of this connection, connection is closed, when any of
+	 * them expires. Connections waiting for free handler thread are timed too.
+	 */
+	public void startTimeouts() {
+		timeouts.start(isSecure());
+	}
+
+	/**
+	 * Is communication with client secured?
+	 *
+	 * @return true, if handshake with client is expected, false otherwise
+	 */
+	public boolean isSecure() {
+		return client.getSocket() instanceof SSLSocket;
+	}
+
+	/**
+	 * Performs handshake with client, unless it's already finished. If
+	 * handshake fails or times out, connection is closed.
+	 *
+	 * @return true, if handshake finished or communication is plain, false
+	 * otherwise
+	 */
+	public boolean handshake() {
+		if (handshakeFinished) {
+			return true;
+		}
+
+		try {
+			((SSLSocket) client.getSocket()).startHandshake();
+			handshakeCompleted();
+			return true;
+		} catch (IOException ex) {
+			Log.debugException(ex);
+			close();
+			return false;
+		}
+	}
+
+	/**
+	 * Called, when handshake with client completed
+	 */
+	public void handshakeCompleted() {
+		handshakeFinished = true;
+		timeouts.handshakeFinished();
+		releaseHandshake();
+	}
+
+	/**
+	 * Unregisters unfinished handshake from limiter, only the first call has
+	 * effect
+	 */
+	private void releaseHandshake() {
+		if (limiter != null && handshakeRegistered.compareAndSet(true, false)) {
+			limiter.release(clientAddress);
+		}
+	}
+
+	/**
+	 * Returns count of bytes read from one side, but not yet written to the
+	 * other side
+	 *
+	 * @return count of bytes queued in both directions
+	 */
+	public int getQueuedBytes() {
+		StreamPump request = requestPump;
+		StreamPump reply = replyPump;
+		return (request == null ? 0 : request.getQueuedBytes()) + (reply == null ? 0 : reply.getQueuedBytes());
+	}
+
+	@Override
+	public void run() {
+		try {
+			doRun();
+		} catch (IOException ex) {
+			Log.debugException(ex);
+		} finally {
+			close();
+			engine.connectionClosed(this);
+		}
+	}
+
+	private void doRun() throws IOException {
+		if (client.isClosed() || !handshake()) {
+			return;
+		}
+
+		final InputStream streamFromClient = client.getInputStream();
+		final OutputStream streamToClient = client.getOutputStream();
+
+		// Make a connection to the real server.
+		// If we cannot connect to the server, disconnect.
+		try {
+			server = engine.openUpstream();
+		} catch (IOException ex) {
+			Log.debugException(ex);
+			return;
+		}
+
+		// Get server streams.
+		final OutputStream streamToServer = server.getOutputStream();
+		final String source = client.getSource();
+
+		// a thread to read the client's requests and pass them
+		// to the server. A separate thread for asynchronous.
+		Runnable r = () -> {
+			pumpClientToServer(streamFromClient, streamToServer, source);
+		};
+
+		// Start the client-to-server request thread running
+		threadFactory.newThread(r).start();
+
+		// Read the server's responses
+		// and pass them back to the client.
+		ByteBuffer buffer = null;
+
+		try {
+			buffer = BufferPool.getHeap().acquire(flow.getBufferBytes());
+			replyPump = new StreamPump(server, streamToClient, flow, timeouts::touch);
+			replyPump.run(buffer.array());
+		} catch (IOException ex) {
+			/*suppress exceptions*/
+		} finally {
+			BufferPool.getHeap().release(buffer);
+		}
+
+		// The server closed its connection to us, so we close our
+		// connection to our client.
+		streamToClient.close();
+	}
+
+	/**
+	 * Reads the client's requests and passes them to the server
+	 *
+	 * @param streamFromClient stream of client
+	 * @param streamToServer stream of server
+	 * @param source source of bytes
+	 */
+	private void pumpClientToServer(InputStream streamFromClient, OutputStream streamToServer, String source) {
+		ByteBuffer buffer = null;
+		ClientHelloAssembler assembler = new ClientHelloAssembler();
+		boolean inspecting = true;
+		int bytesRead;
+		try {
+			buffer = BufferPool.getHeap().acquire(REQUEST_BUFFER_SIZE);
+			byte[] request = buffer.array();
+
+			while (inspecting && (bytesRead = streamFromClient.read(request)) != -1) {
+				timeouts.touch();
+				inspecting = proxy.onClientData(request, bytesRead, source, context, assembler, client.getSocket());
+				streamToServer.write(request, 0, bytesRead);
+				streamToServer.flush();
+			}
+
+			if (!inspecting) {
+				//nothing to analyse anymore, read bigger chunks
+				BufferPool.getHeap().release(buffer);
+				buffer = null; //already returned, if next acquire fails
+				buffer = BufferPool.getHeap().acquire(flow.getBufferBytes());
+				requestPump = new StreamPump(client, streamToServer, flow, timeouts::touch);
+				requestPump.run(buffer.array());
+			}
+		} catch (IOException ex) {
+			/*suppress exceptions*/
+		} finally {
+			BufferPool.getHeap().release(buffer);
+		}
+
+		// the client closed the connection to us, so close our
+		// connection to the server.
+		try {
+			streamToServer.close();
+		} catch (IOException ex) {
+			Log.debugException(ex);
+		}
+	}
+
+	/**
+	 * Closes both sides of this connection
+	 */
+	public void close() {
+		timeouts.cancel();
+		releaseHandshake();
+
+		if (server != null) {
+			engine.closeUpstream(server);
+		}
+
+		client.close();
+	}
+}
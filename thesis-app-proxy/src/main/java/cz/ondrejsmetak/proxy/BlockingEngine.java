@@ -0,0 +1,397 @@
+package cz.ondrejsmetak.proxy;
+
+import cz.ondrejsmetak.ConfigurationRegister;
+import cz.ondrejsmetak.ProxyServer;
+import cz.ondrejsmetak.tool.Log;
+import cz.ondrejsmetak.tool.ThreadFactories;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.SSLSocket;
+
+/**
+ * Engine using blocking sockets. Connections are accepted by acceptor thread of
+ * each listening socket and served by bounded pool of handler threads. Secure
+ * connections are handshaken by another bounded pool first, so slow or
+ * half-open clients can't occupy handler threads. In virtual thread mode, each
+ * connection gets its own virtual threads instead and the pools are not used
+ * at all.
+ *
+ * Connections are accepted by listeners and the remote server is reached by
+ * upstream connector, both over sockets. Subclass may replace them by another
+ * transport, forwarding stays the same.
+ *
+ * @author Ondřej Směták <posta@ondrejsmetak.cz>
+ */
+public class BlockingEngine implements ProxyEngine {
+
+	/**
+	 * Proxy server, that is notified about captured communication
+	 */
+	private final ProxyServer proxy;
+
+	/**
+	 * Listeners of connections on local port, each with its own acceptor
+	 * thread. More than one share the port by SO_REUSEPORT.
+	 */
+	private final List<Listener<Connection>> listeners = new ArrayList<>();
+
+	/**
+	 * Pool of threads serving accepted connections, null in virtual thread
+	 * mode
+	 */
+	private ThreadPoolExecutor handlers;
+
+	/**
+	 * Pool of threads performing handshakes with clients, null in virtual
+	 * thread mode
+	 */
+	private ThreadPoolExecutor handshakers;
+
+	/**
+	 * Limits unfinished handshakes per address of client
+	 */
+	private final HandshakeLimiter limiter = new HandshakeLimiter();
+
+	/**
+	 * Factory creating threads, that serve both directions of connections
+	 */
+	private ThreadFactory threadFactory;
+
+	/**
+	 * Opens connections to the remote server
+	 */
+	private UpstreamConnector<Connection> upstream;
+
+	/**
+	 * Connections to the remote server opened in advance, null if disabled
+	 */
+	private UpstreamPool<Connection> upstreamPool;
+
+	/**
+	 * Connections, that are currently queued or served
+	 */
+	private final Set<BlockingConnection> connections = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+	/**
+	 * Count of connections rejected, because pool and its queue were full
+	 */
+	private final AtomicLong rejectedCounter = new AtomicLong(0);
+
+	/**
+	 * Is this engine running
+	 */
+	private volatile boolean running = true;
+
+	/**
+	 * Creates a new engine for the given proxy server
+	 *
+	 * @param proxy proxy server
+	 */
+	public BlockingEngine(ProxyServer proxy) {
+		this.proxy = proxy;
+	}
+
+	@Override
+	public void start() throws IOException {
+		int threads = ConfigurationRegister.getInstance().getHandlerThreads();
+		int queueSize = ConfigurationRegister.getInstance().getHandlerQueueSize();
+
+		upstream = createConnector();
+
+		try {
+			listen(listeners);
+		} catch (IOException ex) {
+			closeListeners();
+			throw ex;
+		}
+
+		int poolSize = ConfigurationRegister.getInstance().getUpstreamPoolSize();
+		if (poolSize > 0) {
+			upstreamPool = new UpstreamPool<>(poolSize, ConfigurationRegister.getInstance().getUpstreamPoolIdleSeconds(), upstream);
+		}
+
+		if (ConfigurationRegister.getInstance().isThreadModeVirtual()) {
+			threadFactory = ThreadFactories.virtual("proxy-connection");
+			if (threadFactory == null) {
+				Log.warningln("Virtual threads require Java 21 or newer, platform threads will be used instead.");
+			}
+		}
+
+		if (threadFactory == null) {
+			threadFactory = ThreadFactories.platform("proxy-connection");
+			handlers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize), threadFactory);
+
+			int handshakeThreads = ConfigurationRegister.getInstance().getHandshakeThreads();
+			handshakers = new ThreadPoolExecutor(handshakeThreads, handshakeThreads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize),
+					ThreadFactories.platform("proxy-handshake"));
+		}
+
+		for (int i = 0; i < listeners.size(); i++) {
+			final Listener<Connection> listener = listeners.get(i);
+			Runnable r = () -> {
+				doAccept(listener);
+			};
+
+			new Thread(r, "proxy-acceptor-" + i).start();
+		}
+	}
+
+	/**
+	 * Opens listeners on the local port, one for each acceptor
+	 *
+	 * @param opened list, to which opened listeners are added, so they can be
+	 * closed, if any other fails
+	 * @throws IOException if local port can't be bound
+	 */
+	protected void listen(List<Listener<Connection>> opened) throws IOException {
+		int acceptors = proxy.getAcceptors();
+		for (int i = 0; i < acceptors; i++) {
+			opened.add(new SocketListener(proxy.createServerSocket(acceptors > 1)));
+		}
+	}
+
+	/**
+	 * Creates connector, that opens connections to the remote server
+	 *
+	 * @return a newly created connector
+	 * @throws IOException if connector can't be created
+	 */
+	protected UpstreamConnector<Connection> createConnector() throws IOException {
+		return new RemoteConnector().forSockets();
+	}
+
+	/**
+	 * Accepts connections until this engine is stopped
+	 *
+	 * @param listener listener of connections on local port
+	 */
+	private void doAccept(Listener<Connection> listener) {
+		while (running) {
+			Connection client;
+			ClientContext context;
+
+			try {
+				client = listener.accept();
+			} catch (IOException ex) {
+				if (listener.isClosed()) {
+					break;
+				}
+
+				//e.g. out of file descriptors, retrying at once would only spin
+				Log.debugException(ex);
+				try {
+					Thread.sleep(ACCEPT_BACKOFF_MILLIS);
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+				continue;
+			}
+
+			try {
+				context = proxy.getClientContext();
+				client = secure(client, context);
+			} catch (IOException ex) {
+				Log.debugException(ex);
+				client.close();
+				continue;
+			}
+
+			if (context.isSecure() && !limiter.tryAcquire(client.getAddress())) {
+				client.close();
+				continue;
+			}
+
+			BlockingConnection connection = new BlockingConnection(proxy, this, threadFactory, client, context, context.isSecure() ? limiter : null);
+			addHandshakeCompletedListener(client.getSocket(), context, connection);
+			proxy.onClientConnected(context);
+			connections.add(connection);
+			connection.startTimeouts();
+
+			if (handlers == null) {
+				threadFactory.newThread(connection).start();
+			} else if (connection.isSecure()) {
+				execute(handshakers, connection, () -> {
+					if (connection.handshake()) {
+						execute(handlers, connection, connection);
+					} else {
+						connectionClosed(connection);
+					}
+				});
+			} else {
+				execute(handlers, connection, connection);
+			}
+		}
+	}
+
+	/**
+	 * Secures the given accepted connection with the given context
+	 *
+	 * @param accepted plain accepted connection
+	 * @param context context of client connections
+	 * @return secured connection, or the given one, if context is plain
+	 * @throws IOException if connection can't be secured
+	 */
+	private static Connection secure(Connection accepted, ClientContext context) throws IOException {
+		if (!context.isSecure()) {
+			return accepted;
+		}
+
+		if (accepted.getSocket() == null) {
+			throw new IOException("SSL/TLS is supported only over socket.");
+		}
+		return new SocketConnection(context.wrap(accepted.getSocket()));
+	}
+
+	/**
+	 * Executes task of the given connection by the given pool, connection is
+	 * closed, if pool and its queue are full
+	 *
+	 * @param pool pool of threads
+	 * @param connection connection
+	 * @param task task of connection
+	 */
+	private void execute(ThreadPoolExecutor pool, BlockingConnection connection, Runnable task) {
+		try {
+			pool.execute(task);
+		} catch (RejectedExecutionException ex) {
+			rejectedCounter.incrementAndGet();
+			connectionClosed(connection);
+			connection.close();
+		}
+	}
+
+	private void addHandshakeCompletedListener(Socket socket, final ClientContext context, final BlockingConnection connection) {
+		if (!(socket instanceof SSLSocket)) {
+			return;
+		}
+
+		((SSLSocket) socket).addHandshakeCompletedListener((HandshakeCompletedEvent hce) -> {
+			connection.handshakeCompleted();
+			proxy.onClientHandshakeCompleted(context, hce.getSocket());
+		});
+	}
+
+	private void closeListeners() {
+		for (Listener<Connection> listener : listeners) {
+			listener.close();
+		}
+		listeners.clear();
+	}
+
+	/**
+	 * Returns handshaken connection to the remote server, pooled one if
+	 * available
+	 *
+	 * @return connection to the remote server
+	 * @throws IOException if connection can't be opened
+	 */
+	Connection openUpstream() throws IOException {
+		Connection server = upstreamPool == null ? null : upstreamPool.take();
+		return server != null ? server : upstream.connect();
+	}
+
+	/**
+	 * Closes connection to the remote server returned by method
+	 * <code>openUpstream</code>
+	 *
+	 * @param server connection to the remote server
+	 */
+	void closeUpstream(Connection server) {
+		upstream.close(server);
+	}
+
+	/**
+	 * Called by connection, when it's no longer served
+	 *
+	 * @param connection finished connection
+	 */
+	void connectionClosed(BlockingConnection connection) {
+		connections.remove(connection);
+	}
+
+	/**
+	 * Returns count of accepted connections waiting for free handler or
+	 * handshake thread
+	 *
+	 * @return depth of queues
+	 */
+	public int getQueueDepth() {
+		return handlers == null ? 0 : handlers.getQueue().size() + handshakers.getQueue().size();
+	}
+
+	/**
+	 * Returns count of connections currently served
+	 *
+	 * @return count of active connections
+	 */
+	public int getActiveCount() {
+		return connections.size() - getQueueDepth();
+	}
+
+	/**
+	 * Returns count of bytes queued by all the connections, that were read
+	 * from one side, but not yet written to the other side
+	 *
+	 * @return count of bytes
+	 */
+	public long getQueuedBytes() {
+		long queued = 0;
+		for (BlockingConnection connection : connections) {
+			queued += connection.getQueuedBytes();
+		}
+		return queued;
+	}
+
+	/**
+	 * Returns count of connections rejected, because pool and its queue were
+	 * full
+	 *
+	 * @return count of rejected connections
+	 */
+	public long getRejectedCount() {
+		return rejectedCounter.get();
+	}
+
+	@Override
+	public void stop() {
+		running = false;
+		closeListeners();
+
+		if (handlers != null) {
+			handlers.shutdownNow();
+			handshakers.shutdownNow();
+		}
+
+		if (upstreamPool != null) {
+			upstreamPool.shutdown();
+		}
+
+		for (BlockingConnection connection : connections) {
+			connection.close();
+		}
+		connections.clear();
+
+		if (getRejectedCount() > 0) {
+			Log.warningln("%s connection(s) rejected, all handler threads were busy. Consider raising [%s] or [%s].",
+					getRejectedCount(), ConfigurationRegister.HANDLER_THREADS, ConfigurationRegister.HANDLER_QUEUE_SIZE);
+		}
+
+		if (limiter.getRefusedCount() > 0) {
+			Log.warningln("%s connection(s) refused, their address reached limit [%s] of unfinished handshakes.",
+					limiter.getRefusedCount(), ConfigurationRegister.MAX_HANDSHAKES_PER_SOURCE);
+		}
+	}
+}
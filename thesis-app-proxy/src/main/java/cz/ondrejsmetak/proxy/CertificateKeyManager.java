@@ -0,0 +1,402 @@
+package cz.ondrejsmetak.proxy;
+
+import cz.ondrejsmetak.ConfigurationRegister;
+import cz.ondrejsmetak.entity.ClientCertificate;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.Principal;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import javax.naming.InvalidNameException;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.Rdn;
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SNIHostName;
+import javax.net.ssl.SNIMatcher;
+import javax.net.ssl.SNIServerName;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.StandardConstants;
+import javax.net.ssl.X509ExtendedKeyManager;
+import javax.net.ssl.X509KeyManager;
+
+/**
+ * Key manager holding all the tested certificates at once. Certificate is
+ * chosen for each connection according to the schedule given by directive
+ * "certificateSchedule", so tests of all the certificates can share one
+ * listening socket and one test window.
+ *
+ * Aliases of this key manager are prefixed by index of certificate, so they
+ * are unique even if keystores share alias names. Sessions are never resumed,
+ * so every connection gets certificate by schedule.
+ *
+ * @author Ondřej Směták <posta@ondrejsmetak.cz>
+ */
+public class CertificateKeyManager extends X509ExtendedKeyManager {
+
+	/**
+	 * Separates index of certificate from alias in its keystore
+	 */
+	private static final String ALIAS_SEPARATOR = ":";
+
+	/**
+	 * Tested certificates
+	 */
+	private final List<ClientCertificate> certificates;
+
+	/**
+	 * Key managers of tested certificates, in the same order
+	 */
+	private final List<X509KeyManager> keyManagers = new ArrayList<>();
+
+	/**
+	 * Host names of tested certificates, in the same order
+	 */
+	private final List<List<String>> hostNames = new ArrayList<>();
+
+	/**
+	 * End-entity certificates of key entries of tested certificates, in the
+	 * same order
+	 */
+	private final List<List<X509Certificate>> leaves = new ArrayList<>();
+
+	/**
+	 * Schedule, according to which certificate is chosen
+	 */
+	private final String schedule;
+
+	/**
+	 * Called, when certificate is chosen for a new connection
+	 */
+	private final Consumer<ClientCertificate> listener;
+
+	/**
+	 * Certificate chosen for connection, keyed by socket or engine
+	 */
+	private final Map<Object, Integer> selected = Collections.synchronizedMap(new WeakHashMap<>());
+
+	/**
+	 * Host name requested by client, keyed by socket or engine
+	 */
+	private final Map<Object, String> requested = Collections.synchronizedMap(new WeakHashMap<>());
+
+	/**
+	 * Count of connections, that already got certificate
+	 */
+	private final AtomicInteger sequence = new AtomicInteger(0);
+
+	/**
+	 * Count of connections, that already got certificate, per source address
+	 */
+	private final Map<InetAddress, AtomicInteger> sequenceOfSource = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates a new key manager for the given certificates
+	 *
+	 * @param certificates tested certificates, at least one
+	 * @param schedule schedule, according to which certificate is chosen
+	 * @param listener called, when certificate is chosen for a new connection
+	 * @throws GeneralSecurityException if keystore of any certificate can't be
+	 * used
+	 */
+	public CertificateKeyManager(List<ClientCertificate> certificates, String schedule, Consumer<ClientCertificate> listener) throws GeneralSecurityException {
+		this.certificates = new ArrayList<>(certificates);
+		this.schedule = schedule;
+		this.listener = listener;
+
+		for (ClientCertificate certificate : this.certificates) {
+			KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+			kmf.init(certificate.getKeystore(), certificate.getPassword().toCharArray());
+			keyManagers.add(getX509KeyManager(kmf.getKeyManagers()));
+
+			List<X509Certificate> own = getLeaves(certificate.getKeystore());
+			leaves.add(own);
+			hostNames.add(getHostNames(own));
+		}
+	}
+
+	private static X509KeyManager getX509KeyManager(KeyManager[] keyManagers) throws GeneralSecurityException {
+		for (KeyManager keyManager : keyManagers) {
+			if (keyManager instanceof X509KeyManager) {
+				return (X509KeyManager) keyManager;
+			}
+		}
+		throw new GeneralSecurityException("Keystore doesn't provide X.509 key manager.");
+	}
+
+	/**
+	 * Returns end-entity certificates of all the key entries of the given
+	 * keystore
+	 *
+	 * @param keystore keystore
+	 * @return collection of certificates
+	 * @throws GeneralSecurityException if keystore can't be read
+	 */
+	private static List<X509Certificate> getLeaves(KeyStore keystore) throws GeneralSecurityException {
+		List<X509Certificate> found = new ArrayList<>();
+
+		Enumeration<String> aliases = keystore.aliases();
+		while (aliases.hasMoreElements()) {
+			String alias = aliases.nextElement();
+			Certificate certificate = keystore.getCertificate(alias);
+			if (keystore.isKeyEntry(alias) && certificate instanceof X509Certificate) {
+				found.add((X509Certificate) certificate);
+			}
+		}
+
+		return found;
+	}
+
+	/**
+	 * Returns host names of the given certificates, as given by common name
+	 * and DNS subject alternative names
+	 *
+	 * @param certificates certificates
+	 * @return collection of host names in lower case
+	 * @throws GeneralSecurityException if certificate can't be parsed
+	 */
+	private static List<String> getHostNames(List<X509Certificate> certificates) throws GeneralSecurityException {
+		List<String> names = new ArrayList<>();
+
+		for (X509Certificate x509 : certificates) {
+			if (x509.getSubjectAlternativeNames() != null) {
+				for (List<?> name : x509.getSubjectAlternativeNames()) {
+					if (Integer.valueOf(2).equals(name.get(0))) { //dNSName
+						names.add(name.get(1).toString().toLowerCase(Locale.ROOT));
+					}
+				}
+			}
+
+			try {
+				for (Rdn rdn : new LdapName(x509.getSubjectX500Principal().getName()).getRdns()) {
+					if (rdn.getType().equalsIgnoreCase("CN")) {
+						names.add(rdn.getValue().toString().toLowerCase(Locale.ROOT));
+					}
+				}
+			} catch (InvalidNameException ex) {
+				//subject without common name
+			}
+		}
+
+		return names;
+	}
+
+	/**
+	 * Creates matcher, that records host name requested by client of the
+	 * given connection. It must be set to the connection, so schedule "sni"
+	 * can be used. Every host name is accepted.
+	 *
+	 * @param connection socket or engine of connection
+	 * @return a newly created matcher
+	 */
+	public SNIMatcher createMatcher(final Object connection) {
+		return new SNIMatcher(StandardConstants.SNI_HOST_NAME) {
+			@Override
+			public boolean matches(SNIServerName serverName) {
+				if (serverName instanceof SNIHostName) {
+					requested.put(connection, ((SNIHostName) serverName).getAsciiName().toLowerCase(Locale.ROOT));
+				}
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Returns certificate chosen for the given connection. Resumed session
+	 * skips choosing, its certificate is then found by the given session.
+	 *
+	 * @param connection socket or engine of connection
+	 * @param session session of finished handshake, may be null
+	 * @return chosen certificate or null, if it's not known
+	 */
+	public ClientCertificate getSelected(Object connection, SSLSession session) {
+		Integer index = selected.get(connection);
+		if (index != null) {
+			return certificates.get(index);
+		}
+
+		Certificate[] local = session == null ? null : session.getLocalCertificates();
+		if (local == null || local.length == 0) {
+			return null;
+		}
+
+		for (int i = 0; i < leaves.size(); i++) {
+			if (leaves.get(i).contains(local[0])) {
+				return certificates.get(i);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns index of certificate for the given connection, it's chosen on
+	 * the first call for each connection
+	 *
+	 * @param connection socket or engine of connection
+	 * @param source address of client, may be null
+	 * @param session handshake session, it's invalidated, so it can't be
+	 * resumed later, may be null
+	 * @return index of certificate
+	 */
+	private int select(Object connection, InetAddress source, SSLSession session) {
+		if (session != null) {
+			//resumed session would skip choosing, so session must not be cached nor ticketed
+			session.invalidate();
+		}
+
+		Integer index;
+		boolean chosen = false;
+
+		synchronized (selected) {
+			index = selected.get(connection);
+			if (index == null) {
+				index = choose(source, requested.get(connection));
+				selected.put(connection, index);
+				chosen = true;
+			}
+		}
+
+		if (chosen && listener != null) {
+			listener.accept(certificates.get(index));
+		}
+		return index;
+	}
+
+	private int choose(InetAddress source, String host) {
+		if (ConfigurationRegister.CERTIFICATE_SCHEDULE_SNI.equals(schedule) && host != null) {
+			int index = findByHostName(host);
+			if (index != -1) {
+				return index;
+			}
+		}
+
+		AtomicInteger counter = sequence;
+		if (ConfigurationRegister.CERTIFICATE_SCHEDULE_SOURCE.equals(schedule) && source != null) {
+			counter = sequenceOfSource.computeIfAbsent(source, (InetAddress address) -> new AtomicInteger(0));
+		}
+
+		return (counter.getAndIncrement() & Integer.MAX_VALUE) % certificates.size();
+	}
+
+	/**
+	 * Finds certificate matching host name requested by client
+	 *
+	 * @param host requested host name in lower case
+	 * @return index of certificate or -1, if there is no match
+	 */
+	private int findByHostName(String host) {
+		for (int i = 0; i < hostNames.size(); i++) {
+			for (String name : hostNames.get(i)) {
+				if (matches(name, host)) {
+					return i;
+				}
+			}
+		}
+
+		return -1;
+	}
+
+	private boolean matches(String pattern, String host) {
+		if (pattern.startsWith("*.")) {
+			int dot = host.indexOf('.');
+			return dot != -1 && host.substring(dot).equals(pattern.substring(1));
+		}
+		return pattern.equals(host);
+	}
+
+	private String toAlias(int index, String alias) {
+		return alias == null ? null : index + ALIAS_SEPARATOR + alias;
+	}
+
+	private int indexOf(String alias) {
+		int separator = alias == null ? -1 : alias.indexOf(ALIAS_SEPARATOR);
+		if (separator == -1) {
+			return -1;
+		}
+
+		try {
+			int index = Integer.parseInt(alias.substring(0, separator));
+			return index < keyManagers.size() ? index : -1;
+		} catch (NumberFormatException ex) {
+			return -1;
+		}
+	}
+
+	@Override
+	public String chooseServerAlias(String keyType, Principal[] issuers, Socket socket) {
+		SSLSession session = socket instanceof SSLSocket ? ((SSLSocket) socket).getHandshakeSession() : null;
+		InetAddress source = socket == null ? null : socket.getInetAddress();
+
+		int index = select(socket, source, session);
+		return toAlias(index, keyManagers.get(index).chooseServerAlias(keyType, issuers, socket));
+	}
+
+	@Override
+	public String chooseEngineServerAlias(String keyType, Principal[] issuers, SSLEngine engine) {
+		InetAddress source = null;
+		try {
+			source = engine.getPeerHost() == null ? null : InetAddress.getByName(engine.getPeerHost());
+		} catch (UnknownHostException ex) {
+			//schedule falls back to global sequence
+		}
+
+		int index = select(engine, source, engine.getHandshakeSession());
+		X509KeyManager keyManager = keyManagers.get(index);
+		String alias = keyManager instanceof X509ExtendedKeyManager
+				? ((X509ExtendedKeyManager) keyManager).chooseEngineServerAlias(keyType, issuers, engine)
+				: keyManager.chooseServerAlias(keyType, issuers, null);
+		return toAlias(index, alias);
+	}
+
+	@Override
+	public String[] getServerAliases(String keyType, Principal[] issuers) {
+		List<String> aliases = new ArrayList<>();
+		for (int i = 0; i < keyManagers.size(); i++) {
+			String[] own = keyManagers.get(i).getServerAliases(keyType, issuers);
+			if (own != null) {
+				for (String alias : own) {
+					aliases.add(toAlias(i, alias));
+				}
+			}
+		}
+		return aliases.isEmpty() ? null : aliases.toArray(new String[aliases.size()]);
+	}
+
+	@Override
+	public X509Certificate[] getCertificateChain(String alias) {
+		int index = indexOf(alias);
+		return index == -1 ? null : keyManagers.get(index).getCertificateChain(alias.substring(alias.indexOf(ALIAS_SEPARATOR) + 1));
+	}
+
+	@Override
+	public PrivateKey getPrivateKey(String alias) {
+		int index = indexOf(alias);
+		return index == -1 ? null : keyManagers.get(index).getPrivateKey(alias.substring(alias.indexOf(ALIAS_SEPARATOR) + 1));
+	}
+
+	@Override
+	public String[] getClientAliases(String keyType, Principal[] issuers) {
+		return null; //used for server side only
+	}
+
+	@Override
+	public String chooseClientAlias(String[] keyType, Principal[] issuers, Socket socket) {
+		return null; //used for server side only
+	}
+}
@@ -0,0 +1,112 @@
+package cz.ondrejsmetak.proxy;
+
+import cz.ondrejsmetak.ConfigurationRegister;
+import cz.ondrejsmetak.tool.Log;
+import cz.ondrejsmetak.tool.ReusePort;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Non-blocking channel listening on the local port. Accept never blocks, so
+ * it's called, once selector reports pending connection. Accepted channels are
+ * already in non-blocking mode.
+ *
+ * @author Ondřej Směták <posta@ondrejsmetak.cz>
+ */
+class ChannelListener implements Listener<SocketChannel> {
+
+	/**
+	 * Bound listening channel
+	 */
+	private final ServerSocketChannel serverChannel;
+
+	/**
+	 * Binds a new channel to the given port
+	 *
+	 * @param port local port
+	 * @param backlog length of queue of connections waiting for accept
+	 * @param reusePort should SO_REUSEPORT be enabled, so other channels can
+	 * listen on the same port
+	 * @throws IOException if port can't be bound
+	 */
+	public ChannelListener(int port, int backlog, boolean reusePort) throws IOException {
+		serverChannel = ServerSocketChannel.open();
+
+		try {
+			serverChannel.socket().setReuseAddress(true);
+			if (reusePort) {
+				ReusePort.enable(serverChannel);
+			}
+			serverChannel.bind(new InetSocketAddress(port), backlog);
+			serverChannel.configureBlocking(false);
+		} catch (IOException ex) {
+			close();
+			throw ex;
+		}
+	}
+
+	/**
+	 * Registers this listener with the given selector, pending connections
+	 * are reported to the given handler
+	 *
+	 * @param selector selector of event loop
+	 * @param handler handler of pending connections
+	 * @throws ClosedChannelException if listener is closed
+	 */
+	public void register(Selector selector, SelectionHandler handler) throws ClosedChannelException {
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT, handler);
+	}
+
+	/**
+	 * Does the given key belong to this listener?
+	 *
+	 * @param key selection key
+	 * @return true, if key was created by method <code>register</code>,
+	 * false otherwise
+	 */
+	public boolean owns(SelectionKey key) {
+		return key.channel() == serverChannel;
+	}
+
+	@Override
+	public SocketChannel accept() throws IOException {
+		SocketChannel client;
+
+		while ((client = serverChannel.accept()) != null) {
+			try {
+				client.configureBlocking(false);
+				client.socket().setTcpNoDelay(ConfigurationRegister.getInstance().isTcpNoDelay());
+				return client;
+			} catch (IOException ex) {
+				//client is already gone, others are accepted
+				Log.debugException(ex);
+				try {
+					client.close();
+				} catch (IOException closeEx) {
+					Log.debugException(closeEx);
+				}
+			}
+		}
+
+		return null;
+	}
+
+	@Override
+	public boolean isClosed() {
+		return !serverChannel.isOpen();
+	}
+
+	@Override
+	public void close() {
+		try {
+			serverChannel.close();
+		} catch (IOException ex) {
+			Log.debugException(ex);
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package cz.ondrejsmetak.proxy;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Collections;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+
+/**
+ * Immutable settings applied to newly accepted client connections. Listening
+ * socket is always plain, accepted connection is secured by context, that is
+ * active at the moment of accept, so context can be switched without closing
+ * the listening socket. Connections accepted earlier keep their context.
+ * Blocking engine secures sockets, NIO engine creates engines.
+ *
+ * @author Ondřej Směták <posta@ondrejsmetak.cz>
+ */
+public class ClientContext {
+
+	/**
+	 * Context, that leaves connections plain
+	 */
+	public static final ClientContext PLAIN = new ClientContext(null, null, null);
+
+	/**
+	 * Context securing accepted connections, null for plain connections
+	 */
+	private final SSLContext sslContext;
+
+	/**
+	 * Protocols enabled on secured connections
+	 */
+	private final String[] protocols;
+
+	/**
+	 * Key manager choosing certificate per connection, null if context uses
+	 * single certificate
+	 */
+	private final CertificateKeyManager keyManager;
+
+	/**
+	 * Creates a new context securing connections with the given SSL context
+	 *
+	 * @param sslContext context securing accepted connections, null for plain
+	 * connections
+	 * @param protocols protocols enabled on secured connections
+	 * @param keyManager key manager choosing certificate per connection, null
+	 * if context uses single certificate
+	 */
+	public ClientContext(SSLContext sslContext, String[] protocols, CertificateKeyManager keyManager) {
+		this.sslContext = sslContext;
+		this.protocols = protocols == null ? null : protocols.clone();
+		this.keyManager = keyManager;
+	}
+
+	/**
+	 * Returns key manager choosing certificate per connection
+	 *
+	 * @return key manager or null, if single certificate is used
+	 */
+	public CertificateKeyManager getKeyManager() {
+		return keyManager;
+	}
+
+	/**
+	 * Are connections secured by this context
+	 *
+	 * @return true, if connections are secured, false otherwise
+	 */
+	public boolean isSecure() {
+		return sslContext != null;
+	}
+
+	/**
+	 * Secures the given accepted connection in server mode. Handshake starts
+	 * with the first read or write.
+	 *
+	 * @param accepted plain accepted connection
+	 * @return secured connection, or the given one, if context is plain
+	 * @throws IOException if connection can't be secured
+	 */
+	public Socket wrap(Socket accepted) throws IOException {
+		if (!isSecure()) {
+			return accepted;
+		}
+
+		SSLSocket socket = (SSLSocket) sslContext.getSocketFactory().createSocket(accepted, null, true);
+		socket.setUseClientMode(false);
+		socket.setEnabledProtocols(protocols);
+
+		if (keyManager != null) {
+			SSLParameters parameters = socket.getSSLParameters();
+			parameters.setSNIMatchers(Collections.singletonList(keyManager.createMatcher(socket)));
+			socket.setSSLParameters(parameters);
+		}
+		return socket;
+	}
+
+	/**
+	 * Creates engine in server mode for the given accepted connection.
+	 * Handshake is already started, so the first unwrap reads Client Hello.
+	 *
+	 * @param peer address of client
+	 * @return a newly created engine
+	 * @throws IOException if handshake can't be started
+	 */
+	public SSLEngine createEngine(InetSocketAddress peer) throws IOException {
+		if (!isSecure()) {
+			throw new IllegalStateException("Plain context can't create engine!");
+		}
+
+		SSLEngine engine = sslContext.createSSLEngine(peer.getAddress().getHostAddress(), peer.getPort());
+		engine.setUseClientMode(false);
+		engine.setEnabledProtocols(protocols);
+
+		if (keyManager != null) {
+			SSLParameters parameters = engine.getSSLParameters();
+			parameters.setSNIMatchers(Collections.singletonList(keyManager.createMatcher(engine)));
+			engine.setSSLParameters(parameters);
+		}
+
+		engine.beginHandshake();
+		return engine;
+	}
+}
@@ -0,0 +1,231 @@
+package cz.ondrejsmetak.proxy;
+
+import java.util.Arrays;
+
+/**
+ * Reassembles Client Hello from bytes read from one client connection. Client
+ * Hello may be split into several reads and even into several TLS records,
+ * bytes are therefore fed by chunks, as they are read, and complete message is
+ * returned exactly once. Buffering is bounded, too long message or unexpected
+ * bytes end assembling. SSLv2 compatible Client Hello, sent by some older
+ * clients, is single record with its own header, it's returned as it is.
+ *
+ * @author Ondřej Směták <posta@ondrejsmetak.cz>
+ */
+public class ClientHelloAssembler {
+
+	/**
+	 * Length of TLS record header
+	 */
+	private static final int RECORD_HEADER_LENGTH = 5;
+
+	/**
+	 * Length of handshake message header
+	 */
+	private static final int HANDSHAKE_HEADER_LENGTH = 4;
+
+	/**
+	 * Length of SSLv2 record header, including type of message
+	 */
+	private static final int SSL_V2_HEADER_LENGTH = 3;
+
+	/**
+	 * Maximal length of TLS record, that client may send
+	 */
+	private static final int MAX_RECORD_LENGTH = 16384 + 2048;
+
+	/**
+	 * Maximal length of Client Hello message, longer ones are not assembled
+	 */
+	private static final int MAX_MESSAGE_LENGTH = 65536;
+
+	private static final byte CONTENT_TYPE_HANDSHAKE = 0x16;
+	private static final byte HANDSHAKE_TYPE_CLIENT_HELLO = 0x01;
+
+	/**
+	 * Bytes of records, that are not complete yet
+	 */
+	private byte[] records = new byte[0];
+	private int recordsLength = 0;
+
+	/**
+	 * Bytes of handshake message gathered from complete records
+	 */
+	private byte[] message = new byte[0];
+	private int messageLength = 0;
+
+	/**
+	 * Version from header of the first record
+	 */
+	private byte versionMajor;
+	private byte versionMinor;
+
+	/**
+	 * Are more bytes needed to complete Client Hello?
+	 */
+	private boolean assembling = true;
+
+	/**
+	 * Are more bytes needed to complete Client Hello? Once Client Hello is
+	 * returned, or bytes can't form it, no more bytes are needed.
+	 *
+	 * @return true, if bytes should be fed, false otherwise
+	 */
+	public boolean isAssembling() {
+		return assembling;
+	}
+
+	/**
+	 * Feeds bytes read from client
+	 *
+	 * @param bytes array of bytes
+	 * @param offset offset of the first byte
+	 * @param length count of bytes
+	 * @return complete Client Hello as single record, or null, if it's
+	 * not complete yet or bytes don't form it
+	 */
+	public byte[] append(byte[] bytes, int offset, int length) {
+		if (!assembling || length <= 0) {
+			return null;
+		}
+
+		records = ensureCapacity(records, recordsLength + length);
+		System.arraycopy(bytes, offset, records, recordsLength, length);
+		recordsLength += length;
+
+		//SSLv2 record has the highest bit of length set, it can be only the first one
+		byte[] done = messageLength == 0 && (records[0] & 0x80) != 0 ? appendSslV2Record() : appendRecords();
+
+		if (!assembling) {
+			records = message = null; //nothing more will be needed
+			recordsLength = messageLength = 0;
+		}
+		return done;
+	}
+
+	/**
+	 * Gathers bodies of complete TLS records
+	 *
+	 * @return complete Client Hello, or null, if it's not complete yet or
+	 * bytes don't form it
+	 */
+	private byte[] appendRecords() {
+		int consumed = 0;
+		byte[] done = null;
+
+		while (assembling && consumed < recordsLength) {
+			if (records[consumed] != CONTENT_TYPE_HANDSHAKE) {
+				assembling = false; //not Client Hello at all, or interrupted by another content type
+				break;
+			}
+
+			if (recordsLength - consumed < RECORD_HEADER_LENGTH) {
+				break; //wait for the rest of header
+			}
+
+			int recordLength = readLength(records, consumed + 3, 2);
+			if (records[consumed + 1] != 3 || recordLength > MAX_RECORD_LENGTH) {
+				assembling = false;
+				break;
+			}
+
+			if (recordsLength - consumed < RECORD_HEADER_LENGTH + recordLength) {
+				break; //wait for the rest of record
+			}
+
+			if (messageLength == 0) {
+				versionMajor = records[consumed + 1];
+				versionMinor = records[consumed + 2];
+			}
+
+			done = appendMessage(records, consumed + RECORD_HEADER_LENGTH, recordLength);
+			consumed += RECORD_HEADER_LENGTH + recordLength;
+		}
+
+		if (!assembling) {
+			return done;
+		}
+
+		System.arraycopy(records, consumed, records, 0, recordsLength - consumed);
+		recordsLength -= consumed;
+		return null;
+	}
+
+	/**
+	 * Waits for complete SSLv2 record
+	 *
+	 * @return complete Client Hello, or null, if it's not complete yet or
+	 * bytes don't form it
+	 */
+	private byte[] appendSslV2Record() {
+		if (recordsLength < SSL_V2_HEADER_LENGTH) {
+			return null; //wait for the rest of header
+		}
+
+		int recordLength = readLength(records, 0, 2) & 0x7FFF;
+		if (records[2] != HANDSHAKE_TYPE_CLIENT_HELLO) {
+			assembling = false;
+			return null;
+		}
+
+		if (recordsLength < 2 + recordLength) {
+			return null; //wait for the rest of record
+		}
+
+		assembling = false;
+		return Arrays.copyOf(records, 2 + recordLength);
+	}
+
+	/**
+	 * Appends body of one record to handshake message
+	 *
+	 * @param bytes array of bytes
+	 * @param offset offset of body
+	 * @param length length of body
+	 * @return complete Client Hello, or null, if it's not complete yet
+	 */
+	private byte[] appendMessage(byte[] bytes, int offset, int length) {
+		message = ensureCapacity(message, messageLength + length);
+		System.arraycopy(bytes, offset, message, messageLength, length);
+		messageLength += length;
+
+		if (messageLength < HANDSHAKE_HEADER_LENGTH) {
+			return null;
+		}
+
+		int bodyLength = readLength(message, 1, 3);
+		if (message[0] != HANDSHAKE_TYPE_CLIENT_HELLO || bodyLength > MAX_MESSAGE_LENGTH) {
+			assembling = false;
+			return null;
+		}
+
+		int total = HANDSHAKE_HEADER_LENGTH + bodyLength;
+		if (messageLength < total) {
+			return null;
+		}
+
+		assembling = false;
+
+		//the whole message in single record, as parser of Client Hello expects
+		byte[] hello = new byte[RECORD_HEADER_LENGTH + total];
+		hello[0] = CONTENT_TYPE_HANDSHAKE;
+		hello[1] = versionMajor;
+		hello[2] = versionMinor;
+		hello[3] = (byte) (Math.min(total, 0xFFFF) >>> 8);
+		hello[4] = (byte) Math.min(total, 0xFFFF);
+		System.arraycopy(message, 0, hello, RECORD_HEADER_LENGTH, total);
+		return hello;
+	}
+
+	private static byte[] ensureCapacity(byte[] array, int capacity) {
+		return capacity <= array.length ? array : Arrays.copyOf(array, Math.max(capacity, array.length * 2));
+	}
+
+	private static int readLength(byte[] bytes, int offset, int count) {
+		int length = 0;
+		for (int i = 0; i < count; i++) {
+			length = (length << 8) | (bytes[offset + i] & 0xFF);
+		}
+		return length;
+	}
+}
@@ -0,0 +1,79 @@
+package cz.ondrejsmetak.proxy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+
+/**
+ * Connection of transport, over which bytes are forwarded by blocking streams.
+ * Connections of client are accepted by listener, connections to the remote
+ * server are opened by upstream connector. Closing any of its streams closes
+ * the whole connection, as with socket.
+ *
+ * @author Ondřej Směták <posta@ondrejsmetak.cz>
+ */
+public interface Connection {
+
+	/**
+	 * Returns stream of bytes received from peer
+	 *
+	 * @return input stream
+	 * @throws IOException if connection is closed
+	 */
+	public InputStream getInputStream() throws IOException;
+
+	/**
+	 * Returns stream of bytes sent to peer
+	 *
+	 * @return output stream
+	 * @throws IOException if connection is closed
+	 */
+	public OutputStream getOutputStream() throws IOException;
+
+	/**
+	 * Sets maximal time, for which read from input stream blocks. Expired read
+	 * throws SocketTimeoutException, connection stays usable.
+	 *
+	 * @param millis time in milliseconds, zero means no limit
+	 * @throws IOException if connection is closed
+	 */
+	public void setReadTimeout(int millis) throws IOException;
+
+	/**
+	 * Returns address of peer in form host:port, used as source of captured
+	 * bytes
+	 *
+	 * @return address of peer
+	 */
+	public String getSource();
+
+	/**
+	 * Returns address of peer, that limits of unfinished handshakes are kept
+	 * for
+	 *
+	 * @return address of peer
+	 */
+	public InetAddress getAddress();
+
+	/**
+	 * Returns socket of this connection. SSL/TLS is supported only over
+	 * socket, secured connection returns SSLSocket.
+	 *
+	 * @return socket or null, if transport doesn't use sockets
+	 */
+	public Socket getSocket();
+
+	/**
+	 * Is this connection closed?
+	 *
+	 * @return true, if connection was closed, false otherwise
+	 */
+	public boolean isClosed();
+
+	/**
+	 * Closes this connection, blocked reads and writes fail
+	 */
+	public void close();
+}
@@ -0,0 +1,167 @@
+package cz.ondrejsmetak.proxy;
+
+import cz.ondrejsmetak.ConfigurationRegister;
+import cz.ondrejsmetak.tool.HashedWheelTimer;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * Idle, handshake and lifetime timeouts of one client connection, all of them
+ * driven by shared wheel timer. Activity only updates timestamp, idle timeout
+ * checks it when it expires and schedules itself again for the rest, so no
+ * timer is touched per read.
+ *
+ * @author Ondřej Směták <posta@ondrejsmetak.cz>
+ */
+class ConnectionTimeouts {
+
+	/**
+	 * Executes expirations, so they are handled by thread owning connection
+	 */
+	private final Executor executor;
+
+	/**
+	 * Called with description, when any timeout expired
+	 */
+	private final Consumer<String> onExpired;
+
+	/**
+	 * Limits in milliseconds, zero means no limit
+	 */
+	private final long idleMillis;
+	private final long handshakeMillis;
+	private final long lifetimeMillis;
+
+	/**
+	 * Time of the last read from any side
+	 */
+	private volatile long lastActivity;
+
+	/**
+	 * Was handshake with client finished?
+	 */
+	private volatile boolean handshakeFinished = false;
+
+	/**
+	 * Were timeouts cancelled or did any of them expire?
+	 */
+	private volatile boolean cancelled = false;
+
+	/**
+	 * Pending timeouts, null if not scheduled
+	 */
+	private volatile HashedWheelTimer.Timeout idle = null;
+	private volatile HashedWheelTimer.Timeout handshake = null;
+	private volatile HashedWheelTimer.Timeout lifetime = null;
+
+	/**
+	 * Creates timeouts with limits according to configuration
+	 *
+	 * @param executor executes expirations, so they are handled by thread
+	 * owning connection
+	 * @param onExpired called with description, when any timeout expired
+	 */
+	public ConnectionTimeouts(Executor executor, Consumer<String> onExpired) {
+		this.executor = executor;
+		this.onExpired = onExpired;
+
+		ConfigurationRegister configuration = ConfigurationRegister.getInstance();
+		this.idleMillis = configuration.getIdleTimeoutSeconds() * 1000L;
+		this.handshakeMillis = configuration.getClientHandshakeTimeoutMillis();
+		this.lifetimeMillis = configuration.getConnectionLifetimeSeconds() * 1000L;
+	}
+
+	/**
+	 * Schedules all the timeouts
+	 *
+	 * @param secure is handshake with client expected?
+	 */
+	public void start(boolean secure) {
+		lastActivity = System.currentTimeMillis();
+
+		if (idleMillis > 0) {
+			idle = schedule(this::checkIdle, idleMillis);
+		}
+
+		if (secure) {
+			handshake = schedule(this::checkHandshake, handshakeMillis);
+		} else {
+			handshakeFinished = true;
+		}
+
+		if (lifetimeMillis > 0) {
+			lifetime = schedule(() -> {
+				expire(String.format("Connection exceeded maximal lifetime of [%s] ms.", lifetimeMillis));
+			}, lifetimeMillis);
+		}
+	}
+
+	/**
+	 * Records activity, that postpones idle timeout
+	 */
+	public void touch() {
+		lastActivity = System.currentTimeMillis();
+	}
+
+	/**
+	 * Records finished handshake with client, cancels handshake timeout
+	 */
+	public void handshakeFinished() {
+		handshakeFinished = true;
+		cancel(handshake);
+	}
+
+	/**
+	 * Cancels all the timeouts, must be called, when connection is closed
+	 */
+	public void cancel() {
+		cancelled = true;
+		cancel(idle);
+		cancel(handshake);
+		cancel(lifetime);
+	}
+
+	private HashedWheelTimer.Timeout schedule(final Runnable check, long delayMillis) {
+		return HashedWheelTimer.getInstance().schedule(() -> {
+			executor.execute(check);
+		}, delayMillis);
+	}
+
+	private static void cancel(HashedWheelTimer.Timeout timeout) {
+		if (timeout != null) {
+			timeout.cancel();
+		}
+	}
+
+	/**
+	 * Expires idle timeout, if there was no activity since it was scheduled,
+	 * otherwise schedules it again for the rest
+	 */
+	private void checkIdle() {
+		if (cancelled) {
+			return;
+		}
+
+		long idleFor = System.currentTimeMillis() - lastActivity;
+		if (idleFor >= idleMillis) {
+			expire(String.format("Connection was idle for [%s] ms.", idleFor));
+		} else {
+			idle = schedule(this::checkIdle, idleMillis - idleFor);
+		}
+	}
+
+	private void checkHandshake() {
+		if (!cancelled && !handshakeFinished) {
+			expire(String.format("Handshake with client didn't finish within [%s] ms.", handshakeMillis));
+		}
+	}
+
+	private void expire(String message) {
+		if (cancelled) {
+			return;
+		}
+
+		cancel();
+		onExpired.accept(message);
+	}
+}
@@ -0,0 +1,244 @@
+package cz.ondrejsmetak.proxy;
+
+import cz.ondrejsmetak.tool.Log;
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Single thread multiplexing many channels using one selector
+ *
+ * @author Ondřej Směták <posta@ondrejsmetak.cz>
+ */
+class EventLoop implements Runnable {
+
+	/**
+	 * Selector of this loop
+	 */
+	private final Selector selector;
+
+	/**
+	 * Tasks, that will be executed by thread of this loop
+	 */
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Tasks delayed by method <code>schedule</code>, the nearest first.
+	 * Accessed by thread of this loop only.
+	 */
+	private final PriorityQueue<Timer> timers = new PriorityQueue<>();
+
+	/**
+	 * Task, that will be executed at the given time
+	 */
+	private static class Timer implements Comparable<Timer> {
+
+		private final long deadline;
+		private final Runnable task;
+
+		public Timer(long deadline, Runnable task) {
+			this.deadline = deadline;
+			this.task = task;
+		}
+
+		@Override
+		public int compareTo(Timer other) {
+			return Long.compare(deadline, other.deadline);
+		}
+	}
+
+	/**
+	 * Thread running this loop
+	 */
+	private final Thread thread;
+
+	/**
+	 * Is this loop running
+	 */
+	private volatile boolean running = true;
+
+	/**
+	 * Creates a new event loop
+	 *
+	 * @param name name of thread running this loop
+	 * @throws IOException if selector can't be opened
+	 */
+	public EventLoop(String name) throws IOException {
+		this.selector = Selector.open();
+		this.thread = new Thread(this, name);
+	}
+
+	public Selector getSelector() {
+		return selector;
+	}
+
+	/**
+	 * Starts thread of this loop
+	 */
+	public void start() {
+		thread.start();
+	}
+
+	/**
+	 * Stops this loop and closes all the channels registered with it
+	 */
+	public void shutdown() {
+		running = false;
+		selector.wakeup();
+	}
+
+	/**
+	 * Closes selector of loop, that was never started. Started loop closes
+	 * its selector itself, once it's shut down.
+	 */
+	public void closeUnstarted() {
+		try {
+			selector.close();
+		} catch (IOException ex) {
+			Log.debugException(ex);
+		}
+	}
+
+	/**
+	 * Waits until thread of this loop terminates
+	 */
+	public void awaitTermination() {
+		try {
+			thread.join();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Executes the given task by thread of this loop. Channels must be
+	 * registered with selector this way.
+	 *
+	 * @param task task, that will be executed
+	 */
+	public void execute(Runnable task) {
+		tasks.add(task);
+		selector.wakeup();
+	}
+
+	/**
+	 * Executes the given task by thread of this loop after the given delay.
+	 * Must be called by thread of this loop. Meant for short delays, that need
+	 * finer precision than tick of shared wheel timer.
+	 *
+	 * @param task task, that will be executed
+	 * @param delayMillis delay in milliseconds
+	 */
+	public void schedule(Runnable task, long delayMillis) {
+		timers.add(new Timer(System.currentTimeMillis() + delayMillis, task));
+	}
+
+	@Override
+	public void run() {
+		while (running) {
+			try {
+				selector.select(getSelectTimeout());
+				runTasks();
+				runTimers();
+
+				Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+				while (iterator.hasNext()) {
+					SelectionKey key = iterator.next();
+					iterator.remove();
+
+					if (key.isValid()) {
+						handle(key);
+					}
+				}
+			} catch (IOException ex) {
+				Log.debugException(ex);
+			}
+		}
+
+		for (SelectionKey key : selector.keys()) {
+			close((SelectionHandler) key.attachment());
+		}
+
+		try {
+			selector.close();
+		} catch (IOException ex) {
+			Log.debugException(ex);
+		}
+	}
+
+	/**
+	 * Lets handler of the given key handle its event. Handler, that fails,
+	 * is closed, the other channels of this loop are kept.
+	 *
+	 * @param key selected key
+	 */
+	private void handle(SelectionKey key) {
+		SelectionHandler handler = (SelectionHandler) key.attachment();
+		try {
+			handler.handle(key);
+		} catch (RuntimeException ex) {
+			Log.debugException(ex);
+			close(handler);
+		}
+	}
+
+	/**
+	 * Closes the given handler, failure is only logged
+	 *
+	 * @param handler handler, that will be closed
+	 */
+	private void close(SelectionHandler handler) {
+		try {
+			handler.close();
+		} catch (RuntimeException ex) {
+			Log.debugException(ex);
+		}
+	}
+
+	/**
+	 * Runs the given task, failure is only logged, so it can't stop this loop
+	 *
+	 * @param task task, that will be executed
+	 */
+	private void run(Runnable task) {
+		try {
+			task.run();
+		} catch (RuntimeException ex) {
+			Log.debugException(ex);
+		}
+	}
+
+	/**
+	 * Returns time in milliseconds, until the nearest timer
+	 *
+	 * @return timeout for selector, 0 means no timeout
+	 */
+	private long getSelectTimeout() {
+		Timer nearest = timers.peek();
+		return nearest == null ? 0 : Math.max(1, nearest.deadline - System.currentTimeMillis());
+	}
+
+	/**
+	 * Runs all the timers, that are due
+	 */
+	private void runTimers() {
+		long now = System.currentTimeMillis();
+		while (!timers.isEmpty() && timers.peek().deadline <= now) {
+			run(timers.poll().task);
+		}
+	}
+
+	/**
+	 * Runs all the queued tasks
+	 */
+	private void runTasks() {
+		Runnable task;
+		while ((task = tasks.poll()) != null) {
+			run(task);
+		}
+	}
+}
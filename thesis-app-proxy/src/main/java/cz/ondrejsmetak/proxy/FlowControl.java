@@ -0,0 +1,92 @@
+package cz.ondrejsmetak.proxy;
+
+import cz.ondrejsmetak.ConfigurationRegister;
+
+/**
+ * Limits of bytes forwarded in one direction of connection. Bytes wait in
+ * bounded buffer and reading stops while the buffer is full, so slow peer
+ * slows down the other side instead of consuming memory. Small chunks are
+ * coalesced, so chatty peer doesn't cause a write (and SSL/TLS record) for
+ * each of them.
+ *
+ * @author Ondřej Směták <posta@ondrejsmetak.cz>
+ */
+class FlowControl {
+
+	/**
+	 * Capacity of buffer of one direction
+	 */
+	private final int bufferBytes;
+
+	/**
+	 * Count of bytes, that is written without waiting for more
+	 */
+	private final int coalesceBytes;
+
+	/**
+	 * Time in milliseconds, for which smaller chunks wait for more bytes
+	 */
+	private final int coalesceMillis;
+
+	/**
+	 * Creates new limits
+	 *
+	 * @param bufferBytes capacity of buffer of one direction
+	 * @param coalesceBytes count of bytes, that is written without waiting for
+	 * more, zero disables coalescing
+	 * @param coalesceMillis time in milliseconds, for which smaller chunks
+	 * wait for more bytes
+	 */
+	public FlowControl(int bufferBytes, int coalesceBytes, int coalesceMillis) {
+		this.bufferBytes = bufferBytes;
+		this.coalesceBytes = Math.min(coalesceBytes, bufferBytes);
+		this.coalesceMillis = coalesceMillis;
+	}
+
+	/**
+	 * Creates limits according to configuration
+	 *
+	 * @return a newly created limits
+	 */
+	public static FlowControl fromConfiguration() {
+		ConfigurationRegister configuration = ConfigurationRegister.getInstance();
+		return new FlowControl(configuration.getForwardBufferBytes(), configuration.getWriteCoalesceBytes(), configuration.getWriteCoalesceMillis());
+	}
+
+	public int getBufferBytes() {
+		return bufferBytes;
+	}
+
+	/**
+	 * Are there enough queued bytes to be written without waiting for more?
+	 *
+	 * @param queued count of queued bytes
+	 * @return true, if bytes must be written, false if they can wait
+	 */
+	public boolean isBatchFull(int queued) {
+		return queued >= coalesceBytes;
+	}
+
+	/**
+	 * Did the queued bytes wait for more long enough? Caller has already read
+	 * all the bytes, that were available without waiting.
+	 *
+	 * @param waitedMillis time in milliseconds, for which the oldest queued
+	 * byte waits
+	 * @return true, if bytes must be written, false if they can wait
+	 */
+	public boolean isDelayExpired(long waitedMillis) {
+		return waitedMillis >= coalesceMillis;
+	}
+
+	/**
+	 * Returns time, for which queued bytes can still wait for more
+	 *
+	 * @param waitedMillis time in milliseconds, for which the oldest queued
+	 * byte waits
+	 * @return time in milliseconds, at least one
+	 */
+	public long getRemainingDelay(long waitedMillis) {
+		return Math.max(1, coalesceMillis - waitedMillis);
+	}
+}
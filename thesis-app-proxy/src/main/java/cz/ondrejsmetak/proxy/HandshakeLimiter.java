@@ -0,0 +1,94 @@
+package cz.ondrejsmetak.proxy;
+
+import cz.ondrejsmetak.ConfigurationRegister;
+import java.net.InetAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits count of unfinished handshakes per address of client, so a few slow
+ * or half-open peers can't take all the capacity needed by other clients
+ *
+ * @author Ondřej Směták <posta@ondrejsmetak.cz>
+ */
+class HandshakeLimiter {
+
+	/**
+	 * Maximal count of unfinished handshakes per address, zero means no limit
+	 */
+	private final int limit;
+
+	/**
+	 * Count of unfinished handshakes per address, addresses without any are
+	 * removed
+	 */
+	private final ConcurrentMap<InetAddress, Integer> running = new ConcurrentHashMap<>();
+
+	/**
+	 * Count of connections refused, because their address reached limit
+	 */
+	private final AtomicLong refusedCounter = new AtomicLong(0);
+
+	/**
+	 * Creates limiter according to configuration
+	 */
+	public HandshakeLimiter() {
+		this.limit = ConfigurationRegister.getInstance().getMaxHandshakesPerSource();
+	}
+
+	/**
+	 * Registers a new unfinished handshake of the given address, if limit
+	 * allows it. Every successful call must be followed by exactly one call of
+	 * method <code>release</code>.
+	 *
+	 * @param address address of client
+	 * @return true, if handshake may proceed, false if connection should be
+	 * refused
+	 */
+	public boolean tryAcquire(InetAddress address) {
+		if (limit == 0) {
+			return true;
+		}
+
+		boolean[] acquired = {false};
+		running.compute(address, (InetAddress key, Integer count) -> {
+			int current = count == null ? 0 : count;
+			if (current >= limit) {
+				return count;
+			}
+			acquired[0] = true;
+			return current + 1;
+		});
+
+		if (!acquired[0]) {
+			refusedCounter.incrementAndGet();
+		}
+		return acquired[0];
+	}
+
+	/**
+	 * Unregisters handshake of the given address, that finished or failed
+	 *
+	 * @param address address of client
+	 */
+	public void release(InetAddress address) {
+		if (limit == 0) {
+			return;
+		}
+
+		running.computeIfPresent(address, (InetAddress key, Integer count) -> {
+			return count > 1 ? count - 1 : null;
+		});
+	}
+
+	/**
+	 * Returns count of connections refused, because their address reached
+	 * limit
+	 *
+	 * @return count of refused connections
+	 */
+	public long getRefusedCount() {
+		return refusedCounter.get();
+	}
+}
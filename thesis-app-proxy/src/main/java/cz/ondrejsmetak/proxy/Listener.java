@@ -0,0 +1,34 @@
+package cz.ondrejsmetak.proxy;
+
+import java.io.IOException;
+
+/**
+ * Source of connections of clients, e.g. socket listening on the local port.
+ * Listener is already bound, when it's created.
+ *
+ * @author Ondřej Směták <posta@ondrejsmetak.cz>
+ * @param <C> type of accepted connection
+ */
+public interface Listener<C> {
+
+	/**
+	 * Accepts connection of the next client. Blocking listener waits for it,
+	 * non-blocking one returns null, if there is none pending.
+	 *
+	 * @return accepted connection, null if none is pending
+	 * @throws IOException if listener is closed or accept failed
+	 */
+	public C accept() throws IOException;
+
+	/**
+	 * Is this listener closed?
+	 *
+	 * @return true, if listener was closed, false otherwise
+	 */
+	public boolean isClosed();
+
+	/**
+	 * Closes this listener, pending accept fails
+	 */
+	public void close();
+}
@@ -0,0 +1,359 @@
+package cz.ondrejsmetak.proxy;
+
+import cz.ondrejsmetak.ConfigurationCertificateRegister;
+import cz.ondrejsmetak.ConfigurationRegister;
+import cz.ondrejsmetak.entity.CannedResponse;
+import cz.ondrejsmetak.entity.ClientCertificate;
+import cz.ondrejsmetak.tool.Log;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+
+/**
+ * In-process SSL/TLS server answering HTTP requests, that can replace the
+ * remote server. Files of configured directory are served, canned responses
+ * are used for other paths. Without any configured content, every request is
+ * answered by short "OK".
+ *
+ * Responder listens on loopback only and runs until the application exits.
+ *
+ * @author Ondřej Směták <posta@ondrejsmetak.cz>
+ */
+public class LocalResponder {
+
+	/**
+	 * Maximal length of request line and headers
+	 */
+	private static final int MAX_HEAD_SIZE = 16 * 1024;
+
+	/**
+	 * Instance of this class
+	 */
+	private static LocalResponder instance = null;
+
+	/**
+	 * Certificate presented to connections
+	 */
+	private final ClientCertificate certificate;
+
+	/**
+	 * Socket listening on loopback
+	 */
+	private final SSLServerSocket serverSocket;
+
+	/**
+	 * Threads serving accepted connections
+	 */
+	private final ExecutorService handlers;
+
+	/**
+	 * Root of served directory or null, if only canned responses are used
+	 */
+	private final Path directory;
+
+	/**
+	 * Configured canned responses
+	 */
+	private final List<CannedResponse> responses;
+
+	protected LocalResponder(ClientCertificate certificate) throws IOException {
+		this.certificate = certificate;
+		this.responses = ConfigurationRegister.getInstance().getResponses();
+
+		String directoryName = ConfigurationRegister.getInstance().getResponderDirectory();
+		this.directory = directoryName.isEmpty() ? null : Paths.get(directoryName).toAbsolutePath().normalize();
+
+		try {
+			KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+			kmf.init(certificate.getKeystore(), certificate.getPassword().toCharArray());
+
+			SSLContext context = SSLContext.getInstance("TLS");
+			context.init(kmf.getKeyManagers(), null, null);
+
+			serverSocket = (SSLServerSocket) context.getServerSocketFactory().createServerSocket(0, 0, InetAddress.getLoopbackAddress());
+		} catch (GeneralSecurityException ex) {
+			throw new IOException("Can't initialize local responder.", ex);
+		}
+
+		final AtomicInteger counter = new AtomicInteger(0);
+		handlers = Executors.newCachedThreadPool((Runnable r) -> {
+			Thread thread = new Thread(r, "local-responder-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		Thread acceptor = new Thread(() -> {
+			doAccept();
+		}, "local-responder-acceptor");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	/**
+	 * Returns a instance of this class, it's started on first use
+	 *
+	 * @return instance of this class
+	 * @throws IOException if responder can't be started
+	 */
+	public static synchronized LocalResponder getInstance() throws IOException {
+		if (instance == null) {
+			instance = new LocalResponder(getConfiguredCertificate());
+			Log.infoln("Local responder is listening on port [%s].", instance.getPort());
+		}
+		return instance;
+	}
+
+	/**
+	 * Returns certificate given by directive "responderKeystore", or the first
+	 * configured certificate
+	 *
+	 * @return certificate of responder
+	 * @throws IOException if there is no certificate available
+	 */
+	private static ClientCertificate getConfiguredCertificate() throws IOException {
+		String keystore = ConfigurationRegister.getInstance().getResponderKeystore();
+		if (!keystore.isEmpty()) {
+			return new ClientCertificate("responder", null, keystore, ConfigurationRegister.getInstance().getResponderPassword());
+		}
+
+		List<ClientCertificate> certificates = ConfigurationCertificateRegister.getInstance().getConfigurationCertificatesIndexable();
+		if (certificates.isEmpty()) {
+			throw new IOException(String.format("Local responder requires directive [%s] or at least one certificate.", ConfigurationRegister.RESPONDER_KEYSTORE));
+		}
+
+		return certificates.get(0);
+	}
+
+	/**
+	 * Returns port, on which this responder is listening
+	 *
+	 * @return local port
+	 */
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * Returns keystore with certificate of this responder, so clients can
+	 * trust it
+	 *
+	 * @return keystore
+	 */
+	public KeyStore getKeystore() {
+		return certificate.getKeystore();
+	}
+
+	private void doAccept() {
+		while (!serverSocket.isClosed()) {
+			try {
+				final Socket socket = serverSocket.accept();
+				handlers.execute(() -> {
+					serve(socket);
+				});
+			} catch (IOException ex) {
+				Log.debugException(ex);
+			}
+		}
+	}
+
+	/**
+	 * Answers requests of one connection, until it's closed
+	 *
+	 * @param socket accepted connection
+	 */
+	private void serve(Socket socket) {
+		try {
+			InputStream in = new BufferedInputStream(socket.getInputStream());
+			OutputStream out = socket.getOutputStream();
+
+			String head;
+			while ((head = readHead(in)) != null) {
+				if (!answer(head, in, out)) {
+					break;
+				}
+			}
+		} catch (IOException ex) {
+			/*suppress exceptions, peer may be already gone*/
+		} finally {
+			try {
+				socket.close();
+			} catch (IOException ex) {
+				Log.debugException(ex);
+			}
+		}
+	}
+
+	/**
+	 * Reads request line and headers
+	 *
+	 * @param in stream of connection
+	 * @return head of request or null at the end of stream
+	 * @throws IOException if head is too long or stream fails
+	 */
+	private String readHead(InputStream in) throws IOException {
+		ByteArrayOutputStream head = new ByteArrayOutputStream();
+		int matched = 0;
+		int b;
+
+		while ((b = in.read()) != -1) {
+			head.write(b);
+			matched = (b == (matched % 2 == 0 ? '\r' : '\n')) ? matched + 1 : (b == '\r' ? 1 : 0);
+			if (matched == 4) {
+				return new String(head.toByteArray(), StandardCharsets.ISO_8859_1);
+			}
+			if (head.size() > MAX_HEAD_SIZE) {
+				throw new IOException("Request head is too long.");
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Answers one request
+	 *
+	 * @param head request line and headers
+	 * @param in stream of connection, body of request is skipped
+	 * @param out stream of connection
+	 * @return true, if connection can be used for next request, false
+	 * otherwise
+	 * @throws IOException in case of any error
+	 */
+	private boolean answer(String head, InputStream in, OutputStream out) throws IOException {
+		String[] lines = head.split("\r\n");
+		String[] requestLine = lines[0].split(" ");
+
+		if (requestLine.length != 3 || !requestLine[2].startsWith("HTTP/")) {
+			write(out, new CannedResponse("", 400, "text/plain", "Bad Request"), false, false);
+			return false;
+		}
+
+		boolean keepAlive = requestLine[2].equals("HTTP/1.1");
+		long contentLength = 0;
+		for (int i = 1; i < lines.length; i++) {
+			String line = lines[i].toLowerCase(Locale.ROOT);
+			if (line.startsWith("content-length:")) {
+				contentLength = parseContentLength(line.substring("content-length:".length()).trim());
+				if (contentLength < 0) {
+					write(out, new CannedResponse("", 400, "text/plain", "Bad Request"), false, false);
+					return false;
+				}
+			} else if (line.startsWith("connection:")) {
+				keepAlive = line.contains("keep-alive") || (keepAlive && !line.contains("close"));
+			}
+		}
+
+		while (contentLength > 0) {
+			long skipped = in.skip(contentLength);
+			if (skipped <= 0) {
+				return false;
+			}
+			contentLength -= skipped;
+		}
+
+		String path = requestLine[1];
+		int query = path.indexOf('?');
+		if (query != -1) {
+			path = path.substring(0, query);
+		}
+
+		write(out, findResponse(path), requestLine[0].equals("HEAD"), keepAlive);
+		return keepAlive;
+	}
+
+	/**
+	 * Parses value of header Content-Length
+	 *
+	 * @param value value of header
+	 * @return length of body, -1 if value isn't valid
+	 */
+	private static long parseContentLength(String value) {
+		try {
+			return Math.max(-1, Long.parseLong(value));
+		} catch (NumberFormatException ex) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Finds response for the given path. File of served directory has
+	 * priority over canned response.
+	 *
+	 * @param path path of request
+	 * @return response
+	 * @throws IOException if file can't be read
+	 */
+	private CannedResponse findResponse(String path) throws IOException {
+		if (directory != null) {
+			Path file = directory.resolve(path.replaceFirst("^/+", "")).normalize();
+			if (Files.isDirectory(file)) {
+				file = file.resolve("index.html");
+			}
+
+			if (file.startsWith(directory) && Files.isRegularFile(file)) {
+				String contentType = Files.probeContentType(file);
+				return new CannedResponse(path, 200, contentType == null ? "application/octet-stream" : contentType, Files.readAllBytes(file));
+			}
+		}
+
+		for (CannedResponse response : responses) {
+			if (response.getPath().equals(path)) {
+				return response;
+			}
+		}
+
+		if (directory == null && responses.isEmpty()) {
+			return new CannedResponse(path, 200, "text/plain", "OK");
+		}
+
+		return new CannedResponse(path, 404, "text/plain", "Not Found");
+	}
+
+	private void write(OutputStream out, CannedResponse response, boolean headOnly, boolean keepAlive) throws IOException {
+		byte[] body = response.getBody();
+
+		StringBuilder head = new StringBuilder();
+		head.append("HTTP/1.1 ").append(response.getStatus()).append(" ").append(getReason(response.getStatus())).append("\r\n");
+		head.append("Content-Type: ").append(response.getContentType()).append("\r\n");
+		head.append("Content-Length: ").append(body.length).append("\r\n");
+		head.append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n");
+		head.append("\r\n");
+
+		out.write(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+		if (!headOnly) {
+			out.write(body);
+		}
+		out.flush();
+	}
+
+	private String getReason(int status) {
+		switch (status) {
+			case 200:
+				return "OK";
+			case 400:
+				return "Bad Request";
+			case 404:
+				return "Not Found";
+			default:
+				return status < 400 ? "OK" : "Error";
+		}
+	}
+}
@@ -0,0 +1,277 @@
+package cz.ondrejsmetak.proxy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+
+/**
+ * One end of in-memory connection. Both ends are connected by two bounded
+ * pipes, so they behave as connected sockets: read blocks until peer writes
+ * something, write blocks while pipe is full and closing one end ends stream
+ * of the other one. No socket is involved.
+ *
+ * @author Ondřej Směták <posta@ondrejsmetak.cz>
+ */
+public class MemoryConnection implements Connection {
+
+	/**
+	 * Capacity of each pipe in bytes
+	 */
+	private static final int PIPE_CAPACITY = 64 * 1024;
+
+	/**
+	 * Bytes received from peer
+	 */
+	private final Pipe input;
+
+	/**
+	 * Bytes sent to peer
+	 */
+	private final Pipe output;
+
+	/**
+	 * Synthetic address of peer
+	 */
+	private final String source;
+
+	/**
+	 * Streams of this end
+	 */
+	private final InputStream inputStream = new PipeInputStream();
+	private final OutputStream outputStream = new PipeOutputStream();
+
+	/**
+	 * Maximal time, for which read blocks, zero means no limit
+	 */
+	private volatile int readTimeout = 0;
+
+	/**
+	 * Is this end closed?
+	 */
+	private volatile boolean closed = false;
+
+	/**
+	 * Bounded buffer of bytes written to one end, that were not yet read from
+	 * the other end
+	 */
+	private static class Pipe {
+
+		private final byte[] buffer = new byte[PIPE_CAPACITY];
+		private int start = 0;
+		private int count = 0;
+
+		/**
+		 * Writing end was closed, reader gets the rest and then end of stream
+		 */
+		private boolean writerClosed = false;
+
+		/**
+		 * Reading end was closed, nothing can be written anymore
+		 */
+		private boolean readerClosed = false;
+
+		private synchronized int read(byte[] data, int offset, int length, int timeout) throws IOException {
+			if (length == 0) {
+				return 0;
+			}
+
+			long deadline = System.currentTimeMillis() + timeout;
+			while (count == 0 && !writerClosed && !readerClosed) {
+				long remaining = timeout == 0 ? 0 : deadline - System.currentTimeMillis();
+				if (timeout > 0 && remaining <= 0) {
+					throw new SocketTimeoutException("Read timed out.");
+				}
+				await(remaining);
+			}
+
+			if (readerClosed) {
+				throw new SocketException("Connection is closed.");
+			}
+			if (count == 0) {
+				return -1;
+			}
+
+			int read = Math.min(length, count);
+			int first = Math.min(read, buffer.length - start);
+			System.arraycopy(buffer, start, data, offset, first);
+			System.arraycopy(buffer, 0, data, offset + first, read - first);
+			start = (start + read) % buffer.length;
+			count -= read;
+			notifyAll();
+			return read;
+		}
+
+		private synchronized void write(byte[] data, int offset, int length) throws IOException {
+			while (length > 0) {
+				while (count == buffer.length && !writerClosed && !readerClosed) {
+					await(0);
+				}
+
+				if (writerClosed) {
+					throw new SocketException("Connection is closed.");
+				}
+				if (readerClosed) {
+					throw new SocketException("Connection closed by peer.");
+				}
+
+				int end = (start + count) % buffer.length;
+				int written = Math.min(length, Math.min(buffer.length - count, buffer.length - end));
+				System.arraycopy(data, offset, buffer, end, written);
+				count += written;
+				offset += written;
+				length -= written;
+				notifyAll();
+			}
+		}
+
+		private synchronized int available() {
+			return count;
+		}
+
+		private synchronized boolean isWriterClosed() {
+			return writerClosed;
+		}
+
+		private synchronized void closeWriter() {
+			writerClosed = true;
+			notifyAll();
+		}
+
+		private synchronized void closeReader() {
+			readerClosed = true;
+			count = 0;
+			notifyAll();
+		}
+
+		private void await(long millis) throws InterruptedIOException {
+			try {
+				wait(millis);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+		}
+	}
+
+	/**
+	 * Stream reading from input pipe
+	 */
+	private class PipeInputStream extends InputStream {
+
+		@Override
+		public int read() throws IOException {
+			byte[] data = new byte[1];
+			return read(data, 0, 1) == -1 ? -1 : data[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] data, int offset, int length) throws IOException {
+			return input.read(data, offset, length, readTimeout);
+		}
+
+		@Override
+		public int available() {
+			return input.available();
+		}
+
+		@Override
+		public void close() {
+			MemoryConnection.this.close();
+		}
+	}
+
+	/**
+	 * Stream writing to output pipe
+	 */
+	private class PipeOutputStream extends OutputStream {
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[]{(byte) b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] data, int offset, int length) throws IOException {
+			output.write(data, offset, length);
+		}
+
+		@Override
+		public void close() {
+			MemoryConnection.this.close();
+		}
+	}
+
+	private MemoryConnection(Pipe input, Pipe output, String source) {
+		this.input = input;
+		this.output = output;
+		this.source = source;
+	}
+
+	/**
+	 * Creates both ends of a new connection
+	 *
+	 * @param source synthetic address of both ends
+	 * @return array of two connected ends
+	 */
+	static MemoryConnection[] pair(String source) {
+		Pipe there = new Pipe();
+		Pipe back = new Pipe();
+		return new MemoryConnection[]{new MemoryConnection(back, there, source), new MemoryConnection(there, back, source)};
+	}
+
+	@Override
+	public InputStream getInputStream() throws IOException {
+		return inputStream;
+	}
+
+	@Override
+	public OutputStream getOutputStream() throws IOException {
+		return outputStream;
+	}
+
+	@Override
+	public void setReadTimeout(int millis) throws IOException {
+		readTimeout = millis;
+	}
+
+	@Override
+	public String getSource() {
+		return source;
+	}
+
+	@Override
+	public InetAddress getAddress() {
+		return InetAddress.getLoopbackAddress();
+	}
+
+	@Override
+	public Socket getSocket() {
+		return null;
+	}
+
+	/**
+	 * Did peer close its end? Bytes already sent by peer can still be read.
+	 *
+	 * @return true, if peer closed connection, false otherwise
+	 */
+	public boolean isPeerClosed() {
+		return input.isWriterClosed();
+	}
+
+	@Override
+	public boolean isClosed() {
+		return closed;
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		output.closeWriter();
+		input.closeReader();
+	}
+}
@@ -0,0 +1,51 @@
+package cz.ondrejsmetak.proxy;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Opens in-memory connections instead of connections to the remote server.
+ * Other end of each opened connection is offered to listener, from which the
+ * caller accepts it and plays the remote server.
+ *
+ * @author Ondřej Směták <posta@ondrejsmetak.cz>
+ */
+class MemoryConnector implements UpstreamConnector<Connection> {
+
+	/**
+	 * Listener, to which ends of the remote server are offered
+	 */
+	private final MemoryListener remote = new MemoryListener();
+
+	/**
+	 * Count of opened connections, used for their synthetic addresses
+	 */
+	private final AtomicLong connectionCounter = new AtomicLong(0);
+
+	/**
+	 * Returns listener, from which ends of the remote server are accepted
+	 *
+	 * @return listener of the remote server
+	 */
+	public MemoryListener getRemote() {
+		return remote;
+	}
+
+	@Override
+	public Connection connect() throws IOException {
+		MemoryConnection[] ends = MemoryConnection.pair(String.format("upstream:%s", connectionCounter.incrementAndGet()));
+		remote.offer(ends[1]);
+		return ends[0];
+	}
+
+	@Override
+	public boolean isOpen(Connection connection) {
+		MemoryConnection memory = (MemoryConnection) connection;
+		return !memory.isClosed() && !memory.isPeerClosed();
+	}
+
+	@Override
+	public void close(Connection connection) {
+		connection.close();
+	}
+}
@@ -0,0 +1,111 @@
+package cz.ondrejsmetak.proxy;
+
+import cz.ondrejsmetak.ProxyServer;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Engine without any socket. Client connections are created by method
+ * <code>connect</code>, connections to the remote server are accepted by method
+ * <code>acceptUpstream</code>, caller drives both of them. Between them, bytes
+ * are forwarded exactly as by blocking engine, so capture of Client Hello can
+ * be measured or tested in-process, without ports and without the remote
+ * server. Only plain connections are supported.
+ *
+ * @author Ondřej Směták <posta@ondrejsmetak.cz>
+ */
+public class MemoryEngine extends BlockingEngine {
+
+	/**
+	 * Proxy server, that is notified about captured communication
+	 */
+	private final ProxyServer proxy;
+
+	/**
+	 * Listener, to which client connections are offered, null until engine
+	 * starts
+	 */
+	private volatile MemoryListener listener;
+
+	/**
+	 * Connector opening connections to the remote server, null until engine
+	 * starts
+	 */
+	private volatile MemoryConnector connector;
+
+	/**
+	 * Count of created connections, used for their synthetic addresses
+	 */
+	private final AtomicLong connectionCounter = new AtomicLong(0);
+
+	/**
+	 * Creates a new engine for the given proxy server
+	 *
+	 * @param proxy proxy server
+	 */
+	public MemoryEngine(ProxyServer proxy) {
+		super(proxy);
+		this.proxy = proxy;
+	}
+
+	@Override
+	protected void listen(List<Listener<Connection>> opened) throws IOException {
+		listener = new MemoryListener();
+		opened.add(listener);
+	}
+
+	@Override
+	protected UpstreamConnector<Connection> createConnector() throws IOException {
+		connector = new MemoryConnector();
+		return connector;
+	}
+
+	/**
+	 * Opens a new connection, as if client connected to the local port
+	 *
+	 * @return end of client
+	 * @throws IOException if engine is stopped or secure connections are
+	 * required
+	 */
+	public MemoryConnection connect() throws IOException {
+		MemoryListener current = listener;
+		if (current == null || current.isClosed()) {
+			throw new IOException("Engine is stopped.");
+		}
+
+		if (proxy.getClientContext().isSecure()) {
+			throw new IOException("In-memory engine doesn't support secure connections.");
+		}
+
+		MemoryConnection[] ends = MemoryConnection.pair(String.format("memory:%s", connectionCounter.incrementAndGet()));
+		current.offer(ends[0]);
+		return ends[1];
+	}
+
+	/**
+	 * Accepts the next connection, that proxy opened to the remote server.
+	 * Connections opened in advance by pool of upstream connections are
+	 * accepted too, in order they were opened.
+	 *
+	 * @param timeoutMillis time in milliseconds, zero means no limit
+	 * @return end of the remote server, null if time expired
+	 * @throws IOException if engine is stopped
+	 */
+	public MemoryConnection acceptUpstream(long timeoutMillis) throws IOException {
+		MemoryConnector current = connector;
+		if (current == null) {
+			throw new IOException("Engine is stopped.");
+		}
+		return current.getRemote().accept(timeoutMillis);
+	}
+
+	@Override
+	public void stop() {
+		super.stop();
+
+		if (connector != null) {
+			connector.getRemote().close();
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package cz.ondrejsmetak.proxy;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * Blocking listener of in-memory connections. Connections are offered by
+ * whoever opened them and accepted in the same order, as from socket.
+ *
+ * @author Ondřej Směták <posta@ondrejsmetak.cz>
+ */
+class MemoryListener implements Listener<Connection> {
+
+	/**
+	 * Connections offered, but not yet accepted
+	 */
+	private final Queue<MemoryConnection> pending = new ArrayDeque<>();
+
+	/**
+	 * Is this listener closed?
+	 */
+	private boolean closed = false;
+
+	/**
+	 * Offers the given connection to be accepted
+	 *
+	 * @param connection end of a new connection
+	 * @throws IOException if listener is closed
+	 */
+	public synchronized void offer(MemoryConnection connection) throws IOException {
+		if (closed) {
+			throw new SocketException("Connection refused.");
+		}
+
+		pending.add(connection);
+		notifyAll();
+	}
+
+	@Override
+	public MemoryConnection accept() throws IOException {
+		return accept(0);
+	}
+
+	/**
+	 * Accepts the next offered connection, waits at most for the given time
+	 *
+	 * @param timeoutMillis time in milliseconds, zero means no limit
+	 * @return accepted connection, null if time expired
+	 * @throws IOException if listener is closed or waiting was interrupted
+	 */
+	public synchronized MemoryConnection accept(long timeoutMillis) throws IOException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		while (pending.isEmpty() && !closed) {
+			long remaining = timeoutMillis == 0 ? 0 : deadline - System.currentTimeMillis();
+			if (timeoutMillis > 0 && remaining <= 0) {
+				return null;
+			}
+
+			try {
+				wait(remaining);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+		}
+
+		if (closed) {
+			throw new SocketException("Listener is closed.");
+		}
+		return pending.poll();
+	}
+
+	@Override
+	public synchronized boolean isClosed() {
+		return closed;
+	}
+
+	@Override
+	public synchronized void close() {
+		closed = true;
+		for (MemoryConnection connection : pending) {
+			connection.close();
+		}
+		pending.clear();
+		notifyAll();
+	}
+}
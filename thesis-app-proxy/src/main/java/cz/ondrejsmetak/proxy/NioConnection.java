@@ -0,0 +1,612 @@
+package cz.ondrejsmetak.proxy;
+
+import cz.ondrejsmetak.ConfigurationRegister;
+import cz.ondrejsmetak.ProxyServer;
+import cz.ondrejsmetak.tool.BufferPool;
+import cz.ondrejsmetak.tool.HashedWheelTimer;
+import cz.ondrejsmetak.tool.Log;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+/**
+ * One client connection and its connection to the remote server, both served
+ * by single event loop. Secure client connection is terminated by engine of
+ * its own, its handshake is already finished by <code>NioHandshake</code>, so
+ * the remote server is connected only for clients, that completed it.
+ *
+ * @author Ondřej Směták <posta@ondrejsmetak.cz>
+ */
+class NioConnection implements SelectionHandler {
+
+	/**
+	 * Size of buffer used while bytes from client are inspected
+	 */
+	private static final int REQUEST_BUFFER_SIZE = 1024;
+
+	/**
+	 * Proxy server, that is notified about captured communication
+	 */
+	private final ProxyServer proxy;
+
+	/**
+	 * Connection on the local port
+	 */
+	private final SocketChannel client;
+
+	/**
+	 * Secure connection on the local port, null if communication with client
+	 * is plain
+	 */
+	private final TlsChannel clientTls;
+
+	/**
+	 * Context, with which client connection was accepted
+	 */
+	private final ClientContext context;
+
+	/**
+	 * Connection to the remote server
+	 */
+	private final TlsChannel server;
+
+	/**
+	 * Connector, that opened connection to the remote server
+	 */
+	private final RemoteConnector upstream;
+
+	/**
+	 * Engine, that accepted this connection
+	 */
+	private final NioEngine engine;
+
+	/**
+	 * Event loop serving this connection
+	 */
+	private final EventLoop loop;
+
+	/**
+	 * Limits of both directions
+	 */
+	private final FlowControl flow;
+
+	/**
+	 * Idle, handshake and lifetime timeouts of client connection
+	 */
+	private final ConnectionTimeouts timeouts;
+
+	/**
+	 * Timeout of handshake with the remote server, null if not scheduled
+	 */
+	private HashedWheelTimer.Timeout upstreamHandshakeTimeout = null;
+
+	/**
+	 * Selection keys of both connections
+	 */
+	private SelectionKey clientKey;
+	private SelectionKey serverKey;
+
+	/**
+	 * Bytes read from client, not yet written to server. Heap buffer while
+	 * inspecting, direct buffer in passthrough phase.
+	 */
+	private final Direction request = new Direction();
+
+	/**
+	 * Bytes read from server, not yet written to client. These are never
+	 * inspected.
+	 */
+	private final Direction reply = new Direction();
+
+	/**
+	 * Bytes read from one side, not yet written to the other side, and state
+	 * of their coalescing
+	 */
+	private static class Direction {
+
+		/**
+		 * Queued bytes (read mode)
+		 */
+		private ByteBuffer buffer;
+
+		/**
+		 * Time, when the oldest queued byte was read
+		 */
+		private long since;
+
+		/**
+		 * Did the last read find no bytes?
+		 */
+		private boolean drained = false;
+
+		/**
+		 * Are queued bytes being written? Stays set until the buffer is empty.
+		 */
+		private boolean flushing = false;
+
+		/**
+		 * Is there a timer, that ends coalescing delay?
+		 */
+		private boolean timerScheduled = false;
+	}
+
+	/**
+	 * Count of bytes queued in both directions, updated after each pump
+	 */
+	private volatile int queuedBytes = 0;
+
+	/**
+	 * Are bytes from client still inspected?
+	 */
+	private boolean inspecting = true;
+
+	/**
+	 * Reassembles Client Hello from inspected bytes
+	 */
+	private final ClientHelloAssembler assembler = new ClientHelloAssembler();
+
+	/**
+	 * Text representation of client's address
+	 */
+	private final String source;
+
+	/**
+	 * Has each side still something to send?
+	 */
+	private boolean clientOpen = true;
+	private boolean serverOpen = true;
+
+	/**
+	 * Was handshake with the remote server already reported to connector?
+	 * Pooled connections were reported by pool.
+	 */
+	private boolean handshakeRecorded;
+
+	/**
+	 * Did secure connection on the local port fail? Remote server is not
+	 * blamed for such failures.
+	 */
+	private boolean clientFailed = false;
+
+	/**
+	 * Was this connection already closed?
+	 */
+	private boolean closed = false;
+
+	private NioConnection(EventLoop loop, ProxyServer proxy, SocketChannel client, TlsChannel clientTls, ClientContext context, NioEngine engine, TlsChannel server) throws IOException {
+		this.loop = loop;
+		this.proxy = proxy;
+		this.client = client;
+		this.clientTls = clientTls;
+		this.context = context;
+		this.engine = engine;
+		this.server = server;
+		this.upstream = engine.getUpstream();
+		this.flow = FlowControl.fromConfiguration();
+		this.source = client.getRemoteAddress().toString().replaceAll("/", "");
+		this.handshakeRecorded = server.isHandshakeFinished();
+		this.timeouts = new ConnectionTimeouts(loop::execute, (String message) -> {
+			if (!closed) {
+				Log.debugException(new SocketTimeoutException(String.format("%s Client [%s].", message, source)));
+				close();
+			}
+		});
+
+		request.buffer = BufferPool.getHeap().acquire(REQUEST_BUFFER_SIZE);
+		request.buffer.flip();
+		try {
+			reply.buffer = BufferPool.getDirect().acquire(flow.getBufferBytes());
+			reply.buffer.flip();
+		} catch (IOException ex) {
+			BufferPool.getHeap().release(request.buffer);
+			throw ex;
+		}
+	}
+
+	/**
+	 * Returns count of bytes read from one side, but not yet written to the
+	 * other side
+	 *
+	 * @return count of bytes queued in both directions
+	 */
+	public int getQueuedBytes() {
+		return queuedBytes;
+	}
+
+	/**
+	 * Starts opening connection to the remote server, once it's connected,
+	 * both connections are registered with the given event loop
+	 *
+	 * @param loop event loop
+	 * @param client accepted non-blocking connection of client
+	 * @param clientTls secure connection of client with finished handshake,
+	 * null if communication with client is plain
+	 * @param context context, with which client connection was accepted
+	 * @param proxy proxy server, that is notified about captured communication
+	 * @param engine engine providing connections to the remote server
+	 */
+	public static void open(final EventLoop loop, final SocketChannel client, final TlsChannel clientTls, final ClientContext context, final ProxyServer proxy, final NioEngine engine) {
+		try {
+			engine.openUpstream().whenComplete((TlsChannel server, Throwable ex) -> {
+				loop.execute(() -> {
+					if (ex != null) {
+						Log.debugException(ex);
+						closeClient(client, clientTls);
+					} else {
+						register(loop, client, clientTls, context, proxy, engine, server);
+					}
+				});
+			});
+		} catch (IOException ex) {
+			Log.debugException(ex);
+			closeClient(client, clientTls);
+		}
+	}
+
+	/**
+	 * Registers both connections with the given event loop. Must be called by
+	 * thread of that loop.
+	 *
+	 * @param loop event loop
+	 * @param client accepted connection of client
+	 * @param clientTls secure connection of client, null if plain
+	 * @param context context, with which client connection was accepted
+	 * @param proxy proxy server, that is notified about captured communication
+	 * @param engine engine, that opened connection to the remote server
+	 * @param server connected connection to the remote server
+	 */
+	private static void register(EventLoop loop, SocketChannel client, TlsChannel clientTls, ClientContext context, ProxyServer proxy, NioEngine engine, TlsChannel server) {
+		try {
+			final NioConnection connection = new NioConnection(loop, proxy, client, clientTls, context, engine, server);
+			connection.clientKey = client.register(loop.getSelector(), 0, connection);
+			connection.serverKey = server.getChannel().register(loop.getSelector(), 0, connection);
+
+			if (!server.isHandshakeFinished()) {
+				connection.upstreamHandshakeTimeout = HashedWheelTimer.getInstance().schedule(() -> {
+					loop.execute(connection::checkHandshakeTimeout);
+				}, ConfigurationRegister.getInstance().getUpstreamHandshakeTimeoutMillis());
+			}
+
+			connection.timeouts.start(false); //handshake with client was already timed by NioHandshake
+
+			engine.connectionOpened(connection);
+			connection.handle(connection.serverKey);
+		} catch (Exception ex) {
+			Log.debugException(ex);
+			closeClient(client, clientTls);
+			engine.getUpstream().close(server);
+		}
+	}
+
+	/**
+	 * Closes this connection, if handshake with the remote server didn't
+	 * finish in time
+	 */
+	private void checkHandshakeTimeout() {
+		if (!closed && !server.isHandshakeFinished()) {
+			Log.debugException(new SocketTimeoutException("Handshake with the remote server timed out."));
+			close(true);
+		}
+	}
+
+	@Override
+	public void handle(SelectionKey key) {
+		try {
+			pump();
+
+			if (isDone()) {
+				close();
+			} else {
+				updateInterest();
+			}
+		} catch (IOException | CancelledKeyException ex) {
+			close(true);
+		} catch (RuntimeException ex) {
+			//never let one broken connection stop the whole event loop
+			Log.debugException(ex);
+			close(true);
+		}
+	}
+
+	/**
+	 * Moves as much bytes as possible in both directions. Bytes are read,
+	 * while there is room for them, and written, once flow control allows it.
+	 *
+	 * @throws IOException in case of any error
+	 */
+	private void pump() throws IOException {
+		boolean progress = true;
+
+		while (progress) {
+			progress = false;
+			boolean handshakeFinished = server.handshake();
+
+			if (handshakeFinished && !handshakeRecorded) {
+				upstream.handshakeFinished(server);
+				handshakeRecorded = true;
+			}
+
+			//client to server
+			if (clientOpen && canRead(request, inspecting)) {
+				int count = read(request, true);
+
+				if (count == -1) {
+					clientOpen = false;
+				} else if (count > 0) {
+					if (inspecting) {
+						inspecting = clientTls == null
+								? proxy.onClientData(request.buffer.array(), count, source, context, assembler)
+								: proxy.onClientData(request.buffer.array(), count, source, context, assembler, clientTls.getEngine());
+					}
+					progress = true;
+				}
+			}
+
+			if (handshakeFinished && isWriteDue(request, clientOpen, inspecting) && server.write(request.buffer) > 0) {
+				progress = true;
+			}
+
+			//wrapped bytes left behind by the last write, nothing else would send them
+			if (handshakeFinished && server.hasPendingOutput() && server.flush()) {
+				progress = true;
+			}
+
+			if (!inspecting && !request.buffer.hasRemaining() && !request.buffer.isDirect()) {
+				BufferPool.getHeap().release(request.buffer);
+				request.buffer = null; //already returned, if next acquire fails
+				request.buffer = BufferPool.getDirect().acquire(flow.getBufferBytes());
+				request.buffer.flip();
+			}
+
+			//server to client
+			if (serverOpen && handshakeFinished && canRead(reply, false)) {
+				int count = read(reply, false);
+
+				if (count == -1) {
+					serverOpen = false;
+				} else if (count > 0) {
+					progress = true;
+				}
+			}
+
+			if (isWriteDue(reply, serverOpen, false) && writeClient(reply.buffer) > 0) {
+				progress = true;
+			}
+
+			if (hasPendingClientOutput() && flushClient()) {
+				progress = true;
+			}
+		}
+
+		queuedBytes = request.buffer.remaining() + reply.buffer.remaining();
+	}
+
+	/**
+	 * Is there room for more bytes in the given direction?
+	 *
+	 * @param direction direction
+	 * @param whole must the whole buffer be empty? Inspected chunks always
+	 * start at the beginning of buffer.
+	 * @return true, if bytes can be read, false otherwise
+	 */
+	private static boolean canRead(Direction direction, boolean whole) {
+		return whole ? !direction.buffer.hasRemaining() : direction.buffer.remaining() < direction.buffer.capacity();
+	}
+
+	/**
+	 * Appends bytes read from the source side of the given direction
+	 *
+	 * @param direction direction
+	 * @param fromClient is client the source side?
+	 * @return count of bytes read, -1 at the end of stream
+	 * @throws IOException in case of any error
+	 */
+	private int read(Direction direction, boolean fromClient) throws IOException {
+		ByteBuffer buffer = direction.buffer;
+		boolean empty = !buffer.hasRemaining();
+		int count;
+
+		buffer.compact();
+		try {
+			count = fromClient ? readClient(buffer) : server.read(buffer);
+		} finally {
+			buffer.flip();
+		}
+
+		if (count > 0) {
+			timeouts.touch();
+		}
+		if (count > 0 && empty) {
+			direction.since = System.currentTimeMillis();
+		}
+		direction.drained = count == 0;
+		return count;
+	}
+
+	/**
+	 * Must queued bytes of the given direction be written now? If they can
+	 * wait for more, timer ending the wait is scheduled.
+	 *
+	 * @param direction direction
+	 * @param sourceOpen can the source side still send more bytes?
+	 * @param forced must bytes be written immediately?
+	 * @return true, if bytes must be written, false otherwise
+	 */
+	private boolean isWriteDue(final Direction direction, boolean sourceOpen, boolean forced) {
+		ByteBuffer buffer = direction.buffer;
+		if (!buffer.hasRemaining()) {
+			direction.flushing = false;
+			return false;
+		}
+
+		if (direction.flushing) {
+			return true;
+		}
+
+		long waited = System.currentTimeMillis() - direction.since;
+		direction.flushing = forced || !sourceOpen || buffer.remaining() == buffer.capacity()
+				|| flow.isBatchFull(buffer.remaining()) || (direction.drained && flow.isDelayExpired(waited));
+
+		if (!direction.flushing && direction.drained && !direction.timerScheduled) {
+			direction.timerScheduled = true;
+			loop.schedule(() -> {
+				direction.timerScheduled = false;
+				if (!closed) {
+					handle(null);
+				}
+			}, flow.getRemainingDelay(waited));
+		}
+
+		return direction.flushing;
+	}
+
+	/**
+	 * Reads bytes from client, unwrapped ones in case of secure connection
+	 *
+	 * @param dst destination buffer
+	 * @return count of bytes read, -1 at the end of stream
+	 * @throws IOException in case of any error
+	 */
+	private int readClient(ByteBuffer dst) throws IOException {
+		try {
+			return clientTls == null ? client.read(dst) : clientTls.read(dst);
+		} catch (IOException ex) {
+			clientFailed = true;
+			throw ex;
+		}
+	}
+
+	/**
+	 * Writes bytes to client, wraps them in case of secure connection
+	 *
+	 * @param src source buffer
+	 * @return count of bytes consumed from source buffer
+	 * @throws IOException in case of any error
+	 */
+	private int writeClient(ByteBuffer src) throws IOException {
+		try {
+			return clientTls == null ? client.write(src) : clientTls.write(src);
+		} catch (IOException ex) {
+			clientFailed = true;
+			throw ex;
+		}
+	}
+
+	/**
+	 * Writes wrapped bytes, that are waiting for secure client connection
+	 *
+	 * @return true, if all pending bytes were written, false otherwise
+	 * @throws IOException in case of any error
+	 */
+	private boolean flushClient() throws IOException {
+		try {
+			return clientTls.flush();
+		} catch (IOException ex) {
+			clientFailed = true;
+			throw ex;
+		}
+	}
+
+	/**
+	 * Are there any wrapped bytes waiting for client connection to become
+	 * writable?
+	 *
+	 * @return true, if there are pending bytes, false otherwise
+	 */
+	private boolean hasPendingClientOutput() {
+		return clientTls != null && clientTls.hasPendingOutput();
+	}
+
+	/**
+	 * Has any side closed the connection and all its bytes were forwarded?
+	 *
+	 * @return true, if this connection can be closed, false otherwise
+	 */
+	private boolean isDone() {
+		return (!clientOpen && !request.buffer.hasRemaining() && !server.hasPendingOutput()) || (!serverOpen && !reply.buffer.hasRemaining() && !hasPendingClientOutput());
+	}
+
+	/**
+	 * Registers interest in events, that allow further progress
+	 */
+	private void updateInterest() {
+		int clientOps = 0;
+		if (clientOpen && canRead(request, inspecting)) {
+			clientOps |= SelectionKey.OP_READ;
+		}
+		if (reply.flushing || hasPendingClientOutput()) {
+			clientOps |= SelectionKey.OP_WRITE;
+		}
+		clientKey.interestOps(clientOps);
+
+		int serverOps = 0;
+		if (serverOpen && (!server.isHandshakeFinished() || canRead(reply, false))) {
+			serverOps |= SelectionKey.OP_READ;
+		}
+		if (server.hasPendingOutput() || (server.isHandshakeFinished() && request.flushing)) {
+			serverOps |= SelectionKey.OP_WRITE;
+		}
+		serverKey.interestOps(serverOps);
+	}
+
+	@Override
+	public void close() {
+		close(false);
+	}
+
+	/**
+	 * Closes both connections and returns buffers to pool
+	 *
+	 * @param failed was this connection closed because of error? Remote server
+	 * is blamed only for errors not caused by client.
+	 */
+	private void close(boolean failed) {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		timeouts.cancel();
+		if (upstreamHandshakeTimeout != null) {
+			upstreamHandshakeTimeout.cancel();
+		}
+
+		if (failed && !clientFailed) {
+			upstream.fail(server);
+		} else {
+			upstream.close(server);
+		}
+
+		closeClient(client, clientTls);
+
+		engine.connectionClosed(this);
+		queuedBytes = 0;
+
+		if (request.buffer != null) {
+			(request.buffer.isDirect() ? BufferPool.getDirect() : BufferPool.getHeap()).release(request.buffer);
+		}
+		BufferPool.getDirect().release(reply.buffer);
+	}
+
+	private static void closeClient(SocketChannel client, TlsChannel clientTls) {
+		if (clientTls != null) {
+			clientTls.close();
+		} else {
+			closeQuietly(client);
+		}
+	}
+
+	private static void closeQuietly(SocketChannel channel) {
+		if (channel == null) {
+			return;
+		}
+
+		try {
+			channel.close();
+		} catch (IOException ex) {
+			Log.debugException(ex);
+		}
+	}
+}
@@ -0,0 +1,312 @@
+package cz.ondrejsmetak.proxy;
+
+import cz.ondrejsmetak.ConfigurationRegister;
+import cz.ondrejsmetak.ProxyServer;
+import cz.ondrejsmetak.tool.Log;
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Engine using non-blocking channels. All the connections are multiplexed over
+ * a few event loops, so many clients can be served at once. Secure
+ * communication with client is terminated by SSLEngine, so handshakes of many
+ * clients proceed at once too, each limited in time and per address of client.
+ *
+ * @author Ondřej Směták <posta@ondrejsmetak.cz>
+ */
+public class NioEngine implements ProxyEngine, SelectionHandler {
+
+	/**
+	 * Proxy server, that is notified about captured communication
+	 */
+	private final ProxyServer proxy;
+
+	/**
+	 * Channels listening for connections on local port. More than one share
+	 * the port by SO_REUSEPORT.
+	 */
+	private final List<ChannelListener> listeners = new ArrayList<>();
+
+	/**
+	 * Event loops serving connections. Listening channels are spread among
+	 * them, so first ones are also accepting connections.
+	 */
+	private EventLoop[] loops;
+
+	/**
+	 * Opens connections to the remote server
+	 */
+	private RemoteConnector upstream;
+
+	/**
+	 * Connections to the remote server opened in advance, null if disabled
+	 */
+	private UpstreamPool<TlsChannel> upstreamPool;
+
+	/**
+	 * Index of event loop, that will get next accepted connection
+	 */
+	private final AtomicInteger nextLoop = new AtomicInteger(0);
+
+	/**
+	 * Limits unfinished handshakes per address of client
+	 */
+	private final HandshakeLimiter limiter = new HandshakeLimiter();
+
+	/**
+	 * Connections, that are currently served
+	 */
+	private final Set<NioConnection> connections = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+	/**
+	 * Creates a new engine for the given proxy server
+	 *
+	 * @param proxy proxy server
+	 */
+	public NioEngine(ProxyServer proxy) {
+		this.proxy = proxy;
+	}
+
+	@Override
+	public void start() throws IOException {
+		int localPort = proxy.getLocalPort();
+
+		upstream = new RemoteConnector();
+
+		int poolSize = ConfigurationRegister.getInstance().getUpstreamPoolSize();
+		if (poolSize > 0) {
+			upstreamPool = new UpstreamPool<>(poolSize, ConfigurationRegister.getInstance().getUpstreamPoolIdleSeconds(), upstream.forChannels());
+		}
+
+		int acceptors = proxy.getAcceptors();
+		int backlog = proxy.getListenBacklog();
+		try {
+			loops = new EventLoop[ConfigurationRegister.getInstance().getEventLoops()];
+			for (int i = 0; i < loops.length; i++) {
+				loops[i] = new EventLoop("proxy-loop-" + i);
+			}
+
+			for (int i = 0; i < acceptors; i++) {
+				ChannelListener listener = new ChannelListener(localPort, backlog, acceptors > 1);
+				listeners.add(listener);
+				listener.register(loops[i % loops.length].getSelector(), this);
+			}
+		} catch (IOException ex) {
+			close();
+			abortStart();
+			throw ex;
+		}
+
+		for (EventLoop loop : loops) {
+			loop.start();
+		}
+	}
+
+	/**
+	 * Releases everything created by start, that failed. No loop was started
+	 * yet, so their selectors must be closed here.
+	 */
+	private void abortStart() {
+		for (EventLoop loop : loops) {
+			if (loop != null) {
+				loop.closeUnstarted();
+			}
+		}
+		loops = null;
+
+		if (upstreamPool != null) {
+			upstreamPool.shutdown();
+			upstreamPool = null;
+		}
+	}
+
+	@Override
+	public void handle(SelectionKey key) {
+		ChannelListener listener = getListener(key);
+		if (listener == null) {
+			return;
+		}
+
+		try {
+			SocketChannel client;
+			while ((client = listener.accept()) != null) {
+				final SocketChannel accepted = client;
+				try {
+					final ClientContext context = proxy.getClientContext();
+
+					if (context.isSecure() && !limiter.tryAcquire(accepted.socket().getInetAddress())) {
+						closeQuietly(accepted);
+						continue;
+					}
+
+					proxy.onClientConnected(context);
+
+					final EventLoop loop = loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+					loop.execute(() -> {
+						if (context.isSecure()) {
+							NioHandshake.start(loop, accepted, context, proxy, this);
+						} else {
+							NioConnection.open(loop, accepted, null, context, proxy, this);
+						}
+					});
+				} catch (RuntimeException ex) {
+					//one broken client must not stop accepting of the others
+					Log.debugException(ex);
+					closeQuietly(accepted);
+				}
+			}
+		} catch (IOException ex) {
+			if (listener.isClosed()) {
+				return;
+			}
+
+			//e.g. out of file descriptors, key would stay ready and the loop would spin
+			Log.debugException(ex);
+			pauseAccepting(key);
+		}
+	}
+
+	/**
+	 * Returns listener, that registered the given key
+	 *
+	 * @param key selection key
+	 * @return listener or null, if key doesn't belong to any
+	 */
+	private ChannelListener getListener(SelectionKey key) {
+		for (ChannelListener listener : listeners) {
+			if (listener.owns(key)) {
+				return listener;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Stops accepting connections by the given key for a while
+	 *
+	 * @param key key of listening channel
+	 */
+	private void pauseAccepting(final SelectionKey key) {
+		for (EventLoop loop : loops) {
+			if (loop.getSelector() == key.selector()) {
+				key.interestOps(0);
+				loop.schedule(() -> {
+					if (key.isValid()) {
+						key.interestOps(SelectionKey.OP_ACCEPT);
+					}
+				}, ACCEPT_BACKOFF_MILLIS);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Returns connection to the remote server, pooled one if available.
+	 * Otherwise connecting starts and handshake must be finished by caller.
+	 *
+	 * @return future completed by connection to the remote server
+	 * @throws IOException if connection can't be opened
+	 */
+	CompletableFuture<TlsChannel> openUpstream() throws IOException {
+		TlsChannel server = upstreamPool == null ? null : upstreamPool.take();
+		return server != null ? CompletableFuture.completedFuture(server) : upstream.connectChannel();
+	}
+
+	RemoteConnector getUpstream() {
+		return upstream;
+	}
+
+	HandshakeLimiter getLimiter() {
+		return limiter;
+	}
+
+	private static void closeQuietly(SocketChannel channel) {
+		try {
+			channel.close();
+		} catch (IOException ex) {
+			Log.debugException(ex);
+		}
+	}
+
+	/**
+	 * Called by connection, once both its channels are registered
+	 *
+	 * @param connection a new connection
+	 */
+	void connectionOpened(NioConnection connection) {
+		connections.add(connection);
+	}
+
+	/**
+	 * Called by connection, when it's closed
+	 *
+	 * @param connection closed connection
+	 */
+	void connectionClosed(NioConnection connection) {
+		connections.remove(connection);
+	}
+
+	/**
+	 * Returns count of connections currently served
+	 *
+	 * @return count of active connections
+	 */
+	public int getActiveCount() {
+		return connections.size();
+	}
+
+	/**
+	 * Returns count of bytes queued by all the connections, that were read
+	 * from one side, but not yet written to the other side
+	 *
+	 * @return count of bytes
+	 */
+	public long getQueuedBytes() {
+		long queued = 0;
+		for (NioConnection connection : connections) {
+			queued += connection.getQueuedBytes();
+		}
+		return queued;
+	}
+
+	@Override
+	public void close() {
+		//called by each loop holding listening channel, closing twice is harmless
+		for (ChannelListener listener : listeners) {
+			listener.close();
+		}
+	}
+
+	@Override
+	public void stop() {
+		if (upstreamPool != null) {
+			upstreamPool.shutdown();
+		}
+
+		if (loops == null) {
+			return;
+		}
+
+		for (EventLoop loop : loops) {
+			loop.shutdown();
+		}
+
+		//local port is released after the loops close their channels
+		for (EventLoop loop : loops) {
+			loop.awaitTermination();
+		}
+
+		if (limiter.getRefusedCount() > 0) {
+			Log.warningln("%s connection(s) refused, their address reached limit [%s] of unfinished handshakes.",
+					limiter.getRefusedCount(), ConfigurationRegister.MAX_HANDSHAKES_PER_SOURCE);
+		}
+	}
+}
@@ -0,0 +1,186 @@
+package cz.ondrejsmetak.proxy;
+
+import cz.ondrejsmetak.ConfigurationRegister;
+import cz.ondrejsmetak.ProxyServer;
+import cz.ondrejsmetak.tool.HashedWheelTimer;
+import cz.ondrejsmetak.tool.Log;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Handshake with secure client, performed by event loop before connection to
+ * the remote server is opened. Handshake must finish in time, otherwise client
+ * is closed, so slow or half-open clients never hold connection to the remote
+ * server. Unfinished handshake is registered in limiter of engine.
+ *
+ * @author Ondřej Směták <posta@ondrejsmetak.cz>
+ */
+class NioHandshake implements SelectionHandler {
+
+	/**
+	 * Event loop performing this handshake
+	 */
+	private final EventLoop loop;
+
+	/**
+	 * Proxy server, that is notified about finished handshake
+	 */
+	private final ProxyServer proxy;
+
+	/**
+	 * Engine, that accepted client
+	 */
+	private final NioEngine engine;
+
+	/**
+	 * Context, with which client connection was accepted
+	 */
+	private final ClientContext context;
+
+	/**
+	 * Secure connection on the local port
+	 */
+	private final TlsChannel clientTls;
+
+	/**
+	 * Address of client, under which handshake is registered in limiter
+	 */
+	private final InetAddress address;
+
+	/**
+	 * Selection key of client connection
+	 */
+	private SelectionKey key;
+
+	/**
+	 * Deadline of handshake
+	 */
+	private HashedWheelTimer.Timeout timeout = null;
+
+	/**
+	 * Did handshake finish or fail?
+	 */
+	private boolean done = false;
+
+	private NioHandshake(EventLoop loop, ProxyServer proxy, NioEngine engine, ClientContext context, TlsChannel clientTls, InetAddress address) {
+		this.loop = loop;
+		this.proxy = proxy;
+		this.engine = engine;
+		this.context = context;
+		this.clientTls = clientTls;
+		this.address = address;
+	}
+
+	/**
+	 * Starts handshake with the given client. Must be called by thread of the
+	 * given loop. Handshake of the given client must be already registered in
+	 * limiter of engine.
+	 *
+	 * @param loop event loop
+	 * @param client accepted non-blocking connection of client
+	 * @param context secure context, with which client connection was accepted
+	 * @param proxy proxy server, that is notified about captured communication
+	 * @param engine engine, that accepted client
+	 */
+	public static void start(EventLoop loop, SocketChannel client, ClientContext context, ProxyServer proxy, NioEngine engine) {
+		InetAddress address = client.socket().getInetAddress();
+		TlsChannel clientTls;
+
+		try {
+			clientTls = new TlsChannel(client, context.createEngine((InetSocketAddress) client.getRemoteAddress()));
+		} catch (IOException | RuntimeException ex) {
+			Log.debugException(ex);
+			engine.getLimiter().release(address);
+			try {
+				client.close();
+			} catch (IOException e) {
+				Log.debugException(e);
+			}
+			return;
+		}
+
+		final NioHandshake handshake = new NioHandshake(loop, proxy, engine, context, clientTls, address);
+		try {
+			handshake.key = client.register(loop.getSelector(), 0, handshake);
+		} catch (IOException ex) {
+			Log.debugException(ex);
+			handshake.close();
+			return;
+		}
+
+		handshake.timeout = HashedWheelTimer.getInstance().schedule(() -> {
+			loop.execute(handshake::checkTimeout);
+		}, ConfigurationRegister.getInstance().getClientHandshakeTimeoutMillis());
+		handshake.handle(handshake.key);
+	}
+
+	@Override
+	public void handle(SelectionKey key) {
+		if (done) {
+			return;
+		}
+
+		try {
+			if (clientTls.handshake()) {
+				finish();
+			} else {
+				key.interestOps(SelectionKey.OP_READ | (clientTls.hasPendingOutput() ? SelectionKey.OP_WRITE : 0));
+			}
+		} catch (IOException | CancelledKeyException ex) {
+			Log.debugException(ex);
+			close();
+		} catch (RuntimeException ex) {
+			//never let one broken handshake stop the whole event loop
+			Log.debugException(ex);
+			close();
+		}
+	}
+
+	/**
+	 * Reports finished handshake and hands client over to connection, that
+	 * opens connection to the remote server
+	 */
+	private void finish() {
+		end();
+		key.interestOps(0);
+		proxy.onClientHandshakeCompleted(context, clientTls.getEngine());
+		NioConnection.open(loop, clientTls.getChannel(), clientTls, context, proxy, engine);
+	}
+
+	/**
+	 * Closes client, if handshake didn't finish in time
+	 */
+	private void checkTimeout() {
+		if (!done) {
+			Log.debugException(new SocketTimeoutException(String.format("Handshake with client didn't finish within [%s] ms. Client [%s].",
+					ConfigurationRegister.getInstance().getClientHandshakeTimeoutMillis(), address.getHostAddress())));
+			close();
+		}
+	}
+
+	/**
+	 * Cancels deadline and unregisters handshake from limiter
+	 */
+	private void end() {
+		done = true;
+		engine.getLimiter().release(address);
+		if (timeout != null) {
+			timeout.cancel();
+		}
+	}
+
+	@Override
+	public void close() {
+		if (done) {
+			return;
+		}
+
+		end();
+		clientTls.close();
+	}
+}
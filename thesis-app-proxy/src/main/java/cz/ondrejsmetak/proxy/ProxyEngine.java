@@ -0,0 +1,31 @@
+package cz.ondrejsmetak.proxy;
+
+import java.io.IOException;
+
+/**
+ * Engine, that accepts connections from clients and forwards them to the
+ * remote server
+ *
+ * @author Ondřej Směták <posta@ondrejsmetak.cz>
+ */
+public interface ProxyEngine {
+
+	/**
+	 * Time in milliseconds, for which accepting pauses after failure other
+	 * than closed listening socket, e.g. when no file descriptor is left
+	 */
+	public static final int ACCEPT_BACKOFF_MILLIS = 100;
+
+	/**
+	 * Binds local port and starts accepting connections. Port is already bound
+	 * when this method returns.
+	 *
+	 * @throws IOException if local port can't be bound
+	 */
+	public void start() throws IOException;
+
+	/**
+	 * Stops accepting connections and closes all the forwarded connections
+	 */
+	public void stop();
+}
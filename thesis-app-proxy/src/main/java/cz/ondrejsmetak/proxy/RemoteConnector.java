@@ -0,0 +1,617 @@
+package cz.ondrejsmetak.proxy;
+
+import cz.ondrejsmetak.ConfigurationRegister;
+import cz.ondrejsmetak.entity.Upstream;
+import cz.ondrejsmetak.tool.Log;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+
+/**
+ * Opens SSL/TLS connections to the remote servers. Remote server for each
+ * connection is chosen by configured balancer. All the connections share one
+ * client context, so sessions cached by previous connections (keyed by host
+ * and port) are resumed instead of doing full handshake.
+ *
+ * Every opened connection must be closed by this connector, so count of
+ * connections per remote server stays accurate. Engines use it as upstream
+ * connector of their type of connection, NIO engine also opens channels
+ * asynchronously.
+ *
+ * @author Ondřej Směták <posta@ondrejsmetak.cz>
+ */
+public class RemoteConnector {
+
+	/**
+	 * Client context used for all the connections to the remote server. It
+	 * outlives engines, so cached sessions survive reload.
+	 */
+	private static SSLContext context = null;
+
+	/**
+	 * Counters of completed handshakes, used for hit rate of session cache
+	 */
+	private static final AtomicLong handshakeCounter = new AtomicLong(0);
+	private static final AtomicLong resumedCounter = new AtomicLong(0);
+
+	/**
+	 * Opened connection and its remote server
+	 */
+	private static class Lease {
+
+		private final UpstreamNode node;
+		private final long startedAt = System.currentTimeMillis();
+		private volatile boolean handshakeFinished = false;
+
+		public Lease(UpstreamNode node) {
+			this.node = node;
+		}
+	}
+
+	/**
+	 * Blocking connections of this connector, used by blocking engine
+	 */
+	private class SocketConnector implements UpstreamConnector<Connection> {
+
+		@Override
+		public Connection connect() throws IOException {
+			return new SocketConnection(connectSocket());
+		}
+
+		@Override
+		public boolean isOpen(Connection connection) {
+			return RemoteConnector.this.isOpen((SSLSocket) connection.getSocket());
+		}
+
+		@Override
+		public void close(Connection connection) {
+			RemoteConnector.this.close((SSLSocket) connection.getSocket());
+		}
+	}
+
+	/**
+	 * Non-blocking channels of this connector, used by pool of NIO engine
+	 */
+	private class ChannelConnector implements UpstreamConnector<TlsChannel> {
+
+		@Override
+		public TlsChannel connect() throws IOException {
+			return connectChannelAndHandshake();
+		}
+
+		@Override
+		public boolean isOpen(TlsChannel connection) {
+			return RemoteConnector.this.isOpen(connection);
+		}
+
+		@Override
+		public void close(TlsChannel connection) {
+			RemoteConnector.this.close(connection);
+		}
+	}
+
+	/**
+	 * Remote servers, to which connections are forwarded
+	 */
+	private final List<UpstreamNode> nodes = new ArrayList<>();
+
+	/**
+	 * Strategy choosing remote server for a new connection
+	 */
+	private final UpstreamBalancer balancer;
+
+	/**
+	 * Connections opened by this connector and not yet closed
+	 */
+	private final Map<Object, Lease> leases = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates a new connector for the configured remote servers. In local
+	 * mode, local responder is the only remote server.
+	 *
+	 * @throws IOException if local responder can't be started
+	 */
+	public RemoteConnector() throws IOException {
+		if (ConfigurationRegister.getInstance().isUpstreamModeLocal()) {
+			nodes.add(new UpstreamNode(new Upstream(InetAddress.getLoopbackAddress().getHostAddress(), LocalResponder.getInstance().getPort())));
+		} else {
+			for (Upstream upstream : ConfigurationRegister.getInstance().getUpstreams()) {
+				nodes.add(new UpstreamNode(upstream));
+			}
+		}
+		this.balancer = UpstreamBalancer.create(ConfigurationRegister.getInstance().getBalancing());
+	}
+
+	/**
+	 * Returns client context for connections to the remote server, it's
+	 * created on first use. In local mode, certificate of local responder is
+	 * trusted.
+	 *
+	 * @return client context
+	 * @throws IOException if context can't be created
+	 */
+	private static synchronized SSLContext getContext() throws IOException {
+		if (context == null) {
+			try {
+				TrustManager[] trustManagers = null;
+				if (ConfigurationRegister.getInstance().isUpstreamModeLocal()) {
+					TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+					tmf.init(LocalResponder.getInstance().getKeystore());
+					trustManagers = tmf.getTrustManagers();
+				}
+
+				SSLContext created = SSLContext.getInstance("TLS");
+				created.init(null, trustManagers, null);
+
+				SSLSessionContext sessions = created.getClientSessionContext();
+				sessions.setSessionCacheSize(ConfigurationRegister.getInstance().getUpstreamSessionCacheSize());
+				sessions.setSessionTimeout(ConfigurationRegister.getInstance().getUpstreamSessionTimeoutSeconds());
+				context = created;
+			} catch (GeneralSecurityException ex) {
+				throw new IOException(ex);
+			}
+		}
+		return context;
+	}
+
+	/**
+	 * Records completed handshake. Session, that was created before the
+	 * handshake started, was resumed from cache.
+	 *
+	 * @param session negotiated session
+	 * @param startedAt time in milliseconds, when the handshake started
+	 */
+	private static void recordHandshake(SSLSession session, long startedAt) {
+		handshakeCounter.incrementAndGet();
+		if (session.getCreationTime() < startedAt) {
+			resumedCounter.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Returns count of completed handshakes with the remote server
+	 *
+	 * @return count of handshakes
+	 */
+	public static long getHandshakeCount() {
+		return handshakeCounter.get();
+	}
+
+	/**
+	 * Returns count of handshakes with the remote server, that resumed cached
+	 * session
+	 *
+	 * @return count of resumed handshakes
+	 */
+	public static long getResumedCount() {
+		return resumedCounter.get();
+	}
+
+	/**
+	 * Returns share of handshakes, that resumed cached session
+	 *
+	 * @return hit rate between 0 and 1, 0 if there was no handshake yet
+	 */
+	public static double getResumptionHitRate() {
+		long handshakes = getHandshakeCount();
+		return handshakes == 0 ? 0 : (double) getResumedCount() / handshakes;
+	}
+
+	/**
+	 * Returns this connector as connector of blocking connections. They share
+	 * remote servers and counts of connections with all the other connections
+	 * of this connector.
+	 *
+	 * @return connector of blocking connections
+	 */
+	public UpstreamConnector<Connection> forSockets() {
+		return new SocketConnector();
+	}
+
+	/**
+	 * Returns this connector as connector of non-blocking channels, that are
+	 * already handshaken, as method above
+	 *
+	 * @return connector of handshaken channels
+	 */
+	public UpstreamConnector<TlsChannel> forChannels() {
+		return new ChannelConnector();
+	}
+
+	/**
+	 * Returns remote servers together with their statistics
+	 *
+	 * @return collection of remote servers
+	 */
+	public List<UpstreamNode> getNodes() {
+		return Collections.unmodifiableList(nodes);
+	}
+
+	/**
+	 * Chooses remote server, that wasn't tried yet. Healthy remote servers are
+	 * preferred, but if all are down, any of them is used.
+	 *
+	 * @param tried remote servers, that already failed
+	 * @return remote server or null, if all were tried
+	 */
+	private UpstreamNode select(List<UpstreamNode> tried) {
+		List<UpstreamNode> candidates = new ArrayList<>();
+		List<UpstreamNode> down = new ArrayList<>();
+
+		for (UpstreamNode node : nodes) {
+			if (!tried.contains(node)) {
+				(node.isAvailable() ? candidates : down).add(node);
+			}
+		}
+
+		if (candidates.isEmpty()) {
+			candidates = down;
+		}
+
+		return candidates.isEmpty() ? null : balancer.select(candidates);
+	}
+
+	/**
+	 * Opens blocking connection and completes handshake. Remote servers are
+	 * tried one after another, until one of them succeeds.
+	 *
+	 * @return connected socket
+	 * @throws IOException if no remote server is reachable
+	 */
+	public SSLSocket connectSocket() throws IOException {
+		int handshakeTimeout = ConfigurationRegister.getInstance().getUpstreamHandshakeTimeoutMillis();
+		List<UpstreamNode> tried = new ArrayList<>();
+		IOException failure = null;
+		UpstreamNode node;
+
+		while ((node = select(tried)) != null) {
+			tried.add(node);
+			Lease lease = new Lease(node);
+			node.connectionOpened();
+
+			try {
+				Upstream upstream = node.getUpstream();
+				SocketChannel channel = await(UpstreamDialer.getInstance().dial(upstream.getHost(), upstream.getPort()));
+
+				SSLSocket server;
+				try {
+					channel.configureBlocking(true);
+					server = (SSLSocket) getContext().getSocketFactory().createSocket(channel.socket(), upstream.getHost(), upstream.getPort(), true);
+				} catch (IOException ex) {
+					channel.close();
+					throw ex;
+				}
+
+				try {
+					server.setEnabledCipherSuites(server.getSupportedCipherSuites());
+					server.setSoTimeout(handshakeTimeout);
+					server.startHandshake();
+					server.setSoTimeout(0);
+				} catch (IOException ex) {
+					server.close();
+					throw ex;
+				}
+
+				leases.put(server, lease);
+				handshakeFinished(lease, server.getSession());
+				return server;
+			} catch (InterruptedIOException ex) {
+				node.connectionClosed();
+				throw ex;
+			} catch (IOException ex) {
+				Log.debugException(ex);
+				node.connectionClosed();
+				node.recordFailure();
+				failure = ex;
+			}
+		}
+
+		throw failure != null ? failure : new IOException("No remote server is available.");
+	}
+
+	/**
+	 * Starts opening non-blocking connection. Remote servers are tried one
+	 * after another, until one of them accepts connection. Caller must finish
+	 * handshake and report it by method <code>handshakeFinished</code>.
+	 *
+	 * @return future completed by connected channel
+	 * @throws IOException if dialer can't be started
+	 */
+	public CompletableFuture<TlsChannel> connectChannel() throws IOException {
+		CompletableFuture<TlsChannel> result = new CompletableFuture<>();
+		connectChannel(UpstreamDialer.getInstance(), new ArrayList<>(), null, result);
+		return result;
+	}
+
+	/**
+	 * Dials remote server, that wasn't tried yet. If dial fails, the next
+	 * remote server is tried.
+	 *
+	 * @param dialer dialer opening connections
+	 * @param tried remote servers, that already failed
+	 * @param failure the last failure, or null
+	 * @param result future completed by connected channel
+	 */
+	private void connectChannel(final UpstreamDialer dialer, final List<UpstreamNode> tried, IOException failure, final CompletableFuture<TlsChannel> result) {
+		final UpstreamNode node = select(tried);
+		if (node == null) {
+			result.completeExceptionally(failure != null ? failure : new IOException("No remote server is available."));
+			return;
+		}
+
+		tried.add(node);
+		final Upstream upstream = node.getUpstream();
+		final Lease lease = new Lease(node);
+
+		node.connectionOpened();
+		dialer.dial(upstream.getHost(), upstream.getPort()).whenComplete((SocketChannel channel, Throwable ex) -> {
+			if (ex != null) {
+				Log.debugException(ex);
+				node.connectionClosed();
+				node.recordFailure();
+				connectChannel(dialer, tried, ex instanceof IOException ? (IOException) ex : new IOException(ex), result);
+				return;
+			}
+
+			try {
+				TlsChannel server = new TlsChannel(channel, createEngine(upstream));
+				leases.put(server, lease);
+				result.complete(server);
+			} catch (IOException e) {
+				closeQuietly(channel);
+				node.connectionClosed();
+				result.completeExceptionally(e);
+			}
+		});
+	}
+
+	/**
+	 * Opens connection and completes handshake. Remote servers are tried one
+	 * after another, until one of them succeeds. This method blocks, returned
+	 * channel is in non-blocking mode.
+	 *
+	 * @return connected channel
+	 * @throws IOException if no remote server is reachable
+	 */
+	public TlsChannel connectChannelAndHandshake() throws IOException {
+		List<UpstreamNode> tried = new ArrayList<>();
+		IOException failure = null;
+		UpstreamNode node;
+
+		while ((node = select(tried)) != null) {
+			tried.add(node);
+			Lease lease = new Lease(node);
+			node.connectionOpened();
+
+			TlsChannel server = null;
+			try {
+				Upstream upstream = node.getUpstream();
+				SocketChannel channel = await(UpstreamDialer.getInstance().dial(upstream.getHost(), upstream.getPort()));
+				try {
+					server = new TlsChannel(channel, createEngine(upstream));
+				} catch (IOException ex) {
+					channel.close();
+					throw ex;
+				}
+
+				awaitHandshake(server);
+
+				leases.put(server, lease);
+				handshakeFinished(lease, server.getEngine().getSession());
+				return server;
+			} catch (IOException ex) {
+				if (server != null) {
+					server.close();
+				}
+				node.connectionClosed();
+
+				if (ex instanceof InterruptedIOException) {
+					throw ex;
+				}
+				Log.debugException(ex);
+				node.recordFailure();
+				failure = ex;
+			}
+		}
+
+		throw failure != null ? failure : new IOException("No remote server is available.");
+	}
+
+	/**
+	 * Waits until dial finishes
+	 *
+	 * @param dial started dial
+	 * @return connected channel
+	 * @throws IOException if dial failed or waiting was interrupted
+	 */
+	private SocketChannel await(CompletableFuture<SocketChannel> dial) throws IOException {
+		try {
+			return dial.get();
+		} catch (ExecutionException ex) {
+			if (ex.getCause() instanceof IOException) {
+				throw (IOException) ex.getCause();
+			}
+			throw new IOException(ex.getCause());
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			dial.thenAccept(RemoteConnector::closeQuietly);
+			throw new InterruptedIOException("Interrupted while connecting to the remote server.");
+		}
+	}
+
+	/**
+	 * Completes handshake over non-blocking channel, waiting for it at most
+	 * configured handshake timeout
+	 *
+	 * @param server connected channel
+	 * @throws IOException if handshake fails or times out
+	 */
+	private void awaitHandshake(TlsChannel server) throws IOException {
+		long deadline = System.currentTimeMillis() + ConfigurationRegister.getInstance().getUpstreamHandshakeTimeoutMillis();
+
+		try (Selector selector = Selector.open()) {
+			SelectionKey key = server.getChannel().register(selector, 0);
+
+			while (!server.handshake()) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) {
+					throw new SocketTimeoutException("Handshake with the remote server timed out.");
+				}
+
+				key.interestOps(server.hasPendingOutput() ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+				selector.select(remaining);
+			}
+		}
+	}
+
+	private static void closeQuietly(SocketChannel channel) {
+		try {
+			channel.close();
+		} catch (IOException ex) {
+			Log.debugException(ex);
+		}
+	}
+
+	/**
+	 * Called by caller of <code>connectChannel</code>, when handshake is
+	 * finished
+	 *
+	 * @param server connection opened by this connector
+	 */
+	public void handshakeFinished(TlsChannel server) {
+		Lease lease = leases.get(server);
+		if (lease != null && !lease.handshakeFinished) {
+			handshakeFinished(lease, server.getEngine().getSession());
+		}
+	}
+
+	private void handshakeFinished(Lease lease, SSLSession session) {
+		lease.handshakeFinished = true;
+		lease.node.recordSuccess(System.currentTimeMillis() - lease.startedAt);
+		recordHandshake(session, lease.startedAt);
+	}
+
+	/**
+	 * Closes connection opened by this connector
+	 *
+	 * @param server connection
+	 */
+	public void close(SSLSocket server) {
+		release(server, false);
+
+		try {
+			server.close();
+		} catch (IOException ex) {
+			Log.debugException(ex);
+		}
+	}
+
+	/**
+	 * Closes connection opened by this connector
+	 *
+	 * @param server connection
+	 */
+	public void close(TlsChannel server) {
+		release(server, false);
+		server.close();
+	}
+
+	/**
+	 * Is idle connection opened by this connector still open? Connection,
+	 * that received unexpected bytes, can't be used anymore either.
+	 *
+	 * @param server idle connection
+	 * @return true, if connection can be used, false otherwise
+	 */
+	public boolean isOpen(SSLSocket server) {
+		if (server.isClosed() || server.isInputShutdown()) {
+			return false;
+		}
+
+		try {
+			int timeout = server.getSoTimeout();
+			server.setSoTimeout(1);
+			try {
+				server.getInputStream().read();
+				return false; //end of stream or bytes nobody asked for
+			} catch (SocketTimeoutException ex) {
+				return true;
+			} finally {
+				server.setSoTimeout(timeout);
+			}
+		} catch (IOException ex) {
+			Log.debugException(ex);
+			return false;
+		}
+	}
+
+	/**
+	 * Is idle connection opened by this connector still open?
+	 *
+	 * @param server idle connection
+	 * @return true, if connection can be used, false otherwise
+	 */
+	public boolean isOpen(TlsChannel server) {
+		return server.isOpen();
+	}
+
+	/**
+	 * Closes connection opened by this connector, that failed. Remote server
+	 * is blamed, if the failure happened before handshake was finished.
+	 *
+	 * @param server connection
+	 */
+	public void fail(TlsChannel server) {
+		release(server, true);
+		server.close();
+	}
+
+	private void release(Object server, boolean failed) {
+		Lease lease = leases.remove(server);
+		if (lease == null) {
+			return;
+		}
+
+		lease.node.connectionClosed();
+		if (failed && !lease.handshakeFinished) {
+			lease.node.recordFailure();
+		}
+	}
+
+	/**
+	 * Creates engine in client mode with all the supported cipher suites
+	 * enabled. Handshake is begun, otherwise engine reports it isn't
+	 * handshaking and handshake would start only with the first wrap of data.
+	 *
+	 * @param upstream remote server
+	 * @return a newly created engine
+	 * @throws IOException if context can't be created
+	 */
+	private SSLEngine createEngine(Upstream upstream) throws IOException {
+		SSLEngine engine = getContext().createSSLEngine(upstream.getHost(), upstream.getPort());
+		engine.setUseClientMode(true);
+		engine.setEnabledCipherSuites(engine.getSupportedCipherSuites());
+		engine.beginHandshake();
+		return engine;
+	}
+}
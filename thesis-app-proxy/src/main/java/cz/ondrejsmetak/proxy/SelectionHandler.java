@@ -0,0 +1,23 @@
+package cz.ondrejsmetak.proxy;
+
+import java.nio.channels.SelectionKey;
+
+/**
+ * Object attached to selection key, that handles its readiness
+ *
+ * @author Ondřej Směták <posta@ondrejsmetak.cz>
+ */
+interface SelectionHandler {
+
+	/**
+	 * Handles readiness of the given key
+	 *
+	 * @param key selected key
+	 */
+	public void handle(SelectionKey key);
+
+	/**
+	 * Closes all the channels held by this handler
+	 */
+	public void close();
+}
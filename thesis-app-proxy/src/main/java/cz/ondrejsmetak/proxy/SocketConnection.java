@@ -0,0 +1,80 @@
+package cz.ondrejsmetak.proxy;
+
+import cz.ondrejsmetak.tool.Log;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+
+/**
+ * Connection over blocking socket, plain or SSL/TLS one
+ *
+ * @author Ondřej Směták <posta@ondrejsmetak.cz>
+ */
+class SocketConnection implements Connection {
+
+	/**
+	 * Underlying socket
+	 */
+	private final Socket socket;
+
+	/**
+	 * Address of peer in form host:port
+	 */
+	private final String source;
+
+	/**
+	 * Creates connection over the given connected socket
+	 *
+	 * @param socket connected socket
+	 */
+	public SocketConnection(Socket socket) {
+		this.socket = socket;
+		this.source = socket.getRemoteSocketAddress().toString().replaceAll("/", "");
+	}
+
+	@Override
+	public InputStream getInputStream() throws IOException {
+		return socket.getInputStream();
+	}
+
+	@Override
+	public OutputStream getOutputStream() throws IOException {
+		return socket.getOutputStream();
+	}
+
+	@Override
+	public void setReadTimeout(int millis) throws IOException {
+		socket.setSoTimeout(millis);
+	}
+
+	@Override
+	public String getSource() {
+		return source;
+	}
+
+	@Override
+	public InetAddress getAddress() {
+		return socket.getInetAddress();
+	}
+
+	@Override
+	public Socket getSocket() {
+		return socket;
+	}
+
+	@Override
+	public boolean isClosed() {
+		return socket.isClosed();
+	}
+
+	@Override
+	public void close() {
+		try {
+			socket.close();
+		} catch (IOException ex) {
+			Log.debugException(ex);
+		}
+	}
+}
@@ -0,0 +1,64 @@
+package cz.ondrejsmetak.proxy;
+
+import cz.ondrejsmetak.ConfigurationRegister;
+import cz.ondrejsmetak.tool.Log;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Blocking socket listening on the local port. Accepted connections are plain,
+ * they are secured by engine with the current client context.
+ *
+ * @author Ondřej Směták <posta@ondrejsmetak.cz>
+ */
+class SocketListener implements Listener<Connection> {
+
+	/**
+	 * Bound listening socket
+	 */
+	private final ServerSocket serverSocket;
+
+	/**
+	 * Creates listener over the given bound socket
+	 *
+	 * @param serverSocket bound listening socket
+	 */
+	public SocketListener(ServerSocket serverSocket) {
+		this.serverSocket = serverSocket;
+	}
+
+	@Override
+	public Connection accept() throws IOException {
+		while (true) {
+			Socket client = serverSocket.accept();
+
+			try {
+				client.setTcpNoDelay(ConfigurationRegister.getInstance().isTcpNoDelay());
+				return new SocketConnection(client);
+			} catch (IOException ex) {
+				//client is already gone, others are accepted
+				Log.debugException(ex);
+				try {
+					client.close();
+				} catch (IOException closeEx) {
+					Log.debugException(closeEx);
+				}
+			}
+		}
+	}
+
+	@Override
+	public boolean isClosed() {
+		return serverSocket.isClosed();
+	}
+
+	@Override
+	public void close() {
+		try {
+			serverSocket.close();
+		} catch (IOException ex) {
+			Log.debugException(ex);
+		}
+	}
+}
@@ -0,0 +1,155 @@
+package cz.ondrejsmetak.proxy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+
+/**
+ * One direction of connection served by blocking streams. Chunks read from
+ * source are queued in bounded buffer and written at once, when flow control
+ * allows it. While write blocks, nothing is read, so slow reader slows down
+ * the other side too.
+ *
+ * @author Ondřej Směták <posta@ondrejsmetak.cz>
+ */
+class StreamPump {
+
+	/**
+	 * Connection, from which bytes are read
+	 */
+	private final Connection source;
+
+	/**
+	 * Stream of source connection
+	 */
+	private final InputStream from;
+
+	/**
+	 * Stream, to which bytes are written
+	 */
+	private final OutputStream to;
+
+	/**
+	 * Limits of this direction
+	 */
+	private final FlowControl flow;
+
+	/**
+	 * Called after each read of some bytes
+	 */
+	private final Runnable activity;
+
+	/**
+	 * Count of bytes read, but not yet written
+	 */
+	private volatile int queuedBytes = 0;
+
+	/**
+	 * Read timeout currently set on source connection
+	 */
+	private int timeout = 0;
+
+	/**
+	 * Creates a new pump
+	 *
+	 * @param source connection, from which bytes are read
+	 * @param to stream, to which bytes are written
+	 * @param flow limits of this direction
+	 * @param activity called after each read of some bytes
+	 * @throws IOException if stream of source connection can't be obtained
+	 */
+	public StreamPump(Connection source, OutputStream to, FlowControl flow, Runnable activity) throws IOException {
+		this.source = source;
+		this.from = source.getInputStream();
+		this.to = to;
+		this.flow = flow;
+		this.activity = activity;
+	}
+
+	/**
+	 * Returns count of bytes read, but not yet written
+	 *
+	 * @return count of bytes
+	 */
+	public int getQueuedBytes() {
+		return queuedBytes;
+	}
+
+	/**
+	 * Forwards bytes until end of stream is reached
+	 *
+	 * @param buffer buffer for queued bytes, at most capacity of flow control
+	 * is used
+	 * @throws IOException in case of any error
+	 */
+	public void run(byte[] buffer) throws IOException {
+		int limit = Math.min(buffer.length, flow.getBufferBytes());
+		int queued = 0;
+		long since = 0;
+
+		try {
+			int count;
+			while ((count = read(buffer, queued, limit - queued)) != -1) {
+				if (count > 0) {
+					activity.run();
+				}
+				if (queued == 0) {
+					since = System.currentTimeMillis();
+				}
+				queued += count;
+				queuedBytes = queued;
+
+				if (count > 0 && queued < limit) {
+					if (from.available() > 0) {
+						continue; //coalesce bytes, that are already received
+					}
+
+					long waited = System.currentTimeMillis() - since;
+					if (!flow.isBatchFull(queued) && !flow.isDelayExpired(waited)) {
+						setTimeout(flow.getRemainingDelay(waited));
+						continue;
+					}
+				}
+
+				to.write(buffer, 0, queued);
+				to.flush();
+				queued = 0;
+				queuedBytes = 0;
+				setTimeout(0);
+			}
+
+			if (queued > 0) {
+				to.write(buffer, 0, queued);
+				to.flush();
+			}
+		} finally {
+			queuedBytes = 0;
+		}
+	}
+
+	/**
+	 * Reads bytes from source, waits at most for current timeout
+	 *
+	 * @param buffer destination
+	 * @param offset offset in destination
+	 * @param length maximal count of bytes
+	 * @return count of bytes read, zero if timeout expired, -1 at the end of
+	 * stream
+	 * @throws IOException in case of any error
+	 */
+	private int read(byte[] buffer, int offset, int length) throws IOException {
+		try {
+			return from.read(buffer, offset, length);
+		} catch (SocketTimeoutException ex) {
+			return 0; //coalescing delay expired
+		}
+	}
+
+	private void setTimeout(long millis) throws IOException {
+		if (timeout != millis) {
+			timeout = (int) millis;
+			source.setReadTimeout(timeout);
+		}
+	}
+}
@@ -0,0 +1,355 @@
+package cz.ondrejsmetak.proxy;
+
+import cz.ondrejsmetak.tool.BufferPool;
+import cz.ondrejsmetak.tool.Log;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLSession;
+
+/**
+ * SSL/TLS connection over non-blocking socket channel. No method of this class
+ * ever blocks, so caller must retry when the channel becomes ready again.
+ *
+ * @author Ondřej Směták <posta@ondrejsmetak.cz>
+ */
+public class TlsChannel {
+
+	/**
+	 * Empty buffer used for wrapping of handshake messages
+	 */
+	private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+	/**
+	 * Underlying socket channel
+	 */
+	private final SocketChannel channel;
+
+	/**
+	 * Engine doing the actual SSL/TLS work
+	 */
+	private final SSLEngine engine;
+
+	/**
+	 * Bytes received from the channel and not yet unwrapped (write mode).
+	 * Buffers touching the channel are direct, so no copy is made by JDK.
+	 */
+	private final ByteBuffer netIn;
+
+	/**
+	 * Wrapped bytes not yet written to the channel (read mode)
+	 */
+	private final ByteBuffer netOut;
+
+	/**
+	 * Unwrapped bytes not yet consumed by caller (read mode)
+	 */
+	private final ByteBuffer appIn;
+
+	/**
+	 * Was handshake already completed?
+	 */
+	private boolean handshakeFinished = false;
+
+	/**
+	 * Was end of stream reached?
+	 */
+	private boolean eof = false;
+
+	/**
+	 * Creates a new SSL/TLS connection over the given channel
+	 *
+	 * @param channel connected (or connecting) non-blocking socket channel
+	 * @param engine engine already configured for client or server mode
+	 * @throws IOException if buffers can't be borrowed from pool
+	 */
+	public TlsChannel(SocketChannel channel, SSLEngine engine) throws IOException {
+		this.channel = channel;
+		this.engine = engine;
+
+		SSLSession session = engine.getSession();
+		netIn = BufferPool.getDirect().acquire(session.getPacketBufferSize());
+		netOut = BufferPool.getDirect().acquire(session.getPacketBufferSize());
+		netOut.flip();
+		appIn = BufferPool.getHeap().acquire(session.getApplicationBufferSize());
+		appIn.flip();
+	}
+
+	public SocketChannel getChannel() {
+		return channel;
+	}
+
+	public SSLEngine getEngine() {
+		return engine;
+	}
+
+	public boolean isHandshakeFinished() {
+		return handshakeFinished;
+	}
+
+	/**
+	 * Are there any wrapped bytes waiting for the channel to become writable?
+	 *
+	 * @return true, if there are pending bytes, false otherwise
+	 */
+	public boolean hasPendingOutput() {
+		return netOut.hasRemaining();
+	}
+
+	/**
+	 * Is this connection still open? Bytes received meanwhile are kept for
+	 * the next read, only the end of stream is detected.
+	 *
+	 * @return true, if the channel is open and wasn't closed by peer, false
+	 * otherwise
+	 */
+	public boolean isOpen() {
+		if (!channel.isOpen()) {
+			return false;
+		}
+
+		try {
+			while (!eof && netIn.hasRemaining()) {
+				int count = channel.read(netIn);
+				if (count == -1) {
+					eof = true;
+				} else if (count == 0) {
+					break;
+				}
+			}
+		} catch (IOException ex) {
+			return false;
+		}
+
+		return !eof;
+	}
+
+	/**
+	 * Are there any received bytes, that can be read without touching the
+	 * channel?
+	 *
+	 * @return true, if there are buffered bytes, false otherwise
+	 */
+	public boolean hasBufferedInput() {
+		return appIn.hasRemaining() || netIn.position() > 0;
+	}
+
+	/**
+	 * Advances handshake as far as possible without blocking
+	 *
+	 * @return true, if handshake is finished, false otherwise
+	 * @throws IOException in case of any error
+	 */
+	public boolean handshake() throws IOException {
+		if (handshakeFinished) {
+			return true;
+		}
+
+		while (flush()) {
+			switch (engine.getHandshakeStatus()) {
+				case NEED_WRAP:
+					wrap(EMPTY);
+					break;
+
+				case NEED_UNWRAP:
+					if (!unwrap()) {
+						if (eof) {
+							throw new IOException("Connection closed during handshake.");
+						}
+						return false;
+					}
+					break;
+
+				case NEED_TASK:
+					runDelegatedTasks();
+					break;
+
+				default:
+					handshakeFinished = true;
+					return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Reads unwrapped bytes into the given buffer
+	 *
+	 * @param dst destination buffer
+	 * @return count of bytes read, 0 if none available now, -1 at the end of
+	 * stream
+	 * @throws IOException in case of any error
+	 */
+	public int read(ByteBuffer dst) throws IOException {
+		while (!appIn.hasRemaining() && unwrap()) {
+			if (engine.getHandshakeStatus() != HandshakeStatus.NOT_HANDSHAKING) {
+				handshakeFinished = false;
+				if (!handshake()) {
+					break;
+				}
+			}
+		}
+
+		if (!appIn.hasRemaining()) {
+			return eof ? -1 : 0;
+		}
+
+		int count = Math.min(appIn.remaining(), dst.remaining());
+		ByteBuffer slice = appIn.duplicate();
+		slice.limit(slice.position() + count);
+		dst.put(slice);
+		appIn.position(appIn.position() + count);
+		return count;
+	}
+
+	/**
+	 * Wraps and writes as much of the given buffer as possible
+	 *
+	 * @param src source buffer
+	 * @return count of bytes consumed from source buffer
+	 * @throws IOException in case of any error
+	 */
+	public int write(ByteBuffer src) throws IOException {
+		int consumed = 0;
+
+		while (src.hasRemaining() && flush()) {
+			int count = wrap(src);
+			if (count == 0) {
+				break;
+			}
+			consumed += count;
+		}
+
+		return consumed;
+	}
+
+	/**
+	 * Writes pending wrapped bytes to the channel
+	 *
+	 * @return true, if all pending bytes were written, false otherwise
+	 * @throws IOException in case of any error
+	 */
+	public boolean flush() throws IOException {
+		while (netOut.hasRemaining()) {
+			if (channel.write(netOut) == 0) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Sends close notification, if possible, and closes the channel. Buffers
+	 * are returned to pool, so this channel must not be used anymore.
+	 */
+	public void close() {
+		try {
+			engine.closeOutbound();
+			if (flush()) {
+				wrap(EMPTY);
+			}
+		} catch (IOException ex) {
+			/*suppress exceptions, peer may be already gone*/
+		}
+
+		try {
+			channel.close();
+		} catch (IOException ex) {
+			Log.debugException(ex);
+		}
+
+		BufferPool.getDirect().release(netIn);
+		BufferPool.getDirect().release(netOut);
+		BufferPool.getHeap().release(appIn);
+	}
+
+	/**
+	 * Wraps bytes of the given buffer and tries to write them immediately
+	 *
+	 * @param src source buffer
+	 * @return count of bytes consumed from source buffer
+	 * @throws IOException in case of any error
+	 */
+	private int wrap(ByteBuffer src) throws IOException {
+		netOut.compact();
+		SSLEngineResult result;
+		try {
+			result = engine.wrap(src, netOut);
+		} finally {
+			netOut.flip();
+		}
+
+		if (result.getStatus() == SSLEngineResult.Status.CLOSED && !engine.isOutboundDone()) {
+			throw new IOException("SSLEngine closed unexpectedly.");
+		}
+
+		flush();
+		return result.bytesConsumed();
+	}
+
+	/**
+	 * Unwraps received bytes, reads from the channel when more bytes are
+	 * needed
+	 *
+	 * @return true, if any record was unwrapped, false otherwise
+	 * @throws IOException in case of any error
+	 */
+	private boolean unwrap() throws IOException {
+		boolean progress = false;
+
+		while (true) {
+			netIn.flip();
+			appIn.compact();
+			SSLEngineResult result;
+			try {
+				result = engine.unwrap(netIn, appIn);
+			} finally {
+				appIn.flip();
+				netIn.compact();
+			}
+
+			switch (result.getStatus()) {
+				case OK:
+					progress = true;
+					if (!handshakeFinished && engine.getHandshakeStatus() == HandshakeStatus.NEED_UNWRAP) {
+						continue;
+					}
+					return true;
+
+				case BUFFER_UNDERFLOW:
+					int count = channel.read(netIn);
+					if (count == -1) {
+						eof = true;
+						return progress;
+					}
+					if (count == 0) {
+						return progress;
+					}
+					break;
+
+				case BUFFER_OVERFLOW:
+					return progress; //caller must consume already unwrapped bytes first
+
+				case CLOSED:
+				default:
+					eof = true;
+					return progress;
+			}
+		}
+	}
+
+	/**
+	 * Runs all the tasks delegated by engine
+	 */
+	private void runDelegatedTasks() {
+		Runnable task;
+		while ((task = engine.getDelegatedTask()) != null) {
+			task.run();
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package cz.ondrejsmetak.proxy;
+
+import cz.ondrejsmetak.ConfigurationRegister;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Strategy choosing remote server for a new connection
+ *
+ * @author Ondřej Směták <posta@ondrejsmetak.cz>
+ */
+public interface UpstreamBalancer {
+
+	/**
+	 * Chooses one of the given remote servers
+	 *
+	 * @param candidates available remote servers, never empty
+	 * @return chosen remote server
+	 */
+	public UpstreamNode select(List<UpstreamNode> candidates);
+
+	/**
+	 * Creates balancer with the given name
+	 *
+	 * @param name name of balancer, as used in configuration
+	 * @return a newly created balancer
+	 */
+	public static UpstreamBalancer create(String name) {
+		switch (name) {
+			case ConfigurationRegister.BALANCING_LEAST_CONNECTIONS:
+				return new LeastConnections();
+			case ConfigurationRegister.BALANCING_LATENCY:
+				return new LatencyWeighted();
+			case ConfigurationRegister.BALANCING_ROUND_ROBIN:
+				return new RoundRobin();
+			default:
+				throw new IllegalArgumentException(String.format("Unknown balancing [%s]!", name));
+		}
+	}
+
+	/**
+	 * Uses remote servers one after another
+	 */
+	public static class RoundRobin implements UpstreamBalancer {
+
+		private final AtomicInteger next = new AtomicInteger(0);
+
+		@Override
+		public UpstreamNode select(List<UpstreamNode> candidates) {
+			int index = next.getAndIncrement() & Integer.MAX_VALUE;
+			return candidates.get(index % candidates.size());
+		}
+	}
+
+	/**
+	 * Uses remote server with the fewest opened connections
+	 */
+	public static class LeastConnections implements UpstreamBalancer {
+
+		@Override
+		public UpstreamNode select(List<UpstreamNode> candidates) {
+			UpstreamNode best = candidates.get(0);
+			for (UpstreamNode candidate : candidates) {
+				if (candidate.getActiveCount() < best.getActiveCount()) {
+					best = candidate;
+				}
+			}
+			return best;
+		}
+	}
+
+	/**
+	 * Chooses randomly, faster remote servers are more likely to be chosen.
+	 * Remote server, that wasn't measured yet, is always preferred.
+	 */
+	public static class LatencyWeighted implements UpstreamBalancer {
+
+		@Override
+		public UpstreamNode select(List<UpstreamNode> candidates) {
+			double[] weights = new double[candidates.size()];
+			double total = 0;
+
+			for (int i = 0; i < weights.length; i++) {
+				double latency = candidates.get(i).getLatency();
+				if (latency < 0) {
+					return candidates.get(i);
+				}
+				weights[i] = 1 / Math.max(latency, 1);
+				total += weights[i];
+			}
+
+			double point = ThreadLocalRandom.current().nextDouble(total);
+			for (int i = 0; i < weights.length; i++) {
+				point -= weights[i];
+				if (point < 0) {
+					return candidates.get(i);
+				}
+			}
+			return candidates.get(weights.length - 1);
+		}
+	}
+}
@@ -0,0 +1,37 @@
+package cz.ondrejsmetak.proxy;
+
+import java.io.IOException;
+
+/**
+ * Opens connections to the remote server. Every opened connection must be
+ * closed by the same connector.
+ *
+ * @author Ondřej Směták <posta@ondrejsmetak.cz>
+ * @param <C> type of connection
+ */
+public interface UpstreamConnector<C> {
+
+	/**
+	 * Opens connection and completes handshake, blocks until it's done
+	 *
+	 * @return connection to the remote server
+	 * @throws IOException if no remote server is reachable
+	 */
+	public C connect() throws IOException;
+
+	/**
+	 * Is idle connection opened by this connector still usable? Connection
+	 * closed by the remote server meanwhile isn't.
+	 *
+	 * @param connection idle connection
+	 * @return true, if connection can be used, false otherwise
+	 */
+	public boolean isOpen(C connection);
+
+	/**
+	 * Closes connection opened by this connector
+	 *
+	 * @param connection connection
+	 */
+	public void close(C connection);
+}
@@ -0,0 +1,426 @@
+package cz.ondrejsmetak.proxy;
+
+import cz.ondrejsmetak.ConfigurationRegister;
+import cz.ondrejsmetak.tool.Log;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Opens TCP connections without blocking caller. Host is resolved in the
+ * background and when it has more addresses, they are tried in parallel, each
+ * next attempt started after a short delay or right after the previous one
+ * failed. The first connected attempt wins, the others are closed. Addresses,
+ * that failed recently, are tried last.
+ *
+ * All the attempts are multiplexed over single thread.
+ *
+ * @author Ondřej Směták <posta@ondrejsmetak.cz>
+ */
+public class UpstreamDialer implements Runnable {
+
+	/**
+	 * Instance of this class
+	 */
+	private static UpstreamDialer instance = null;
+
+	/**
+	 * Selector multiplexing all the attempts
+	 */
+	private final Selector selector;
+
+	/**
+	 * Tasks, that will be executed by thread of this dialer
+	 */
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Threads resolving host names, resolving may block for a long time
+	 */
+	private final ExecutorService resolvers;
+
+	/**
+	 * Dials, that are not finished yet. Accessed by thread of this dialer only.
+	 */
+	private final List<Dial> dials = new LinkedList<>();
+
+	/**
+	 * Connected attempts, that will be delivered once their keys are
+	 * deregistered. Accessed by thread of this dialer only.
+	 */
+	private final List<Attempt> connected = new ArrayList<>();
+
+	/**
+	 * Count of failures per address since the last success
+	 */
+	private final Map<InetAddress, AtomicInteger> failures = new ConcurrentHashMap<>();
+
+	/**
+	 * Opening of one connection
+	 */
+	private static class Dial {
+
+		private final CompletableFuture<SocketChannel> future = new CompletableFuture<>();
+		private final int port;
+		private final long deadline;
+		private final List<Attempt> running = new ArrayList<>();
+		private List<InetAddress> pending = null;
+		private long nextAttemptAt = 0;
+		private IOException failure = null;
+		private boolean finished = false;
+
+		public Dial(int port, long deadline) {
+			this.port = port;
+			this.deadline = deadline;
+		}
+	}
+
+	/**
+	 * Connecting to one address
+	 */
+	private static class Attempt {
+
+		private final Dial dial;
+		private final InetAddress address;
+		private final SocketChannel channel;
+
+		public Attempt(Dial dial, InetAddress address, SocketChannel channel) {
+			this.dial = dial;
+			this.address = address;
+			this.channel = channel;
+		}
+	}
+
+	protected UpstreamDialer() throws IOException {
+		this.selector = Selector.open();
+
+		final AtomicInteger counter = new AtomicInteger(0);
+		this.resolvers = Executors.newCachedThreadPool((Runnable r) -> {
+			Thread thread = new Thread(r, "upstream-resolver-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		Thread thread = new Thread(this, "upstream-dialer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Returns a instance of this class, it's started on first use
+	 *
+	 * @return instance of this class
+	 * @throws IOException if selector can't be opened
+	 */
+	public static synchronized UpstreamDialer getInstance() throws IOException {
+		if (instance == null) {
+			instance = new UpstreamDialer();
+		}
+		return instance;
+	}
+
+	/**
+	 * Starts opening connection to the given host. Whole dial, including
+	 * resolving, must finish within configured connect timeout.
+	 *
+	 * @param host host name or IP address
+	 * @param port port
+	 * @return future completed by connected non-blocking channel, that isn't
+	 * registered with any selector
+	 */
+	public CompletableFuture<SocketChannel> dial(final String host, int port) {
+		int timeout = ConfigurationRegister.getInstance().getUpstreamConnectTimeoutMillis();
+		final Dial dial = new Dial(port, System.currentTimeMillis() + timeout);
+
+		execute(() -> {
+			dials.add(dial);
+		});
+
+		resolvers.execute(() -> {
+			try {
+				final List<InetAddress> addresses = order(InetAddress.getAllByName(host));
+				execute(() -> {
+					dial.pending = addresses;
+				});
+			} catch (IOException ex) {
+				execute(() -> {
+					dial.failure = ex;
+					dial.pending = new ArrayList<>();
+				});
+			}
+		});
+
+		return dial.future;
+	}
+
+	/**
+	 * Orders addresses, so the ones with the fewest failures come first and
+	 * address families alternate
+	 *
+	 * @param resolved addresses in order given by resolver
+	 * @return ordered addresses
+	 */
+	private List<InetAddress> order(InetAddress[] resolved) {
+		List<InetAddress> sorted = new ArrayList<>();
+		for (InetAddress address : resolved) {
+			sorted.add(address);
+		}
+		sorted.sort(Comparator.comparingInt((InetAddress address) -> getFailureCount(address)));
+
+		List<InetAddress> first = new LinkedList<>();
+		List<InetAddress> second = new LinkedList<>();
+		for (InetAddress address : sorted) {
+			boolean sameFamily = (address instanceof Inet6Address) == (sorted.get(0) instanceof Inet6Address);
+			(sameFamily ? first : second).add(address);
+		}
+
+		List<InetAddress> ordered = new ArrayList<>();
+		while (!first.isEmpty() || !second.isEmpty()) {
+			if (!first.isEmpty()) {
+				ordered.add(first.remove(0));
+			}
+			if (!second.isEmpty()) {
+				ordered.add(second.remove(0));
+			}
+		}
+		return ordered;
+	}
+
+	/**
+	 * Returns count of failures of the given address since its last success
+	 *
+	 * @param address address
+	 * @return count of failures
+	 */
+	public int getFailureCount(InetAddress address) {
+		AtomicInteger count = failures.get(address);
+		return count == null ? 0 : count.get();
+	}
+
+	private void execute(Runnable task) {
+		tasks.add(task);
+		selector.wakeup();
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			try {
+				selector.select(getSelectTimeout());
+
+				Runnable task;
+				while ((task = tasks.poll()) != null) {
+					task.run();
+				}
+
+				processSelectedKeys();
+				advance();
+				deliver();
+			} catch (IOException | RuntimeException ex) {
+				Log.debugException(ex);
+			}
+		}
+	}
+
+	private void processSelectedKeys() {
+		Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+		while (iterator.hasNext()) {
+			SelectionKey key = iterator.next();
+			iterator.remove();
+			Attempt attempt = (Attempt) key.attachment();
+
+			//attempt closed by success of another one from the same batch
+			if (!key.isValid() || attempt.dial.finished) {
+				key.cancel();
+				closeQuietly(attempt.channel);
+				continue;
+			}
+			finishConnect(attempt, key);
+		}
+	}
+
+	/**
+	 * Completes dials of connected attempts. Their keys must be deregistered
+	 * first, so caller can switch channel to blocking mode.
+	 *
+	 * @throws IOException if selector fails
+	 */
+	private void deliver() throws IOException {
+		while (!connected.isEmpty()) {
+			selector.selectNow();
+
+			List<Attempt> delivered = new ArrayList<>(connected);
+			connected.clear();
+			for (Attempt attempt : delivered) {
+				if (!attempt.dial.future.complete(attempt.channel)) {
+					closeQuietly(attempt.channel);
+				}
+			}
+
+			processSelectedKeys();
+		}
+	}
+
+	/**
+	 * Returns time in milliseconds, until the nearest attempt or deadline
+	 *
+	 * @return timeout for selector, 0 means no timeout
+	 */
+	private long getSelectTimeout() {
+		long now = System.currentTimeMillis();
+		long nearest = Long.MAX_VALUE;
+
+		for (Dial dial : dials) {
+			nearest = Math.min(nearest, dial.deadline);
+			if (dial.pending != null && !dial.pending.isEmpty()) {
+				nearest = Math.min(nearest, dial.nextAttemptAt);
+			}
+		}
+
+		return nearest == Long.MAX_VALUE ? 0 : Math.max(1, nearest - now);
+	}
+
+	/**
+	 * Starts attempts, that are due, and fails dials, that are out of time or
+	 * addresses
+	 */
+	private void advance() {
+		long now = System.currentTimeMillis();
+		long delay = ConfigurationRegister.getInstance().getUpstreamRaceDelayMillis();
+
+		Iterator<Dial> iterator = dials.iterator();
+		while (iterator.hasNext()) {
+			Dial dial = iterator.next();
+
+			if (dial.finished) {
+				iterator.remove();
+				continue;
+			}
+
+			if (now >= dial.deadline) {
+				fail(dial, new SocketTimeoutException("Connect to the remote server timed out."));
+				iterator.remove();
+				continue;
+			}
+
+			if (dial.pending == null) {
+				continue; //still resolving
+			}
+
+			while (!dial.pending.isEmpty() && (now >= dial.nextAttemptAt || dial.running.isEmpty())) {
+				start(dial, dial.pending.remove(0));
+				dial.nextAttemptAt = now + delay;
+			}
+
+			if (dial.running.isEmpty()) {
+				fail(dial, dial.failure != null ? dial.failure : new ConnectException("No address of the remote server is reachable."));
+				iterator.remove();
+			}
+		}
+	}
+
+	private void start(Dial dial, InetAddress address) {
+		SocketChannel channel = null;
+		try {
+			channel = SocketChannel.open();
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(ConfigurationRegister.getInstance().isTcpNoDelay());
+			Attempt attempt = new Attempt(dial, address, channel);
+
+			if (channel.connect(new InetSocketAddress(address, dial.port))) {
+				succeed(attempt);
+			} else {
+				channel.register(selector, SelectionKey.OP_CONNECT, attempt);
+				dial.running.add(attempt);
+			}
+		} catch (IOException ex) {
+			recordFailure(address);
+			dial.failure = ex;
+			closeQuietly(channel);
+		}
+	}
+
+	private void finishConnect(Attempt attempt, SelectionKey key) {
+		try {
+			if (attempt.channel.finishConnect()) {
+				key.cancel();
+				attempt.dial.running.remove(attempt);
+				succeed(attempt);
+			}
+		} catch (IOException ex) {
+			key.cancel();
+			closeQuietly(attempt.channel);
+			attempt.dial.running.remove(attempt);
+			attempt.dial.failure = ex;
+			recordFailure(attempt.address);
+			attempt.dial.nextAttemptAt = 0; //try next address right away
+		}
+	}
+
+	/**
+	 * Finishes dial with the given connected attempt, other attempts are
+	 * closed
+	 *
+	 * @param attempt connected attempt
+	 */
+	private void succeed(Attempt attempt) {
+		failures.remove(attempt.address);
+
+		for (Attempt other : attempt.dial.running) {
+			closeQuietly(other.channel);
+		}
+		attempt.dial.running.clear();
+
+		if (attempt.dial.finished) {
+			closeQuietly(attempt.channel);
+			return;
+		}
+
+		attempt.dial.finished = true;
+		connected.add(attempt);
+	}
+
+	private void fail(Dial dial, IOException ex) {
+		dial.finished = true;
+		for (Attempt attempt : dial.running) {
+			closeQuietly(attempt.channel);
+		}
+		dial.running.clear();
+		dial.future.completeExceptionally(ex);
+	}
+
+	private void recordFailure(InetAddress address) {
+		failures.computeIfAbsent(address, (InetAddress a) -> new AtomicInteger(0)).incrementAndGet();
+	}
+
+	private static void closeQuietly(SocketChannel channel) {
+		if (channel == null) {
+			return;
+		}
+
+		try {
+			channel.close();
+		} catch (IOException ex) {
+			Log.debugException(ex);
+		}
+	}
+}
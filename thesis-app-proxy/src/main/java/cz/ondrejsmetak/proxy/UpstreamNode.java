@@ -0,0 +1,114 @@
+package cz.ondrejsmetak.proxy;
+
+import cz.ondrejsmetak.entity.Upstream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Remote server together with statistics used for balancing. Health is checked
+ * passively, remote server failing repeatedly is not used for a while.
+ *
+ * @author Ondřej Směták <posta@ondrejsmetak.cz>
+ */
+public class UpstreamNode {
+
+	/**
+	 * Count of consecutive failures, after which remote server is marked down
+	 */
+	private static final int FAILURE_THRESHOLD = 3;
+
+	/**
+	 * Time in milliseconds, for which remote server marked down is not used
+	 */
+	private static final long DOWN_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+	/**
+	 * Weight of the newest sample in average latency
+	 */
+	private static final double LATENCY_SMOOTHING = 0.3;
+
+	/**
+	 * Remote server
+	 */
+	private final Upstream upstream;
+
+	/**
+	 * Count of opened connections, including the pooled ones
+	 */
+	private final AtomicInteger activeCounter = new AtomicInteger(0);
+
+	/**
+	 * Count of failures since the last success
+	 */
+	private final AtomicInteger failureCounter = new AtomicInteger(0);
+
+	/**
+	 * Average time in milliseconds needed for connect and handshake, negative
+	 * if not yet measured
+	 */
+	private volatile double latency = -1;
+
+	/**
+	 * Time in milliseconds, until which remote server is marked down
+	 */
+	private volatile long downUntil = 0;
+
+	public UpstreamNode(Upstream upstream) {
+		this.upstream = upstream;
+	}
+
+	public Upstream getUpstream() {
+		return upstream;
+	}
+
+	public int getActiveCount() {
+		return activeCounter.get();
+	}
+
+	public double getLatency() {
+		return latency;
+	}
+
+	/**
+	 * Is remote server considered healthy?
+	 *
+	 * @return true, if remote server can be used, false otherwise
+	 */
+	public boolean isAvailable() {
+		return System.currentTimeMillis() >= downUntil;
+	}
+
+	void connectionOpened() {
+		activeCounter.incrementAndGet();
+	}
+
+	void connectionClosed() {
+		activeCounter.decrementAndGet();
+	}
+
+	/**
+	 * Records successful connect and handshake
+	 *
+	 * @param millis time needed for connect and handshake
+	 */
+	synchronized void recordSuccess(long millis) {
+		failureCounter.set(0);
+		latency = latency < 0 ? millis : LATENCY_SMOOTHING * millis + (1 - LATENCY_SMOOTHING) * latency;
+	}
+
+	/**
+	 * Records failed connect or handshake, remote server is marked down after
+	 * too many consecutive failures
+	 */
+	void recordFailure() {
+		if (failureCounter.incrementAndGet() >= FAILURE_THRESHOLD) {
+			failureCounter.set(0);
+			downUntil = System.currentTimeMillis() + DOWN_MILLIS;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s (active %s, latency %.1f ms%s)", upstream, getActiveCount(), latency, isAvailable() ? "" : ", down");
+	}
+}
@@ -0,0 +1,201 @@
+package cz.ondrejsmetak.proxy;
+
+import cz.ondrejsmetak.tool.Log;
+import java.io.IOException;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps connections to the remote server opened and handshaken in advance, so
+ * accepted client doesn't have to wait for them. Pool is refilled in the
+ * background, connections idle for too long are closed.
+ *
+ * @author Ondřej Směták <posta@ondrejsmetak.cz>
+ * @param <T> type of connection
+ */
+public class UpstreamPool<T> {
+
+	/**
+	 * How often idle connections are evicted and pool refilled
+	 */
+	private static final int MAINTENANCE_PERIOD_MILLIS = 1000;
+
+	/**
+	 * Connection waiting in pool
+	 *
+	 * @param <T> type of connection
+	 */
+	private static class Entry<T> {
+
+		private final T connection;
+		private final long createdAt = System.nanoTime();
+
+		public Entry(T connection) {
+			this.connection = connection;
+		}
+	}
+
+	/**
+	 * Count of connections kept ready
+	 */
+	private final int size;
+
+	/**
+	 * Time in nanoseconds, after which unused connection is closed
+	 */
+	private final long idleTimeout;
+
+	/**
+	 * Opens new connections, checks and closes the pooled ones
+	 */
+	private final UpstreamConnector<T> connector;
+
+	/**
+	 * Connections ready to be taken, the newest ones first
+	 */
+	private final Deque<Entry<T>> ready = new ConcurrentLinkedDeque<>();
+
+	/**
+	 * Thread refilling this pool
+	 */
+	private final ScheduledExecutorService maintenance;
+
+	/**
+	 * Is refill currently in progress?
+	 */
+	private final AtomicBoolean refilling = new AtomicBoolean(false);
+
+	/**
+	 * Creates and starts a new pool
+	 *
+	 * @param size count of connections kept ready
+	 * @param idleTimeoutSeconds time, after which unused connection is closed
+	 * @param connector opens new connections, checks and closes the pooled
+	 * ones
+	 */
+	public UpstreamPool(int size, int idleTimeoutSeconds, UpstreamConnector<T> connector) {
+		this.size = size;
+		this.idleTimeout = TimeUnit.SECONDS.toNanos(idleTimeoutSeconds);
+		this.connector = connector;
+
+		this.maintenance = Executors.newSingleThreadScheduledExecutor((Runnable r) -> {
+			Thread thread = new Thread(r, "upstream-pool");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.maintenance.scheduleWithFixedDelay(() -> {
+			evictIdle();
+			refill();
+		}, 0, MAINTENANCE_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Takes ready connection out of this pool. Connections closed by the
+	 * remote server meanwhile are thrown away.
+	 *
+	 * @return ready connection or null, if pool is empty or shut down
+	 */
+	public T take() {
+		Entry<T> entry;
+
+		while ((entry = ready.pollFirst()) != null) {
+			if (isExpired(entry) || !connector.isOpen(entry.connection)) {
+				connector.close(entry.connection);
+				continue;
+			}
+
+			requestRefill();
+			return entry.connection;
+		}
+
+		requestRefill();
+		return null;
+	}
+
+	/**
+	 * Returns count of connections ready to be taken
+	 *
+	 * @return count of ready connections
+	 */
+	public int getReadyCount() {
+		return ready.size();
+	}
+
+	/**
+	 * Stops refilling and closes all the ready connections
+	 */
+	public void shutdown() {
+		maintenance.shutdownNow();
+
+		Entry<T> entry;
+		while ((entry = ready.pollFirst()) != null) {
+			connector.close(entry.connection);
+		}
+	}
+
+	private boolean isExpired(Entry<T> entry) {
+		return System.nanoTime() - entry.createdAt > idleTimeout;
+	}
+
+	/**
+	 * Closes connections idle for too long
+	 */
+	private void evictIdle() {
+		Iterator<Entry<T>> iterator = ready.iterator();
+		while (iterator.hasNext()) {
+			Entry<T> entry = iterator.next();
+			if (isExpired(entry) && ready.remove(entry)) {
+				connector.close(entry.connection);
+			}
+		}
+	}
+
+	/**
+	 * Starts refill in the background, unless this pool was shut down
+	 */
+	private void requestRefill() {
+		if (maintenance.isShutdown()) {
+			return;
+		}
+
+		try {
+			maintenance.execute(this::refill);
+		} catch (RejectedExecutionException ex) {
+			//shut down meanwhile, nothing to refill
+		}
+	}
+
+	/**
+	 * Opens connections until pool is full. On failure gives up until the
+	 * next maintenance.
+	 */
+	private void refill() {
+		if (!refilling.compareAndSet(false, true)) {
+			return;
+		}
+
+		try {
+			while (ready.size() < size && !maintenance.isShutdown()) {
+				ready.addFirst(new Entry<>(connector.connect()));
+			}
+		} catch (IOException ex) {
+			Log.debugException(ex);
+		} finally {
+			refilling.set(false);
+		}
+
+		//pool may have been shut down while the last connection was opening
+		if (maintenance.isShutdown()) {
+			Entry<T> entry;
+			while ((entry = ready.pollFirst()) != null) {
+				connector.close(entry.connection);
+			}
+		}
+	}
+}
@@ -66,9 +66,9 @@ public class ClientHelloScanner extends BaseScanner {
 
 			if (cipherSuite.getMode().isCanBe()) {
 				//in this case, we don't care
-			} else if (cipherSuite.getMode().isMustBe() && !clientHello.getCipherSuites().contains(cipherSuite)) {
+			} else if (cipherSuite.getMode().isMustBe() && !clientHello.isCipherSuiteOffered(cipherSuite)) {
 				message = String.format("Cipher suite [%s] MUST BE supported, but is missing in Client Hello!", cipherSuite.toString());
-			} else if (cipherSuite.getMode().isMustNotBe() && clientHello.getCipherSuites().contains(cipherSuite)) {
+			} else if (cipherSuite.getMode().isMustNotBe() && clientHello.isCipherSuiteOffered(cipherSuite)) {
 				message = String.format("Cipher suite [%s] MUST NOT BE supported, but is present in Client Hello!", cipherSuite.toString());
 			}
 
@@ -0,0 +1,124 @@
+package cz.ondrejsmetak.scanner;
+
+import cz.ondrejsmetak.CipherSuiteRegister;
+import cz.ondrejsmetak.ConfigurationRegister;
+import cz.ondrejsmetak.entity.ClientHello;
+import cz.ondrejsmetak.entity.ReportMessage;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches results of analysis of Client Hello per fingerprint JA3. Identical
+ * clients send identical lists of cipher suites, so repeated Client Hello is
+ * analysed only once. The least recently used fingerprint is dropped, once
+ * cache is full, and the whole cache is dropped, once policy changes. GREASE
+ * values are neither part of fingerprint, nor analysed.
+ *
+ * @author Ondřej Směták <posta@ondrejsmetak.cz>
+ */
+public class ScanCache {
+
+	/**
+	 * Instance of this class
+	 */
+	private static ScanCache instance = null;
+
+	/**
+	 * Results of analysis per fingerprint, in order of access
+	 */
+	private final Map<String, List<ReportMessage>> results;
+
+	/**
+	 * Version of policy, with which cached results were created
+	 */
+	private long policyVersion = -1;
+
+	/**
+	 * Counters of lookups, used for hit rate
+	 */
+	private final AtomicLong lookupCounter = new AtomicLong(0);
+	private final AtomicLong hitCounter = new AtomicLong(0);
+
+	protected ScanCache() {
+		final int size = ConfigurationRegister.getInstance().getScanCacheSize();
+		this.results = new LinkedHashMap<String, List<ReportMessage>>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, List<ReportMessage>> eldest) {
+				return size() > size;
+			}
+		};
+	}
+
+	/**
+	 * Returns a instance of this class
+	 *
+	 * @return instance of this class
+	 */
+	public static synchronized ScanCache getInstance() {
+		if (instance == null) {
+			instance = new ScanCache();
+		}
+		return instance;
+	}
+
+	/**
+	 * Returns messages describing analysis of the given Client Hello. Cached
+	 * result is returned, if Client Hello with the same fingerprint was
+	 * already analysed with the current policy.
+	 *
+	 * @param clientHello client hello, that will be analysed
+	 * @return collection of messages, that must not be changed
+	 */
+	public List<ReportMessage> getReportMessages(ClientHello clientHello) {
+		if (ConfigurationRegister.getInstance().getScanCacheSize() == 0) {
+			return new ClientHelloScanner(clientHello).getReportMessages();
+		}
+
+		lookupCounter.incrementAndGet();
+		String fingerprint = clientHello.getJa3Hash();
+		long currentPolicy = CipherSuiteRegister.getInstance().getPolicyVersion();
+
+		synchronized (this) {
+			if (policyVersion != currentPolicy) {
+				results.clear();
+				policyVersion = currentPolicy;
+			}
+
+			List<ReportMessage> cached = results.get(fingerprint);
+			if (cached != null) {
+				hitCounter.incrementAndGet();
+				return cached;
+			}
+		}
+
+		List<ReportMessage> done = Collections.unmodifiableList(new ClientHelloScanner(clientHello).getReportMessages());
+		synchronized (this) {
+			if (policyVersion == currentPolicy) {
+				results.put(fingerprint, done);
+			}
+		}
+		return done;
+	}
+
+	/**
+	 * Returns count of lookups
+	 *
+	 * @return count of lookups
+	 */
+	public long getLookupCount() {
+		return lookupCounter.get();
+	}
+
+	/**
+	 * Returns hit rate of this cache
+	 *
+	 * @return hit rate between 0 and 1, 0 if there was no lookup yet
+	 */
+	public double getHitRate() {
+		long lookups = getLookupCount();
+		return lookups == 0 ? 0 : (double) hitCounter.get() / lookups;
+	}
+}
@@ -0,0 +1,208 @@
+package cz.ondrejsmetak.tool;
+
+import cz.ondrejsmetak.ConfigurationRegister;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of buffers divided into size classes. Memory held by the pool (buffers
+ * borrowed and buffers waiting for reuse) never exceeds configured limit.
+ *
+ * @author Ondřej Směták <posta@ondrejsmetak.cz>
+ */
+public class BufferPool {
+
+	/**
+	 * Capacities of buffers in each size class
+	 */
+	private static final int[] SIZE_CLASSES = {1024, 4 * 1024, 16 * 1024, 32 * 1024, 64 * 1024};
+
+	/**
+	 * Instances of this class
+	 */
+	private static BufferPool directInstance = null;
+	private static BufferPool heapInstance = null;
+
+	/**
+	 * Are direct buffers allocated?
+	 */
+	private final boolean direct;
+
+	/**
+	 * Maximal count of bytes held by this pool
+	 */
+	private final long limit;
+
+	/**
+	 * Buffers waiting for reuse, one queue per size class
+	 */
+	private final List<Queue<ByteBuffer>> free;
+
+	/**
+	 * Bytes allocated by this pool, both borrowed and waiting for reuse
+	 */
+	private final AtomicLong reservedBytes = new AtomicLong(0);
+
+	/**
+	 * Counters used for leak accounting
+	 */
+	private final AtomicLong acquiredCounter = new AtomicLong(0);
+	private final AtomicLong releasedCounter = new AtomicLong(0);
+
+	protected BufferPool(boolean direct, long limit) {
+		this.direct = direct;
+		this.limit = limit;
+		this.free = new ArrayList<>(SIZE_CLASSES.length);
+		for (int i = 0; i < SIZE_CLASSES.length; i++) {
+			free.add(new ConcurrentLinkedQueue<>());
+		}
+	}
+
+	/**
+	 * Returns a pool of direct buffers, that should be used for channel I/O
+	 *
+	 * @return instance of pool
+	 */
+	public static synchronized BufferPool getDirect() {
+		if (directInstance == null) {
+			directInstance = new BufferPool(true, getConfiguredLimit());
+		}
+		return directInstance;
+	}
+
+	/**
+	 * Returns a pool of heap buffers, that should be used with streams and
+	 * wherever backing array is needed
+	 *
+	 * @return instance of pool
+	 */
+	public static synchronized BufferPool getHeap() {
+		if (heapInstance == null) {
+			heapInstance = new BufferPool(false, getConfiguredLimit());
+		}
+		return heapInstance;
+	}
+
+	private static long getConfiguredLimit() {
+		return ConfigurationRegister.getInstance().getBufferPoolMegabytes() * 1024L * 1024L;
+	}
+
+	/**
+	 * Borrows a cleared buffer with at least the given capacity. Buffer must be
+	 * returned by method <code>release</code>.
+	 *
+	 * @param size required capacity
+	 * @return borrowed buffer
+	 * @throws IOException if limit of this pool would be exceeded
+	 */
+	public ByteBuffer acquire(int size) throws IOException {
+		int sizeClass = getSizeClass(size);
+		if (sizeClass == -1) {
+			throw new IllegalArgumentException(String.format("Buffer of size [%s] is bigger than the biggest size class!", size));
+		}
+
+		ByteBuffer buffer = free.get(sizeClass).poll();
+
+		if (buffer == null) {
+			int capacity = SIZE_CLASSES[sizeClass];
+			reserve(capacity);
+			buffer = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+		}
+
+		acquiredCounter.incrementAndGet();
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Returns borrowed buffer to this pool. Null is silently ignored.
+	 *
+	 * @param buffer borrowed buffer
+	 */
+	public void release(ByteBuffer buffer) {
+		if (buffer == null) {
+			return;
+		}
+
+		int sizeClass = getSizeClass(buffer.capacity());
+		if (sizeClass == -1 || SIZE_CLASSES[sizeClass] != buffer.capacity() || buffer.isDirect() != direct) {
+			throw new IllegalArgumentException("Buffer wasn't borrowed from this pool!");
+		}
+
+		releasedCounter.incrementAndGet();
+		free.get(sizeClass).offer(buffer);
+	}
+
+	/**
+	 * Reserves memory for a new buffer, buffers waiting for reuse are dropped,
+	 * if needed
+	 *
+	 * @param capacity capacity of a new buffer
+	 * @throws IOException if limit of this pool would be exceeded
+	 */
+	private void reserve(int capacity) throws IOException {
+		int sizeClass = SIZE_CLASSES.length - 1;
+
+		while (reservedBytes.addAndGet(capacity) > limit) {
+			reservedBytes.addAndGet(-capacity);
+
+			//drop unused buffers, biggest ones first
+			while (sizeClass >= 0 && free.get(sizeClass).poll() == null) {
+				sizeClass--;
+			}
+
+			if (sizeClass < 0) {
+				throw new IOException(String.format("Buffer pool exhausted, [%s] bytes already in use.", reservedBytes.get()));
+			}
+
+			reservedBytes.addAndGet(-SIZE_CLASSES[sizeClass]);
+		}
+	}
+
+	/**
+	 * Returns index of the smallest size class, that can hold the given count
+	 * of bytes
+	 *
+	 * @param size count of bytes
+	 * @return index of size class or -1, if there is no such size class
+	 */
+	private int getSizeClass(int size) {
+		for (int i = 0; i < SIZE_CLASSES.length; i++) {
+			if (size <= SIZE_CLASSES[i]) {
+				return i;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Returns count of buffers borrowed and not yet returned. Non-zero value
+	 * after all the connections were closed means leak.
+	 *
+	 * @return count of borrowed buffers
+	 */
+	public long getOutstanding() {
+		return acquiredCounter.get() - releasedCounter.get();
+	}
+
+	/**
+	 * Returns count of bytes allocated by this pool
+	 *
+	 * @return count of bytes
+	 */
+	public long getReservedBytes() {
+		return reservedBytes.get();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s buffer pool: %s buffers borrowed, %s bytes reserved, limit %s bytes",
+				direct ? "Direct" : "Heap", getOutstanding(), getReservedBytes(), limit);
+	}
+}
@@ -0,0 +1,318 @@
+package cz.ondrejsmetak.tool;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Timer shared by all the connections. Timeouts are hashed into slots of a
+ * wheel, that turns by one slot per tick, so scheduling and cancelling take
+ * constant time regardless of count of pending timeouts. Precision is one
+ * tick. Tasks run on thread of the timer, so they must be short, e.g. close a
+ * socket or hand work over to event loop.
+ *
+ * @author Ondřej Směták <posta@ondrejsmetak.cz>
+ */
+public class HashedWheelTimer {
+
+	/**
+	 * Duration of one tick in milliseconds
+	 */
+	private static final long TICK_MILLIS = 10;
+
+	/**
+	 * Count of slots, power of two, so slot is found by mask. Timeouts
+	 * further than one turn wait for more rounds.
+	 */
+	private static final int WHEEL_SIZE = 512;
+
+	/**
+	 * Maximal count of new timeouts moved into the wheel during one tick, so
+	 * burst of new timeouts can't delay expiration
+	 */
+	private static final int TRANSFER_LIMIT = 100000;
+
+	/**
+	 * Instance of this class
+	 */
+	private static HashedWheelTimer instance = null;
+
+	/**
+	 * Slots of the wheel, accessed by thread of the timer only
+	 */
+	private final Slot[] wheel = new Slot[WHEEL_SIZE];
+
+	/**
+	 * Timeouts scheduled, but not yet placed into the wheel
+	 */
+	private final Queue<Timeout> added = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Timeouts cancelled, but maybe still placed in the wheel
+	 */
+	private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Count of timeouts, that neither expired nor were removed after cancel
+	 */
+	private final AtomicInteger pendingCounter = new AtomicInteger(0);
+
+	/**
+	 * Moment, when the timer started, in nanoseconds
+	 */
+	private final long startTime = System.nanoTime();
+
+	/**
+	 * Count of ticks already processed, accessed by thread of the timer only
+	 */
+	private long tick = 0;
+
+	/**
+	 * Task, that will be executed once, unless cancelled
+	 */
+	public static class Timeout {
+
+		private static final int STATE_PENDING = 0;
+		private static final int STATE_CANCELLED = 1;
+		private static final int STATE_EXPIRED = 2;
+
+		private final HashedWheelTimer timer;
+		private final Runnable task;
+		private final long deadline;
+		private final AtomicInteger state = new AtomicInteger(STATE_PENDING);
+
+		/**
+		 * Position in the wheel, accessed by thread of the timer only
+		 */
+		private long remainingRounds;
+		private Slot slot;
+		private Timeout previous;
+		private Timeout next;
+
+		private Timeout(HashedWheelTimer timer, Runnable task, long deadline) {
+			this.timer = timer;
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * Cancels this timeout, task won't be executed
+		 *
+		 * @return true, if timeout was cancelled, false if it already expired
+		 * or was cancelled
+		 */
+		public boolean cancel() {
+			if (!state.compareAndSet(STATE_PENDING, STATE_CANCELLED)) {
+				return false;
+			}
+
+			timer.cancelled.add(this);
+			return true;
+		}
+
+		public boolean isCancelled() {
+			return state.get() == STATE_CANCELLED;
+		}
+
+		public boolean isExpired() {
+			return state.get() == STATE_EXPIRED;
+		}
+
+		private void expire() {
+			if (!state.compareAndSet(STATE_PENDING, STATE_EXPIRED)) {
+				return;
+			}
+
+			try {
+				task.run();
+			} catch (RuntimeException ex) {
+				//never let one broken task stop the whole timer
+				Log.debugException(ex);
+			}
+		}
+	}
+
+	/**
+	 * One slot of the wheel, doubly linked list of timeouts
+	 */
+	private static class Slot {
+
+		private Timeout head;
+		private Timeout tail;
+
+		private void add(Timeout timeout) {
+			timeout.slot = this;
+			if (head == null) {
+				head = tail = timeout;
+			} else {
+				tail.next = timeout;
+				timeout.previous = tail;
+				tail = timeout;
+			}
+		}
+
+		private Timeout remove(Timeout timeout) {
+			Timeout next = timeout.next;
+			if (timeout.previous != null) {
+				timeout.previous.next = next;
+			}
+			if (next != null) {
+				next.previous = timeout.previous;
+			}
+			if (timeout == head) {
+				head = next;
+			}
+			if (timeout == tail) {
+				tail = timeout.previous;
+			}
+
+			timeout.previous = null;
+			timeout.next = null;
+			timeout.slot = null;
+			return next;
+		}
+	}
+
+	private HashedWheelTimer() {
+		for (int i = 0; i < wheel.length; i++) {
+			wheel[i] = new Slot();
+		}
+
+		Thread thread = new Thread(this::run, "proxy-timer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Returns timer shared by the whole application, timer is started with the
+	 * first call
+	 *
+	 * @return instance of timer
+	 */
+	public static synchronized HashedWheelTimer getInstance() {
+		if (instance == null) {
+			instance = new HashedWheelTimer();
+		}
+		return instance;
+	}
+
+	/**
+	 * Executes the given task by thread of this timer after the given delay
+	 *
+	 * @param task task, that will be executed
+	 * @param delayMillis delay in milliseconds
+	 * @return timeout, that can be cancelled
+	 */
+	public Timeout schedule(Runnable task, long delayMillis) {
+		Timeout timeout = new Timeout(this, task, System.nanoTime() - startTime + TimeUnit.MILLISECONDS.toNanos(delayMillis));
+		pendingCounter.incrementAndGet();
+		added.add(timeout);
+		return timeout;
+	}
+
+	/**
+	 * Returns count of timeouts, that are waiting for expiration
+	 *
+	 * @return count of pending timeouts
+	 */
+	public int getPendingCount() {
+		return pendingCounter.get();
+	}
+
+	/**
+	 * Turns the wheel until application exits
+	 */
+	private void run() {
+		while (true) {
+			long deadline = waitForNextTick();
+			removeCancelled();
+			transferAdded();
+			expire(wheel[(int) (tick & (WHEEL_SIZE - 1))], deadline);
+			tick++;
+		}
+	}
+
+	/**
+	 * Sleeps until the end of the current tick
+	 *
+	 * @return end of the current tick in nanoseconds since start of timer
+	 */
+	private long waitForNextTick() {
+		long deadline = (tick + 1) * TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS);
+
+		while (true) {
+			long sleepMillis = TimeUnit.NANOSECONDS.toMillis(deadline - (System.nanoTime() - startTime) + 999999);
+			if (sleepMillis <= 0) {
+				return deadline;
+			}
+
+			try {
+				Thread.sleep(sleepMillis);
+			} catch (InterruptedException ex) {
+				//timer is never stopped, keep turning
+			}
+		}
+	}
+
+	/**
+	 * Places new timeouts into slots of the wheel
+	 */
+	private void transferAdded() {
+		long tickNanos = TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS);
+
+		for (int i = 0; i < TRANSFER_LIMIT; i++) {
+			Timeout timeout = added.poll();
+			if (timeout == null) {
+				return;
+			}
+
+			if (timeout.isCancelled()) {
+				continue; //already counted by method removeCancelled
+			}
+
+			long expiresAt = timeout.deadline / tickNanos;
+			timeout.remainingRounds = (expiresAt - tick) / WHEEL_SIZE;
+
+			//timeouts already overdue expire with the current tick
+			wheel[(int) (Math.max(expiresAt, tick) & (WHEEL_SIZE - 1))].add(timeout);
+		}
+	}
+
+	/**
+	 * Removes cancelled timeouts from the wheel
+	 */
+	private void removeCancelled() {
+		Timeout timeout;
+		while ((timeout = cancelled.poll()) != null) {
+			if (timeout.slot != null) {
+				timeout.slot.remove(timeout);
+			}
+			pendingCounter.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Expires timeouts of the given slot, that are due
+	 *
+	 * @param slot current slot
+	 * @param deadline end of the current tick
+	 */
+	private void expire(Slot slot, long deadline) {
+		Timeout timeout = slot.head;
+
+		while (timeout != null) {
+			if (timeout.isCancelled()) {
+				timeout = slot.remove(timeout);
+			} else if (timeout.remainingRounds <= 0 && timeout.deadline <= deadline) {
+				Timeout next = slot.remove(timeout);
+				pendingCounter.decrementAndGet();
+				timeout.expire();
+				timeout = next;
+			} else {
+				timeout.remainingRounds--;
+				timeout = timeout.next;
+			}
+		}
+	}
+}
@@ -12,6 +12,7 @@ import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 import javax.xml.bind.DatatypeConverter;
 import org.apache.commons.lang3.SystemUtils;
@@ -331,13 +332,16 @@ public class Helper {
 		return new File(path).exists();
 	}
 
-	public static void waitAndCall(int seconds, Runnable r) {
-		new java.util.Timer().schedule(new java.util.TimerTask() {
-			@Override
-			public void run() {
-				r.run();
-			}
-		}, seconds * 1000);
+	/**
+	 * Calls the given runnable after the given delay. Shared timer is used, so
+	 * no thread is created for the call.
+	 *
+	 * @param seconds delay in seconds
+	 * @param r runnable, that must return quickly
+	 * @return timeout, that can be cancelled
+	 */
+	public static HashedWheelTimer.Timeout waitAndCall(int seconds, Runnable r) {
+		return HashedWheelTimer.getInstance().schedule(r, TimeUnit.SECONDS.toMillis(seconds));
 	}
 
 }
@@ -0,0 +1,77 @@
+package cz.ondrejsmetak.tool;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.NetworkChannel;
+import java.nio.channels.ServerSocketChannel;
+
+/**
+ * Enables socket option SO_REUSEPORT, so several sockets can listen on the
+ * same port and kernel spreads incoming connections among them. Option is
+ * available since Java 9 and only on some platforms (e.g. Linux), it's looked
+ * up reflectively, because application is still built for Java 8.
+ *
+ * @author Ondřej Směták <posta@ondrejsmetak.cz>
+ */
+public class ReusePort {
+
+	/**
+	 * Option SO_REUSEPORT, null if not supported by running JVM and platform
+	 */
+	private static final SocketOption<Boolean> OPTION = lookup();
+
+	@SuppressWarnings("unchecked")
+	private static SocketOption<Boolean> lookup() {
+		try {
+			SocketOption<Boolean> option = (SocketOption<Boolean>) StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+
+			try (ServerSocketChannel probe = ServerSocketChannel.open()) {
+				return probe.supportedOptions().contains(option) ? option : null;
+			}
+		} catch (ReflectiveOperationException | IOException ex) {
+			return null;
+		}
+	}
+
+	/**
+	 * Checks, if running JVM and platform support SO_REUSEPORT
+	 *
+	 * @return true, if option is supported, false otherwise
+	 */
+	public static boolean isSupported() {
+		return OPTION != null;
+	}
+
+	/**
+	 * Enables SO_REUSEPORT on the given channel, must be called before bind
+	 *
+	 * @param channel unbound channel
+	 * @throws IOException if option is not supported or can't be set
+	 */
+	public static void enable(NetworkChannel channel) throws IOException {
+		channel.setOption(getOption(), true);
+	}
+
+	/**
+	 * Enables SO_REUSEPORT on the given socket, must be called before bind
+	 *
+	 * @param socket unbound socket
+	 * @throws IOException if option is not supported or can't be set
+	 */
+	public static void enable(ServerSocket socket) throws IOException {
+		try {
+			ServerSocket.class.getMethod("setOption", SocketOption.class, Object.class).invoke(socket, getOption(), true);
+		} catch (ReflectiveOperationException ex) {
+			throw new IOException("SO_REUSEPORT can't be set!", ex);
+		}
+	}
+
+	private static SocketOption<Boolean> getOption() throws IOException {
+		if (OPTION == null) {
+			throw new IOException("SO_REUSEPORT is not supported!");
+		}
+		return OPTION;
+	}
+}
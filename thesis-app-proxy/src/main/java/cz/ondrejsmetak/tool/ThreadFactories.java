@@ -0,0 +1,63 @@
+package cz.ondrejsmetak.tool;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates thread factories for platform or virtual threads. Virtual threads
+ * are available since Java 21, they are looked up reflectively, because
+ * application is still built for Java 8.
+ *
+ * @author Ondřej Směták <posta@ondrejsmetak.cz>
+ */
+public class ThreadFactories {
+
+	/**
+	 * Returns factory creating platform threads with the given name prefix
+	 *
+	 * @param prefix prefix of thread names
+	 * @return thread factory
+	 */
+	public static ThreadFactory platform(String prefix) {
+		final AtomicInteger counter = new AtomicInteger(0);
+
+		return (Runnable r) -> {
+			return new Thread(r, prefix + "-" + counter.incrementAndGet());
+		};
+	}
+
+	/**
+	 * Returns factory creating virtual threads with the given name prefix
+	 *
+	 * @param prefix prefix of thread names
+	 * @return thread factory or null, if virtual threads aren't supported by
+	 * running JVM
+	 */
+	public static ThreadFactory virtual(String prefix) {
+		try {
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix + "-", 1L);
+			Method factory = builderClass.getMethod("factory");
+			ThreadFactory created = (ThreadFactory) factory.invoke(builder);
+
+			//on Java 19 and 20 virtual threads are preview feature, that may be disabled
+			created.newThread(() -> {
+			});
+
+			return created;
+		} catch (ReflectiveOperationException | UnsupportedOperationException ex) {
+			return null;
+		}
+	}
+
+	/**
+	 * Checks, if running JVM supports virtual threads
+	 *
+	 * @return true, if virtual threads are supported, false otherwise
+	 */
+	public static boolean isVirtualSupported() {
+		return virtual("probe") != null;
+	}
+}
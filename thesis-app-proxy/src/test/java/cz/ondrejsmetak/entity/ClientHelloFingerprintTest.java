@@ -0,0 +1,212 @@
+package cz.ondrejsmetak.entity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import org.junit.Test;
+
+/**
+ * Tests of fingerprints JA3 and JA4 against values published with their
+ * reference implementations
+ *
+ * @author Ondřej Směták <posta@ondrejsmetak.cz>
+ */
+public class ClientHelloFingerprintTest {
+
+	/**
+	 * Example of JA3 from its reference implementation
+	 */
+	private static final String JA3_REFERENCE = "769,47-53-5-10-49161-49162-49171-49172-50-56-19-4,0-10-11,23-24-25,0";
+	private static final String JA3_REFERENCE_HASH = "ada70206e40642a3e4461f35503241d5";
+
+	/**
+	 * Example of JA4 from its reference implementation, fingerprint of Chrome
+	 */
+	private static final String JA4_REFERENCE = "t13d1516h2_8daaf6152771_e5627efa2ab1";
+
+	private static final int[] JA4_REFERENCE_CIPHER_SUITES = {
+		0x1301, 0x1302, 0x1303, 0xC02B, 0xC02F, 0xC02C, 0xC030, 0xCCA9, 0xCCA8, 0xC013, 0xC014, 0x009C, 0x009D, 0x002F, 0x0035
+	};
+
+	private static final int[] JA4_REFERENCE_SIGNATURE_ALGORITHMS = {
+		0x0403, 0x0804, 0x0401, 0x0503, 0x0805, 0x0501, 0x0806, 0x0601
+	};
+
+	private static ClientHelloFixture createJa3Reference() {
+		return new ClientHelloFixture()
+				.version(0x0301)
+				.cipherSuites(47, 53, 5, 10, 49161, 49162, 49171, 49172, 50, 56, 19, 4)
+				.serverName("example.com")
+				.supportedGroups(23, 24, 25)
+				.ecPointFormats(0);
+	}
+
+	/**
+	 * Returns Client Hello of Chrome, with GREASE values
+	 *
+	 * @param cipherSuites cipher suites, that will be offered
+	 * @param signatureAlgorithms signature algorithms, that will be offered
+	 * @return fixture of Client Hello
+	 */
+	private static ClientHelloFixture createJa4Reference(int[] cipherSuites, int[] signatureAlgorithms) {
+		int[] withGrease = new int[cipherSuites.length + 1];
+		withGrease[0] = 0x0A0A;
+		System.arraycopy(cipherSuites, 0, withGrease, 1, cipherSuites.length);
+
+		return new ClientHelloFixture()
+				.cipherSuites(withGrease)
+				.emptyExtensions(0x1A1A)
+				.serverName("example.com")
+				.emptyExtensions(0x0017, 0xFF01)
+				.supportedGroups(0x2A2A, 0x001D, 0x0017, 0x0018)
+				.ecPointFormats(0)
+				.emptyExtensions(0x0023)
+				.applicationProtocols("h2", "http/1.1")
+				.emptyExtensions(0x0005)
+				.signatureAlgorithms(signatureAlgorithms)
+				.emptyExtensions(0x0012, 0x0033, 0x002D)
+				.supportedVersions(0x3A3A, 0x0304, 0x0303)
+				.emptyExtensions(0x001B, 0x4469, 0x0015, 0x4A4A);
+	}
+
+	private static String getJa4Part(ClientHello clientHello, int part) {
+		return clientHello.getJa4().split("_")[part];
+	}
+
+	@Test
+	public void testJa3Reference() {
+		ClientHello clientHello = new ClientHello(createJa3Reference().build());
+
+		assertEquals(JA3_REFERENCE, clientHello.getJa3());
+		assertEquals(JA3_REFERENCE_HASH, clientHello.getJa3Hash());
+	}
+
+	@Test
+	public void testJa3WithoutGrease() {
+		ClientHello clientHello = new ClientHello(new ClientHelloFixture()
+				.version(0x0301)
+				.cipherSuites(0xFAFA, 47, 53, 5, 10, 49161, 49162, 49171, 49172, 50, 56, 19, 4)
+				.emptyExtensions(0x0A0A)
+				.serverName("example.com")
+				.supportedGroups(0xDADA, 23, 24, 25)
+				.ecPointFormats(0)
+				.emptyExtensions(0xEAEA)
+				.build());
+
+		assertEquals(JA3_REFERENCE, clientHello.getJa3());
+		assertEquals(JA3_REFERENCE_HASH, clientHello.getJa3Hash());
+	}
+
+	@Test
+	public void testJa3KeepsOrder() {
+		ClientHello clientHello = new ClientHello(new ClientHelloFixture()
+				.version(0x0301)
+				.cipherSuites(47, 53)
+				.ecPointFormats(0)
+				.supportedGroups(24, 23)
+				.build());
+
+		assertEquals("769,47-53,11-10,24-23,0", clientHello.getJa3());
+	}
+
+	@Test
+	public void testJa3OfEmptyLists() {
+		ClientHello clientHello = new ClientHello(new ClientHelloFixture().version(0x0303).cipherSuites(0x002F).build());
+
+		assertEquals("771,47,,,", clientHello.getJa3());
+		assertEquals(32, clientHello.getJa3Hash().length());
+	}
+
+	@Test
+	public void testJa4Reference() {
+		ClientHello clientHello = new ClientHello(createJa4Reference(JA4_REFERENCE_CIPHER_SUITES, JA4_REFERENCE_SIGNATURE_ALGORITHMS).build());
+
+		assertEquals(JA4_REFERENCE, clientHello.getJa4());
+	}
+
+	@Test
+	public void testJa4SortsCipherSuitesAndExtensions() {
+		int[] reversed = new int[JA4_REFERENCE_CIPHER_SUITES.length];
+		for (int i = 0; i < reversed.length; i++) {
+			reversed[i] = JA4_REFERENCE_CIPHER_SUITES[reversed.length - 1 - i];
+		}
+
+		ClientHello clientHello = new ClientHello(new ClientHelloFixture()
+				.cipherSuites(reversed)
+				.supportedVersions(0x0304, 0x0303)
+				.emptyExtensions(0x4469, 0x0015, 0x001B, 0x002D, 0x0033, 0x0012)
+				.signatureAlgorithms(JA4_REFERENCE_SIGNATURE_ALGORITHMS)
+				.emptyExtensions(0x0005)
+				.applicationProtocols("h2")
+				.emptyExtensions(0x0023)
+				.ecPointFormats(0)
+				.supportedGroups(0x001D)
+				.emptyExtensions(0xFF01, 0x0017)
+				.serverName("example.com")
+				.build());
+
+		assertEquals(JA4_REFERENCE, clientHello.getJa4());
+	}
+
+	@Test
+	public void testJa4KeepsOrderOfSignatureAlgorithms() {
+		int[] algorithms = JA4_REFERENCE_SIGNATURE_ALGORITHMS.clone();
+		algorithms[0] = JA4_REFERENCE_SIGNATURE_ALGORITHMS[1];
+		algorithms[1] = JA4_REFERENCE_SIGNATURE_ALGORITHMS[0];
+		ClientHello clientHello = new ClientHello(createJa4Reference(JA4_REFERENCE_CIPHER_SUITES, algorithms).build());
+
+		assertEquals("t13d1516h2", getJa4Part(clientHello, 0));
+		assertEquals("8daaf6152771", getJa4Part(clientHello, 1));
+		assertNotEquals("e5627efa2ab1", getJa4Part(clientHello, 2));
+	}
+
+	@Test
+	public void testJa4WithoutServerName() {
+		ClientHello clientHello = new ClientHello(new ClientHelloFixture()
+				.cipherSuites(JA4_REFERENCE_CIPHER_SUITES)
+				.supportedVersions(0x0304)
+				.build());
+
+		assertEquals("t13i1501", clientHello.getJa4().substring(0, 8));
+	}
+
+	@Test
+	public void testJa4ApplicationProtocol() {
+		assertEquals("t12i010000", getJa4Part(new ClientHello(new ClientHelloFixture().build()), 0));
+		assertEquals("h1", getJa4Part(new ClientHello(new ClientHelloFixture().applicationProtocols("http/1.1", "h2").build()), 0).substring(8));
+		assertEquals("hh", getJa4Part(new ClientHello(new ClientHelloFixture().applicationProtocols("h").build()), 0).substring(8));
+		assertEquals("00", getJa4Part(new ClientHello(new ClientHelloFixture().applicationProtocols("").build()), 0).substring(8));
+		//not alphanumeric, the first and the last character of hexadecimal form
+		assertEquals("ad", getJa4Part(new ClientHello(new ClientHelloFixture().applicationProtocols(new byte[]{(byte) 0xAB, (byte) 0xCD}).build()), 0).substring(8));
+		assertEquals("22", getJa4Part(new ClientHello(new ClientHelloFixture().applicationProtocols(new byte[]{'*', 'b'}).build()), 0).substring(8));
+	}
+
+	@Test
+	public void testJa4Version() {
+		assertEquals("t12", getJa4Part(new ClientHello(new ClientHelloFixture().version(0x0303).build()), 0).substring(0, 3));
+		assertEquals("t10", getJa4Part(new ClientHello(new ClientHelloFixture().version(0x0301).build()), 0).substring(0, 3));
+		assertEquals("ts3", getJa4Part(new ClientHello(new ClientHelloFixture().version(0x0300).build()), 0).substring(0, 3));
+		assertEquals("t13", getJa4Part(new ClientHello(new ClientHelloFixture().supportedVersions(0x7A7A, 0x0303, 0x0304).build()), 0).substring(0, 3));
+		assertEquals("t12", getJa4Part(new ClientHello(new ClientHelloFixture().supportedVersions(0x7A7A, 0x0303).build()), 0).substring(0, 3));
+	}
+
+	@Test
+	public void testJa4OfEmptyLists() {
+		ClientHello withoutCipherSuites = new ClientHello(new ClientHelloFixture().cipherSuites().emptyExtensions(0x0017).build());
+		assertEquals("t12i0001" + "00_000000000000", withoutCipherSuites.getJa4().substring(0, 23));
+
+		ClientHello withoutExtensions = new ClientHello(new ClientHelloFixture().build());
+		assertEquals("000000000000", getJa4Part(withoutExtensions, 2));
+
+		//server name and ALPN are counted, but not hashed
+		ClientHello onlyHidden = new ClientHello(new ClientHelloFixture().serverName("example.com").applicationProtocols("h2").build());
+		assertEquals("t12d0102h2", getJa4Part(onlyHidden, 0));
+		assertEquals("000000000000", getJa4Part(onlyHidden, 2));
+	}
+
+	@Test
+	public void testJa4OfGreaseOnly() {
+		ClientHello clientHello = new ClientHello(new ClientHelloFixture().cipherSuites(0x0A0A).emptyExtensions(0x1A1A).build());
+
+		assertEquals("t12i000000_000000000000_000000000000", clientHello.getJa4());
+	}
+}
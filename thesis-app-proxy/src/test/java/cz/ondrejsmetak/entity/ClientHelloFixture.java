@@ -0,0 +1,278 @@
+package cz.ondrejsmetak.entity;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Builds bytes of Client Hello for tests. By default, TLS 1.2 Client Hello
+ * with one cipher suite and no extensions is built.
+ *
+ * @author Ondřej Směták <posta@ondrejsmetak.cz>
+ */
+public class ClientHelloFixture {
+
+	public static final int CONTENT_TYPE_HANDSHAKE = 0x16;
+	public static final int CONTENT_TYPE_APPLICATION_DATA = 0x17;
+	public static final int HANDSHAKE_TYPE_CLIENT_HELLO = 0x01;
+
+	private int recordVersion = 0x0301;
+	private int version = 0x0303;
+	private byte[] sessionId = new byte[0];
+	private int[] cipherSuites = {0x002F};
+	private final ByteArrayOutputStream extensions = new ByteArrayOutputStream();
+	private boolean extensionsPresent = false;
+
+	public ClientHelloFixture recordVersion(int recordVersion) {
+		this.recordVersion = recordVersion;
+		return this;
+	}
+
+	public ClientHelloFixture version(int version) {
+		this.version = version;
+		return this;
+	}
+
+	public ClientHelloFixture sessionId(int length) {
+		this.sessionId = new byte[length];
+		Arrays.fill(sessionId, (byte) 0x5A);
+		return this;
+	}
+
+	public ClientHelloFixture cipherSuites(int... codes) {
+		this.cipherSuites = codes;
+		return this;
+	}
+
+	/**
+	 * Appends extension with the given raw data
+	 *
+	 * @param type type of extension
+	 * @param data data of extension
+	 * @return this fixture
+	 */
+	public ClientHelloFixture extension(int type, byte[] data) {
+		writeNumber(extensions, type, 2);
+		writeNumber(extensions, data.length, 2);
+		extensions.write(data, 0, data.length);
+		extensionsPresent = true;
+		return this;
+	}
+
+	public ClientHelloFixture serverName(String host) {
+		byte[] name = host.getBytes(StandardCharsets.US_ASCII);
+		ByteArrayOutputStream entry = new ByteArrayOutputStream();
+		writeNumber(entry, 0, 1);
+		writeNumber(entry, name.length, 2);
+		entry.write(name, 0, name.length);
+		return extension(ClientHello.EXTENSION_SERVER_NAME, vector(entry.toByteArray(), 2));
+	}
+
+	public ClientHelloFixture supportedGroups(int... groups) {
+		return extension(ClientHello.EXTENSION_SUPPORTED_GROUPS, vector(numbers(groups, 2), 2));
+	}
+
+	public ClientHelloFixture ecPointFormats(int... formats) {
+		return extension(ClientHello.EXTENSION_EC_POINT_FORMATS, vector(numbers(formats, 1), 1));
+	}
+
+	public ClientHelloFixture signatureAlgorithms(int... algorithms) {
+		return extension(ClientHello.EXTENSION_SIGNATURE_ALGORITHMS, vector(numbers(algorithms, 2), 2));
+	}
+
+	public ClientHelloFixture supportedVersions(int... versions) {
+		return extension(ClientHello.EXTENSION_SUPPORTED_VERSIONS, vector(numbers(versions, 2), 1));
+	}
+
+	public ClientHelloFixture applicationProtocols(byte[]... protocols) {
+		ByteArrayOutputStream list = new ByteArrayOutputStream();
+		for (byte[] protocol : protocols) {
+			writeNumber(list, protocol.length, 1);
+			list.write(protocol, 0, protocol.length);
+		}
+		return extension(ClientHello.EXTENSION_APPLICATION_LAYER_PROTOCOL_NEGOTIATION, vector(list.toByteArray(), 2));
+	}
+
+	public ClientHelloFixture applicationProtocols(String... protocols) {
+		byte[][] encoded = new byte[protocols.length][];
+		for (int i = 0; i < protocols.length; i++) {
+			encoded[i] = protocols[i].getBytes(StandardCharsets.US_ASCII);
+		}
+		return applicationProtocols(encoded);
+	}
+
+	/**
+	 * Appends extension without data for each of the given types
+	 *
+	 * @param types types of extensions
+	 * @return this fixture
+	 */
+	public ClientHelloFixture emptyExtensions(int... types) {
+		for (int type : types) {
+			extension(type, new byte[0]);
+		}
+		return this;
+	}
+
+	/**
+	 * Returns body of Client Hello, without any header
+	 *
+	 * @return bytes of body
+	 */
+	public byte[] body() {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		writeNumber(body, version, 2);
+		byte[] random = new byte[32];
+		body.write(random, 0, random.length);
+		writeNumber(body, sessionId.length, 1);
+		body.write(sessionId, 0, sessionId.length);
+		writeNumber(body, cipherSuites.length * 2, 2);
+		for (int code : cipherSuites) {
+			writeNumber(body, code, 2);
+		}
+		writeNumber(body, 1, 1);
+		writeNumber(body, 0, 1); //null compression
+		if (extensionsPresent) {
+			byte[] data = extensions.toByteArray();
+			writeNumber(body, data.length, 2);
+			body.write(data, 0, data.length);
+		}
+		return body.toByteArray();
+	}
+
+	/**
+	 * Returns handshake message with Client Hello, without record header
+	 *
+	 * @return bytes of handshake message
+	 */
+	public byte[] handshake() {
+		return handshake(HANDSHAKE_TYPE_CLIENT_HELLO, body());
+	}
+
+	/**
+	 * Returns Client Hello in single record
+	 *
+	 * @return bytes of record
+	 */
+	public byte[] build() {
+		return record(CONTENT_TYPE_HANDSHAKE, recordVersion, handshake());
+	}
+
+	/**
+	 * Returns Client Hello split into records with bodies of the given lengths,
+	 * the last record holds the rest
+	 *
+	 * @param lengths lengths of bodies of all the records but the last
+	 * @return bytes of records
+	 */
+	public byte[] buildFragmented(int... lengths) {
+		byte[] message = handshake();
+		ByteArrayOutputStream done = new ByteArrayOutputStream();
+		int offset = 0;
+		for (int length : lengths) {
+			byte[] record = record(CONTENT_TYPE_HANDSHAKE, recordVersion, Arrays.copyOfRange(message, offset, offset + length));
+			done.write(record, 0, record.length);
+			offset += length;
+		}
+		byte[] last = record(CONTENT_TYPE_HANDSHAKE, recordVersion, Arrays.copyOfRange(message, offset, message.length));
+		done.write(last, 0, last.length);
+		return done.toByteArray();
+	}
+
+	/**
+	 * Returns handshake message of the given type
+	 *
+	 * @param type type of handshake message
+	 * @param body body of message
+	 * @return bytes of message
+	 */
+	public static byte[] handshake(int type, byte[] body) {
+		ByteArrayOutputStream done = new ByteArrayOutputStream();
+		writeNumber(done, type, 1);
+		writeNumber(done, body.length, 3);
+		done.write(body, 0, body.length);
+		return done.toByteArray();
+	}
+
+	/**
+	 * Returns TLS record with the given content
+	 *
+	 * @param contentType type of content
+	 * @param version version of record layer
+	 * @param body body of record
+	 * @return bytes of record
+	 */
+	public static byte[] record(int contentType, int version, byte[] body) {
+		ByteArrayOutputStream done = new ByteArrayOutputStream();
+		writeNumber(done, contentType, 1);
+		writeNumber(done, version, 2);
+		writeNumber(done, body.length, 2);
+		done.write(body, 0, body.length);
+		return done.toByteArray();
+	}
+
+	/**
+	 * Returns SSLv2 compatible Client Hello
+	 *
+	 * @param version version of handshake
+	 * @param cipherSpecs cipher specs of three bytes each
+	 * @param sessionIdLength length of session id
+	 * @param challengeLength length of challenge
+	 * @return bytes of record
+	 */
+	public static byte[] sslV2(int version, int[] cipherSpecs, int sessionIdLength, int challengeLength) {
+		ByteArrayOutputStream message = new ByteArrayOutputStream();
+		writeNumber(message, HANDSHAKE_TYPE_CLIENT_HELLO, 1);
+		writeNumber(message, version, 2);
+		writeNumber(message, cipherSpecs.length * 3, 2);
+		writeNumber(message, sessionIdLength, 2);
+		writeNumber(message, challengeLength, 2);
+		for (int spec : cipherSpecs) {
+			writeNumber(message, spec, 3);
+		}
+		for (int i = 0; i < sessionIdLength + challengeLength; i++) {
+			message.write(0xA5); //neither of them looks like cipher spec
+		}
+
+		byte[] body = message.toByteArray();
+		ByteArrayOutputStream done = new ByteArrayOutputStream();
+		writeNumber(done, 0x8000 | body.length, 2);
+		done.write(body, 0, body.length);
+		return done.toByteArray();
+	}
+
+	/**
+	 * Returns the given data prefixed by its length
+	 *
+	 * @param data data of vector
+	 * @param prefixLength count of bytes with length
+	 * @return bytes of vector
+	 */
+	public static byte[] vector(byte[] data, int prefixLength) {
+		ByteArrayOutputStream done = new ByteArrayOutputStream();
+		writeNumber(done, data.length, prefixLength);
+		done.write(data, 0, data.length);
+		return done.toByteArray();
+	}
+
+	/**
+	 * Returns the given numbers in big-endian order
+	 *
+	 * @param values numbers
+	 * @param itemLength count of bytes of each number
+	 * @return bytes of numbers
+	 */
+	public static byte[] numbers(int[] values, int itemLength) {
+		ByteArrayOutputStream done = new ByteArrayOutputStream();
+		for (int value : values) {
+			writeNumber(done, value, itemLength);
+		}
+		return done.toByteArray();
+	}
+
+	private static void writeNumber(ByteArrayOutputStream out, int value, int count) {
+		for (int i = count - 1; i >= 0; i--) {
+			out.write((value >>> (8 * i)) & 0xFF);
+		}
+	}
+}
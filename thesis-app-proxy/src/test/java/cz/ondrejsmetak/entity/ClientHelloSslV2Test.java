@@ -0,0 +1,158 @@
+package cz.ondrejsmetak.entity;
+
+import cz.ondrejsmetak.CipherSuiteRegister;
+import java.util.Arrays;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ * Tests of parsing SSLv2 compatible Client Hello
+ *
+ * @author Ondřej Směták <posta@ondrejsmetak.cz>
+ */
+public class ClientHelloSslV2Test {
+
+	/**
+	 * SSL_CK_RC4_128_WITH_MD5 and SSL_CK_DES_192_EDE3_CBC_WITH_MD5, cipher
+	 * kinds of SSLv2
+	 */
+	private static final int RC4_128_WITH_MD5 = 0x010080;
+	private static final int DES_192_EDE3_CBC_WITH_MD5 = 0x0700C0;
+
+	/**
+	 * Offset of length of cipher specs
+	 */
+	private static final int CIPHER_SPECS_LENGTH_OFFSET = 2 + 1 + 2;
+
+	private static void assertMalformed(byte[] bytes) {
+		try {
+			new ClientHello(bytes);
+			fail("Malformed Client Hello was parsed");
+		} catch (IllegalArgumentException ex) {
+			//expected
+		}
+	}
+
+	private static CipherSuite createCipherSuite(String hex) {
+		return new CipherSuite(hex, "Test", new Mode(Mode.Type.MUST_NOT_BE));
+	}
+
+	@Test
+	public void testIsClientHello() {
+		byte[] hello = ClientHelloFixture.sslV2(0x0301, new int[]{RC4_128_WITH_MD5}, 0, 16);
+
+		assertTrue(ClientHello.isClientHello(hello));
+		assertTrue(new ClientHello(hello).isSslV2Compatible());
+		assertTrue(ClientHello.isClientHello(ClientHelloFixture.sslV2(0x0002, new int[]{RC4_128_WITH_MD5}, 0, 16)));
+
+		byte[] unknownVersion = hello.clone();
+		unknownVersion[3] = 0x05;
+		assertFalse(ClientHello.isClientHello(unknownVersion));
+
+		byte[] otherMessage = hello.clone();
+		otherMessage[2] = 0x02;
+		assertFalse(ClientHello.isClientHello(otherMessage));
+	}
+
+	@Test
+	public void testCipherSpecs() {
+		int[] specs = {RC4_128_WITH_MD5, 0x00C02F, DES_192_EDE3_CBC_WITH_MD5, 0x00002F, 0x005600};
+		ClientHello clientHello = new ClientHello(ClientHelloFixture.sslV2(0x0301, specs, 0, 16));
+
+		//specs of SSLv3/TLS cipher suites have the first byte zero, so they are codes of those cipher suites
+		assertArrayEquals(new int[]{RC4_128_WITH_MD5, 0xC02F, DES_192_EDE3_CBC_WITH_MD5, 0x002F, 0x5600}, clientHello.getCipherSuiteCodes());
+		assertTrue(clientHello.isCipherSuiteOffered(createCipherSuite("C02F")));
+		assertTrue(clientHello.isCipherSuiteOffered(createCipherSuite("002F")));
+		assertTrue(clientHello.isCipherSuiteOffered(createCipherSuite("010080")));
+		assertFalse(clientHello.isCipherSuiteOffered(createCipherSuite("0080")));
+		assertFalse(clientHello.isCipherSuiteOffered(createCipherSuite("0035")));
+		assertTrue(clientHello.isTlsFallbackScsv());
+	}
+
+	@Test
+	public void testCipherSpecsAreRegistered() {
+		ClientHello clientHello = new ClientHello(ClientHelloFixture.sslV2(0x0301, new int[]{0x080080, 0x00C0A0, 0x000A0A}, 0, 16));
+
+		assertEquals(0x080080, CipherSuiteRegister.getInstance().getByCodeOrCreateDefault(0x080080).getCode());
+		assertEquals(6, CipherSuiteRegister.getInstance().getByCodeOrCreateDefault(0x080080).getHex().getDigits());
+		assertEquals(4, CipherSuiteRegister.getInstance().getByCodeOrCreateDefault(0xC0A0).getHex().getDigits());
+
+		assertEquals(2, clientHello.getCipherSuites().size());
+		assertEquals(0x080080, clientHello.getCipherSuites().get(0).getCode());
+		assertEquals(0xC0A0, clientHello.getCipherSuites().get(1).getCode());
+	}
+
+	@Test
+	public void testOffsetOfCipherSpecs() {
+		//session id and challenge follow cipher specs, they must not be read as specs
+		int[] specs = {RC4_128_WITH_MD5, 0x00002F};
+		ClientHello withSessionId = new ClientHello(ClientHelloFixture.sslV2(0x0301, specs, 16, 32));
+
+		assertArrayEquals(specs, withSessionId.getCipherSuiteCodes());
+	}
+
+	@Test
+	public void testPartOfArray() {
+		byte[] hello = ClientHelloFixture.sslV2(0x0301, new int[]{0x00C02F}, 0, 16);
+		byte[] padded = new byte[hello.length + 10];
+		System.arraycopy(hello, 0, padded, 5, hello.length);
+
+		ClientHello clientHello = new ClientHello(padded, 5, hello.length);
+		assertTrue(clientHello.isSslV2Compatible());
+		assertArrayEquals(new int[]{0xC02F}, clientHello.getCipherSuiteCodes());
+	}
+
+	@Test
+	public void testCipherSpecsOfWrongLength() {
+		byte[] hello = ClientHelloFixture.sslV2(0x0301, new int[]{RC4_128_WITH_MD5, 0x00002F}, 0, 16);
+		hello[CIPHER_SPECS_LENGTH_OFFSET + 1] = 5;
+
+		assertMalformed(hello);
+	}
+
+	@Test
+	public void testCipherSpecsOverrun() {
+		byte[] hello = ClientHelloFixture.sslV2(0x0301, new int[]{RC4_128_WITH_MD5, 0x00002F}, 0, 16);
+		hello[CIPHER_SPECS_LENGTH_OFFSET] = 0x01; //262 bytes
+
+		assertMalformed(hello);
+	}
+
+	@Test
+	public void testTruncated() {
+		byte[] hello = ClientHelloFixture.sslV2(0x0301, new int[]{RC4_128_WITH_MD5, 0x00002F}, 0, 16);
+
+		assertMalformed(Arrays.copyOf(hello, 2 + 9 + 4));
+	}
+
+	@Test
+	public void testWithoutExtensions() {
+		ClientHello clientHello = new ClientHello(ClientHelloFixture.sslV2(0x0301, new int[]{0x00C02F}, 0, 16));
+
+		assertArrayEquals(new int[0], clientHello.getExtensionTypes());
+		assertNull(clientHello.getServerName());
+		assertArrayEquals(new int[0], clientHello.getSupportedVersions());
+	}
+
+	@Test
+	public void testSupportedProtocols() {
+		ClientHello sslV2 = new ClientHello(ClientHelloFixture.sslV2(0x0002, new int[]{RC4_128_WITH_MD5}, 0, 16));
+		assertEquals(Arrays.asList(new Protocol(Protocol.Type.SSLv2)), sslV2.getSupportedProtocolsDuringHandshake());
+
+		ClientHello tls = new ClientHello(ClientHelloFixture.sslV2(0x0301, new int[]{RC4_128_WITH_MD5, 0x00002F}, 0, 16));
+		assertEquals(Arrays.asList(new Protocol(Protocol.Type.SSLv2), new Protocol(Protocol.Type.SSLv3), new Protocol(Protocol.Type.TLSv10)), tls.getSupportedProtocolsDuringHandshake());
+	}
+
+	@Test
+	public void testFingerprints() {
+		ClientHello clientHello = new ClientHello(ClientHelloFixture.sslV2(0x0002, new int[]{RC4_128_WITH_MD5, 0x00002F}, 0, 16));
+
+		assertEquals("2,65664-47,,,", clientHello.getJa3());
+		assertTrue(clientHello.getJa4().startsWith("ts2i0200"));
+	}
+}
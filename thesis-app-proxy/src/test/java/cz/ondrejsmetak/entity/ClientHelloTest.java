@@ -0,0 +1,321 @@
+package cz.ondrejsmetak.entity;
+
+import cz.ondrejsmetak.CipherSuiteRegister;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ * Tests of parsing Client Hello
+ *
+ * @author Ondřej Směták <posta@ondrejsmetak.cz>
+ */
+public class ClientHelloTest {
+
+	/**
+	 * Offset of length of session id in Client Hello built by fixture
+	 */
+	private static final int SESSION_ID_LENGTH_OFFSET = 5 + 4 + 2 + 32;
+
+	/**
+	 * Offset of length of cipher suites in Client Hello built by fixture
+	 * without session id
+	 */
+	private static final int CIPHER_SUITES_LENGTH_OFFSET = SESSION_ID_LENGTH_OFFSET + 1;
+
+	/**
+	 * Offset of length of extensions in Client Hello built by fixture without
+	 * session id and with one cipher suite
+	 */
+	private static final int EXTENSIONS_LENGTH_OFFSET = CIPHER_SUITES_LENGTH_OFFSET + 2 + 2 + 2;
+
+	private static void assertMalformed(byte[] bytes) {
+		try {
+			new ClientHello(bytes);
+			fail("Malformed Client Hello was parsed");
+		} catch (IllegalArgumentException ex) {
+			//expected
+		}
+	}
+
+	private static void setNumber(byte[] bytes, int offset, int value) {
+		bytes[offset] = (byte) (value >>> 8);
+		bytes[offset + 1] = (byte) value;
+	}
+
+	@Test
+	public void testParse() {
+		byte[] bytes = new ClientHelloFixture()
+				.sessionId(32)
+				.cipherSuites(0x1301, 0xC02F, 0x002F)
+				.serverName("example.com")
+				.supportedGroups(0x001D, 0x0017)
+				.ecPointFormats(0)
+				.signatureAlgorithms(0x0403, 0x0804)
+				.applicationProtocols("h2", "http/1.1")
+				.supportedVersions(0x0304, 0x0303)
+				.extension(ClientHello.EXTENSION_KEY_SHARE, ClientHelloFixture.vector(new byte[]{0x00, 0x1D, 0x00, 0x02, 1, 2, 0x00, 0x17, 0x00, 0x01, 3}, 2))
+				.build();
+		ClientHello clientHello = new ClientHello(bytes);
+
+		assertFalse(clientHello.isSslV2Compatible());
+		assertArrayEquals(new int[]{0x1301, 0xC02F, 0x002F}, clientHello.getCipherSuiteCodes());
+		assertArrayEquals(new int[]{0, 10, 11, 13, 16, 43, 51}, clientHello.getExtensionTypes());
+		assertEquals("example.com", clientHello.getServerName());
+		assertArrayEquals(new int[]{0x001D, 0x0017}, clientHello.getSupportedGroups());
+		assertArrayEquals(new int[]{0}, clientHello.getEcPointFormats());
+		assertArrayEquals(new int[]{0x0403, 0x0804}, clientHello.getSignatureAlgorithms());
+		assertEquals(Arrays.asList("h2", "http/1.1"), clientHello.getApplicationProtocols());
+		assertArrayEquals(new int[]{0x0304, 0x0303}, clientHello.getSupportedVersions());
+		assertArrayEquals(new int[]{0x001D, 0x0017}, clientHello.getKeyShareGroups());
+	}
+
+	@Test
+	public void testParsePartOfArray() {
+		byte[] hello = new ClientHelloFixture().cipherSuites(0xC02F).serverName("example.com").build();
+		byte[] padded = new byte[hello.length + 40];
+		Arrays.fill(padded, (byte) 0xFF);
+		System.arraycopy(hello, 0, padded, 13, hello.length);
+
+		ClientHello clientHello = new ClientHello(padded, 13, hello.length);
+		assertArrayEquals(new int[]{0xC02F}, clientHello.getCipherSuiteCodes());
+		assertEquals("example.com", clientHello.getServerName());
+		assertTrue(ClientHello.isClientHello(padded, 13, hello.length));
+		assertFalse(ClientHello.isClientHello(padded, 0, hello.length));
+	}
+
+	@Test
+	public void testWithoutExtensions() {
+		ClientHello clientHello = new ClientHello(new ClientHelloFixture().build());
+
+		assertArrayEquals(new int[0], clientHello.getExtensionTypes());
+		assertNull(clientHello.getServerName());
+		assertArrayEquals(new int[0], clientHello.getSupportedGroups());
+		assertEquals(Collections.<String>emptyList(), clientHello.getApplicationProtocols());
+	}
+
+	@Test
+	public void testWithoutCompressionMethods() {
+		byte[] hello = new ClientHelloFixture().build();
+		//very old clients end right after cipher suites
+		ClientHello clientHello = new ClientHello(hello, 0, hello.length - 2);
+
+		assertArrayEquals(new int[]{0x002F}, clientHello.getCipherSuiteCodes());
+		assertArrayEquals(new int[0], clientHello.getExtensionTypes());
+	}
+
+	@Test
+	public void testTruncatedBeforeCipherSuites() {
+		byte[] hello = new ClientHelloFixture().sessionId(32).cipherSuites(0xC02F, 0x002F).build();
+		int cipherSuitesEnd = CIPHER_SUITES_LENGTH_OFFSET + 32 + 2 + 4;
+
+		for (int length = 0; length < cipherSuitesEnd; length++) {
+			try {
+				new ClientHello(hello, 0, length);
+				fail("Client Hello truncated to " + length + " bytes was parsed");
+			} catch (IllegalArgumentException ex) {
+				//expected
+			}
+		}
+	}
+
+	@Test
+	public void testSessionIdOverrun() {
+		byte[] hello = new ClientHelloFixture().sessionId(4).build();
+		hello[SESSION_ID_LENGTH_OFFSET] = (byte) 0xFF;
+
+		assertMalformed(hello);
+	}
+
+	@Test
+	public void testCipherSuitesOverrun() {
+		byte[] hello = new ClientHelloFixture().cipherSuites(0xC02F, 0x002F).build();
+		setNumber(hello, CIPHER_SUITES_LENGTH_OFFSET, 0x1000);
+
+		assertMalformed(hello);
+	}
+
+	@Test
+	public void testCipherSuitesOfOddLength() {
+		byte[] hello = new ClientHelloFixture().cipherSuites(0xC02F, 0x002F).build();
+		setNumber(hello, CIPHER_SUITES_LENGTH_OFFSET, 3);
+
+		assertMalformed(hello);
+	}
+
+	@Test
+	public void testExtensionOverrun() {
+		byte[] hello = new ClientHelloFixture()
+				.serverName("example.com")
+				.emptyExtensions(23)
+				.build();
+		//length of extension 23 reaches beyond the end of extensions
+		setNumber(hello, hello.length - 2, 1);
+
+		ClientHello clientHello = new ClientHello(hello);
+		assertArrayEquals(new int[]{0}, clientHello.getExtensionTypes());
+		assertEquals("example.com", clientHello.getServerName());
+	}
+
+	@Test
+	public void testExtensionsOverrun() {
+		byte[] hello = new ClientHelloFixture().serverName("example.com").emptyExtensions(23).build();
+		setNumber(hello, EXTENSIONS_LENGTH_OFFSET, 0xFFFF);
+
+		ClientHello clientHello = new ClientHello(hello);
+		assertArrayEquals(new int[]{0, 23}, clientHello.getExtensionTypes());
+	}
+
+	@Test
+	public void testExtensionsBeyondMessage() {
+		byte[] hello = new ClientHelloFixture().serverName("example.com").emptyExtensions(23).build();
+		//bytes following the message are not its extensions
+		byte[] trailing = Arrays.copyOf(hello, hello.length + 4);
+		trailing[hello.length + 1] = 24;
+		setNumber(trailing, EXTENSIONS_LENGTH_OFFSET, 0xFFFF);
+
+		ClientHello clientHello = new ClientHello(trailing);
+		assertArrayEquals(new int[]{0, 23}, clientHello.getExtensionTypes());
+	}
+
+	@Test
+	public void testTruncatedExtensions() {
+		byte[] hello = new ClientHelloFixture().emptyExtensions(23).serverName("example.com").build();
+		ClientHello clientHello = new ClientHello(hello, 0, hello.length - 1);
+
+		assertArrayEquals(new int[]{23}, clientHello.getExtensionTypes());
+		assertNull(clientHello.getServerName());
+	}
+
+	@Test
+	public void testListOverrun() {
+		byte[] data = ClientHelloFixture.numbers(new int[]{0x0010, 0x001D, 0x0017}, 2); //list claims 16 bytes, 4 follow
+		ClientHello clientHello = new ClientHello(new ClientHelloFixture().extension(ClientHello.EXTENSION_SUPPORTED_GROUPS, data).build());
+
+		assertArrayEquals(new int[]{0x001D, 0x0017}, clientHello.getSupportedGroups());
+	}
+
+	@Test
+	public void testListOfOddLength() {
+		byte[] data = {0x00, 0x05, 0x04, 0x03, 0x08, 0x04, 0x06};
+		ClientHello clientHello = new ClientHello(new ClientHelloFixture().extension(ClientHello.EXTENSION_SIGNATURE_ALGORITHMS, data).build());
+
+		assertArrayEquals(new int[]{0x0403, 0x0804}, clientHello.getSignatureAlgorithms());
+	}
+
+	@Test
+	public void testShortExtensions() {
+		ClientHello clientHello = new ClientHello(new ClientHelloFixture()
+				.extension(ClientHello.EXTENSION_SERVER_NAME, new byte[]{0})
+				.extension(ClientHello.EXTENSION_SUPPORTED_GROUPS, new byte[]{0})
+				.extension(ClientHello.EXTENSION_APPLICATION_LAYER_PROTOCOL_NEGOTIATION, new byte[]{0})
+				.extension(ClientHello.EXTENSION_KEY_SHARE, new byte[]{0})
+				.extension(ClientHello.EXTENSION_EC_POINT_FORMATS, new byte[0])
+				.build());
+
+		assertNull(clientHello.getServerName());
+		assertArrayEquals(new int[0], clientHello.getSupportedGroups());
+		assertEquals(Collections.<String>emptyList(), clientHello.getApplicationProtocols());
+		assertArrayEquals(new int[0], clientHello.getKeyShareGroups());
+		assertArrayEquals(new int[0], clientHello.getEcPointFormats());
+	}
+
+	@Test
+	public void testServerNameOverrun() {
+		byte[] data = {0x00, 0x0E, 0x00, 0x00, 0x20, 'e', 'x', 'a', 'm', 'p', 'l', 'e', '.', 'c', 'o', 'm'};
+		ClientHello clientHello = new ClientHello(new ClientHelloFixture().extension(ClientHello.EXTENSION_SERVER_NAME, data).build());
+
+		assertNull(clientHello.getServerName());
+	}
+
+	@Test
+	public void testServerNameOfOtherType() {
+		byte[] data = {0x00, 0x0B, 0x01, 0x00, 0x01, 'x', 0x00, 0x00, 0x04, 'h', 'o', 's', 't'};
+		ClientHello clientHello = new ClientHello(new ClientHelloFixture().extension(ClientHello.EXTENSION_SERVER_NAME, data).build());
+
+		assertEquals("host", clientHello.getServerName());
+	}
+
+	@Test
+	public void testApplicationProtocolOverrun() {
+		byte[] data = {0x00, 0x06, 0x02, 'h', '2', 0x08, 'h', 't'};
+		ClientHello clientHello = new ClientHello(new ClientHelloFixture().extension(ClientHello.EXTENSION_APPLICATION_LAYER_PROTOCOL_NEGOTIATION, data).build());
+
+		assertEquals(Arrays.asList("h2"), clientHello.getApplicationProtocols());
+	}
+
+	@Test
+	public void testKeyShareOverrun() {
+		byte[] data = {0x00, 0x0A, 0x00, 0x1D, 0x00, 0x01, 1, 0x00, 0x17, 0x00, 0x20, 2};
+		ClientHello clientHello = new ClientHello(new ClientHelloFixture().extension(ClientHello.EXTENSION_KEY_SHARE, data).build());
+
+		assertArrayEquals(new int[]{0x001D}, clientHello.getKeyShareGroups());
+	}
+
+	@Test
+	public void testIsClientHello() {
+		byte[] hello = new ClientHelloFixture().build();
+		assertTrue(ClientHello.isClientHello(hello));
+
+		assertFalse(ClientHello.isClientHello(Arrays.copyOf(hello, 5)));
+		assertFalse(ClientHello.isClientHello("GET / HTTP/1.1\r\n".getBytes(StandardCharsets.US_ASCII)));
+
+		byte[] serverHello = hello.clone();
+		serverHello[5] = 0x02;
+		assertFalse(ClientHello.isClientHello(serverHello));
+
+		byte[] unknownVersion = hello.clone();
+		unknownVersion[1] = 0x04;
+		assertFalse(ClientHello.isClientHello(unknownVersion));
+	}
+
+	@Test
+	public void testGrease() {
+		for (int i = 0; i < 16; i++) {
+			int code = (i << 12) | 0x0A00 | (i << 4) | 0x0A;
+			assertTrue(Integer.toHexString(code), ClientHello.isGrease(code));
+		}
+
+		assertFalse(ClientHello.isGrease(0x0A0B));
+		assertFalse(ClientHello.isGrease(0x1A2A));
+		assertFalse(ClientHello.isGrease(0x0000));
+		assertFalse(ClientHello.isGrease(0xC02F));
+	}
+
+	@Test
+	public void testGreaseCipherSuiteIsNotAnalysed() {
+		ClientHello clientHello = new ClientHello(new ClientHelloFixture().cipherSuites(0x3A3A, 0xC02F).build());
+
+		assertArrayEquals(new int[]{0x3A3A, 0xC02F}, clientHello.getCipherSuiteCodes());
+		assertEquals(1, clientHello.getCipherSuites().size());
+		assertEquals(0xC02F, clientHello.getCipherSuites().get(0).getCode());
+		assertFalse(clientHello.isCipherSuiteOffered(new CipherSuite("3A3A", "GREASE", new Mode(Mode.Type.MUST_NOT_BE))));
+		assertTrue(clientHello.isCipherSuiteOffered(new CipherSuite("C02F", "ECDHE_RSA_AES128_GCM", new Mode(Mode.Type.MUST_NOT_BE))));
+
+		for (CipherSuite cipherSuite : CipherSuiteRegister.getInstance().getCipherSuites()) {
+			assertFalse(cipherSuite.toString(), ClientHello.isGrease(cipherSuite.getCode()));
+		}
+	}
+
+	@Test
+	public void testTlsFallbackScsv() {
+		assertTrue(new ClientHello(new ClientHelloFixture().cipherSuites(0xC02F, 0x5600).build()).isTlsFallbackScsv());
+		assertFalse(new ClientHello(new ClientHelloFixture().cipherSuites(0xC02F).build()).isTlsFallbackScsv());
+	}
+
+	@Test
+	public void testSupportedProtocols() {
+		ClientHello legacy = new ClientHello(new ClientHelloFixture().version(0x0302).build());
+		assertEquals(Arrays.asList(new Protocol(Protocol.Type.SSLv2), new Protocol(Protocol.Type.SSLv3), new Protocol(Protocol.Type.TLSv10), new Protocol(Protocol.Type.TLSv11)), legacy.getSupportedProtocolsDuringHandshake());
+
+		ClientHello modern = new ClientHello(new ClientHelloFixture().supportedVersions(0x0304, 0x0303).build());
+		assertEquals(Arrays.asList(new Protocol(Protocol.Type.TLSv12), new Protocol(Protocol.Type.TLSv13)), modern.getSupportedProtocolsDuringHandshake());
+	}
+}
@@ -0,0 +1,198 @@
+package cz.ondrejsmetak.proxy;
+
+import cz.ondrejsmetak.entity.ClientHello;
+import cz.ondrejsmetak.entity.ClientHelloFixture;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Tests of reassembling Client Hello from chunks read from client
+ *
+ * @author Ondřej Směták <posta@ondrejsmetak.cz>
+ */
+public class ClientHelloAssemblerTest {
+
+	private static ClientHelloFixture createFixture() {
+		return new ClientHelloFixture()
+				.cipherSuites(0x1301, 0x1302, 0xC02F, 0x002F)
+				.serverName("example.com")
+				.supportedGroups(0x001D, 0x0017)
+				.supportedVersions(0x0304, 0x0303);
+	}
+
+	/**
+	 * Feeds the given bytes in chunks of the given length
+	 *
+	 * @param assembler assembler
+	 * @param bytes bytes read from client
+	 * @param chunk length of chunk
+	 * @return Client Hello returned by the last chunk, other chunks must
+	 * return null
+	 */
+	private static byte[] feed(ClientHelloAssembler assembler, byte[] bytes, int chunk) {
+		byte[] done = null;
+		for (int i = 0; i < bytes.length; i += chunk) {
+			assertNull("Client Hello returned before the last chunk", done);
+			done = assembler.append(bytes, i, Math.min(chunk, bytes.length - i));
+		}
+		return done;
+	}
+
+	@Test
+	public void testWholeRecord() {
+		byte[] hello = createFixture().build();
+		ClientHelloAssembler assembler = new ClientHelloAssembler();
+
+		assertArrayEquals(hello, assembler.append(hello, 0, hello.length));
+		assertFalse(assembler.isAssembling());
+	}
+
+	@Test
+	public void testOneByteAtATime() {
+		byte[] hello = createFixture().build();
+		ClientHelloAssembler assembler = new ClientHelloAssembler();
+
+		assertArrayEquals(hello, feed(assembler, hello, 1));
+		assertFalse(assembler.isAssembling());
+		assertNull(assembler.append(hello, 0, hello.length));
+	}
+
+	@Test
+	public void testOffsetOfChunk() {
+		byte[] hello = createFixture().build();
+		byte[] padded = new byte[hello.length + 20];
+		System.arraycopy(hello, 0, padded, 7, hello.length);
+
+		assertArrayEquals(hello, new ClientHelloAssembler().append(padded, 7, hello.length));
+	}
+
+	@Test
+	public void testSplitAcrossRecords() {
+		ClientHelloFixture fixture = createFixture();
+		byte[] expected = fixture.build();
+		byte[] records = fixture.buildFragmented(2, 10, 37);
+
+		assertArrayEquals(expected, new ClientHelloAssembler().append(records, 0, records.length));
+		for (int chunk : new int[]{1, 3, 5, 64}) {
+			assertArrayEquals("chunk " + chunk, expected, feed(new ClientHelloAssembler(), records, chunk));
+		}
+	}
+
+	@Test
+	public void testSplitAcrossRecordsIsParsed() {
+		ClientHelloFixture fixture = createFixture();
+		byte[] records = fixture.buildFragmented(1, 1, 1, 1);
+		ClientHello clientHello = new ClientHello(feed(new ClientHelloAssembler(), records, 2));
+
+		assertArrayEquals(new int[]{0x1301, 0x1302, 0xC02F, 0x002F}, clientHello.getCipherSuiteCodes());
+		assertArrayEquals(new int[]{0x001D, 0x0017}, clientHello.getSupportedGroups());
+	}
+
+	@Test
+	public void testVersionOfFirstRecord() {
+		byte[] records = createFixture().recordVersion(0x0301).buildFragmented(20);
+		records[26] = 3; //header of the second record claims TLS 1.2
+		records[27] = 3;
+
+		byte[] done = new ClientHelloAssembler().append(records, 0, records.length);
+		assertArrayEquals(new byte[]{0x16, 3, 1}, Arrays.copyOf(done, 3));
+	}
+
+	@Test
+	public void testNonHandshakeRecordInterleaved() {
+		ClientHelloFixture fixture = createFixture();
+		byte[] message = fixture.handshake();
+		byte[] first = ClientHelloFixture.record(ClientHelloFixture.CONTENT_TYPE_HANDSHAKE, 0x0301, Arrays.copyOf(message, 30));
+		byte[] other = ClientHelloFixture.record(ClientHelloFixture.CONTENT_TYPE_APPLICATION_DATA, 0x0303, new byte[]{1, 2, 3});
+		byte[] rest = ClientHelloFixture.record(ClientHelloFixture.CONTENT_TYPE_HANDSHAKE, 0x0301, Arrays.copyOfRange(message, 30, message.length));
+
+		ClientHelloAssembler assembler = new ClientHelloAssembler();
+		assertNull(assembler.append(first, 0, first.length));
+		assertTrue(assembler.isAssembling());
+		assertNull(assembler.append(other, 0, other.length));
+		assertFalse(assembler.isAssembling());
+		assertNull(assembler.append(rest, 0, rest.length));
+	}
+
+	@Test
+	public void testPlainRequest() {
+		byte[] request = "GET / HTTP/1.1\r\nHost: example.com\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+		ClientHelloAssembler assembler = new ClientHelloAssembler();
+
+		assertNull(assembler.append(request, 0, request.length));
+		assertFalse(assembler.isAssembling());
+	}
+
+	@Test
+	public void testOtherHandshakeMessage() {
+		byte[] record = ClientHelloFixture.record(ClientHelloFixture.CONTENT_TYPE_HANDSHAKE, 0x0303, ClientHelloFixture.handshake(0x02, new byte[40]));
+		ClientHelloAssembler assembler = new ClientHelloAssembler();
+
+		assertNull(assembler.append(record, 0, record.length));
+		assertFalse(assembler.isAssembling());
+	}
+
+	@Test
+	public void testOversizeRecord() {
+		byte[] header = {0x16, 3, 1, (byte) 0x48, 0x01}; //18433 bytes, more than any TLS record may have
+		ClientHelloAssembler assembler = new ClientHelloAssembler();
+
+		assertNull(assembler.append(header, 0, header.length));
+		assertFalse(assembler.isAssembling());
+	}
+
+	@Test
+	public void testOversizeMessage() {
+		byte[] header = {0x16, 3, 1, 0, 4, 0x01, 0x01, 0x00, 0x01}; //body of 65537 bytes
+		ClientHelloAssembler assembler = new ClientHelloAssembler();
+
+		assertNull(assembler.append(header, 0, header.length));
+		assertFalse(assembler.isAssembling());
+	}
+
+	@Test
+	public void testMessageOfMaximalLength() {
+		byte[] message = ClientHelloFixture.handshake(ClientHelloFixture.HANDSHAKE_TYPE_CLIENT_HELLO, new byte[65536]);
+		byte[] records = new byte[0];
+		for (int offset = 0; offset < message.length; offset += 16384) {
+			byte[] record = ClientHelloFixture.record(ClientHelloFixture.CONTENT_TYPE_HANDSHAKE, 0x0301, Arrays.copyOfRange(message, offset, Math.min(message.length, offset + 16384)));
+			records = Arrays.copyOf(records, records.length + record.length);
+			System.arraycopy(record, 0, records, records.length - record.length, record.length);
+		}
+
+		byte[] done = feed(new ClientHelloAssembler(), records, 1000);
+		assertArrayEquals(message, Arrays.copyOfRange(done, 5, done.length));
+	}
+
+	@Test
+	public void testSslV2Hello() {
+		byte[] hello = ClientHelloFixture.sslV2(0x0301, new int[]{0x010080, 0x00002F}, 0, 16);
+
+		assertArrayEquals(hello, feed(new ClientHelloAssembler(), hello, 1));
+		assertArrayEquals(hello, new ClientHelloAssembler().append(hello, 0, hello.length));
+	}
+
+	@Test
+	public void testSslV2HelloFollowedByData() {
+		byte[] hello = ClientHelloFixture.sslV2(0x0002, new int[]{0x010080}, 0, 16);
+		byte[] chunk = Arrays.copyOf(hello, hello.length + 10);
+
+		ClientHelloAssembler assembler = new ClientHelloAssembler();
+		assertArrayEquals(hello, assembler.append(chunk, 0, chunk.length));
+		assertFalse(assembler.isAssembling());
+	}
+
+	@Test
+	public void testSslV2OtherMessage() {
+		byte[] record = {(byte) 0x80, 0x05, 0x04, 0, 0, 0, 0};
+		ClientHelloAssembler assembler = new ClientHelloAssembler();
+
+		assertNull(assembler.append(record, 0, record.length));
+		assertFalse(assembler.isAssembling());
+	}
+}
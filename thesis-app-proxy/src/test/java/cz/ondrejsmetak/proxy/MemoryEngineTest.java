@@ -0,0 +1,168 @@
+package cz.ondrejsmetak.proxy;
+
+import cz.ondrejsmetak.ConfigurationRegister;
+import cz.ondrejsmetak.ProxyServer;
+import cz.ondrejsmetak.ReportRegister;
+import cz.ondrejsmetak.entity.ClientHello;
+import cz.ondrejsmetak.entity.ClientHelloFixture;
+import cz.ondrejsmetak.entity.ReportClientHello;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of capture path driven by in-memory engine, without any socket.
+ * Bytes are forwarded by the same pumps as in blocking engine.
+ *
+ * @author Ondřej Směták <posta@ondrejsmetak.cz>
+ */
+public class MemoryEngineTest {
+
+	private static final int TIMEOUT = 5000;
+
+	private ProxyServer proxy;
+	private MemoryEngine engine;
+	private int poolSize;
+
+	@Before
+	public void setUp() {
+		poolSize = ConfigurationRegister.getInstance().getUpstreamPoolSize();
+		ConfigurationRegister.getInstance().setLocalPort(2222);
+		ConfigurationRegister.getInstance().setRemoteHost("localhost");
+		ConfigurationRegister.getInstance().setRemotePort(443);
+		ConfigurationRegister.getInstance().setEngine(ConfigurationRegister.ENGINE_MEMORY);
+		ConfigurationRegister.getInstance().setUpstreamPoolSize(0); //upstream connections are accepted in order of use
+		proxy = new ProxyServer();
+		proxy.run();
+		engine = (MemoryEngine) proxy.getEngine();
+	}
+
+	@After
+	public void tearDown() {
+		proxy.stop();
+		ConfigurationRegister.getInstance().setUpstreamPoolSize(poolSize);
+	}
+
+	private static byte[] read(Connection connection, int length) throws IOException {
+		connection.setReadTimeout(TIMEOUT);
+		byte[] data = new byte[length];
+		int done = 0;
+		int read;
+		while (done < length && (read = connection.getInputStream().read(data, done, length - done)) != -1) {
+			done += read;
+		}
+		assertEquals(length, done);
+		return data;
+	}
+
+	private MemoryConnection acceptUpstream() throws IOException {
+		MemoryConnection server = engine.acceptUpstream(TIMEOUT);
+		assertNotNull("Proxy didn't connect to the remote server", server);
+		return server;
+	}
+
+	private void awaitClosed() throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TIMEOUT;
+		while (engine.getActiveCount() > 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(0, engine.getActiveCount());
+	}
+
+	private static List<ReportClientHello> getReports() {
+		return ReportRegister.getInstance().getReportsClientHello();
+	}
+
+	@Test(timeout = 20000)
+	public void testCapture() throws IOException, InterruptedException {
+		ClientHelloFixture fixture = new ClientHelloFixture().cipherSuites(0xC02F, 0x002F).serverName("example.com");
+		byte[] records = fixture.buildFragmented(30);
+		byte[] request = "GET / HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+		byte[] reply = "HTTP/1.1 200 OK\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+		int reportsBefore = getReports().size();
+
+		MemoryConnection client = engine.connect();
+		OutputStream toServer = client.getOutputStream();
+		toServer.write(records, 0, 20);
+		toServer.write(records, 20, records.length - 20);
+		toServer.write(request);
+
+		MemoryConnection server = acceptUpstream();
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		expected.write(records);
+		expected.write(request);
+		assertArrayEquals(expected.toByteArray(), read(server, expected.size()));
+		assertEquals(1, engine.getActiveCount());
+
+		assertEquals(reportsBefore + 1, getReports().size());
+		ReportClientHello report = getReports().get(getReports().size() - 1);
+		assertEquals(new ClientHello(fixture.build()).getJa4(), report.getJa4());
+
+		server.getOutputStream().write(reply);
+		assertArrayEquals(reply, read(client, reply.length));
+
+		client.close();
+		server.setReadTimeout(TIMEOUT);
+		assertEquals(-1, server.getInputStream().read());
+		server.close();
+		awaitClosed();
+	}
+
+	@Test(timeout = 20000)
+	public void testPlainRequestIsForwarded() throws IOException, InterruptedException {
+		byte[] request = "GET / HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+		int reportsBefore = getReports().size();
+
+		MemoryConnection client = engine.connect();
+		client.getOutputStream().write(request);
+
+		MemoryConnection server = acceptUpstream();
+		assertArrayEquals(request, read(server, request.length));
+		assertEquals(reportsBefore, getReports().size());
+
+		server.close();
+		client.setReadTimeout(TIMEOUT);
+		assertEquals(-1, client.getInputStream().read());
+		client.close();
+		awaitClosed();
+	}
+
+	@Test(timeout = 20000)
+	public void testMalformedClientHelloIsForwarded() throws IOException, InterruptedException {
+		byte[] hello = new ClientHelloFixture().cipherSuites(0xC02F, 0x002F).build();
+		hello[5 + 4 + 2 + 32 + 1 + 1] = 3; //odd length of cipher suites
+		int reportsBefore = getReports().size();
+
+		MemoryConnection client = engine.connect();
+		client.getOutputStream().write(hello);
+
+		MemoryConnection server = acceptUpstream();
+		assertArrayEquals(hello, read(server, hello.length));
+		assertEquals(reportsBefore, getReports().size());
+
+		client.close();
+		server.close();
+		awaitClosed();
+	}
+
+	@Test
+	public void testStopped() {
+		proxy.stop();
+
+		try {
+			engine.connect();
+			fail("Stopped engine accepted connection");
+		} catch (IOException ex) {
+			//expected
+		}
+	}
+}
@@ -0,0 +1,166 @@
+package cz.ondrejsmetak.tool;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Tests of shared wheel timer. Timer turns in real time, so upper bounds of
+ * waiting are generous.
+ *
+ * @author Ondřej Směták <posta@ondrejsmetak.cz>
+ */
+public class HashedWheelTimerTest {
+
+	/**
+	 * Duration of one turn of the wheel, 512 slots of 10 milliseconds
+	 */
+	private static final long TURN_MILLIS = 512 * 10;
+
+	/**
+	 * Timeout, that remembers, when it expired
+	 */
+	private static class Probe implements Runnable {
+
+		private final long scheduledAt = System.nanoTime();
+		private final AtomicLong expiredAt = new AtomicLong(0);
+		private final CountDownLatch expired = new CountDownLatch(1);
+
+		@Override
+		public void run() {
+			expiredAt.set(System.nanoTime());
+			expired.countDown();
+		}
+
+		private boolean await(long millis) throws InterruptedException {
+			return expired.await(millis, TimeUnit.MILLISECONDS);
+		}
+
+		private long getElapsedMillis() {
+			return TimeUnit.NANOSECONDS.toMillis(expiredAt.get() - scheduledAt);
+		}
+	}
+
+	/**
+	 * Waits until count of pending timeouts reaches the given count
+	 *
+	 * @param expected expected count
+	 */
+	private static void awaitPendingCount(int expected) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 2000;
+		while (HashedWheelTimer.getInstance().getPendingCount() != expected && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		assertEquals(expected, HashedWheelTimer.getInstance().getPendingCount());
+	}
+
+	@Test
+	public void testExpiresNotBeforeDelay() throws InterruptedException {
+		long[] delays = {0, 1, 9, 10, 11, 15, 25, 101};
+		Probe[] probes = new Probe[delays.length];
+		for (int i = 0; i < delays.length; i++) {
+			probes[i] = new Probe();
+			HashedWheelTimer.getInstance().schedule(probes[i], delays[i]);
+		}
+
+		for (int i = 0; i < delays.length; i++) {
+			assertTrue("delay " + delays[i], probes[i].await(delays[i] + 2000));
+			//precision is one tick, rounded up, so timeout never expires early
+			assertTrue("delay " + delays[i] + " expired after " + probes[i].getElapsedMillis(), probes[i].getElapsedMillis() >= delays[i]);
+		}
+	}
+
+	@Test
+	public void testOverdue() throws InterruptedException {
+		Probe probe = new Probe();
+		HashedWheelTimer.Timeout timeout = HashedWheelTimer.getInstance().schedule(probe, -1000);
+
+		assertTrue(probe.await(2000));
+		assertTrue(timeout.isExpired());
+	}
+
+	@Test
+	public void testCancel() throws InterruptedException {
+		Probe probe = new Probe();
+		HashedWheelTimer.Timeout timeout = HashedWheelTimer.getInstance().schedule(probe, 100);
+
+		assertTrue(timeout.cancel());
+		assertFalse(timeout.cancel());
+		assertTrue(timeout.isCancelled());
+
+		assertFalse(probe.await(400));
+		assertFalse(timeout.isExpired());
+	}
+
+	@Test
+	public void testCancelAfterExpiry() throws InterruptedException {
+		Probe probe = new Probe();
+		HashedWheelTimer.Timeout timeout = HashedWheelTimer.getInstance().schedule(probe, 0);
+
+		assertTrue(probe.await(2000));
+		assertFalse(timeout.cancel());
+		assertTrue(timeout.isExpired());
+		assertFalse(timeout.isCancelled());
+	}
+
+	@Test
+	public void testPendingCount() throws InterruptedException {
+		HashedWheelTimer timer = HashedWheelTimer.getInstance();
+		int before = timer.getPendingCount();
+
+		HashedWheelTimer.Timeout first = timer.schedule(new Probe(), 60000);
+		HashedWheelTimer.Timeout second = timer.schedule(new Probe(), 60000);
+		Probe probe = new Probe();
+		timer.schedule(probe, 20);
+		assertEquals(before + 3, timer.getPendingCount());
+
+		assertTrue(probe.await(2000));
+		awaitPendingCount(before + 2);
+
+		first.cancel();
+		awaitPendingCount(before + 1);
+		first.cancel();
+		second.cancel();
+		awaitPendingCount(before);
+	}
+
+	@Test
+	public void testCancelBeforePlacedIntoWheel() throws InterruptedException {
+		HashedWheelTimer timer = HashedWheelTimer.getInstance();
+		int before = timer.getPendingCount();
+
+		for (int i = 0; i < 1000; i++) {
+			timer.schedule(new Probe(), 60000).cancel();
+		}
+		awaitPendingCount(before);
+	}
+
+	@Test
+	public void testBrokenTask() throws InterruptedException {
+		HashedWheelTimer.getInstance().schedule(() -> {
+			throw new IllegalStateException("Broken task");
+		}, 0);
+		Probe probe = new Probe();
+		HashedWheelTimer.getInstance().schedule(probe, 20);
+
+		assertTrue(probe.await(2000));
+	}
+
+	@Test
+	public void testWrapAround() throws InterruptedException {
+		//slot of this timeout is passed once before it's due
+		long delay = TURN_MILLIS + 200;
+		Probe probe = new Probe();
+		HashedWheelTimer.Timeout timeout = HashedWheelTimer.getInstance().schedule(probe, delay);
+
+		assertFalse(probe.await(1000));
+		assertFalse(timeout.isExpired());
+
+		assertTrue(probe.await(delay + 2000));
+		assertTrue(probe.getElapsedMillis() >= delay);
+	}
+}